@@ -0,0 +1,63 @@
+package fi.nls.oskari.benchmark;
+
+import fi.nls.oskari.cache.Cache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In memory Cache lookups and updates. The cache is kept below its limit (overflowing logs a warning
+ * on each put) so updates add a new key and remove it. Run with "-t 4" to see contention between threads.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheBenchmark {
+
+    private static final int LIMIT = 1000;
+
+    private Cache<String> cache;
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private int counter;
+
+        String existing() {
+            return "key" + (counter++ % LIMIT);
+        }
+
+        String next() {
+            return "new" + Thread.currentThread().getId() + "_" + counter++;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        cache = new Cache<String>();
+        // room for an extra key per thread
+        cache.setLimit(LIMIT + 100);
+        for (int i = 0; i < LIMIT; ++i) {
+            cache.put("key" + i, "value" + i);
+        }
+    }
+
+    @Benchmark
+    public String getHit(Keys keys) {
+        return cache.get(keys.existing());
+    }
+
+    @Benchmark
+    public String getMiss(Keys keys) {
+        return cache.get(keys.next());
+    }
+
+    @Benchmark
+    public String putRemove(Keys keys) {
+        final String key = keys.next();
+        cache.put(key, "value");
+        return cache.remove(key);
+    }
+}
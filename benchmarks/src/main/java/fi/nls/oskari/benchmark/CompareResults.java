@@ -0,0 +1,109 @@
+package fi.nls.oskari.benchmark;
+
+import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.util.JSONHelper;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH JSON result files (written with "-rf json -rff file.json"), for example runs on
+ * master and a feature branch. Prints the score of each benchmark in both runs, the change and the
+ * normalized allocation rate when the runs were profiled with "-prof gc".
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar fi.nls.oskari.benchmark.CompareResults baseline.json candidate.json
+ */
+public class CompareResults {
+
+    private static final String ALLOC_NORM = "gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: CompareResults baseline.json candidate.json");
+            System.exit(1);
+        }
+        final Map<String, JSONObject> baseline = read(args[0]);
+        final Map<String, JSONObject> candidate = read(args[1]);
+
+        System.out.println(String.format("%-70s %14s %14s %9s %14s %14s",
+                "Benchmark", "Baseline", "Candidate", "Change", "B/op base", "B/op cand"));
+        for (Map.Entry<String, JSONObject> entry : candidate.entrySet()) {
+            final JSONObject base = baseline.get(entry.getKey());
+            final JSONObject cand = entry.getValue();
+            final double candScore = getScore(cand.optJSONObject("primaryMetric"));
+            final double baseScore = base == null ? Double.NaN : getScore(base.optJSONObject("primaryMetric"));
+            System.out.println(String.format("%-70s %14.3f %14.3f %8.1f%% %14.1f %14.1f",
+                    entry.getKey(),
+                    baseScore,
+                    candScore,
+                    (candScore - baseScore) / baseScore * 100,
+                    getAllocation(base),
+                    getAllocation(cand)));
+        }
+        System.out.println("Scores in the benchmarks' units: higher is better for thrpt, lower for sample/avgt.");
+    }
+
+    /**
+     * Maps results by benchmark name, mode and params
+     */
+    private static Map<String, JSONObject> read(final String file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        final JSONArray results;
+        try {
+            results = JSONHelper.createJSONArray(IOHelper.readString(in));
+        } finally {
+            IOHelper.close(in);
+        }
+        final Map<String, JSONObject> map = new LinkedHashMap<String, JSONObject>();
+        for (int i = 0; i < results.length(); ++i) {
+            final JSONObject result = results.optJSONObject(i);
+            map.put(getKey(result), result);
+        }
+        return map;
+    }
+
+    private static String getKey(final JSONObject result) {
+        final StringBuilder key = new StringBuilder();
+        key.append(result.optString("benchmark").replace("fi.nls.oskari.benchmark.", ""));
+        key.append(" ").append(result.optString("mode"));
+        final JSONObject params = result.optJSONObject("params");
+        if (params != null) {
+            // sorted so the key doesn't depend on the order in the file
+            final Map<String, Object> sorted = new TreeMap<String, Object>(JSONHelper.<Object>getObjectAsMap(params));
+            for (Map.Entry<String, Object> param : sorted.entrySet()) {
+                key.append(" ").append(param.getKey()).append("=").append(param.getValue());
+            }
+        }
+        return key.toString();
+    }
+
+    private static double getScore(final JSONObject metric) {
+        if (metric == null) {
+            return Double.NaN;
+        }
+        return metric.optDouble("score", Double.NaN);
+    }
+
+    private static double getAllocation(final JSONObject result) {
+        if (result == null || result.optJSONObject("secondaryMetrics") == null) {
+            return Double.NaN;
+        }
+        final JSONObject metrics = result.optJSONObject("secondaryMetrics");
+        final Iterator keys = metrics.keys();
+        while (keys.hasNext()) {
+            final String name = (String) keys.next();
+            // JMH prefixes profiler metrics with a separator char
+            if (name.endsWith(ALLOC_NORM)) {
+                return getScore(metrics.optJSONObject(name));
+            }
+        }
+        return Double.NaN;
+    }
+}
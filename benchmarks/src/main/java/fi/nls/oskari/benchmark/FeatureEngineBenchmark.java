@@ -0,0 +1,67 @@
+package fi.nls.oskari.benchmark;
+
+import fi.nls.oskari.eu.elf.recipe.buildings.ELF_MasterLoD0_Building_nls_fi_wfs_Parser;
+import fi.nls.oskari.eu.inspire.recipe.addresses.INSPIRE_AD_Address_Parser;
+import fi.nls.oskari.eu.inspire.recipe.cadastralparcels.INSPIRE_CP_CadastralParcel_Parser;
+import fi.nls.oskari.fe.engine.BasicFeatureEngine;
+import fi.nls.oskari.fe.input.format.gml.StaxGMLInputProcessor;
+import fi.nls.oskari.fe.input.format.gml.recipe.ParserRecipe;
+import fi.nls.oskari.fe.output.format.json.JsonOutputProcessor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses recorded ELF/INSPIRE WFS responses with StaxGMLInputProcessor and the feature type's recipe
+ * and writes the features with JsonOutputProcessor. The output is discarded so the results show the
+ * StAX parsing and recipe cost FEMapLayerJob pays for each response.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FeatureEngineBenchmark {
+
+    @Param({"elf-buildings", "inspire-addresses", "inspire-parcels"})
+    private String fixture;
+
+    private byte[] response;
+    private Class<? extends ParserRecipe> recipe;
+
+    @Setup
+    public void setup() throws Exception {
+        if ("elf-buildings".equals(fixture)) {
+            response = Fixtures.readBytes("/fi/nls/oskari/eu/elf/buildings/nls_fi-ELF-BU-wfs.xml");
+            recipe = ELF_MasterLoD0_Building_nls_fi_wfs_Parser.class;
+        } else if ("inspire-addresses".equals(fixture)) {
+            response = Fixtures.readBytes("/fi/nls/oskari/eu/inspire/addresses/cuzk_cz-INSPIRE-AD-Address.xml");
+            recipe = INSPIRE_AD_Address_Parser.class;
+        } else if ("inspire-parcels".equals(fixture)) {
+            response = Fixtures.readBytes("/fi/nls/oskari/eu/inspire/cadastralparcels/cuzk_cz-INSPIRE-CP-CadastralParcel.xml");
+            recipe = INSPIRE_CP_CadastralParcel_Parser.class;
+        } else {
+            throw new IllegalArgumentException("Unknown fixture: " + fixture);
+        }
+    }
+
+    @Benchmark
+    public long gmlToJson() throws Exception {
+        final StaxGMLInputProcessor input = new StaxGMLInputProcessor();
+        input.setInput(new ByteArrayInputStream(response));
+
+        final Fixtures.NullOutputStream out = new Fixtures.NullOutputStream();
+        final JsonOutputProcessor output = new JsonOutputProcessor();
+        output.setOutput(out);
+
+        // recipes keep parsing state -> new instance for each response like the jobs do
+        final BasicFeatureEngine engine = new BasicFeatureEngine();
+        engine.setRecipe(recipe.newInstance());
+        engine.setInputProcessor(input);
+        engine.setOutputProcessor(output);
+        engine.process();
+        return out.getCount();
+    }
+}
@@ -0,0 +1,51 @@
+package fi.nls.oskari.benchmark;
+
+import fi.nls.oskari.util.IOHelper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Loads recorded responses and request payloads bundled with the benchmarks.
+ */
+public class Fixtures {
+
+    public static final String SESSION = "/fi/nls/oskari/benchmark/session.json";
+    public static final String WFS_LAYER = "/fi/nls/oskari/benchmark/wfs-layer.json";
+
+    private Fixtures() {
+    }
+
+    public static byte[] readBytes(final String resource) throws IOException {
+        final InputStream in = Fixtures.class.getResourceAsStream(resource);
+        if (in == null) {
+            throw new IOException("Fixture not found: " + resource);
+        }
+        // closes the stream
+        return IOHelper.readBytes(in);
+    }
+
+    public static String readString(final String resource) throws IOException {
+        return new String(readBytes(resource), IOHelper.DEFAULT_CHARSET).trim();
+    }
+
+    /**
+     * Counts and discards output so only the serialization is measured
+     */
+    public static class NullOutputStream extends OutputStream {
+        private long count;
+
+        public long getCount() {
+            return count;
+        }
+
+        public void write(int b) {
+            count++;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
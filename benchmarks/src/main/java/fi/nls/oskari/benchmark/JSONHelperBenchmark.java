@@ -0,0 +1,47 @@
+package fi.nls.oskari.benchmark;
+
+import fi.nls.oskari.util.JSONHelper;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSONHelper calls used when handling requests and bundle configs: parsing a client message,
+ * converting it to a Map and merging a config with overrides.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JSONHelperBenchmark {
+
+    private String json;
+    private JSONObject parsed;
+    private JSONObject overrides;
+
+    @Setup
+    public void setup() throws Exception {
+        json = Fixtures.readString(Fixtures.SESSION);
+        parsed = JSONHelper.createJSONObject(json);
+        overrides = JSONHelper.createJSONObject("{\"location\":{\"zoom\":9},\"mapSize\":{\"width\":800}}");
+    }
+
+    @Benchmark
+    public JSONObject createJSONObject() {
+        return JSONHelper.createJSONObject(json);
+    }
+
+    @Benchmark
+    public Map<String, Object> getObjectAsMap() {
+        return JSONHelper.getObjectAsMap(parsed);
+    }
+
+    @Benchmark
+    public JSONObject merge() {
+        return JSONHelper.merge(parsed, overrides);
+    }
+}
@@ -0,0 +1,85 @@
+package fi.nls.oskari.benchmark;
+
+import fi.nls.oskari.util.JSONHelper;
+import fi.nls.oskari.util.JSONStreamWriter;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing a layer list like response with JSONObject.toString() to streaming it with JSONStreamWriter.
+ * Run with "-prof gc" to see the allocation rate per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JSONWriteBenchmark {
+
+    @Param({"100", "1000"})
+    private int layerCount;
+
+    private JSONObject response;
+
+    @Setup
+    public void setup() {
+        final JSONArray layers = new JSONArray();
+        for (int i = 0; i < layerCount; ++i) {
+            final JSONObject layer = new JSONObject();
+            JSONHelper.putValue(layer, "id", i);
+            JSONHelper.putValue(layer, "type", "wmslayer");
+            JSONHelper.putValue(layer, "name", "Layer \"" + i + "\" with some text");
+            JSONHelper.putValue(layer, "url", "http://example.com/wms?service=WMS&layer=" + i);
+            JSONHelper.putValue(layer, "opacity", 100);
+            JSONHelper.putValue(layer, "minScale", 5000000.0);
+            JSONHelper.putValue(layer, "maxScale", 1.5);
+            JSONHelper.putValue(layer, "geom", "POLYGON((0 0, 0 10, 10 10, 10 0, 0 0))");
+            final JSONObject permissions = new JSONObject();
+            JSONHelper.putValue(permissions, "publish", "publication_permission_ok");
+            JSONHelper.putValue(permissions, "download", "download_permission_ok");
+            JSONHelper.putValue(layer, "permissions", permissions);
+            layers.put(layer);
+        }
+        response = new JSONObject();
+        JSONHelper.putValue(response, "layers", layers);
+    }
+
+    @Benchmark
+    public long jsonObjectToString() throws IOException {
+        // what ResponseHelper used to do: build the whole String and print it
+        final NullWriter writer = new NullWriter();
+        writer.write(response.toString());
+        writer.flush();
+        return writer.count;
+    }
+
+    @Benchmark
+    public long streamed() throws IOException {
+        final NullWriter writer = new NullWriter();
+        JSONStreamWriter.write(writer, response);
+        return writer.count;
+    }
+
+    /**
+     * Counts and discards output so only the serialization is measured
+     */
+    private static class NullWriter extends Writer {
+        private long count;
+
+        public void write(char[] cbuf, int off, int len) {
+            count += len;
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package fi.nls.oskari.benchmark;
+
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.utils.AsyncLogger;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of logging calls on the calling thread. Messages are formatted like the
+ * real implementations do but not written anywhere so the results show the Logger API overhead.
+ * Run with "-prof gc" to see the allocations per call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggingBenchmark {
+
+    private Logger sync;
+    private Logger async;
+    private String payload;
+    private Integer layerId;
+
+    @Setup
+    public void setup() {
+        sync = new FormattingLogger();
+        async = new AsyncLogger("benchmark", new FormattingLogger());
+        payload = "{\"session\":\"abc\",\"layerId\":123,\"bbox\":[385000,6670000,386000,6671000],\"zoom\":8}";
+        layerId = 123;
+    }
+
+    @Benchmark
+    public void disabledVarargs() {
+        // what every call did before the fixed arity overloads
+        sync.debug(new Object[] {"Processing request", payload, layerId});
+    }
+
+    @Benchmark
+    public void disabledFixedArity() {
+        sync.debug("Processing request", payload, layerId);
+    }
+
+    @Benchmark
+    public void disabledAsync() {
+        async.debug("Processing request", payload, layerId);
+    }
+
+    @Benchmark
+    public void enabledSync() {
+        sync.info("Processing request", payload, layerId);
+    }
+
+    @Benchmark
+    public void enabledAsync() {
+        async.info("Processing request", payload, layerId);
+    }
+
+    /**
+     * Debug disabled, other levels enabled. Formats messages and discards them.
+     */
+    public static class FormattingLogger extends Logger {
+        private volatile int length;
+
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        private void write(final Object... args) {
+            length = getString(args).length();
+        }
+
+        public void debug(Throwable t, Object... args) {
+        }
+
+        public void debug(Object... args) {
+        }
+
+        public void info(Throwable t, Object... args) {
+            write(args);
+        }
+
+        public void info(Object... args) {
+            write(args);
+        }
+
+        public void warn(Throwable t, Object... args) {
+            write(args);
+        }
+
+        public void warn(Object... args) {
+            write(args);
+        }
+
+        public void error(Throwable t, Object... args) {
+            write(args);
+        }
+
+        public void error(Object... args) {
+            write(args);
+        }
+    }
+}
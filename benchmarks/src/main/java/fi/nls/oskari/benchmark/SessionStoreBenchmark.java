@@ -0,0 +1,39 @@
+package fi.nls.oskari.benchmark;
+
+import fi.nls.oskari.pojo.SessionStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session parsing and serialization. The session is parsed from the client's init message and
+ * serialized to Redis whenever the client changes the map state.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionStoreBenchmark {
+
+    private String json;
+    private SessionStore session;
+
+    @Setup
+    public void setup() throws IOException {
+        json = Fixtures.readString(Fixtures.SESSION);
+        session = SessionStore.setJSON(json);
+    }
+
+    @Benchmark
+    public SessionStore setJSON() throws IOException {
+        return SessionStore.setJSON(json);
+    }
+
+    @Benchmark
+    public String getAsJSON() {
+        return session.getAsJSON();
+    }
+}
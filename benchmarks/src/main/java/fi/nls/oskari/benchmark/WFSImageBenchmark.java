@@ -0,0 +1,76 @@
+package fi.nls.oskari.benchmark;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import fi.nls.oskari.pojo.Location;
+import fi.nls.oskari.pojo.SessionStore;
+import fi.nls.oskari.wfs.WFSImage;
+import fi.nls.oskari.wfs.WFSParser;
+import fi.nls.oskari.wfs.pojo.WFSLayerStore;
+import org.geotools.feature.FeatureCollection;
+import org.openjdk.jmh.annotations.*;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders point features to a tile with the layer's SLD style and encodes the tile as PNG like
+ * WFSMapLayerJob does for each tile request.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WFSImageBenchmark {
+
+    @Param({"100", "1000"})
+    private int featureCount;
+
+    private SessionStore session;
+    private WFSLayerStore layer;
+    private String styleName;
+    private FeatureCollection<SimpleFeatureType, SimpleFeature> features;
+    private BufferedImage image;
+
+    @Setup
+    public void setup() throws Exception {
+        session = SessionStore.setJSON(Fixtures.readString(Fixtures.SESSION));
+        layer = WFSLayerStore.setJSON(Fixtures.readString(Fixtures.WFS_LAYER));
+        styleName = session.getLayers().get(layer.getLayerId()).getStyleName();
+
+        // same random points on each run
+        final Random random = new Random(42);
+        final Location location = session.getLocation();
+        final GeometryFactory gf = new GeometryFactory();
+        final List<List<Object>> values = new ArrayList<List<Object>>();
+        for (int i = 0; i < featureCount; ++i) {
+            final List<Object> item = new ArrayList<Object>();
+            item.add("Place" + i);
+            item.add(i);
+            item.add(gf.createPoint(new Coordinate(
+                    location.getLeft() + random.nextDouble() * (location.getRight() - location.getLeft()),
+                    location.getBottom() + random.nextDouble() * (location.getTop() - location.getBottom()))));
+            values.add(item);
+        }
+        features = WFSParser.dataToSimpleFeatures("location:String,symbol:Integer,shape:Point", values);
+        image = draw();
+    }
+
+    @Benchmark
+    public BufferedImage draw() {
+        final WFSImage wfsImage = new WFSImage(layer, session.getClient(), styleName, null);
+        return wfsImage.draw(session.getTileSize(), session.getLocation(), features);
+    }
+
+    @Benchmark
+    public byte[] imageToBytes() {
+        return WFSImage.imageToBytes(image);
+    }
+}
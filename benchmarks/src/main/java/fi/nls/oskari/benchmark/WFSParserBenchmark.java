@@ -0,0 +1,79 @@
+package fi.nls.oskari.benchmark;
+
+import com.vividsolutions.jts.geom.Geometry;
+import fi.nls.oskari.wfs.WFSParser;
+import fi.nls.oskari.wfs.pojo.WFSLayerStore;
+import org.geotools.feature.FeatureCollection;
+import org.openjdk.jmh.annotations.*;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GML geometry parsing with the GeoTools parser WFSParser uses and building the feature collection
+ * that WFSImage draws. WFSParser.parse() resolves the feature type schema from the service so it
+ * isn't included here.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WFSParserBenchmark {
+
+    private static final String POINT = "<gml:Point xmlns:gml=\"http://www.opengis.net/gml\" srsDimension=\"2\" srsName=\"http://www.opengis.net/gml/srs/epsg.xml#3067\"><gml:pos>385877.0 6671637.0</gml:pos></gml:Point>";
+
+    @Param({"40", "1000"})
+    private int vertices;
+
+    private WFSParser parser;
+    private String surface;
+    private List<List<Object>> values;
+
+    @Setup
+    public void setup() throws Exception {
+        parser = new WFSParser(null, WFSLayerStore.setJSON(Fixtures.readString(Fixtures.WFS_LAYER)));
+
+        final StringBuilder posList = new StringBuilder();
+        for (int i = 0; i < vertices; ++i) {
+            final double angle = 2 * Math.PI * i / vertices;
+            posList.append(330000 + 500 * Math.cos(angle)).append(' ')
+                    .append(6822000 + 500 * Math.sin(angle)).append(' ');
+        }
+        // close the ring
+        posList.append("330500.0 6822000.0");
+        surface = "<gml:Surface xmlns:gml=\"http://www.opengis.net/gml\" srsName=\"http://www.opengis.net/gml/srs/epsg.xml#3067\">" +
+                "<gml:patches><gml:PolygonPatch><gml:exterior><gml:LinearRing><gml:posList srsDimension=\"2\">" +
+                posList +
+                "</gml:posList></gml:LinearRing></gml:exterior></gml:PolygonPatch></gml:patches></gml:Surface>";
+
+        values = new ArrayList<List<Object>>();
+        final Geometry point = parser.parseGeometry(POINT);
+        for (int i = 0; i < vertices; ++i) {
+            final List<Object> item = new ArrayList<Object>();
+            item.add("Place" + i);
+            item.add(i);
+            item.add(point);
+            values.add(item);
+        }
+    }
+
+    @Benchmark
+    public Geometry parsePoint() {
+        return parser.parseGeometry(POINT);
+    }
+
+    @Benchmark
+    public Geometry parseSurface() {
+        return parser.parseGeometry(surface);
+    }
+
+    @Benchmark
+    public FeatureCollection<SimpleFeatureType, SimpleFeature> dataToSimpleFeatures() {
+        return WFSParser.dataToSimpleFeatures("location:String,symbol:Integer,shape:Point", values);
+    }
+}
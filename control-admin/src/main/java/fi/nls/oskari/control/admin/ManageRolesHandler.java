@@ -1,6 +1,7 @@
 package fi.nls.oskari.control.admin;
 
 import fi.nls.oskari.annotation.OskariActionRoute;
+import fi.nls.oskari.annotation.OskariInit;
 import fi.nls.oskari.control.ActionDeniedException;
 import fi.nls.oskari.control.ActionException;
 import fi.nls.oskari.control.ActionParameters;
@@ -19,6 +20,7 @@ import org.json.JSONObject;
 import java.util.Collections;
 
 @OskariActionRoute("ManageRoles")
+@OskariInit(lazy = true)
 public class ManageRolesHandler extends RestActionHandler {
 
     private static final Logger log = LogFactory.getLogger(ManageRolesHandler.class);
@@ -2,6 +2,7 @@ package fi.nls.oskari.control.admin;
 
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
 import com.codahale.metrics.json.MetricsModule;
 import com.codahale.metrics.jvm.GarbageCollectorMetricSet;
 import com.codahale.metrics.jvm.MemoryUsageGaugeSet;
@@ -12,8 +13,11 @@ import fi.nls.oskari.annotation.OskariActionRoute;
 import fi.nls.oskari.control.*;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.trace.Trace;
+import fi.nls.oskari.trace.Tracer;
 import fi.nls.oskari.util.JSONHelper;
 import fi.nls.oskari.util.ResponseHelper;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.StringWriter;
@@ -24,6 +28,7 @@ public class MetricsHandler extends RestActionHandler {
 
     private static final Logger LOG = LogFactory.getLogger(MetricsHandler.class);
     private static final String KEY_METRICS = "metrics";
+    private static final String KEY_SLOW_TRACES = "slowTraces";
 
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().registerModule(
             new MetricsModule(TimeUnit.SECONDS, TimeUnit.SECONDS, true, MetricFilter.ALL));
@@ -46,6 +51,17 @@ public class MetricsHandler extends RestActionHandler {
             LOG.error(e, "Error writing metrics JSON");
         }
 
+        // metrics gathered by other modules (like scheduled job run durations)
+        for (String name : SharedMetricRegistries.names()) {
+            try {
+                StringWriter w = new StringWriter();
+                writer.writeValue(w, SharedMetricRegistries.getOrCreate(name));
+                JSONHelper.putValue(metricsJSON, name, JSONHelper.createJSONObject(w.toString()));
+            } catch (Exception e) {
+                LOG.error(e, "Error writing metrics JSON for", name);
+            }
+        }
+
         try {
             StringWriter w = new StringWriter();
             writer.writeValue(w, new MemoryUsageGaugeSet());
@@ -69,6 +85,13 @@ public class MetricsHandler extends RestActionHandler {
             LOG.error(e, "Error writing thread state metrics");
         }
 
+        // recent slow traces with stage timings, stage histograms are in the Oskari.Trace registry
+        JSONArray traces = new JSONArray();
+        for (Trace trace : Tracer.getSlowTraces()) {
+            traces.put(trace.toJSON());
+        }
+        JSONHelper.putValue(metricsJSON, KEY_SLOW_TRACES, traces);
+
         ResponseHelper.writeResponse(params, metricsJSON);
     }
 
@@ -4,6 +4,7 @@ import fi.mml.portti.domain.permissions.Permissions;
 import fi.mml.portti.service.db.permissions.PermissionsService;
 import fi.mml.portti.service.db.permissions.PermissionsServiceIbatisImpl;
 import fi.nls.oskari.annotation.OskariActionRoute;
+import fi.nls.oskari.annotation.OskariInit;
 import fi.nls.oskari.control.*;
 import fi.nls.oskari.domain.Role;
 import fi.nls.oskari.domain.User;
@@ -35,6 +36,7 @@ import java.util.List;
 import static fi.nls.oskari.control.ActionConstants.PARAM_ID;
 
 @OskariActionRoute("SystemViews")
+@OskariInit(lazy = true)
 public class SystemViewsHandler extends RestActionHandler {
 
     private Logger log = LogFactory.getLogger(SystemViewsHandler.class);
@@ -1,6 +1,7 @@
 package fi.nls.oskari.control.admin;
 
 import fi.nls.oskari.annotation.OskariActionRoute;
+import fi.nls.oskari.annotation.OskariInit;
 import fi.nls.oskari.control.*;
 import fi.nls.oskari.domain.Role;
 import fi.nls.oskari.domain.User;
@@ -17,6 +18,7 @@ import org.json.JSONObject;
 import java.util.List;
 
 @OskariActionRoute("Users")
+@OskariInit(lazy = true)
 public class UsersHandler extends RestActionHandler {
 
     private Logger log = LogFactory.getLogger(UsersHandler.class);
@@ -27,6 +27,11 @@ public class GetProxyRequestHandler extends ActionHandler {
 
 
         final String serviceKey = params.getHttpParam(PARAM_SERVICE, "");
+        if(ProxyService.isStreaming(serviceKey)) {
+            // pass the response bytes through without buffering it
+            ProxyService.proxyStream(serviceKey, params);
+            return;
+        }
         final String response = ProxyService.proxy(serviceKey, params);
         log.debug("Proxied to", serviceKey, "got:\n", response);
         ResponseHelper.writeResponse(params, response);
@@ -1,5 +1,10 @@
 package fi.nls.oskari.control.export;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import fi.nls.oskari.annotation.OskariActionRoute;
 import fi.nls.oskari.control.ActionException;
 import fi.nls.oskari.control.ActionHandler;
@@ -7,42 +12,59 @@ import fi.nls.oskari.control.ActionParameters;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.util.CSVStreamer;
+import fi.nls.oskari.util.GeoJSONStreamer;
 import fi.nls.oskari.util.PropertyUtil;
 import fi.nls.oskari.util.TabularFileStreamer;
 import fi.nls.oskari.util.XLSXStreamer;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Created by TMIKKOLAINEN on 30.12.2014.
+ *
+ * Data is read as a JSON array of rows where the first row has the column headers. The data can be
+ * sent as the "data" parameter or as the request body with content type application/json.
+ * Rows are parsed and written to the response one by one so the whole table is never in memory.
  */
 @OskariActionRoute("ExportTableFile")
 public class ExportTableFile extends ActionHandler {
     private static final String CONTENT_TYPE_CSV = "application/CSV";
     private static final String CONTENT_TYPE_XLSX = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+    private static final String CONTENT_TYPE_GEOJSON = "application/json";
+    private static final String CONTENT_TYPE_JSON_REQUEST = "application/json";
     private static final String EXTENSION_CSV = "csv";
     private static final String EXTENSION_XLSX = "xlsx";
+    private static final String EXTENSION_GEOJSON = "geojson";
     private static final String FORMAT_CSV = "CSV";
     private static final String FORMAT_XLSX = "XLSX";
+    private static final String FORMAT_GEOJSON = "GEOJSON";
     private static final Logger log = LogFactory.getLogger(ExportTableFile.class);
 
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * How the rows are transformed to columns. Decided from the header and the first data row.
+     */
+    private enum Mode {
+        // values as is
+        PLAIN,
+        // single column with JSON objects, object keys are the columns
+        REFORM,
+        // JSON objects in columns are expanded to column_key columns
+        EXPAND
+    }
+
     @Override
     public void handleAction(ActionParameters params) throws ActionException {
         final HttpServletResponse response = params.getResponse();
-        OutputStream out;
-        try {
-            out = response.getOutputStream();
-        } catch (IOException ioe) {
-            throw new ActionException(ioe.getMessage(), ioe);
-        }
         TabularFileStreamer fileStreamer;
         String fileExtension = "";
         String format = params.getRequiredParam("format");
@@ -50,8 +72,6 @@ public class ExportTableFile extends ActionHandler {
         String dataSource = params.getHttpParam("dataSource", null);
         String metadata = params.getHttpParam("metadata", null);
         String fileName = params.getHttpParam("layerName", "export").replaceAll("[^a-zA-Z0-9.-]", "_");
-        String[] headers;
-        Object[][] data;
 
         if (FORMAT_CSV.equals(format)) {
             fileStreamer = new CSVStreamer();
@@ -71,45 +91,15 @@ public class ExportTableFile extends ActionHandler {
             fileStreamer = new XLSXStreamer();
             response.setContentType(CONTENT_TYPE_XLSX);
             fileExtension = EXTENSION_XLSX;
+        } else if (FORMAT_GEOJSON.equals(format)) {
+            fileStreamer = new GeoJSONStreamer();
+            response.setContentType(CONTENT_TYPE_GEOJSON);
+            response.setCharacterEncoding("UTF-8");
+            fileExtension = EXTENSION_GEOJSON;
         } else {
             throw new ActionException("Unknown export format: \"" + format + "\"");
         }
 
-        response.setHeader( "Content-Disposition", "attachment;filename=" + fileName + "." +  fileExtension);
-
-        try {
-            int rowIndex = 0;
-            int cellIndex;
-            int maxIndex;
-            JSONArray dataArray = new JSONArray(params.getRequiredParam("data"));
-            // Reform, if objects arrays and identical structure
-            dataArray = reformIfIdenticalObjects(dataArray);
-            // if json objects in columns
-            if (hasObjectColumns(dataArray)){
-                // try to expand object columns
-                dataArray = expandObjectValues(dataArray);
-            }
-            // Get headers
-            JSONArray row = dataArray.getJSONArray(rowIndex);
-            rowIndex++;
-            headers = new String[row.length()];
-            for (cellIndex = 0; cellIndex < headers.length; cellIndex++) {
-                headers[cellIndex] = row.getString(cellIndex);
-            }
-            // Get data
-            data = new Object[dataArray.length() - 1][headers.length];
-            for (; rowIndex < dataArray.length(); rowIndex++) {
-                row = dataArray.getJSONArray(rowIndex);
-                maxIndex = Math.min(headers.length, row.length());
-                for (cellIndex = 0; cellIndex < maxIndex; cellIndex++) {
-                    Object tmp = row.get(cellIndex);
-                    Object[] rowArr = data[rowIndex - 1];
-                    rowArr[cellIndex] = tmp;
-                }
-            }
-        } catch (JSONException je) {
-            throw new ActionException(je.getMessage(), je);
-        }
         Map<String, Object> additionalFields = new HashMap<String, Object>();
         if (dataSource != null) {
             String[] datas = dataSource.split(":");
@@ -122,143 +112,137 @@ public class ExportTableFile extends ActionHandler {
             }
         }
 
-        try {
-            fileStreamer.writeToStream(headers, data, additionalFields, out);
+        try (JsonParser parser = createParser(params)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY || parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new ActionException("Data should be an array of rows starting with the headers");
+            }
+            final List<Object> headerRow = readRow(parser);
+            List<Object> row = nextRow(parser);
+
+            final Mode mode = getMode(headerRow, row);
+            final List<List<Object>> columnKeys = getColumnKeys(mode, headerRow, row);
+            final String[] headers = getHeaders(mode, headerRow, columnKeys);
+
+            response.setHeader("Content-Disposition", "attachment;filename=" + fileName + "." + fileExtension);
+            fileStreamer.start(headers, response.getOutputStream());
+            while (row != null) {
+                fileStreamer.writeRow(toCells(row, columnKeys, headers.length));
+                row = nextRow(parser);
+            }
+            fileStreamer.end(additionalFields);
+        } catch (JsonProcessingException je) {
+            throw new ActionException("Couldn't parse export data: " + je.getMessage(), je);
         } catch (IOException ioe) {
             throw new ActionException(ioe.getMessage(), ioe);
         }
     }
 
     /**
-     * reform data, if objects arrays and identical structure
-     * Data must be in one column and column values are json objects
-     *
-     * @param data raw export data  (<Array>/<Array>)
-     * @return
+     * Reads data from request body if it's sent as JSON, otherwise from the "data" parameter
      */
-    private JSONArray reformIfIdenticalObjects(JSONArray data) {
-        if (data == null) return data;
-        int colnum = 0;
-        JSONArray dataArray = new JSONArray();
-        try {
-            JSONArray row = data.getJSONArray(0);  // header row
-            if (row == null) return data;
-            if (row.length() != 1) return data;
-
-            for (int rowIndex = 1; rowIndex < data.length(); rowIndex++) {
-                row = data.getJSONArray(rowIndex);
-                if (row == null) return data;
-                if (row.length() != 1) return data;
-                JSONArray header = new JSONArray();
-                JSONArray newdata = new JSONArray();
-                if (row.get(0) instanceof JSONObject) {
-                    Iterator<?> keys = row.getJSONObject(0).keys();
-                    while (keys.hasNext()) {
-                        String key = (String) keys.next();
-                        // Set new header row
-                        if (rowIndex == 1) {
-                            header.put(key);
-                        }
-                        newdata.put(row.getJSONObject(0).get(key).toString());
-                    }
-                    if (rowIndex == 1) {
-                        dataArray.put(header);
-                        colnum = header.length();
-                    }
-                    dataArray.put(newdata);
-                    if (newdata.length() != colnum) return data;  // must be identical row structure
-                } else {
-                    return data;
-                }
-
-            }
-            return dataArray;
-
-        } catch (Exception ioe) {
-            log.debug("Excel Export - Reforming object array failed ", ioe);
-            return data;
+    private JsonParser createParser(ActionParameters params) throws ActionException, IOException {
+        final String contentType = params.getRequest().getContentType();
+        if (contentType != null && contentType.toLowerCase().startsWith(CONTENT_TYPE_JSON_REQUEST)) {
+            return MAPPER.getFactory().createParser(params.getRequest().getInputStream());
         }
+        return MAPPER.getFactory().createParser(params.getRequiredParam("data"));
+    }
 
+    private List<Object> readRow(JsonParser parser) throws IOException {
+        return parser.readValueAs(List.class);
     }
 
     /**
-     * Expand Json objects to new columns, if there are object values in columns
-     * @param data
-     * @return
+     * @return next row or null when all the rows have been read
      */
-    private JSONArray expandObjectValues(JSONArray data) {
-        if (data == null) return data;
-        JSONArray dataArray = new JSONArray();
-        try {
-            JSONArray hrow = data.getJSONArray(0);  // header row
-            if (hrow == null) return data;
-
-            for (int rowIndex = 1; rowIndex < data.length(); rowIndex++) {
-                JSONArray row = data.getJSONArray(rowIndex);
-                if (row == null) return data;
-
-                JSONArray header = new JSONArray();
-                JSONArray newdata = new JSONArray();
-                for (int subIndex = 0; subIndex < row.length(); subIndex++) {
-                    if (row.get(subIndex) instanceof JSONObject) {
-                        Iterator<?> keys = row.getJSONObject(subIndex).keys();
-                        while (keys.hasNext()) {
-                            String key = (String) keys.next();
-                            // append new columns to header row
-                            if (rowIndex == 1) {
-                                header.put(hrow.get(subIndex)+"_"+key);
-                            }
-                            newdata.put(row.getJSONObject(subIndex).get(key).toString());
-                        }
+    private List<Object> nextRow(JsonParser parser) throws IOException {
+        final JsonToken token = parser.nextToken();
+        if (token == JsonToken.START_ARRAY) {
+            return readRow(parser);
+        }
+        if (token == JsonToken.END_ARRAY || token == null) {
+            return null;
+        }
+        throw new JsonParseException("Expected a row array, got " + token, parser.getCurrentLocation());
+    }
 
-                    } else {
-                        // Add item
-                        header.put(hrow.get(subIndex));
-                        newdata.put(row.get(subIndex));
-                    }
-                }
-                if (rowIndex == 1) {
-                    dataArray.put(header);
-                }
-                dataArray.put(newdata);
+    /**
+     * Objects arrays with identical structure are reformed to columns if the data is in one column.
+     * Otherwise object values in columns are expanded to new columns.
+     */
+    private Mode getMode(List<Object> headerRow, List<Object> firstRow) {
+        if (firstRow == null) {
+            return Mode.PLAIN;
+        }
+        if (headerRow.size() == 1 && firstRow.size() == 1 && firstRow.get(0) instanceof Map) {
+            return Mode.REFORM;
+        }
+        for (Object value : firstRow) {
+            if (value instanceof Map) {
+                return Mode.EXPAND;
             }
-            return dataArray;
-
-        } catch (Exception ioe) {
-            log.debug("Excel Export - Expanding objects failed ", ioe);
-            return data;
         }
-
+        return Mode.PLAIN;
     }
 
     /**
-     * Check if there are json object column values
-     * @param data
-     * @return
+     * Keys of the object values per column from the first row, null for columns that aren't expanded.
+     * Later rows are mapped to cells with these keys.
      */
-    private boolean hasObjectColumns(JSONArray data) {
-        if (data == null) return false;
-
-        try {
-             // 0 row is for column titles
-            for (int rowIndex = 1; rowIndex < data.length(); rowIndex++) {
-                JSONArray row = data.getJSONArray(rowIndex);
-                if (row == null) return false;
-
-                for (int subIndex = 0; subIndex < row.length(); subIndex++) {
-                    if (row.get(subIndex) instanceof JSONObject) {
-                        return true;
-                    }
-                }
+    private List<List<Object>> getColumnKeys(Mode mode, List<Object> headerRow, List<Object> firstRow) {
+        final List<List<Object>> columnKeys = new ArrayList<List<Object>>(headerRow.size());
+        for (int i = 0; i < headerRow.size(); i++) {
+            final Object value = mode != Mode.PLAIN && i < firstRow.size() ? firstRow.get(i) : null;
+            columnKeys.add(value instanceof Map ? new ArrayList<Object>(((Map) value).keySet()) : null);
+        }
+        return columnKeys;
+    }
 
+    private String[] getHeaders(Mode mode, List<Object> headerRow, List<List<Object>> columnKeys) {
+        final List<String> headers = new ArrayList<String>();
+        for (int i = 0; i < headerRow.size(); i++) {
+            final List<Object> keys = columnKeys.get(i);
+            if (keys == null) {
+                headers.add(String.valueOf(headerRow.get(i)));
+                continue;
             }
-            return false;
+            for (Object key : keys) {
+                headers.add(mode == Mode.REFORM ? String.valueOf(key) : headerRow.get(i) + "_" + key);
+            }
+        }
+        return headers.toArray(new String[headers.size()]);
+    }
 
-        } catch (Exception ioe) {
-            log.debug("Excel Export - checking object columns failed ", ioe);
-            return false;
+    /**
+     * Transforms a parsed row to cell values. Object values are mapped by key so missing or extra keys
+     * and nulls don't shift the other columns. Values past the header columns are dropped.
+     */
+    private Object[] toCells(List<Object> row, List<List<Object>> columnKeys, int columnCount) throws JsonProcessingException {
+        final Object[] cells = new Object[columnCount];
+        int cellIndex = 0;
+        for (int i = 0; i < columnKeys.size(); i++) {
+            final Object value = i < row.size() ? row.get(i) : null;
+            final List<Object> keys = columnKeys.get(i);
+            if (keys == null) {
+                cells[cellIndex++] = toCellValue(value);
+                continue;
+            }
+            final Map map = value instanceof Map ? (Map) value : Collections.emptyMap();
+            for (Object key : keys) {
+                cells[cellIndex++] = toCellValue(map.get(key));
+            }
         }
+        return cells;
+    }
 
+    /**
+     * Numbers and booleans are kept typed so they are written as such, nested objects are written as JSON
+     */
+    private Object toCellValue(Object value) throws JsonProcessingException {
+        if (value instanceof Map || value instanceof Collection) {
+            return MAPPER.writeValueAsString(value);
+        }
+        return value;
     }
 
     /**
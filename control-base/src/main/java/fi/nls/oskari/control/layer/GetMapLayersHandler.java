@@ -1,15 +1,18 @@
 package fi.nls.oskari.control.layer;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import fi.mml.map.mapwindow.util.OskariLayerWorker;
 import fi.nls.oskari.annotation.OskariActionRoute;
 import fi.nls.oskari.control.ActionException;
 import fi.nls.oskari.control.ActionHandler;
 import fi.nls.oskari.control.ActionParameters;
+import fi.nls.oskari.domain.User;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.JSONStreamWriter;
 import fi.nls.oskari.util.ResponseHelper;
-import org.json.JSONArray;
-import org.json.JSONObject;
+
+import java.io.IOException;
 
 import static fi.nls.oskari.control.ActionConstants.*;
 
@@ -26,15 +29,17 @@ public class GetMapLayersHandler extends ActionHandler {
 
         final String lang = params.getHttpParam(PARAM_LANGUAGE, params.getLocale().getLanguage());
         final boolean isSecure = params.getHttpParam(PARAM_SECURE, params.getRequest().isSecure());
+        final String mapSRS = params.getHttpParam(PARAM_SRS);
+        final User user = params.getUser();
 
         log.debug("Getting layers");
-        final JSONObject layers = OskariLayerWorker.getListOfAllMapLayers(params.getUser(), lang, isSecure);
-        JSONArray list = layers.optJSONArray(OskariLayerWorker.KEY_LAYERS);
-        // transform WKT for layers now that we know SRS
-        for(int i = 0; i < list.length(); ++i) {
-            OskariLayerWorker.transformWKTGeom(list.optJSONObject(i), params.getHttpParam(PARAM_SRS));
-        }
+        // layers are written one by one as the list can be large
+        // WKT for layers is transformed to the SRS requested on the way
+        ResponseHelper.writeResponse(params, new JSONStreamWriter.Content() {
+            public void write(JsonGenerator gen) throws IOException {
+                OskariLayerWorker.writeListOfAllMapLayers(gen, user, lang, isSecure, mapSRS);
+            }
+        });
         log.debug("Got layers");
-        ResponseHelper.writeResponse(params, layers);
     }
 }
@@ -1,8 +1,11 @@
 package fi.nls.oskari.control.view;
 
 import fi.nls.oskari.annotation.OskariActionRoute;
+import fi.nls.oskari.cache.AppSetupCache;
+import fi.nls.oskari.cache.Cache;
 import fi.nls.oskari.control.*;
 import fi.nls.oskari.control.view.modifier.bundle.BundleHandler;
+import fi.nls.oskari.control.view.modifier.bundle.MapfullHandler;
 import fi.nls.oskari.control.view.modifier.param.ParamControl;
 import fi.nls.oskari.domain.Role;
 import fi.nls.oskari.domain.User;
@@ -128,6 +131,21 @@ public class GetAppSetupHandler extends ActionHandler {
         final long oldId = params.getHttpParam(PARAM_OLD_ID, -1);
         final User user = params.getUser();
         final long defaultViewId = viewService.getDefaultViewId(user);
+        final String referer = RequestHelper.getDomainFromReferer(params
+                .getHttpHeader(IOHelper.HEADER_REFERER));
+
+        final Cache<CachedAppSetup> cache = AppSetupCache.getCache();
+        final String cacheKey = getCacheKey(params, defaultViewId, oldId, referer);
+        if (cache != null && cacheKey != null) {
+            final CachedAppSetup cached = cache.get(cacheKey);
+            if (cached != null) {
+                checkAccess(cached.view, params, referer);
+                updateUsageData(cached.view);
+                writeCachedResponse(params, cached);
+                return;
+            }
+        }
+
         final View view = getView(params, defaultViewId, oldId);
 
         if (view == null) {
@@ -135,8 +153,6 @@ public class GetAppSetupHandler extends ActionHandler {
         }
         // Strictly necessary only if oldId used
         final long viewId = view.getId();
-        final String referer = RequestHelper.getDomainFromReferer(params
-                .getHttpHeader(IOHelper.HEADER_REFERER));
 
         // ignore saved state when loading:
         //   - views that are not system default views
@@ -150,64 +166,7 @@ public class GetAppSetupHandler extends ActionHandler {
                     .getCookie(COOKIE_SAVED_STATE)));
         }
 
-        // Check user/permission
-        final long creator = view.getCreator();
-        final long userId = params.getUser().getId();
-        if (view.isPublic() || creator == DEFAULT_USERID) {
-            log.info("View ID:", viewId, "created by user", creator,
-                    "is public, access granted for user with id", userId);
-        } else if (creator == userId) {
-            log.info("Creator", creator, "granted access to view with ID:",
-                    viewId);
-        } else {
-            throw new ActionDeniedException("Denied access to view with ID: "
-                    + viewId + " for user with id " + userId
-                    + " - View created by user " + creator);
-        }
-
-        if (view.getType().equals(ViewTypes.PUBLISHED)) {
-            // Check referrer
-            final String pubDomain = view.getPubDomain();
-            if(ViewHelper.isRefererDomain(referer, pubDomain)) {
-                log.info("Granted access to published view in domain:",
-                        pubDomain, "for referer", referer);
-            } else {
-                log.error("Referer: ", params.getHttpHeader("Referer"), " -> ",
-                        referer);
-                throw new ActionDeniedException(
-                        "Denied access to published view in domain: "
-                                + pubDomain + " for referer " + referer);
-            }
-
-            // Check View lock
-            if (restrictionService.isPublishedMapLocked((int) viewId)) {
-                throw new ActionDeniedException("View with id" + viewId
-                        + "is locked!");
-            }
-
-            // Check usage count -
-            // // FIXME: we cannot use the current user -> the publisher is the
-            // one we are interested in!!!!
-            /*
-private String UNRESTRICTED_USAGE_ROLE = "";
-UNRESTRICTED_USAGE_ROLE = PropertyUtil.get("view.published.usage.unrestrictedRoles");
-            if (!params.getUser().hasRole(UNRESTRICTED_USAGE_ROLE)) {
-                final List<Integer> viewIdList = new ArrayList<Integer>();
-                // get all view for view creator
-                final List<View> viewList = viewService.getViewsForUser(view
-                        .getCreator());
-                for (View v : viewList) {
-                    viewIdList.add((int) v.getId());
-                }
-                if (restrictionService.isServiceCountExceeded(viewIdList)) {
-                    throw new ActionDeniedException(
-                            "Denied access to published view" + viewId
-                                    + " - service count for user" + userId
-                                    + "exceeded!");
-                }
-            }
-            */
-        }
+        checkAccess(view, params, referer);
 
         // Update view for latest usage timestamp and opened count number
         updateUsageData(view);
@@ -290,6 +249,9 @@ UNRESTRICTED_USAGE_ROLE = PropertyUtil.get("view.published.usage.unrestrictedRol
             JSONObject appSetup = new JSONObject();
             appSetup.put(KEY_STARTUP, startupSequence);
             appSetup.put(KEY_CONFIGURATION, configuration);
+            if (cache != null && cacheKey != null) {
+                cache.put(cacheKey, new CachedAppSetup(view, appSetup.toString()));
+            }
             ResponseHelper.writeResponse(params, appSetup);
         } catch (JSONException jsonex) {
             throw new ActionException("Malformed startup sequence/config!",
@@ -297,6 +259,152 @@ UNRESTRICTED_USAGE_ROLE = PropertyUtil.get("view.published.usage.unrestrictedRol
         }
     }
 
+    /**
+     * Checks that the user can access the view.
+     * @param view
+     * @param params
+     * @param referer domain of the referer header
+     * @throws ActionException if access is denied
+     */
+    private void checkAccess(final View view, final ActionParameters params, final String referer)
+            throws ActionException {
+        final long viewId = view.getId();
+        // Check user/permission
+        final long creator = view.getCreator();
+        final long userId = params.getUser().getId();
+        if (view.isPublic() || creator == DEFAULT_USERID) {
+            log.info("View ID:", viewId, "created by user", creator,
+                    "is public, access granted for user with id", userId);
+        } else if (creator == userId) {
+            log.info("Creator", creator, "granted access to view with ID:",
+                    viewId);
+        } else {
+            throw new ActionDeniedException("Denied access to view with ID: "
+                    + viewId + " for user with id " + userId
+                    + " - View created by user " + creator);
+        }
+
+        if (view.getType().equals(ViewTypes.PUBLISHED)) {
+            // Check referrer
+            final String pubDomain = view.getPubDomain();
+            if(ViewHelper.isRefererDomain(referer, pubDomain)) {
+                log.info("Granted access to published view in domain:",
+                        pubDomain, "for referer", referer);
+            } else {
+                log.error("Referer: ", params.getHttpHeader("Referer"), " -> ",
+                        referer);
+                throw new ActionDeniedException(
+                        "Denied access to published view in domain: "
+                                + pubDomain + " for referer " + referer);
+            }
+
+            // Check View lock
+            if (restrictionService.isPublishedMapLocked((int) viewId)) {
+                throw new ActionDeniedException("View with id" + viewId
+                        + "is locked!");
+            }
+
+            // Check usage count -
+            // // FIXME: we cannot use the current user -> the publisher is the
+            // one we are interested in!!!!
+            /*
+private String UNRESTRICTED_USAGE_ROLE = "";
+UNRESTRICTED_USAGE_ROLE = PropertyUtil.get("view.published.usage.unrestrictedRoles");
+            if (!params.getUser().hasRole(UNRESTRICTED_USAGE_ROLE)) {
+                final List<Integer> viewIdList = new ArrayList<Integer>();
+                // get all view for view creator
+                final List<View> viewList = viewService.getViewsForUser(view
+                        .getCreator());
+                for (View v : viewList) {
+                    viewIdList.add((int) v.getId());
+                }
+                if (restrictionService.isServiceCountExceeded(viewIdList)) {
+                    throw new ActionDeniedException(
+                            "Denied access to published view" + viewId
+                                    + " - service count for user" + userId
+                                    + "exceeded!");
+                }
+            }
+            */
+        }
+    }
+
+    /**
+     * Returns a key for caching the app setup or null if the response can't be cached. Responses are only
+     * cached for guest users since the view and layers for logged in users are often personal. The key consists
+     * of everything the response depends on besides the user data which is overlaid when serving
+     * a cached response.
+     * @param params
+     * @param defaultViewId
+     * @param oldId
+     * @param referer
+     * @return
+     */
+    private String getCacheKey(final ActionParameters params, final long defaultViewId,
+                               final long oldId, final String referer) {
+        final User user = params.getUser();
+        if (!user.isGuest()) {
+            return null;
+        }
+        if (params.getCookie(COOKIE_SAVED_STATE) != null && !params.getHttpParam(PARAM_NO_SAVED_STATE, false)) {
+            // state from cookie might be used
+            return null;
+        }
+        final StringBuilder key = new StringBuilder();
+        key.append(params.getHttpParam(ActionConstants.PARAM_VIEW_ID, "" + defaultViewId))
+                .append('|').append(params.getHttpParam(ActionConstants.PARAM_UUID, ""))
+                .append('|').append(oldId)
+                .append('|').append(params.getLocale().getLanguage())
+                .append('|').append(isSecure(params))
+                .append('|').append(referer);
+        final Set<Long> roleIds = new TreeSet<Long>();
+        for (Role role : user.getRoles()) {
+            roleIds.add(role.getId());
+        }
+        key.append('|').append(roleIds);
+        for (String paramKey : new TreeSet<String>(paramHandlers)) {
+            final String value = params.getHttpParam(paramKey);
+            if (value != null) {
+                key.append('|').append(paramKey).append('=').append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Writes a cached app setup with user data for the current user
+     * @param params
+     * @param cached
+     * @throws ActionException
+     */
+    private void writeCachedResponse(final ActionParameters params, final CachedAppSetup cached)
+            throws ActionException {
+        final JSONObject appSetup = JSONHelper.createJSONObject(cached.response);
+        if (appSetup == null) {
+            throw new ActionException("Malformed cached startup sequence/config!");
+        }
+        final JSONObject configuration = appSetup.optJSONObject(KEY_CONFIGURATION);
+        final JSONObject mapfull = configuration == null ? null : configuration.optJSONObject(ViewModifier.BUNDLE_MAPFULL);
+        final JSONObject mapfullConfig = mapfull == null ? null : mapfull.optJSONObject(ViewModifier.KEY_CONF);
+        if (mapfullConfig != null) {
+            MapfullHandler.setUserData(mapfullConfig, params.getUser(), params.getAPIkey());
+        }
+        ResponseHelper.writeResponse(params, appSetup);
+    }
+
+    /**
+     * App setup ready to be served with the view used to check access on it.
+     */
+    private static class CachedAppSetup {
+        private final View view;
+        private final String response;
+
+        private CachedAppSetup(final View view, final String response) {
+            this.view = view;
+            this.response = response;
+        }
+    }
+
 
     private boolean updateUsageData(final View view)  {
         try {
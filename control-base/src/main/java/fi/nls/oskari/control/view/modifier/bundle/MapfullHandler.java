@@ -77,6 +77,19 @@ public class MapfullHandler extends BundleHandler {
         myPlaceService = OskariComponentManager.getComponentOfType(MyPlacesService.class);
     }
 
+    /**
+     * Writes the user data to mapfull config. Used when modifying the bundle and
+     * when serving a cached app setup.
+     * @param mapfullConfig
+     * @param user
+     * @param apikey
+     */
+    public static void setUserData(final JSONObject mapfullConfig, final User user, final String apikey) {
+        final JSONObject userJSON = user.toJSON();
+        JSONHelper.putValue(userJSON, "apikey", apikey);
+        JSONHelper.putValue(mapfullConfig, KEY_USER, userJSON);
+    }
+
     public boolean modifyBundle(final ModifierParams params) throws ModifierException {
         final JSONObject mapfullConfig = getBundleConfig(params.getConfig());
         final JSONObject mapfullState = getBundleState(params.getConfig());
@@ -97,9 +110,7 @@ public class MapfullHandler extends BundleHandler {
         }
 
         // setup user data
-        final JSONObject user = params.getUser().toJSON();
-        JSONHelper.putValue(user, "apikey", params.getActionParams().getAPIkey());
-        JSONHelper.putValue(mapfullConfig, KEY_USER, user);
+        setUserData(mapfullConfig, params.getUser(), params.getActionParams().getAPIkey());
 
         // Any layer referenced in state.selectedLayers array NEEDS to
         // be in conf.layers otherwise it cant be added to map on startup
@@ -0,0 +1,20 @@
+package fi.nls.oskari.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Implements writing a full table with the row by row methods
+ */
+public abstract class AbstractTabularFileStreamer implements TabularFileStreamer {
+
+    @Override
+    public void writeToStream(String[] headers, Object[][] data, Map<String, Object> additionalFields, OutputStream out) throws IOException {
+        start(headers, out);
+        for (Object[] row : data) {
+            writeRow(row);
+        }
+        end(additionalFields);
+    }
+}
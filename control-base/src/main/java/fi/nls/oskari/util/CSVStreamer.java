@@ -3,6 +3,7 @@ package fi.nls.oskari.util;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
@@ -12,8 +13,9 @@ import java.util.Map;
 /**
  * Created by TMIKKOLAINEN on 30.12.2014.
  */
-public class CSVStreamer implements TabularFileStreamer {
+public class CSVStreamer extends AbstractTabularFileStreamer {
     private char delimiter = ',';
+    private CSVPrinter printer;
 
     public char getDelimiter() {
         return delimiter;
@@ -24,23 +26,27 @@ public class CSVStreamer implements TabularFileStreamer {
     }
 
     @Override
-    public void writeToStream(String[] headers, Object[][] data, Map<String, Object> additionalFields, OutputStream out) throws IOException {
-        int i;
+    public void start(String[] headers, OutputStream out) throws IOException {
         // Write BOM, Excel won't use UTF-8 without it...
         out.write(239);
         out.write(187);
         out.write(191);
-        OutputStreamWriter writer = new OutputStreamWriter(out, Charset.forName("UTF-8"));
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, Charset.forName("UTF-8")));
         // We can't use .withHeader(headers) as that requires the headers to be unique
-        final CSVPrinter printer = new CSVPrinter(
+        printer = new CSVPrinter(
                 writer,
                 CSVFormat.DEFAULT.withDelimiter(getDelimiter())
         );
-        printer.printRecord(headers);
-        for (i = 0; i < data.length; i++) {
-            printer.printRecord(data[i]);
-        }
+        printer.printRecord((Object[]) headers);
+    }
+
+    @Override
+    public void writeRow(Object[] row) throws IOException {
+        printer.printRecord(row);
+    }
 
+    @Override
+    public void end(Map<String, Object> additionalFields) throws IOException {
         if (!additionalFields.isEmpty()) {
             printer.printRecord(new String[0]);
         }
@@ -48,8 +54,7 @@ public class CSVStreamer implements TabularFileStreamer {
         {
             printer.printRecord(entry.getKey(), entry.getValue());
         }
-        writer.flush();
-        writer.close();
+        printer.flush();
         printer.close();
     }
 }
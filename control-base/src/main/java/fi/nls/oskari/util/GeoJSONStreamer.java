@@ -0,0 +1,124 @@
+package fi.nls.oskari.util;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * Writes table rows as a GeoJSON FeatureCollection. Columns are written as feature properties.
+ * When the table has feature center coordinates (__centerX and __centerY columns like in
+ * the WFS feature grid) they are used as point geometries, otherwise geometry is null.
+ */
+public class GeoJSONStreamer extends AbstractTabularFileStreamer {
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final String FIELD_CENTER_X = "__centerX";
+    private static final String FIELD_CENTER_Y = "__centerY";
+
+    private JsonGenerator gen;
+    private String[] headers;
+    private int xIndex = -1;
+    private int yIndex = -1;
+
+    @Override
+    public void start(String[] headers, OutputStream out) throws IOException {
+        this.headers = headers;
+        for (int i = 0; i < headers.length; i++) {
+            if (FIELD_CENTER_X.equals(headers[i])) {
+                xIndex = i;
+            } else if (FIELD_CENTER_Y.equals(headers[i])) {
+                yIndex = i;
+            }
+        }
+        gen = FACTORY.createGenerator(out, JsonEncoding.UTF8);
+        gen.writeStartObject();
+        gen.writeStringField("type", "FeatureCollection");
+        gen.writeArrayFieldStart("features");
+    }
+
+    @Override
+    public void writeRow(Object[] row) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("type", "Feature");
+        gen.writeFieldName("geometry");
+        writePoint(getValue(row, xIndex), getValue(row, yIndex));
+        gen.writeObjectFieldStart("properties");
+        for (int i = 0; i < headers.length; i++) {
+            if (i == xIndex || i == yIndex) {
+                continue;
+            }
+            gen.writeFieldName(headers[i]);
+            writeValue(getValue(row, i));
+        }
+        gen.writeEndObject();
+        gen.writeEndObject();
+    }
+
+    @Override
+    public void end(Map<String, Object> additionalFields) throws IOException {
+        gen.writeEndArray();
+        if (!additionalFields.isEmpty()) {
+            gen.writeObjectFieldStart("metadata");
+            for (Map.Entry<String, Object> entry : additionalFields.entrySet()) {
+                gen.writeFieldName(entry.getKey());
+                writeValue(entry.getValue());
+            }
+            gen.writeEndObject();
+        }
+        gen.writeEndObject();
+        gen.close();
+    }
+
+    private static Object getValue(Object[] row, int index) {
+        if (index < 0 || index >= row.length) {
+            return null;
+        }
+        return row[index];
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof String) {
+            return ConversionHelper.getDouble((String) value, Double.NaN);
+        }
+        return Double.NaN;
+    }
+
+    private void writePoint(Object xValue, Object yValue) throws IOException {
+        final double x = toDouble(xValue);
+        final double y = toDouble(yValue);
+        if (Double.isNaN(x) || Double.isNaN(y)) {
+            gen.writeNull();
+            return;
+        }
+        gen.writeStartObject();
+        gen.writeStringField("type", "Point");
+        gen.writeArrayFieldStart("coordinates");
+        gen.writeNumber(x);
+        gen.writeNumber(y);
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            gen.writeNull();
+        } else if (value instanceof Integer || value instanceof Long) {
+            gen.writeNumber(((Number) value).longValue());
+        } else if (value instanceof BigDecimal) {
+            gen.writeNumber((BigDecimal) value);
+        } else if (value instanceof Number) {
+            gen.writeNumber(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            gen.writeBoolean((Boolean) value);
+        } else {
+            gen.writeString(value.toString());
+        }
+    }
+}
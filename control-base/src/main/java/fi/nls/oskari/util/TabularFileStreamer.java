@@ -6,7 +6,25 @@ import java.util.Map;
 
 /**
  * Created by TMIKKOLAINEN on 30.12.2014.
+ *
+ * Rows can be written one at a time with start(), writeRow() and end() so the whole table
+ * doesn't need to be in memory. Instances keep state between the calls and shouldn't be shared.
  */
 public interface TabularFileStreamer {
     public void writeToStream(String[] headers, Object[][] data, Map<String, Object> additionalFields, OutputStream out) throws IOException;
+
+    /**
+     * Starts writing a file with the given column headers
+     */
+    public void start(String[] headers, OutputStream out) throws IOException;
+
+    /**
+     * Writes a row with values in the same order as the headers
+     */
+    public void writeRow(Object[] row) throws IOException;
+
+    /**
+     * Writes the additional fields, finishes the file and closes the stream
+     */
+    public void end(Map<String, Object> additionalFields) throws IOException;
 }
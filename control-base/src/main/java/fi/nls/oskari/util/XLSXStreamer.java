@@ -3,7 +3,6 @@ package fi.nls.oskari.util;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
 import java.io.IOException;
@@ -12,48 +11,53 @@ import java.util.Map;
 
 /**
  * Created by TMIKKOLAINEN on 30.12.2014.
+ *
+ * Only the last rows (export.xlsx.rowWindow, defaults to 100) are kept in memory,
+ * older rows are flushed to a temporary file.
  */
-public class XLSXStreamer implements TabularFileStreamer {
+public class XLSXStreamer extends AbstractTabularFileStreamer {
+    private static final int ROW_WINDOW = PropertyUtil.getOptional("export.xlsx.rowWindow", 100);
+
+    private SXSSFWorkbook wb;
+    private Sheet sh;
+    private OutputStream out;
+    private int rowNum = 0;
+
     @Override
-    public void writeToStream(String[] headers, Object[][] data, Map<String, Object> additionalFields, OutputStream out) throws IOException {
-        Workbook wb = new SXSSFWorkbook();
-        Sheet sh = wb.createSheet();
-        Object[] rowArray;
-        int cellNum, rowNum = 0;
-        Row row = sh.createRow(rowNum);
-        Cell cell;
-        Object value;
-        for (cellNum = 0; cellNum < headers.length; cellNum++) {
-            cell = row.createCell(cellNum);
-            fillCell(cell, headers[cellNum]);
-        }
-        for (rowNum = 1; rowNum < data.length+1; rowNum++) {
-            rowArray = data[rowNum-1];
-            row = sh.createRow(rowNum);
-            for (cellNum = 0; cellNum < rowArray.length; cellNum++) {
-                value = rowArray[cellNum];
-                cell = row.createCell(cellNum);
-                fillCell(cell, value);
-            }
+    public void start(String[] headers, OutputStream out) throws IOException {
+        this.out = out;
+        wb = new SXSSFWorkbook(ROW_WINDOW);
+        wb.setCompressTempFiles(true);
+        sh = wb.createSheet();
+        writeRow(headers);
+    }
+
+    @Override
+    public void writeRow(Object[] rowArray) throws IOException {
+        Row row = sh.createRow(rowNum++);
+        for (int cellNum = 0; cellNum < rowArray.length; cellNum++) {
+            fillCell(row.createCell(cellNum), rowArray[cellNum]);
         }
+    }
 
+    @Override
+    public void end(Map<String, Object> additionalFields) throws IOException {
         // TODO see if additional fields can be put in metadata...
         if (!additionalFields.isEmpty()) {
-            row = sh.createRow(rowNum);
-            rowNum++;
+            sh.createRow(rowNum++);
         }
         for (Map.Entry<String, Object> entry : additionalFields.entrySet()) {
-            row = sh.createRow(rowNum);
-            cell = row.createCell(0);
-            fillCell(cell, entry.getKey());
-            cell = row.createCell(1);
-            fillCell(cell, entry.getValue());
-            rowNum++;
+            writeRow(new Object[] {entry.getKey(), entry.getValue()});
         }
 
-        wb.write(out);
-        out.flush();
-        out.close();
+        try {
+            wb.write(out);
+            out.flush();
+            out.close();
+        } finally {
+            // remove temporary files
+            wb.dispose();
+        }
     }
 
     private void fillCell(Cell cell, Object value) {
@@ -64,6 +68,7 @@ public class XLSXStreamer implements TabularFileStreamer {
             cell.setCellValue((String)value);
         } else if (value instanceof Number) {
             cell.setCellType(Cell.CELL_TYPE_NUMERIC);
+            cell.setCellValue(((Number) value).doubleValue());
         } else if (value instanceof Boolean) {
             cell.setCellType(Cell.CELL_TYPE_BOOLEAN);
             cell.setCellValue((Boolean)value);
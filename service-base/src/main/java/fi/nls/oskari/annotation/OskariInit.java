@@ -0,0 +1,31 @@
+package fi.nls.oskari.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Controls how an ActionHandler or OskariComponent is initialized on startup. Handlers/components are
+ * initialized sequentially unless oskari.startup.threads is set to use more threads. Any that need another one
+ * to be initialized first should list them in after(), the order is followed in both modes.
+ * Rarely used ones can be marked lazy so init() is called when they are first used instead of on startup.
+ * @see fi.nls.oskari.service.StartupInitializer
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface OskariInit {
+
+    /**
+     * Returns true if init should be called on first use instead of startup
+     * @return
+     */
+    boolean lazy() default false;
+
+    /**
+     * Returns classes that must be initialized before this one. Classes that aren't being initialized
+     * at the same time are ignored.
+     * @return
+     */
+    Class<?>[] after() default {};
+}
@@ -0,0 +1,37 @@
+package fi.nls.oskari.cache;
+
+import fi.nls.oskari.util.PropertyUtil;
+
+/**
+ * Holds the compiled application setups (GetAppSetup responses). Anything that changes views, layers
+ * or permissions should call flush() so modified content isn't served from cache. Other nodes in a cluster
+ * will see the change when the cached items expire ('view.appsetup.cache.seconds', defaults to 60 seconds).
+ */
+public class AppSetupCache {
+
+    public static final String CACHE_NAME = "GetAppSetup";
+    public static final String PROPERTY_EXPIRATION = "view.appsetup.cache.seconds";
+
+    private static final Cache CACHE = CacheManager.getCache(CACHE_NAME);
+
+    /**
+     * Returns the cache or null if caching has been disabled by setting the expiration to zero.
+     * @return
+     */
+    public static <T> Cache<T> getCache() {
+        final int expiration = getExpirationSeconds();
+        if (expiration <= 0) {
+            return null;
+        }
+        CACHE.setExpiration(expiration * 1000L);
+        return CACHE;
+    }
+
+    public static void flush() {
+        CACHE.flush(true);
+    }
+
+    private static int getExpirationSeconds() {
+        return PropertyUtil.getOptional(PROPERTY_EXPIRATION, 60);
+    }
+}
@@ -7,6 +7,7 @@ import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.exceptions.JedisConnectionException;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Set;
 
@@ -23,6 +24,24 @@ public class JedisManager {
 
     public static final int EXPIRY_TIME_DAY = 86400;
 
+    // deletes the lock only if it's still owned by the caller
+    private static final String SCRIPT_RELEASE_LOCK =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end";
+    // extends the expiry only if the lock is still owned by the caller
+    private static final String SCRIPT_RENEW_LOCK =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('expire', KEYS[1], ARGV[2]) else return 0 end";
+
+    /**
+     * Result of a lock attempt, see tryLock()
+     */
+    public enum LockResult {
+        ACQUIRED,
+        // someone else holds the lock
+        HELD,
+        // Redis couldn't be reached so it's unknown if someone else holds the lock
+        UNAVAILABLE
+    }
+
     /**
      * Blocking construction of instances from other classes by making constructor private
      */
@@ -296,6 +315,31 @@ public class JedisManager {
         }
     }
 
+    /**
+     * Thread-safe Long INCR for Redis
+     *
+     * @param key
+     * @return the value after the increment or null if Redis is unavailable
+     */
+    public static Long incr(String key) {
+        Jedis jedis = instance.getJedis();
+        if(jedis == null) return null;
+
+        try {
+            return jedis.incr(key);
+        } catch(JedisConnectionException e) {
+            log.error("Failed to incr", key, "returning broken connection...");
+            pool.returnBrokenResource(jedis);
+            log.error("Broken connection closed");
+            return null;
+        } catch (Exception e) {
+            log.error("Incrementing", key, "failed:", e.getMessage());
+            return null;
+        } finally {
+            instance.returnJedis(jedis);
+        }
+    }
+
     /**
      * Thread-safe Long DEL for Redis
      *
@@ -350,6 +394,106 @@ public class JedisManager {
         }
     }
 
+    /**
+     * Thread-safe lock acquisition (SET NX EX) for Redis. Can be used to make sure only one node
+     * in a cluster runs a task at a time.
+     *
+     * @param key lock key
+     * @param owner value identifying the lock owner, used when releasing the lock
+     * @param seconds expiry for the lock so a crashed owner doesn't keep it forever
+     * @return true if the lock was acquired, false if someone else holds it or Redis is unavailable
+     */
+    public static boolean acquireLock(final String key, final String owner, final int seconds) {
+        return tryLock(key, owner, seconds) == LockResult.ACQUIRED;
+    }
+
+    /**
+     * Like acquireLock() but tells apart a lock held by someone else from Redis being unavailable
+     * so the caller can decide what to do when locking isn't possible.
+     *
+     * @param key lock key
+     * @param owner value identifying the lock owner, used when releasing the lock
+     * @param seconds expiry for the lock so a crashed owner doesn't keep it forever
+     * @return result of the attempt
+     */
+    public static LockResult tryLock(final String key, final String owner, final int seconds) {
+        final Jedis jedis = instance.getJedis();
+        if(jedis == null) return LockResult.UNAVAILABLE;
+
+        try {
+            return "OK".equals(jedis.set(key, owner, "NX", "EX", seconds)) ? LockResult.ACQUIRED : LockResult.HELD;
+        } catch(JedisConnectionException e) {
+            log.error("Failed to lock", key, "returning broken connection...");
+            pool.returnBrokenResource(jedis);
+            log.error("Broken connection closed");
+            return LockResult.UNAVAILABLE;
+        } catch (Exception e) {
+            log.error("Locking", key, "on Redis failed:", e.getMessage());
+            return LockResult.UNAVAILABLE;
+        } finally {
+            instance.returnJedis(jedis);
+        }
+    }
+
+    /**
+     * Thread-safe lock renewal for Redis. Extends the expiry of a lock held by the given owner so a task
+     * running longer than the original expiry keeps the lock.
+     *
+     * @param key lock key
+     * @param owner value given when the lock was acquired
+     * @param seconds new expiry for the lock
+     * @return true if the lock is still held by the owner and was renewed
+     */
+    public static boolean renewLock(final String key, final String owner, final int seconds) {
+        final Jedis jedis = instance.getJedis();
+        if(jedis == null) return false;
+
+        try {
+            final Object result = jedis.eval(SCRIPT_RENEW_LOCK,
+                    Collections.singletonList(key), Arrays.asList(owner, String.valueOf(seconds)));
+            return Long.valueOf(1).equals(result);
+        } catch(JedisConnectionException e) {
+            log.error("Failed to renew lock", key, "returning broken connection...");
+            pool.returnBrokenResource(jedis);
+            log.error("Broken connection closed");
+            return false;
+        } catch (Exception e) {
+            log.error("Renewing lock", key, "on Redis failed:", e.getMessage());
+            return false;
+        } finally {
+            instance.returnJedis(jedis);
+        }
+    }
+
+    /**
+     * Thread-safe lock release for Redis. The lock is only removed if it's still held by the given owner
+     * (it might have expired and been acquired by someone else in the meantime).
+     *
+     * @param key lock key
+     * @param owner value given when the lock was acquired
+     * @return true if the lock was released
+     */
+    public static boolean releaseLock(final String key, final String owner) {
+        final Jedis jedis = instance.getJedis();
+        if(jedis == null) return false;
+
+        try {
+            final Object result = jedis.eval(SCRIPT_RELEASE_LOCK,
+                    Collections.singletonList(key), Collections.singletonList(owner));
+            return Long.valueOf(1).equals(result);
+        } catch(JedisConnectionException e) {
+            log.error("Failed to release lock", key, "returning broken connection...");
+            pool.returnBrokenResource(jedis);
+            log.error("Broken connection closed");
+            return false;
+        } catch (Exception e) {
+            log.error("Releasing lock", key, "on Redis failed:", e.getMessage());
+            return false;
+        } finally {
+            instance.returnJedis(jedis);
+        }
+    }
+
     /**
      * Thread-safe PUBLISH
      *
@@ -3,13 +3,29 @@ package fi.nls.oskari.log;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 
-import java.io.StringWriter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public abstract class Logger {
 
+    // classes mapped to whether they implement toString() themselves
+    private static final ConcurrentMap<Class<?>, Boolean> HAS_TO_STRING = new ConcurrentHashMap<Class<?>, Boolean>();
+
     public abstract boolean isDebugEnabled();
 
+    public boolean isInfoEnabled() {
+        return true;
+    }
+
+    public boolean isWarnEnabled() {
+        return true;
+    }
+
+    public boolean isErrorEnabled() {
+        return true;
+    }
+
     public abstract void debug(Throwable t, final Object ... args);
 
     public abstract void debug(final Object ... args);
@@ -26,6 +42,157 @@ public abstract class Logger {
 
     public abstract void error(final Object ... args);
 
+    /*
+     * Fixed arity variants so calls with few arguments don't allocate a varargs array when
+     * the level is disabled. Implementations may override these to avoid the array altogether.
+     * The Throwable only variants keep log.error(e) logging the stack trace instead of resolving to
+     * the single Object variant.
+     */
+
+    public void debug(final Throwable t) {
+        if (isDebugEnabled()) {
+            debug(t, new Object[0]);
+        }
+    }
+
+    public void debug(final Object a) {
+        if (isDebugEnabled()) {
+            debug(new Object[] {a});
+        }
+    }
+
+    public void debug(final Object a, final Object b) {
+        if (isDebugEnabled()) {
+            debug(new Object[] {a, b});
+        }
+    }
+
+    public void debug(final Object a, final Object b, final Object c) {
+        if (isDebugEnabled()) {
+            debug(new Object[] {a, b, c});
+        }
+    }
+
+    public void debug(final Throwable t, final Object a) {
+        if (isDebugEnabled()) {
+            debug(t, new Object[] {a});
+        }
+    }
+
+    public void debug(final Throwable t, final Object a, final Object b) {
+        if (isDebugEnabled()) {
+            debug(t, new Object[] {a, b});
+        }
+    }
+
+    public void info(final Throwable t) {
+        if (isInfoEnabled()) {
+            info(t, new Object[0]);
+        }
+    }
+
+    public void info(final Object a) {
+        if (isInfoEnabled()) {
+            info(new Object[] {a});
+        }
+    }
+
+    public void info(final Object a, final Object b) {
+        if (isInfoEnabled()) {
+            info(new Object[] {a, b});
+        }
+    }
+
+    public void info(final Object a, final Object b, final Object c) {
+        if (isInfoEnabled()) {
+            info(new Object[] {a, b, c});
+        }
+    }
+
+    public void info(final Throwable t, final Object a) {
+        if (isInfoEnabled()) {
+            info(t, new Object[] {a});
+        }
+    }
+
+    public void info(final Throwable t, final Object a, final Object b) {
+        if (isInfoEnabled()) {
+            info(t, new Object[] {a, b});
+        }
+    }
+
+    public void warn(final Throwable t) {
+        if (isWarnEnabled()) {
+            warn(t, new Object[0]);
+        }
+    }
+
+    public void warn(final Object a) {
+        if (isWarnEnabled()) {
+            warn(new Object[] {a});
+        }
+    }
+
+    public void warn(final Object a, final Object b) {
+        if (isWarnEnabled()) {
+            warn(new Object[] {a, b});
+        }
+    }
+
+    public void warn(final Object a, final Object b, final Object c) {
+        if (isWarnEnabled()) {
+            warn(new Object[] {a, b, c});
+        }
+    }
+
+    public void warn(final Throwable t, final Object a) {
+        if (isWarnEnabled()) {
+            warn(t, new Object[] {a});
+        }
+    }
+
+    public void warn(final Throwable t, final Object a, final Object b) {
+        if (isWarnEnabled()) {
+            warn(t, new Object[] {a, b});
+        }
+    }
+
+    public void error(final Throwable t) {
+        if (isErrorEnabled()) {
+            error(t, new Object[0]);
+        }
+    }
+
+    public void error(final Object a) {
+        if (isErrorEnabled()) {
+            error(new Object[] {a});
+        }
+    }
+
+    public void error(final Object a, final Object b) {
+        if (isErrorEnabled()) {
+            error(new Object[] {a, b});
+        }
+    }
+
+    public void error(final Object a, final Object b, final Object c) {
+        if (isErrorEnabled()) {
+            error(new Object[] {a, b, c});
+        }
+    }
+
+    public void error(final Throwable t, final Object a) {
+        if (isErrorEnabled()) {
+            error(t, new Object[] {a});
+        }
+    }
+
+    public void error(final Throwable t, final Object a, final Object b) {
+        if (isErrorEnabled()) {
+            error(t, new Object[] {a, b});
+        }
+    }
+
     /**
      * For handling ignored exceptions. In case one would sometimes want to log them.
      * @param ignored exception that is usually ignored
@@ -34,10 +201,10 @@ public abstract class Logger {
     public void ignore(final String msg, final Exception ignored) {}
 
     public String getString(final Object ... args) {
-        StringWriter w = new StringWriter();
+        StringBuilder w = new StringBuilder();
         for(Object arg: args) {
             w.append(getAsString(arg));
-            w.append(" ");
+            w.append(' ');
         }
         return w.toString();
     }
@@ -58,16 +225,21 @@ public abstract class Logger {
         if(arg == null) {
             return false;
         }
-        try {
-            final Class c = arg.getClass();
-            return c.getMethod("toString").getDeclaringClass().equals(c);
-        } catch (Exception e) {
-            return false;
+        final Class<?> c = arg.getClass();
+        Boolean hasToString = HAS_TO_STRING.get(c);
+        if(hasToString == null) {
+            try {
+                hasToString = c.getMethod("toString").getDeclaringClass().equals(c);
+            } catch (Exception e) {
+                hasToString = false;
+            }
+            HAS_TO_STRING.put(c, hasToString);
         }
+        return hasToString;
     }
 
     private String mapToString(final Map arg) {
-        StringWriter w = new StringWriter();
+        StringBuilder w = new StringBuilder();
         w.append("Map [");
         boolean isFirst = true;
         for(Object o : arg.keySet()) {
@@ -85,7 +257,7 @@ public abstract class Logger {
         return w.toString();
     }
     private String listToString(final Collection arg) {
-        StringWriter w = new StringWriter();
+        StringBuilder w = new StringBuilder();
         w.append(arg.getClass().getCanonicalName());
         w.append(" [");
         boolean isFirst = true;
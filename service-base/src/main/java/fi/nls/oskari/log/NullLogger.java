@@ -10,6 +10,18 @@ public class NullLogger extends Logger {
         return false;
     }
 
+    public boolean isInfoEnabled() {
+        return false;
+    }
+
+    public boolean isWarnEnabled() {
+        return false;
+    }
+
+    public boolean isErrorEnabled() {
+        return false;
+    }
+
     public void debug(Throwable t, final Object ... args) {
     }
     
@@ -4,6 +4,7 @@ import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manages any OskariComponents registrated on the classpath.
@@ -12,6 +13,8 @@ public class OskariComponentManager {
 
     private final static Logger log = LogFactory.getLogger(OskariComponentManager.class);
     private static final List<OskariComponent> components = new ArrayList<OskariComponent>();
+    // components waiting for init on first use
+    private static final Set<OskariComponent> uninitialized = Collections.newSetFromMap(new ConcurrentHashMap<OskariComponent, Boolean>());
 
     /**
      * Registers a OskariComponent with the given key after instantiating a class with the given className.
@@ -52,17 +55,65 @@ public class OskariComponentManager {
     }
 
     /**
-     * Uses ServiceLoader to find all OskariComponents in classpath.
+     * Uses ServiceLoader to find all OskariComponents in classpath. Components are initialized on startup
+     * (see StartupInitializer), sequentially unless oskari.startup.threads is set, in the order given by
+     * @OskariInit(after = ...) in both modes. Ones annotated with @OskariInit(lazy = true) are initialized
+     * when first requested.
      */
     public static void addDefaultComponents() {
 
         ServiceLoader<OskariComponent> impl = ServiceLoader.load(OskariComponent.class);
+        final List<OskariComponent> loaded = new ArrayList<OskariComponent>();
         for (OskariComponent loadedImpl : impl) {
             if ( loadedImpl != null ) {
-                addComponent(loadedImpl);
+                loaded.add(loadedImpl);
+            }
+        }
+        final List<OskariComponent> eager = new ArrayList<OskariComponent>();
+        for (OskariComponent comp : loaded) {
+            if (StartupInitializer.isLazy(comp)) {
+                uninitialized.add(comp);
+            } else {
+                eager.add(comp);
+            }
+        }
+        final StartupInitializer<OskariComponent> initializer = new StartupInitializer<OskariComponent>("OskariComponents",
+                new StartupInitializer.Initializer<OskariComponent>() {
+                    public void init(OskariComponent comp) {
+                        comp.init();
+                    }
+                });
+        final List<OskariComponent> initialized = initializer.initAll(eager);
+        // keep the classpath order since getComponentOfType() picks the first one
+        for (OskariComponent comp : loaded) {
+            if (uninitialized.contains(comp) || initialized.contains(comp)) {
+                components.add(comp);
+                log.debug("OskariComponent added:", comp.getClass().getCanonicalName());
             }
         }
     }
+
+    /**
+     * Calls init() for components registered for lazy init. Returns false if init failed.
+     */
+    private static boolean initIfNeeded(final OskariComponent comp) {
+        if (!uninitialized.contains(comp)) {
+            return true;
+        }
+        synchronized (comp) {
+            if (uninitialized.contains(comp)) {
+                try {
+                    comp.init();
+                } catch (Exception ex) {
+                    log.error(ex, "OskariComponent init failed!", comp.getClass().getCanonicalName());
+                    return false;
+                }
+                uninitialized.remove(comp);
+                log.debug("Lazy init done for OskariComponent:", comp.getClass().getCanonicalName());
+            }
+        }
+        return true;
+    }
     public static <MOD extends OskariComponent> MOD getComponentOfType(final Class<MOD> clazz) {
         Map<String, MOD> map = getComponentsOfType(clazz);
         // just pick the first one
@@ -81,7 +132,7 @@ public class OskariComponentManager {
         }
         final HashMap<String, MOD> mods = new HashMap<String, MOD>();
         for(OskariComponent comp : components) {
-            if(clazz.isInstance(comp)) {
+            if(clazz.isInstance(comp) && initIfNeeded(comp)) {
                 mods.put(comp.getName(), (MOD)comp);
             }
         }
@@ -89,9 +140,13 @@ public class OskariComponentManager {
     }
 
     public static void removeComponentsOfType(final Class clazz) {
-        final Map<String, OskariComponent> comps = getComponentsOfType(clazz);
-        for(OskariComponent c: comps.values()) {
-            components.remove(c);
+        final Iterator<OskariComponent> it = components.iterator();
+        while(it.hasNext()) {
+            final OskariComponent c = it.next();
+            if(clazz.isInstance(c)) {
+                it.remove();
+                uninitialized.remove(c);
+            }
         }
     }
 
@@ -100,6 +155,10 @@ public class OskariComponentManager {
      */
     public static void teardown() {
         for( OskariComponent comp : components) {
+            if (uninitialized.contains(comp)) {
+                // never initialized
+                continue;
+            }
             try {
                 comp.teardown();
             }
@@ -0,0 +1,231 @@
+package fi.nls.oskari.service;
+
+import fi.nls.oskari.annotation.OskariInit;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calls init() for a batch of handlers/components, optionally in parallel. Dependencies declared with
+ * @OskariInit(after = ...) are initialized first. Logs a report of the time spent with the slowest ones listed.
+ *
+ * Parallel init is opt-in: many handlers get their services from helpers like ServiceFactory in init() and
+ * those aren't thread-safe. Only use more threads when the initialized handlers/components are.
+ *
+ * Properties:
+ * - oskari.startup.threads=[threads used for init] (defaults to 1 for sequential)
+ * - oskari.startup.report.count=[number of slowest inits listed in the report] (defaults to 10)
+ */
+public class StartupInitializer<T> {
+
+    private static final Logger LOG = LogFactory.getLogger(StartupInitializer.class);
+
+    public static final String PROPERTY_THREADS = "oskari.startup.threads";
+    public static final String PROPERTY_REPORT_COUNT = "oskari.startup.report.count";
+
+    /**
+     * Initializes a single item. Exceptions are logged and the item is left out of the result.
+     */
+    public interface Initializer<T> {
+        void init(T item) throws Exception;
+    }
+
+    private final String name;
+    private final Initializer<T> initializer;
+
+    /**
+     * @param name name of the batch for the report like "ActionHandlers"
+     * @param initializer calls init for an item
+     */
+    public StartupInitializer(final String name, final Initializer<T> initializer) {
+        this.name = name;
+        this.initializer = initializer;
+    }
+
+    /**
+     * Checks if the item should be initialized on first use
+     * @param item
+     * @return true if the class is annotated with @OskariInit(lazy = true)
+     */
+    public static boolean isLazy(final Object item) {
+        final OskariInit conf = item.getClass().getAnnotation(OskariInit.class);
+        return conf != null && conf.lazy();
+    }
+
+    private static List<Class<?>> getDependencies(final Object item) {
+        final OskariInit conf = item.getClass().getAnnotation(OskariInit.class);
+        if (conf == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(conf.after());
+    }
+
+    /**
+     * Initializes the items
+     * @param items items to initialize
+     * @return the items that were initialized successfully in the original order
+     */
+    public List<T> initAll(final List<T> items) {
+        final int count = items.size();
+        final long start = System.nanoTime();
+        final long[] durations = new long[count];
+        final boolean[] success = new boolean[count];
+
+        // resolve dependencies between the items
+        final List<Set<Integer>> waitingFor = new ArrayList<Set<Integer>>(count);
+        final List<List<Integer>> dependents = new ArrayList<List<Integer>>(count);
+        for (int i = 0; i < count; i++) {
+            waitingFor.add(new HashSet<Integer>());
+            dependents.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < count; i++) {
+            for (Class<?> dependency : getDependencies(items.get(i))) {
+                for (int j = 0; j < count; j++) {
+                    if (i != j && dependency.isInstance(items.get(j))) {
+                        waitingFor.get(i).add(j);
+                        dependents.get(j).add(i);
+                    }
+                }
+            }
+        }
+
+        final int threads = Math.max(1, Math.min(count,
+                PropertyUtil.getOptional(PROPERTY_THREADS, 1)));
+        final ExecutorService pool = Executors.newFixedThreadPool(threads, new StartupThreadFactory(name));
+        final CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(pool);
+        final Set<Integer> pending = new HashSet<Integer>();
+        int running = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                pending.add(i);
+            }
+            for (int i = 0; i < count; i++) {
+                if (waitingFor.get(i).isEmpty()) {
+                    submit(completion, items, i, durations, success);
+                    pending.remove(i);
+                    running++;
+                }
+            }
+            while (running > 0) {
+                final int done = completion.take().get();
+                running--;
+                for (Integer dependent : dependents.get(done)) {
+                    final Set<Integer> waiting = waitingFor.get(dependent);
+                    waiting.remove(done);
+                    if (waiting.isEmpty() && pending.remove(dependent)) {
+                        submit(completion, items, dependent, durations, success);
+                        running++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn(name, "- interrupted while initializing");
+        } catch (ExecutionException e) {
+            // tasks catch their exceptions so this shouldn't happen
+            LOG.error(e, name, "- init failed");
+        } finally {
+            pool.shutdownNow();
+        }
+        if (!pending.isEmpty() && !Thread.currentThread().isInterrupted()) {
+            // circular dependencies, init the rest in the original order
+            LOG.warn(name, "- circular init dependencies, initializing sequentially:", pending.size());
+            final List<Integer> rest = new ArrayList<Integer>(pending);
+            Collections.sort(rest);
+            for (Integer i : rest) {
+                runInit(items, i, durations, success);
+            }
+        }
+
+        final List<T> result = new ArrayList<T>(count);
+        for (int i = 0; i < count; i++) {
+            if (success[i]) {
+                result.add(items.get(i));
+            }
+        }
+        report(items, durations, result.size(), System.nanoTime() - start, threads);
+        return result;
+    }
+
+    private void submit(final CompletionService<Integer> completion, final List<T> items, final int index,
+                        final long[] durations, final boolean[] success) {
+        completion.submit(new Runnable() {
+            public void run() {
+                runInit(items, index, durations, success);
+            }
+        }, index);
+    }
+
+    private void runInit(final List<T> items, final int index, final long[] durations, final boolean[] success) {
+        final T item = items.get(index);
+        final long start = System.nanoTime();
+        try {
+            initializer.init(item);
+            success[index] = true;
+        } catch (Exception ex) {
+            LOG.error(ex, name, "- init failed! Skipping", item.getClass().getCanonicalName());
+        } finally {
+            durations[index] = System.nanoTime() - start;
+        }
+    }
+
+    private void report(final List<T> items, final long[] durations, final int initialized, final long total, final int threads) {
+        final List<Integer> slowest = new ArrayList<Integer>(items.size());
+        long sum = 0;
+        for (int i = 0; i < items.size(); i++) {
+            slowest.add(i);
+            sum += durations[i];
+        }
+        Collections.sort(slowest, new Comparator<Integer>() {
+            public int compare(Integer o1, Integer o2) {
+                return Long.compare(durations[o2], durations[o1]);
+            }
+        });
+        final int reportCount = Math.min(slowest.size(), PropertyUtil.getOptional(PROPERTY_REPORT_COUNT, 10));
+        final StringBuilder slow = new StringBuilder();
+        for (int i = 0; i < reportCount; i++) {
+            final int index = slowest.get(i);
+            if (i > 0) {
+                slow.append(", ");
+            }
+            slow.append(items.get(index).getClass().getSimpleName())
+                    .append('=')
+                    .append(TimeUnit.NANOSECONDS.toMillis(durations[index]))
+                    .append("ms");
+        }
+        LOG.info(name, "- initialized", initialized, "/", items.size(), "in",
+                TimeUnit.NANOSECONDS.toMillis(total), "ms with", threads, "threads (total init time",
+                TimeUnit.NANOSECONDS.toMillis(sum), "ms). Slowest:", slow);
+    }
+
+    private static class StartupThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        StartupThreadFactory(final String name) {
+            this.prefix = "oskari-startup-" + name + "-";
+        }
+
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
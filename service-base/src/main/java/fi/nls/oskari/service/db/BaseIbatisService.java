@@ -1,11 +1,8 @@
 package fi.nls.oskari.service.db;
 
-import com.ibatis.common.resources.Resources;
 import com.ibatis.sqlmap.client.SqlMapClient;
-import com.ibatis.sqlmap.client.SqlMapClientBuilder;
 import com.ibatis.sqlmap.client.SqlMapSession;
 
-import java.io.Reader;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
@@ -26,27 +23,10 @@ public abstract class BaseIbatisService<E> implements BaseService<E> {
      * @return
      */
     protected SqlMapClient getSqlMapClient() {
-        if (client != null) {
-            return client;
-        }
-
-        Reader reader = null;
-        try {
-            String sqlMapLocation = getSqlMapLocation();
-            reader = Resources.getResourceAsReader(sqlMapLocation);
-            client = SqlMapClientBuilder.buildSqlMapClient(reader);
-            return client;
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to retrieve SQL client", e);
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            }
+        if (client == null) {
+            client = SqlMapClientRegistry.getClient(getSqlMapLocation());
         }
+        return client;
     }
 
     /**
@@ -0,0 +1,78 @@
+package fi.nls.oskari.service.db;
+
+import com.ibatis.common.resources.Resources;
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.client.SqlMapClientBuilder;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+
+import java.io.Reader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shared SqlMapClients. Building a client parses the SqlMapConfig.xml and all the sqlmaps it references
+ * so each config location is built only once and shared by all the services using it.
+ * SqlMapClient is thread-safe.
+ *
+ * Note! Transactions started with client.startTransaction() are bound to the calling thread per client, so
+ * services sharing a config location also share the transaction. Don't call other services between
+ * startTransaction() and endTransaction(), or use a session from openSession() for the transaction.
+ */
+public class SqlMapClientRegistry {
+
+    private static final Logger LOG = LogFactory.getLogger(SqlMapClientRegistry.class);
+    private static final ConcurrentMap<String, SqlMapClient> CLIENTS = new ConcurrentHashMap<String, SqlMapClient>();
+
+    private SqlMapClientRegistry() {
+        // use static methods
+    }
+
+    /**
+     * Returns a client for the config location building it on first call.
+     * @param sqlMapLocation classpath location of the SqlMapConfig.xml
+     * @return shared client
+     */
+    public static SqlMapClient getClient(final String sqlMapLocation) {
+        SqlMapClient client = CLIENTS.get(sqlMapLocation);
+        if (client != null) {
+            return client;
+        }
+        synchronized (CLIENTS) {
+            client = CLIENTS.get(sqlMapLocation);
+            if (client == null) {
+                client = build(sqlMapLocation);
+                CLIENTS.put(sqlMapLocation, client);
+            }
+            return client;
+        }
+    }
+
+    /**
+     * Removes the clients so they are built again on next call. Mostly useful for tests.
+     */
+    public static void clear() {
+        CLIENTS.clear();
+    }
+
+    private static SqlMapClient build(final String sqlMapLocation) {
+        final long start = System.currentTimeMillis();
+        Reader reader = null;
+        try {
+            reader = Resources.getResourceAsReader(sqlMapLocation);
+            final SqlMapClient client = SqlMapClientBuilder.buildSqlMapClient(reader);
+            LOG.debug("Built SqlMapClient for", sqlMapLocation, "in", System.currentTimeMillis() - start, "ms");
+            return client;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to retrieve SQL client", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+}
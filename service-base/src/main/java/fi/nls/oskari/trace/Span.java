@@ -0,0 +1,66 @@
+package fi.nls.oskari.trace;
+
+/**
+ * Timed stage of a Trace. Use with try-with-resources or call end() in a finally block:
+ *
+ *   try (Span span = Tracer.span("wfs.request")) {
+ *       ...
+ *   }
+ */
+public class Span implements AutoCloseable {
+
+    static final Span NOOP = new Span(null, null, 0) {
+        @Override
+        public void end() {
+            // not sampled
+        }
+    };
+
+    private final Trace trace;
+    private final String name;
+    private final long start;
+    private volatile long end = -1;
+
+    Span(final Trace trace, final String name, final long start) {
+        this.trace = trace;
+        this.name = name;
+        this.start = start;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return start time in nanoseconds relative to the start of the trace
+     */
+    long getOffset() {
+        return start - trace.getStartNanos();
+    }
+
+    /**
+     * @return duration in nanoseconds or -1 if the span hasn't ended
+     */
+    long getDuration() {
+        if (end < 0) {
+            return -1;
+        }
+        return end - start;
+    }
+
+    /**
+     * Marks the stage done. Calling end more than once has no effect.
+     */
+    public void end() {
+        if (end >= 0) {
+            return;
+        }
+        end = System.nanoTime();
+        Tracer.recordStage(name, end - start);
+    }
+
+    @Override
+    public void close() {
+        end();
+    }
+}
@@ -0,0 +1,117 @@
+package fi.nls.oskari.trace;
+
+import fi.nls.oskari.util.JSONHelper;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timeline of a request or a job split into stages (spans). Created with Tracer.start() and
+ * ended with finish(). Traces that weren't sampled are no-ops.
+ */
+public class Trace {
+
+    static final Trace NOOP = new Trace(null, null, null) {
+        @Override
+        public Span span(final String stage) {
+            return Span.NOOP;
+        }
+
+        @Override
+        public void finish() {
+            // not sampled
+        }
+    };
+
+    private final String id;
+    private final String name;
+    private final Trace previous;
+    private final long startTime = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final List<Span> spans = new ArrayList<Span>();
+    private volatile long duration = -1;
+
+    Trace(final String id, final String name, final Trace previous) {
+        this.id = id;
+        this.name = name;
+        this.previous = previous;
+    }
+
+    /**
+     * @return id to pass on to other services/jobs so they can continue the trace or null if not sampled
+     */
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isSampled() {
+        return this != NOOP;
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    Trace getPrevious() {
+        return previous;
+    }
+
+    /**
+     * @return duration in milliseconds or -1 if not finished
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Starts timing a stage. Stages can be timed on any thread.
+     * @param stage name of the stage like "wfs.request"
+     * @return span that must be ended
+     */
+    public Span span(final String stage) {
+        final Span span = new Span(this, stage, System.nanoTime());
+        synchronized (spans) {
+            spans.add(span);
+        }
+        return span;
+    }
+
+    /**
+     * Ends the trace and restores the trace that was current on the thread before this one started.
+     */
+    public void finish() {
+        if (duration >= 0) {
+            return;
+        }
+        duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        Tracer.finished(this);
+    }
+
+    public JSONObject toJSON() {
+        final JSONObject json = new JSONObject();
+        JSONHelper.putValue(json, "id", id);
+        JSONHelper.putValue(json, "name", name);
+        JSONHelper.putValue(json, "start", startTime);
+        JSONHelper.putValue(json, "duration", duration);
+        final JSONArray stages = new JSONArray();
+        synchronized (spans) {
+            for (Span span : spans) {
+                final JSONObject stage = new JSONObject();
+                JSONHelper.putValue(stage, "name", span.getName());
+                JSONHelper.putValue(stage, "offset", TimeUnit.NANOSECONDS.toMillis(span.getOffset()));
+                final long spanDuration = span.getDuration();
+                JSONHelper.putValue(stage, "duration", spanDuration < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(spanDuration));
+                stages.put(stage);
+            }
+        }
+        JSONHelper.putValue(json, "stages", stages);
+        return json;
+    }
+}
@@ -0,0 +1,142 @@
+package fi.nls.oskari.trace;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Lightweight tracing for finding out where time goes when handling a request. A trace is started for
+ * a request/job and the stages are timed as spans:
+ *
+ *   final Trace trace = Tracer.start("action.GetMapLayers", traceIdFromRequest);
+ *   try {
+ *       try (Span span = Tracer.span("db")) {
+ *           ...
+ *       }
+ *   } finally {
+ *       trace.finish();
+ *   }
+ *
+ * Only a sample of traces are recorded, others are no-ops. A trace with an id passed from another
+ * trace is always recorded so a sampled request is followed to the jobs it creates.
+ * Stage durations are collected to timers in the "Oskari.Trace" metrics registry and the most recent slow
+ * traces are kept in memory.
+ *
+ * Properties:
+ * - oskari.trace.sampleRate=[0.0-1.0, share of traces to record] (defaults to 0.01)
+ * - oskari.trace.slowMs=[traces taking longer are kept] (defaults to 1000)
+ * - oskari.trace.slowCount=[number of slow traces to keep] (defaults to 50)
+ */
+public class Tracer {
+
+    public static final String METRICS_REGISTRY = "Oskari.Trace";
+    public static final String HEADER_TRACE_ID = "X-Oskari-Trace-Id";
+
+    private static final double SAMPLE_RATE = PropertyUtil.getOptional("oskari.trace.sampleRate", 0.01d);
+    private static final long SLOW_MS = PropertyUtil.getOptional("oskari.trace.slowMs", 1000);
+    private static final int SLOW_COUNT = PropertyUtil.getOptional("oskari.trace.slowCount", 50);
+
+    private static final Pattern VALID_ID = Pattern.compile("[a-zA-Z0-9\\-]{1,64}");
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<Trace>();
+    private static final Deque<Trace> SLOW_TRACES = new ArrayDeque<Trace>();
+    private static final MetricRegistry METRICS = SharedMetricRegistries.getOrCreate(METRICS_REGISTRY);
+
+    private Tracer() {
+        // use static methods
+    }
+
+    /**
+     * Starts a trace if sampled
+     * @param name name for the trace like "action.GetMapLayers"
+     * @return trace that must be finished
+     */
+    public static Trace start(final String name) {
+        return start(name, null);
+    }
+
+    /**
+     * Starts a trace continuing a trace with the given id. If id is null the trace is sampled.
+     * @param name name for the trace like "transport.job"
+     * @param traceId id of the trace to continue or null
+     * @return trace that must be finished
+     */
+    public static Trace start(final String name, final String traceId) {
+        String id = null;
+        if (traceId != null && VALID_ID.matcher(traceId).matches()) {
+            id = traceId;
+        } else if (SAMPLE_RATE > 0 && ThreadLocalRandom.current().nextDouble() < SAMPLE_RATE) {
+            id = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        }
+        if (id == null) {
+            return Trace.NOOP;
+        }
+        final Trace trace = new Trace(id, name, CURRENT.get());
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    /**
+     * @return trace running on the current thread or a no-op trace
+     */
+    public static Trace current() {
+        final Trace trace = CURRENT.get();
+        return trace != null ? trace : Trace.NOOP;
+    }
+
+    /**
+     * @return id of the trace running on the current thread or null if there's no sampled trace
+     */
+    public static String currentId() {
+        return current().getId();
+    }
+
+    /**
+     * Starts timing a stage of the trace running on the current thread
+     * @param stage name for the stage like "wfs.request"
+     * @return span that must be ended
+     */
+    public static Span span(final String stage) {
+        return current().span(stage);
+    }
+
+    /**
+     * @return most recent slow traces, newest first
+     */
+    public static List<Trace> getSlowTraces() {
+        synchronized (SLOW_TRACES) {
+            return new ArrayList<Trace>(SLOW_TRACES);
+        }
+    }
+
+    static void recordStage(final String stage, final long nanos) {
+        METRICS.timer(MetricRegistry.name("stage", stage)).update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    static void finished(final Trace trace) {
+        if (CURRENT.get() == trace) {
+            if (trace.getPrevious() != null) {
+                CURRENT.set(trace.getPrevious());
+            } else {
+                CURRENT.remove();
+            }
+        }
+        METRICS.timer(MetricRegistry.name("trace", trace.getName())).update(trace.getDuration(), TimeUnit.MILLISECONDS);
+        if (trace.getDuration() < SLOW_MS) {
+            return;
+        }
+        synchronized (SLOW_TRACES) {
+            SLOW_TRACES.addFirst(trace);
+            while (SLOW_TRACES.size() > SLOW_COUNT) {
+                SLOW_TRACES.removeLast();
+            }
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package fi.nls.oskari.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.util.JsonGeneratorDelegate;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Writes JSON directly to a stream with Jackson JsonGenerator instead of building the whole
+ * document as a String first like JSONObject.toString() does. Can write org.json objects/arrays
+ * so existing code producing JSONObjects can be streamed as is. Strings and field names are escaped with
+ * JSONObject.quote() and numbers are formatted with JSONObject.numberToString() so the output matches
+ * JSONObject.toString(). Like org.json, non-finite numbers (NaN, Infinity) are not allowed: writing
+ * one throws an IOException and the output written so far is incomplete.
+ *
+ * Usage:
+ * <pre>
+ * {@code
+ *  ResponseHelper.writeResponse(params, new JSONStreamWriter.Content() {
+ *      public void write(JsonGenerator gen) throws IOException {
+ *          gen.writeStartObject();
+ *          gen.writeFieldName("layers");
+ *          ...
+ *          gen.writeEndObject();
+ *      }
+ *  });
+ * }
+ * </pre>
+ */
+public class JSONStreamWriter {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Content that writes itself to a generator
+     */
+    public interface Content {
+        void write(JsonGenerator gen) throws IOException;
+    }
+
+    private JSONStreamWriter() {}
+
+    /**
+     * @param writer
+     * @return generator escaping strings like org.json does
+     * @throws IOException
+     */
+    public static JsonGenerator createGenerator(final Writer writer) throws IOException {
+        // the writer is owned by the caller (servlet response)
+        final JsonGenerator gen = FACTORY.createGenerator(writer);
+        gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return new OrgJsonGenerator(gen);
+    }
+
+    /**
+     * Writes the value as JSON to the writer
+     * @param writer
+     * @param value JSONObject, JSONArray, Map, Collection, array or a simple value
+     * @throws IOException
+     */
+    public static void write(final Writer writer, final Object value) throws IOException {
+        final JsonGenerator gen = createGenerator(writer);
+        write(gen, value);
+        gen.flush();
+    }
+
+    /**
+     * Writes the content to the writer
+     * @param writer
+     * @param content
+     * @throws IOException
+     */
+    public static void write(final Writer writer, final Content content) throws IOException {
+        final JsonGenerator gen = createGenerator(writer);
+        content.write(gen);
+        gen.flush();
+    }
+
+    /**
+     * Writes the value as JSON with the generator
+     * @param gen generator from createGenerator() for org.json compatible output
+     * @param value JSONObject, JSONArray, Map, Collection, array or a simple value
+     * @throws IOException
+     */
+    public static void write(final JsonGenerator gen, final Object value) throws IOException {
+        if (value == null || value.equals(null)) {
+            // JSONObject.NULL equals null
+            gen.writeNull();
+        } else if (value instanceof String) {
+            gen.writeString((String) value);
+        } else if (value instanceof JSONObject) {
+            writeObject(gen, (JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            writeArray(gen, (JSONArray) value);
+        } else if (value instanceof Number) {
+            gen.writeNumber(numberToString((Number) value));
+        } else if (value instanceof Boolean) {
+            gen.writeBoolean((Boolean) value);
+        } else if (value instanceof JSONString) {
+            gen.writeRawValue(((JSONString) value).toJSONString());
+        } else if (value instanceof Map) {
+            writeMap(gen, (Map) value);
+        } else if (value instanceof Collection) {
+            writeIterator(gen, ((Collection) value).iterator());
+        } else if (value.getClass().isArray()) {
+            gen.writeStartArray();
+            final int length = Array.getLength(value);
+            for (int i = 0; i < length; ++i) {
+                write(gen, Array.get(value, i));
+            }
+            gen.writeEndArray();
+        } else {
+            gen.writeString(value.toString());
+        }
+    }
+
+    private static String numberToString(final Number value) throws IOException {
+        try {
+            return JSONObject.numberToString(value);
+        } catch (JSONException e) {
+            throw new IOException("Invalid number: " + value, e);
+        }
+    }
+
+    private static void writeObject(final JsonGenerator gen, final JSONObject json) throws IOException {
+        gen.writeStartObject();
+        final Iterator keys = json.keys();
+        while (keys.hasNext()) {
+            final String key = keys.next().toString();
+            gen.writeFieldName(key);
+            write(gen, json.opt(key));
+        }
+        gen.writeEndObject();
+    }
+
+    private static void writeArray(final JsonGenerator gen, final JSONArray json) throws IOException {
+        gen.writeStartArray();
+        final int length = json.length();
+        for (int i = 0; i < length; ++i) {
+            write(gen, json.opt(i));
+        }
+        gen.writeEndArray();
+    }
+
+    private static void writeMap(final JsonGenerator gen, final Map<?, ?> map) throws IOException {
+        gen.writeStartObject();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            gen.writeFieldName(String.valueOf(entry.getKey()));
+            write(gen, entry.getValue());
+        }
+        gen.writeEndObject();
+    }
+
+    private static void writeIterator(final JsonGenerator gen, final Iterator<?> it) throws IOException {
+        gen.writeStartArray();
+        while (it.hasNext()) {
+            write(gen, it.next());
+        }
+        gen.writeEndArray();
+    }
+
+    /**
+     * Jackson escapes differently from JSONObject.quote(): it doesn't escape "</" or
+     * U+0080-U+009F/U+2000-U+20FF and uses uppercase hex. Strings and field names are quoted with
+     * JSONObject.quote() instead.
+     */
+    private static class OrgJsonGenerator extends JsonGeneratorDelegate {
+
+        OrgJsonGenerator(final JsonGenerator gen) {
+            super(gen, false);
+        }
+
+        @Override
+        public void writeString(final String text) throws IOException {
+            if (text == null) {
+                delegate.writeNull();
+                return;
+            }
+            delegate.writeRawValue(JSONObject.quote(text));
+        }
+
+        @Override
+        public void writeString(final char[] text, final int offset, final int len) throws IOException {
+            writeString(new String(text, offset, len));
+        }
+
+        @Override
+        public void writeString(final SerializableString text) throws IOException {
+            writeString(text.getValue());
+        }
+
+        @Override
+        public void writeFieldName(final String name) throws IOException {
+            delegate.writeFieldName(new QuotedName(name));
+        }
+
+        @Override
+        public void writeFieldName(final SerializableString name) throws IOException {
+            writeFieldName(name.getValue());
+        }
+
+        @Override
+        public void writeStringField(final String fieldName, final String value) throws IOException {
+            writeFieldName(fieldName);
+            writeString(value);
+        }
+    }
+
+    /**
+     * Field name quoted with JSONObject.quote()
+     */
+    private static class QuotedName implements SerializableString {
+        private final String value;
+        private final char[] quoted;
+        private final byte[] quotedUTF8;
+
+        QuotedName(final String value) {
+            this.value = value;
+            final String str = JSONObject.quote(value);
+            // without the surrounding quotes, the generator adds them
+            quoted = str.substring(1, str.length() - 1).toCharArray();
+            quotedUTF8 = new String(quoted).getBytes(UTF8);
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public int charLength() {
+            return value.length();
+        }
+
+        public char[] asQuotedChars() {
+            return quoted.clone();
+        }
+
+        public byte[] asUnquotedUTF8() {
+            return value.getBytes(UTF8);
+        }
+
+        public byte[] asQuotedUTF8() {
+            return quotedUTF8.clone();
+        }
+
+        public int appendQuotedUTF8(final byte[] buffer, final int offset) {
+            return append(quotedUTF8, buffer, offset);
+        }
+
+        public int appendQuoted(final char[] buffer, final int offset) {
+            if (offset + quoted.length > buffer.length) {
+                return -1;
+            }
+            System.arraycopy(quoted, 0, buffer, offset, quoted.length);
+            return quoted.length;
+        }
+
+        public int appendUnquotedUTF8(final byte[] buffer, final int offset) {
+            return append(asUnquotedUTF8(), buffer, offset);
+        }
+
+        public int appendUnquoted(final char[] buffer, final int offset) {
+            if (offset + value.length() > buffer.length) {
+                return -1;
+            }
+            value.getChars(0, value.length(), buffer, offset);
+            return value.length();
+        }
+
+        public int writeQuotedUTF8(final OutputStream out) throws IOException {
+            out.write(quotedUTF8);
+            return quotedUTF8.length;
+        }
+
+        public int writeUnquotedUTF8(final OutputStream out) throws IOException {
+            final byte[] bytes = asUnquotedUTF8();
+            out.write(bytes);
+            return bytes.length;
+        }
+
+        public int putQuotedUTF8(final ByteBuffer buffer) {
+            return put(quotedUTF8, buffer);
+        }
+
+        public int putUnquotedUTF8(final ByteBuffer buffer) {
+            return put(asUnquotedUTF8(), buffer);
+        }
+
+        private static int append(final byte[] bytes, final byte[] buffer, final int offset) {
+            if (offset + bytes.length > buffer.length) {
+                return -1;
+            }
+            System.arraycopy(bytes, 0, buffer, offset, bytes.length);
+            return bytes.length;
+        }
+
+        private static int put(final byte[] bytes, final ByteBuffer buffer) {
+            if (bytes.length > buffer.remaining()) {
+                return -1;
+            }
+            buffer.put(bytes);
+            return bytes.length;
+        }
+    }
+}
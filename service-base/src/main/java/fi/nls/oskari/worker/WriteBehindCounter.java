@@ -0,0 +1,161 @@
+package fi.nls.oskari.worker;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Aggregates usage counters in memory and writes them periodically in one go using the given Flusher.
+ * Usable for statistics like view usage where writing each increment to the database would cause
+ * contention on a single row.
+ *
+ * Usage:
+ * <pre>
+ * {@code
+ *  private static final WriteBehindCounter<Long> USAGE = WriteBehindCounter.create("ViewUsage", 5000,
+ *      new WriteBehindCounter.Flusher<Long>() {
+ *          public void flush(Map<Long, WriteBehindCounter.Usage> counters) throws Exception {
+ *              // write all counters with a single batch
+ *          }
+ *      });
+ *
+ *  USAGE.increment(viewId);
+ * }
+ * </pre>
+ * Pending counters are flushed on JVM shutdown. Webapps should call flushAll() on context destroy before
+ * closing database connections.
+ */
+public class WriteBehindCounter<K> {
+
+    private static final Logger log = LogFactory.getLogger(WriteBehindCounter.class);
+    private static final ConcurrentMap<String, WriteBehindCounter> COUNTERS = new ConcurrentHashMap<String, WriteBehindCounter>();
+    private static volatile ScheduledExecutorService executor;
+
+    private final String name;
+    private final Flusher<K> flusher;
+    private Map<K, Usage> pending = new HashMap<K, Usage>();
+
+    /**
+     * Writes the aggregated counters
+     */
+    public interface Flusher<K> {
+        void flush(Map<K, Usage> counters) throws Exception;
+    }
+
+    /**
+     * Aggregated usage for a key since last flush
+     */
+    public static class Usage {
+        private long count;
+        private long lastUsed;
+
+        public long getCount() {
+            return count;
+        }
+
+        public Date getLastUsed() {
+            return new Date(lastUsed);
+        }
+
+        private void add(final long amount, final long timestamp) {
+            count += amount;
+            lastUsed = Math.max(lastUsed, timestamp);
+        }
+    }
+
+    protected WriteBehindCounter(final String name, final Flusher<K> flusher) {
+        this.name = name;
+        this.flusher = flusher;
+    }
+
+    /**
+     * Creates a counter that is flushed with given interval.
+     * @param name name for the counter
+     * @param intervalMillis time between flushes
+     * @param flusher writes the counters
+     * @return counter or existing counter with the same name
+     */
+    public static <K> WriteBehindCounter<K> create(final String name, final long intervalMillis, final Flusher<K> flusher) {
+        final WriteBehindCounter<K> counter = new WriteBehindCounter<K>(name, flusher);
+        final WriteBehindCounter<K> existing = COUNTERS.putIfAbsent(name, counter);
+        if (existing != null) {
+            log.warn("Counter already created:", name);
+            return existing;
+        }
+        getExecutor().scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                counter.flush();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        return counter;
+    }
+
+    private static synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "WriteBehindCounter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                public void run() {
+                    flushAll();
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Flushes all counters created with create()
+     */
+    public static void flushAll() {
+        for (WriteBehindCounter counter : COUNTERS.values()) {
+            counter.flush();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void increment(final K key) {
+        add(key, 1, System.currentTimeMillis());
+    }
+
+    public synchronized void add(final K key, final long amount, final long timestamp) {
+        Usage usage = pending.get(key);
+        if (usage == null) {
+            usage = new Usage();
+            pending.put(key, usage);
+        }
+        usage.add(amount, timestamp);
+    }
+
+    /**
+     * Writes pending counters. If writing fails the counters are kept for the next flush.
+     */
+    public void flush() {
+        final Map<K, Usage> counters;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            counters = pending;
+            pending = new HashMap<K, Usage>();
+        }
+        try {
+            flusher.flush(Collections.unmodifiableMap(counters));
+            log.debug("Flushed", counters.size(), "counters for", name);
+        } catch (Exception e) {
+            log.error(e, "Flushing counters failed for", name, "- retrying on next flush");
+            for (Map.Entry<K, Usage> entry : counters.entrySet()) {
+                add(entry.getKey(), entry.getValue().count, entry.getValue().lastUsed);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package fi.nls.oskari.service;
+
+import fi.nls.oskari.annotation.OskariInit;
+import fi.nls.oskari.util.PropertyUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StartupInitializerTest {
+
+    private final List<String> initOrder = Collections.synchronizedList(new ArrayList<String>());
+
+    private final StartupInitializer<Item> initializer = new StartupInitializer<Item>("test",
+            new StartupInitializer.Initializer<Item>() {
+                public void init(Item item) throws Exception {
+                    item.init();
+                }
+            });
+
+    class Item {
+        void init() throws Exception {
+            // simulate slow init so dependencies would finish later without ordering
+            Thread.sleep(20);
+            initOrder.add(getClass().getSimpleName());
+        }
+    }
+
+    class First extends Item {
+    }
+
+    @OskariInit(after = First.class)
+    class Second extends Item {
+    }
+
+    @OskariInit(after = Second.class)
+    class Third extends Item {
+    }
+
+    class Failing extends Item {
+        void init() throws Exception {
+            throw new Exception("fail");
+        }
+    }
+
+    @OskariInit(lazy = true)
+    class Lazy extends Item {
+    }
+
+    @OskariInit(after = CycleB.class)
+    class CycleA extends Item {
+    }
+
+    @OskariInit(after = CycleA.class)
+    class CycleB extends Item {
+    }
+
+    @After
+    public void tearDown() {
+        PropertyUtil.clearProperties();
+    }
+
+    @Test
+    public void testDependenciesAreInitializedFirst() {
+        PropertyUtil.addProperty(StartupInitializer.PROPERTY_THREADS, "4");
+        final List<Item> items = Arrays.asList(new Third(), new Second(), new First(), new Item());
+        final List<Item> result = initializer.initAll(items);
+        assertEquals("All should be initialized in original order", items, result);
+        assertTrue("First before Second", initOrder.indexOf("First") < initOrder.indexOf("Second"));
+        assertTrue("Second before Third", initOrder.indexOf("Second") < initOrder.indexOf("Third"));
+    }
+
+    @Test
+    public void testFailedAreLeftOut() {
+        final Item ok = new First();
+        final List<Item> result = initializer.initAll(Arrays.asList(new Failing(), ok));
+        assertEquals(Collections.singletonList(ok), result);
+    }
+
+    @Test
+    public void testCircularDependencies() {
+        final List<Item> items = Arrays.<Item>asList(new CycleA(), new CycleB());
+        assertEquals("Should init items with circular dependencies", items, initializer.initAll(items));
+    }
+
+    @Test
+    public void testIsLazy() {
+        assertTrue(StartupInitializer.isLazy(new Lazy()));
+        assertFalse(StartupInitializer.isLazy(new Second()));
+        assertFalse(StartupInitializer.isLazy(new First()));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(initializer.initAll(new ArrayList<Item>()).isEmpty());
+    }
+}
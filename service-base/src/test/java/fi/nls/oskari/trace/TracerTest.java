@@ -0,0 +1,44 @@
+package fi.nls.oskari.trace;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TracerTest {
+
+    @Test
+    public void testContinuedTraceIsRecorded() {
+        final Trace trace = Tracer.start("test", "abc-123");
+        assertTrue(trace.isSampled());
+        assertEquals("abc-123", Tracer.currentId());
+
+        final Span span = Tracer.span("stage");
+        span.end();
+        trace.finish();
+
+        assertFalse("Trace should be cleared from thread", Tracer.current().isSampled());
+        assertNull(Tracer.currentId());
+        final JSONObject json = trace.toJSON();
+        assertEquals("abc-123", json.optString("id"));
+        assertEquals("stage", json.optJSONArray("stages").optJSONObject(0).optString("name"));
+    }
+
+    @Test
+    public void testNestedTraceRestoresPrevious() {
+        final Trace outer = Tracer.start("outer", "outer");
+        final Trace inner = Tracer.start("inner", "inner");
+        assertEquals("inner", Tracer.currentId());
+        inner.finish();
+        assertEquals("outer", Tracer.currentId());
+        outer.finish();
+        assertNull(Tracer.currentId());
+    }
+
+    @Test
+    public void testNoopSpan() {
+        assertFalse(Tracer.current().isSampled());
+        // shouldn't throw without a trace
+        Tracer.span("stage").end();
+    }
+}
@@ -0,0 +1,36 @@
+package fi.nls.oskari.util;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class JSONStreamWriterTest {
+
+    @Test
+    public void testOutputMatchesToString() throws Exception {
+        final JSONObject json = new JSONObject();
+        json.put("key</x\u0085", "a</b c\u0001\n\"\\/é");
+        final JSONArray arr = new JSONArray();
+        arr.put("x</");
+        arr.put(1.50);
+        arr.put(JSONObject.NULL);
+        arr.put(new JSONObject().put("a ", "b"));
+        json.put("arr", arr);
+        json.put("n", 10);
+
+        final StringWriter writer = new StringWriter();
+        JSONStreamWriter.write(writer, json);
+        assertEquals("Streamed JSON should match JSONObject.toString()", json.toString(), writer.toString());
+    }
+
+    @Test(expected = IOException.class)
+    public void testNonFiniteNumberFails() throws Exception {
+        JSONStreamWriter.write(new StringWriter(), Arrays.asList(1, Double.NaN));
+    }
+}
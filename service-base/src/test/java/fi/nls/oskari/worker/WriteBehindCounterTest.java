@@ -0,0 +1,57 @@
+package fi.nls.oskari.worker;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WriteBehindCounterTest {
+
+    private class TestFlusher implements WriteBehindCounter.Flusher<String> {
+        private Map<String, WriteBehindCounter.Usage> flushed = new HashMap<String, WriteBehindCounter.Usage>();
+        private boolean fail = false;
+
+        public void flush(Map<String, WriteBehindCounter.Usage> counters) throws Exception {
+            if (fail) {
+                throw new Exception("Fail on purpose");
+            }
+            flushed.putAll(counters);
+        }
+    }
+
+    @Test
+    public void testAggregate() {
+        TestFlusher flusher = new TestFlusher();
+        WriteBehindCounter<String> counter = new WriteBehindCounter<String>("test", flusher);
+        counter.add("a", 1, 100);
+        counter.add("a", 1, 300);
+        counter.add("a", 1, 200);
+        counter.increment("b");
+        counter.flush();
+
+        assertEquals("Should have two keys", 2, flusher.flushed.size());
+        assertEquals("Should aggregate counts", 3, flusher.flushed.get("a").getCount());
+        assertEquals("Should keep latest timestamp", 300, flusher.flushed.get("a").getLastUsed().getTime());
+
+        flusher.flushed.clear();
+        counter.flush();
+        assertTrue("Should not flush twice", flusher.flushed.isEmpty());
+    }
+
+    @Test
+    public void testFailedFlushIsRetried() {
+        TestFlusher flusher = new TestFlusher();
+        WriteBehindCounter<String> counter = new WriteBehindCounter<String>("test", flusher);
+        counter.add("a", 2, 100);
+        flusher.fail = true;
+        counter.flush();
+        counter.add("a", 1, 200);
+        flusher.fail = false;
+        counter.flush();
+
+        assertEquals("Should keep counts from failed flush", 3, flusher.flushed.get("a").getCount());
+    }
+}
@@ -5,6 +5,9 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.service.StartupInitializer;
+import fi.nls.oskari.trace.Trace;
+import fi.nls.oskari.trace.Tracer;
 import fi.nls.oskari.util.PropertyUtil;
 
 import java.util.*;
@@ -25,6 +28,9 @@ public class ActionControl {
     private static final String METRICS_PREFIX = "Oskari.ActionControl";
     static final String PROPERTY_BLACKLIST = "actioncontrol.blacklist";
     static final String PROPERTY_WHITELIST = "actioncontrol.whitelist";
+    static final String PROPERTY_LAZY = "actioncontrol.lazy";
+    // handlers waiting for init on first use
+    private static final Set<ActionHandler> uninitialized = Collections.newSetFromMap(new ConcurrentHashMap<ActionHandler, Boolean>());
 
     private static Set<String> BLACKLISTED_ACTIONS = null;
     private static Set<String> WHITELISTED_ACTIONS = null;
@@ -96,19 +102,72 @@ public class ActionControl {
 
     /**
      * Uses ServiceLoader to find all ActionHandlers in classpath. Adds them as handlers with the route key
-     * returned by getName() method.
+     * returned by getName() method. Handlers are initialized on startup (see StartupInitializer), sequentially
+     * unless oskari.startup.threads is set, in the order given by @OskariInit(after = ...) in both modes. Lazy
+     * ones are initialized when first used. Handlers can be made lazy with @OskariInit(lazy = true)
+     * or by listing route keys in "actioncontrol.lazy" property.
      */
     public static void addDefaultControls() {
 
         ServiceLoader<ActionHandler> impl = ServiceLoader.load(ActionHandler.class);
 
+        final List<String> lazyKeys = Arrays.asList(PropertyUtil.getCommaSeparatedList(PROPERTY_LAZY));
+        final List<ActionHandler> handlers = new ArrayList<ActionHandler>();
+        final List<ActionHandler> lazyHandlers = new ArrayList<ActionHandler>();
         for (ActionHandler loadedImpl : impl) {
-            if ( loadedImpl != null ) {
-                addAction(loadedImpl.getName(), loadedImpl);
+            if ( loadedImpl == null ) {
+                continue;
             }
+            final String action = loadedImpl.getName();
+            if(!isAllowedKey(action)) {
+                LOG.debug("Action disabled by config - Skipping", action, "=", loadedImpl.getClass().getCanonicalName());
+                continue;
+            }
+            if(StartupInitializer.isLazy(loadedImpl) || lazyKeys.contains(action)) {
+                lazyHandlers.add(loadedImpl);
+            } else {
+                handlers.add(loadedImpl);
+            }
+        }
+
+        final StartupInitializer<ActionHandler> initializer = new StartupInitializer<ActionHandler>("ActionHandlers",
+                new StartupInitializer.Initializer<ActionHandler>() {
+                    public void init(ActionHandler handler) {
+                        handler.init();
+                    }
+                });
+        for (ActionHandler handler : initializer.initAll(handlers)) {
+            actions.put(handler.getName(), handler);
+            LOG.debug("Action added", handler.getName(), "=", handler.getClass().getCanonicalName());
+        }
+        for (ActionHandler handler : lazyHandlers) {
+            uninitialized.add(handler);
+            actions.put(handler.getName(), handler);
+            LOG.debug("Action added for lazy init", handler.getName(), "=", handler.getClass().getCanonicalName());
         }
     }
 
+    /**
+     * Calls init() for handlers registered for lazy init on first use.
+     */
+    private static ActionHandler getInitialized(final ActionHandler handler) throws ActionException {
+        if(!uninitialized.contains(handler)) {
+            return handler;
+        }
+        synchronized (handler) {
+            if(uninitialized.contains(handler)) {
+                try {
+                    handler.init();
+                } catch (Exception ex) {
+                    throw new ActionException("Action init failed: " + handler.getName(), ex);
+                }
+                uninitialized.remove(handler);
+                LOG.debug("Lazy init done for action", handler.getName());
+            }
+        }
+        return handler;
+    }
+
     /**
      * Routes a request to a handler matching the route key
      * @param action route key
@@ -128,8 +187,9 @@ public class ActionControl {
                 actionTimer = timer.time();
             }
 
+            final Trace trace = startTrace(action, params);
             try {
-                actions.get(action).handleAction(params);
+                getInitialized(actions.get(action)).handleAction(params);
             } catch (Exception ex) {
                 if(ex instanceof ActionException) {
                     throw (ActionException) ex;
@@ -139,6 +199,7 @@ public class ActionControl {
                     throw new ActionException("Unhandled exception occured", ex);
                 }
             } finally {
+                trace.finish();
                 if(actionTimer != null) {
                     actionTimer.stop();
                 }
@@ -148,6 +209,19 @@ public class ActionControl {
         }
 	}
 
+    /**
+     * Starts a trace for the request. Continues the trace if the client sent a trace id and returns the id
+     * of a sampled trace in a response header so it can be passed on (to transport for example).
+     */
+    private static Trace startTrace(final String action, final ActionParameters params) {
+        final String traceId = params.getRequest() != null ? params.getRequest().getHeader(Tracer.HEADER_TRACE_ID) : null;
+        final Trace trace = Tracer.start("action." + action, traceId);
+        if(trace.isSampled() && params.getResponse() != null) {
+            params.getResponse().setHeader(Tracer.HEADER_TRACE_ID, trace.getId());
+        }
+        return trace;
+    }
+
     /**
      * Convenient way to check if we have an implementation for the route registered
      * @param action
@@ -168,6 +242,10 @@ public class ActionControl {
      */
     public static void teardown() {
         for( ActionHandler h : actions.values()) {
+            if(uninitialized.contains(h)) {
+                // never initialized
+                continue;
+            }
             try {
                 h.teardown();
             }
@@ -176,6 +254,7 @@ public class ActionControl {
             }
         }
         actions.clear();
+        uninitialized.clear();
         BLACKLISTED_ACTIONS = null;
         WHITELISTED_ACTIONS = null;
     }
@@ -5,11 +5,15 @@ import fi.nls.oskari.control.ActionParameters;
 import fi.nls.oskari.control.ActionParamsException;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.ConversionHelper;
 import fi.nls.oskari.util.IOHelper;
 import fi.nls.oskari.util.PropertyUtil;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.util.List;
 import java.util.Map;
@@ -27,6 +31,8 @@ import java.util.TreeMap;
  * - oskari.proxy.[serviceId].params=[comma separated list of parameter names, named params will be passed to the proxy url] (optional)
  * - oskari.proxy.[serviceId].charset=[charset to use when encoding params and reading response] (optional, defaults to UTF-8)
  * - oskari.proxy.[serviceId].header.[header name]=[header value] (optional)
+ * - oskari.proxy.[serviceId].stream=[false to read the whole response before writing it to the client] (optional, defaults to true)
+ * - oskari.proxy.[serviceId].maxBytes=[max response size when streaming] (optional, defaults to oskari.proxy.maxBytes or 100MB)
  * @author SMAKINEN
  */
 public class ProxyService {
@@ -34,6 +40,15 @@ public class ProxyService {
     private static final Logger log = LogFactory.getLogger(ProxyService.class);
     private static final Map<String, ProxyServiceConfig> availableServices = new TreeMap<String, ProxyServiceConfig>();
 
+    private static final String PROPERTY_MAX_BYTES = "oskari.proxy.maxBytes";
+    private static final long DEFAULT_MAX_BYTES = 100L * 1024L * 1024L;
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final String ENCODING_GZIP = "gzip";
+
     /**
      * Reads properties to initialize services
      */
@@ -72,6 +87,9 @@ public class ProxyService {
             config.setPassword(PropertyUtil.getOptional(propertiesPrefix + "pass"));
             config.setParamNames(PropertyUtil.getCommaSeparatedList(propertiesPrefix + "params"));
             config.setEncoding(PropertyUtil.getOptional(propertiesPrefix + "charset"));
+            config.setStreaming(PropertyUtil.getOptional(propertiesPrefix + "stream", true));
+            final long defaultMaxBytes = ConversionHelper.getLong(PropertyUtil.getOptional(PROPERTY_MAX_BYTES), DEFAULT_MAX_BYTES);
+            config.setMaxBytes(ConversionHelper.getLong(PropertyUtil.getOptional(propertiesPrefix + "maxBytes"), defaultMaxBytes));
 
             final String headerPropPrefix = propertiesPrefix + "header.";
             final List<String> headerPropNames = PropertyUtil.getPropertyNamesStartingWith(headerPropPrefix);
@@ -159,6 +177,83 @@ public class ProxyService {
         }
     }
 
+    /**
+     * Returns true if responses for the service should be streamed with proxyStream()
+     * @param serviceKey id to map the service
+     * @return false if streaming is disabled or service is not available
+     */
+    public static boolean isStreaming(final String serviceKey) {
+        final ProxyServiceConfig config = availableServices.get(serviceKey);
+        return config != null && config.isStreaming();
+    }
+
+    /**
+     * Proxies request to given service and writes the response bytes to the response in params as they are
+     * received. The response is not decoded so content type and gzip encoding are passed to the client as is.
+     * @param serviceKey id to map the service
+     * @param params params that should be used when proxying and providing the response to write to
+     * @throws ActionException if something goes wrong when proxying or response is larger than allowed
+     */
+    public static void proxyStream(final String serviceKey, final ActionParameters params) throws ActionException {
+
+        if(!availableServices.containsKey(serviceKey)) {
+            throw new ActionParamsException("Service not available");
+        }
+        final byte[] payload = getPayload(params);
+        // get base config
+        final ProxyServiceConfig baseConfig = availableServices.get(serviceKey);
+        // getConfig returns a params based modified config
+        final ProxyServiceConfig config = baseConfig.getConfig(params);
+        final HttpURLConnection connection = getConnection(config, params);
+        // let the service compress the response if the client accepts it, it's passed through as is
+        final String acceptEncoding = params.getRequest().getHeader(HEADER_ACCEPT_ENCODING);
+        if(acceptEncoding != null && acceptEncoding.contains(ENCODING_GZIP)) {
+            connection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+        }
+        final long maxBytes = baseConfig.getMaxBytes();
+        InputStream in = null;
+        try {
+            IOHelper.writeToConnection(connection, payload);
+            in = connection.getInputStream();
+            final long contentLength = connection.getContentLengthLong();
+            if(maxBytes > 0 && contentLength > maxBytes) {
+                throw new ActionParamsException("Response from service is too large");
+            }
+            final HttpServletResponse response = params.getResponse();
+            if(connection.getContentType() != null) {
+                response.setContentType(connection.getContentType());
+            }
+            if(connection.getContentEncoding() != null) {
+                response.setHeader(HEADER_CONTENT_ENCODING, connection.getContentEncoding());
+            }
+            if(contentLength >= 0) {
+                response.setHeader(HEADER_CONTENT_LENGTH, Long.toString(contentLength));
+            }
+            final long bytes = copy(in, response.getOutputStream(), maxBytes);
+            log.debug("Proxied", bytes, "bytes from", serviceKey);
+        } catch (ActionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ActionException("Couldn't proxy request to service:" + serviceKey, e);
+        } finally {
+            IOHelper.close(in);
+        }
+    }
+
+    private static long copy(final InputStream in, final OutputStream out, final long maxBytes) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            total += read;
+            if(maxBytes > 0 && total > maxBytes) {
+                throw new IOException("Response exceeds max size of " + maxBytes + " bytes");
+            }
+            out.write(buffer, 0, read);
+        }
+        out.flush();
+        return total;
+    }
 
     /**
      * Gets the connection to the proxy service.
@@ -23,6 +23,8 @@ public class ProxyServiceConfig {
     private String encoding;
     private String[] paramNames = new String[0];
     private Map<String, String> headers = new HashMap<String, String>();
+    private boolean streaming = true;
+    private long maxBytes = -1;
 
     /**
      * Checks for validity
@@ -67,6 +69,30 @@ public class ProxyServiceConfig {
         this.headers = headers;
     }
 
+    /**
+     * Streaming writes the response bytes directly to the client instead of reading them into memory first.
+     * @return true if the response should be streamed
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Max size of the response to pass to the client
+     * @return max bytes or -1 for unlimited
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
     /**
      * Returns the configured base url
      * @return
@@ -1,6 +1,8 @@
 package fi.nls.oskari.util;
 
 import fi.nls.oskari.control.ActionParameters;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
@@ -12,6 +14,8 @@ import java.io.IOException;
  */
 public class ResponseHelper {
 
+    private static final Logger log = LogFactory.getLogger(ResponseHelper.class);
+
     /**
      * Writes out the given response
      *
@@ -21,16 +25,52 @@ public class ResponseHelper {
     public static final void writeResponse(ActionParameters params, final Object response) {
         try {
             if(response instanceof JSONObject || response instanceof JSONArray) {
-                params.getResponse().setCharacterEncoding("UTF-8");
-                params.getResponse().setContentType("application/json;charset=UTF-8");
+                setJSONContentType(params);
+                // stream JSON instead of building the whole response as String
+                JSONStreamWriter.write(params.getResponse().getWriter(), response);
+                return;
             }
             params.getResponse().getWriter().print(response);
         } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            writeFailed(params, e);
         }
     }
 
+    /**
+     * Writes out the given JSON content by streaming it to the response
+     *
+     * @param params   reference to params to get the writer
+     * @param content  content to write
+     */
+    public static final void writeResponse(ActionParameters params, final JSONStreamWriter.Content content) {
+        try {
+            setJSONContentType(params);
+            JSONStreamWriter.write(params.getResponse().getWriter(), content);
+        } catch (IOException e) {
+            writeFailed(params, e);
+        }
+    }
+
+    /**
+     * Replaces the response with an error if nothing has been sent yet. Otherwise the client
+     * gets an incomplete response.
+     */
+    private static void writeFailed(ActionParameters params, IOException e) {
+        final HttpServletResponse response = params.getResponse();
+        if (response.isCommitted()) {
+            log.error(e, "Writing response failed, response is incomplete");
+            return;
+        }
+        log.error(e, "Writing response failed");
+        response.resetBuffer();
+        writeError(params, "Writing response failed");
+    }
+
+    private static void setJSONContentType(ActionParameters params) {
+        params.getResponse().setCharacterEncoding("UTF-8");
+        params.getResponse().setContentType("application/json;charset=UTF-8");
+    }
+
     /**
      * Writes a generic error message as response with error code 500
      *
@@ -82,8 +122,7 @@ public class ResponseHelper {
             // we dont want that 
             //params.getResponse().sendError(errorCode, error.toString());
         } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            log.error(e, "Writing error response failed");
         }
     }
 
@@ -12,6 +12,12 @@ import org.apache.ibatis.transaction.TransactionFactory;
 import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
 
 import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Simple MyBatis Dao for saving CSW metadata for maplayers
@@ -37,16 +43,38 @@ public class OskariLayerMetadataDao {
     }
 
     public void saveMetadata(OskariLayerMetadataDto dto) {
+        saveMetadata(Collections.singletonList(dto));
+    }
+
+    /**
+     * Saves a batch of metadata in a single transaction.
+     * @param list metadata to insert or update
+     */
+    public void saveMetadata(List<OskariLayerMetadataDto> list) {
+        if(list == null || list.isEmpty()) {
+            return;
+        }
         final SqlSession session = factory.openSession();
         try {
             final OskariLayerMetadataDto.Mapper mapper = session.getMapper(OskariLayerMetadataDto.Mapper.class);
-            OskariLayerMetadataDto saved = mapper.find(dto.metadataId);
-            if(saved == null) {
-                mapper.insert(dto);
+            // find existing rows for the whole batch with one query
+            final List<String> metadataIds = new ArrayList<String>(list.size());
+            for(OskariLayerMetadataDto dto : list) {
+                metadataIds.add(dto.metadataId);
+            }
+            final Map<String, Long> savedIds = new HashMap<String, Long>();
+            for(OskariLayerMetadataDto saved : mapper.findAll(metadataIds)) {
+                savedIds.put(saved.metadataId, saved.id);
             }
-            else {
-                dto.id = saved.id;
-                mapper.update(dto);
+            for(OskariLayerMetadataDto dto : list) {
+                final Long id = savedIds.get(dto.metadataId);
+                if(id == null) {
+                    mapper.insert(dto);
+                }
+                else {
+                    dto.id = id;
+                    mapper.update(dto);
+                }
             }
             session.commit();
         } catch (Exception e) {
@@ -55,4 +83,27 @@ public class OskariLayerMetadataDao {
             session.close();
         }
     }
+
+    /**
+     * Returns the last update time for each metadata id that has been saved.
+     * @return map with metadata id as key and update timestamp as value
+     */
+    public Map<String, Date> getUpdateTimestamps() {
+        final Map<String, Date> result = new HashMap<String, Date>();
+        final SqlSession session = factory.openSession();
+        try {
+            final OskariLayerMetadataDto.Mapper mapper = session.getMapper(OskariLayerMetadataDto.Mapper.class);
+            for(Map<String, Object> row : mapper.findTimestamps()) {
+                final Object ts = row.get("ts");
+                if(ts instanceof Date) {
+                    result.put((String) row.get("metadataid"), (Date) ts);
+                }
+            }
+        } catch (Exception e) {
+            log.error(e, "Error loading metadata timestamps");
+        } finally {
+            session.close();
+        }
+        return result;
+    }
 }
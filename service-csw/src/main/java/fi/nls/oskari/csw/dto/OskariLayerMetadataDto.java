@@ -5,6 +5,8 @@ import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.annotations.Update;
 
 import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A data transfer object for interacting with the ``oskari_maplayer_metadata`` database table.
@@ -15,6 +17,15 @@ public class OskariLayerMetadataDto {
         @Select("SELECT id, metadataid, wkt, json, ts FROM oskari_maplayer_metadata where metadataid=#{metadataId}")
         public OskariLayerMetadataDto find(final String metadataId);
 
+        @Select({"<script>",
+                "SELECT id, metadataid FROM oskari_maplayer_metadata WHERE metadataid IN",
+                "<foreach item='metadataId' collection='list' open='(' separator=',' close=')'>#{metadataId}</foreach>",
+                "</script>"})
+        public List<OskariLayerMetadataDto> findAll(final List<String> metadataIds);
+
+        @Select("SELECT metadataid, ts FROM oskari_maplayer_metadata")
+        public List<Map<String, Object>> findTimestamps();
+
         @Insert("INSERT INTO oskari_maplayer_metadata (metadataid, wkt, json, ts) VALUES (#{metadataId}, #{wkt}, #{json}, NOW())")
         public void insert(final OskariLayerMetadataDto metadata);
 
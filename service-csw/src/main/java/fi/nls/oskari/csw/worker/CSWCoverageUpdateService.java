@@ -2,6 +2,7 @@ package fi.nls.oskari.csw.worker;
 
 import com.vividsolutions.jts.geom.Geometry;
 import fi.nls.oskari.annotation.Oskari;
+import fi.nls.oskari.cache.JedisManager;
 import fi.nls.oskari.csw.dao.OskariLayerMetadataDao;
 import fi.nls.oskari.csw.domain.CSWIsoRecord;
 import fi.nls.oskari.csw.dto.OskariLayerMetadataDto;
@@ -16,12 +17,14 @@ import fi.nls.oskari.util.PropertyUtil;
 import fi.nls.oskari.worker.ScheduledJob;
 
 import javax.sql.DataSource;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Scheduled job for retrieving coverage data for maplayers having metadataids.
+ * Only one node in a cluster runs the update at a time (lock is held in Redis and renewed while the
+ * update runs). If Redis is unavailable the update is run locally. Records are fetched concurrently and
+ * saved in batches. Records whose datestamp is older than the previously saved coverage are not written again.
  */
 @Oskari("CSWCoverageImport")
 public class CSWCoverageUpdateService extends ScheduledJob {
@@ -29,6 +32,11 @@ public class CSWCoverageUpdateService extends ScheduledJob {
 
     final OskariLayerService layerService = new OskariLayerServiceIbatisImpl();
     final private static String PROPERTY_BASE_URL = "service.metadata.url";
+    // max concurrent requests to the metadata service (all requests go to the same host)
+    final private static String PROPERTY_MAX_CONCURRENT = "service.metadata.coverage.maxConcurrent";
+    final private static String PROPERTY_BATCH_SIZE = "service.metadata.coverage.batchSize";
+    final private static String PROPERTY_LOCK_SECONDS = "service.metadata.coverage.lockSeconds";
+    final private static String LOCK_KEY = "oskari_lock:CSWCoverageImport";
 
     @Override
     public void execute(Map<String, Object> params) {
@@ -56,25 +64,129 @@ public class CSWCoverageUpdateService extends ScheduledJob {
             log.error("Couldn't get datasource - quitting!");
             return;
         }
-        final OskariLayerMetadataDao dao = new OskariLayerMetadataDao(dataSource);
-        for (String metadataId : metadataIdSet) {
-            final CSWIsoRecord csw = getMetadata(cswService, metadataId);
-            final Geometry geom = getGeometry(csw);
-            if(geom == null) {
-                // no geometry on metadata, move to next
-                log.info("Couldn't get geometry for", metadataId);
-                continue;
+        final String lockOwner = UUID.randomUUID().toString();
+        final int lockSeconds = Math.max(60, PropertyUtil.getOptional(PROPERTY_LOCK_SECONDS, 600));
+        final JedisManager.LockResult lock = JedisManager.tryLock(LOCK_KEY, lockOwner, lockSeconds);
+        if(lock == JedisManager.LockResult.HELD) {
+            log.info("CSW coverage update is already running on another node - quitting!");
+            return;
+        }
+        final boolean locked = lock == JedisManager.LockResult.ACQUIRED;
+        if(!locked) {
+            log.warn("Couldn't lock CSW coverage update since Redis is unavailable - running it on this node");
+        }
+        try {
+            updateCoverages(cswService, metadataIdSet, new OskariLayerMetadataDao(dataSource),
+                    locked ? lockOwner : null, lockSeconds);
+        } finally {
+            if(locked) {
+                JedisManager.releaseLock(LOCK_KEY, lockOwner);
             }
-            final OskariLayerMetadataDto dto = new OskariLayerMetadataDto();
-            dto.metadataId  = metadataId;
-            // NOTE! wkt is WGS:84
-            dto.wkt = geom.getEnvelope().toText();
-            dto.json = csw.toJSON().toString();
-            dao.saveMetadata(dto);
         }
         log.info("Done with the CSW coverage update service call");
     }
 
+    /**
+     * @param lockOwner owner of the Redis lock to renew while running or null if not locked
+     * @param lockSeconds expiry of the lock
+     */
+    private void updateCoverages(final CSWService cswService, final Set<String> metadataIdSet,
+                                 final OskariLayerMetadataDao dao, final String lockOwner, final int lockSeconds) {
+        final Map<String, Date> updated = dao.getUpdateTimestamps();
+        final int threads = Math.max(1, PropertyUtil.getOptional(PROPERTY_MAX_CONCURRENT, 4));
+        final int batchSize = Math.max(1, PropertyUtil.getOptional(PROPERTY_BATCH_SIZE, 50));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CompletionService<OskariLayerMetadataDto> completion =
+                new ExecutorCompletionService<OskariLayerMetadataDto>(executor);
+        for (final String metadataId : metadataIdSet) {
+            completion.submit(new Callable<OskariLayerMetadataDto>() {
+                public OskariLayerMetadataDto call() {
+                    return getCoverage(cswService, metadataId, updated.get(metadataId));
+                }
+            });
+        }
+        final List<OskariLayerMetadataDto> batch = new ArrayList<OskariLayerMetadataDto>(batchSize);
+        // renew the lock well before it expires so a long crawl isn't started on another node
+        final long renewMillis = lockSeconds * 1000L / 3;
+        long lastRenew = System.currentTimeMillis();
+        try {
+            int done = 0;
+            while (done < metadataIdSet.size()) {
+                final Future<OskariLayerMetadataDto> result = completion.poll(renewMillis, TimeUnit.MILLISECONDS);
+                if (lockOwner != null && System.currentTimeMillis() - lastRenew >= renewMillis) {
+                    if (!JedisManager.renewLock(LOCK_KEY, lockOwner, lockSeconds)) {
+                        log.warn("Lost the lock for CSW coverage update - stopping after", done, "/", metadataIdSet.size(), "records");
+                        break;
+                    }
+                    lastRenew = System.currentTimeMillis();
+                }
+                if (result == null) {
+                    continue;
+                }
+                done++;
+                final OskariLayerMetadataDto dto = getResult(result);
+                if (dto == null) {
+                    continue;
+                }
+                batch.add(dto);
+                if (batch.size() >= batchSize) {
+                    dao.saveMetadata(batch);
+                    batch.clear();
+                }
+            }
+            dao.saveMetadata(batch);
+        } catch (InterruptedException e) {
+            log.warn("CSW coverage update interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private OskariLayerMetadataDto getResult(final Future<OskariLayerMetadataDto> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            log.error(e.getCause(), "Error processing metadata");
+        }
+        return null;
+    }
+
+    /**
+     * Fetches the metadata record and returns the coverage to save for it.
+     * @param cswService
+     * @param metadataId
+     * @param lastUpdate when the coverage for this metadata was previously saved or null if never
+     * @return coverage to save or null if there's nothing to update
+     */
+    private OskariLayerMetadataDto getCoverage(final CSWService cswService, final String metadataId, final Date lastUpdate) {
+        final CSWIsoRecord csw = getMetadata(cswService, metadataId);
+        if(isUnchanged(csw, lastUpdate)) {
+            log.debug("Metadata hasn't changed since last update:", metadataId);
+            return null;
+        }
+        final Geometry geom = getGeometry(csw);
+        if(geom == null) {
+            // no geometry on metadata, move to next
+            log.info("Couldn't get geometry for", metadataId);
+            return null;
+        }
+        final OskariLayerMetadataDto dto = new OskariLayerMetadataDto();
+        dto.metadataId  = metadataId;
+        // NOTE! wkt is WGS:84
+        dto.wkt = geom.getEnvelope().toText();
+        dto.json = csw.toJSON().toString();
+        return dto;
+    }
+
+    private boolean isUnchanged(final CSWIsoRecord csw, final Date lastUpdate) {
+        if(csw == null || lastUpdate == null || csw.getMetadataDateStamp() == null) {
+            return false;
+        }
+        return csw.getMetadataDateStamp().before(lastUpdate);
+    }
+
     private DataSource getDatasource() {
         try {
             return DBHandler.getDataSource();
@@ -0,0 +1,206 @@
+package fi.nls.oskari.utils;
+
+import fi.nls.oskari.log.Logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded multi-producer/single-consumer ring buffer for AsyncLogger. Slots are preallocated and
+ * reused so offering a message doesn't allocate. Producers claim a slot with CAS and publish it by writing the
+ * slot sequence. A single daemon thread formats the messages with the delegate logger.
+ * When the buffer is full the message isn't queued and offer() returns false.
+ */
+final class AsyncLogQueue {
+
+    static final int DEBUG = 0;
+    static final int INFO = 1;
+    static final int WARN = 2;
+    static final int ERROR = 3;
+
+    private static final long IDLE_PARK_NANOS = 1000000L;
+    private static final long SHUTDOWN_WAIT_MS = 5000L;
+
+    private static final class Slot {
+        // sequence + 1 of the message in the slot when published
+        volatile long published;
+        Logger target;
+        int level;
+        Throwable t;
+        int count;
+        Object a;
+        Object b;
+        Object c;
+        Object[] args;
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread consumer;
+    private volatile boolean running = true;
+
+    AsyncLogQueue(final int size) {
+        int capacity = 2;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        slots = new Slot[capacity];
+        for (int i = 0; i < capacity; ++i) {
+            slots[i] = new Slot();
+        }
+        mask = capacity - 1;
+        consumer = new Thread(new Runnable() {
+            public void run() {
+                consume();
+            }
+        }, "AsyncLogger");
+        consumer.setDaemon(true);
+        consumer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                shutdown();
+            }
+        }, "AsyncLogger-shutdown"));
+    }
+
+    /**
+     * Queues a message. Count of -1 means arguments are in args, otherwise in a, b and c.
+     * @return false if the buffer is full
+     */
+    boolean offer(final Logger target, final int level, final Throwable t, final int count,
+                  final Object a, final Object b, final Object c, final Object[] args) {
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail.get() >= slots.length) {
+                return false;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+        final Slot slot = slots[(int) (seq & mask)];
+        slot.target = target;
+        slot.level = level;
+        slot.t = t;
+        slot.count = count;
+        slot.a = a;
+        slot.b = b;
+        slot.c = c;
+        slot.args = args;
+        slot.published = seq + 1;
+        return true;
+    }
+
+    void dropped() {
+        dropped.incrementAndGet();
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void consume() {
+        long reportedDrops = 0;
+        while (running || head.get() != tail.get()) {
+            if (!drain()) {
+                final long drops = dropped.get();
+                if (drops != reportedDrops) {
+                    System.err.println("[WARN] AsyncLogger: buffer full, dropped " + (drops - reportedDrops) + " log messages");
+                    reportedDrops = drops;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * @return true if any messages were written
+     */
+    private boolean drain() {
+        boolean written = false;
+        long seq = tail.get();
+        while (true) {
+            final Slot slot = slots[(int) (seq & mask)];
+            if (slot.published != seq + 1) {
+                return written;
+            }
+            final Logger target = slot.target;
+            final int level = slot.level;
+            final Throwable t = slot.t;
+            final Object[] args = getArgs(slot);
+            slot.target = null;
+            slot.t = null;
+            slot.a = null;
+            slot.b = null;
+            slot.c = null;
+            slot.args = null;
+            // frees the slot for producers
+            tail.lazySet(++seq);
+            try {
+                write(target, level, t, args);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            written = true;
+        }
+    }
+
+    private static Object[] getArgs(final Slot slot) {
+        switch (slot.count) {
+            case 1:
+                return new Object[] {slot.a};
+            case 2:
+                return new Object[] {slot.a, slot.b};
+            case 3:
+                return new Object[] {slot.a, slot.b, slot.c};
+            default:
+                return slot.args;
+        }
+    }
+
+    /**
+     * Writes the message with the delegate. Also used for writing synchronously when the buffer is full.
+     */
+    static void write(final Logger target, final int level, final Throwable t, final Object[] args) {
+        switch (level) {
+            case DEBUG:
+                if (t == null) {
+                    target.debug(args);
+                } else {
+                    target.debug(t, args);
+                }
+                break;
+            case INFO:
+                if (t == null) {
+                    target.info(args);
+                } else {
+                    target.info(t, args);
+                }
+                break;
+            case WARN:
+                if (t == null) {
+                    target.warn(args);
+                } else {
+                    target.warn(t, args);
+                }
+                break;
+            default:
+                if (t == null) {
+                    target.error(args);
+                } else {
+                    target.error(t, args);
+                }
+        }
+    }
+
+    private void shutdown() {
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(SHUTDOWN_WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package fi.nls.oskari.utils;
+
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Logger implementation that hands messages to a background thread that writes them with another
+ * Logger implementation. Level checks are done on the calling thread and messages are formatted only on
+ * the background thread so the caller doesn't pay for formatting. Calls with up to three arguments
+ * don't allocate.
+ *
+ * Since formatting is deferred, arguments should not be modified after they have been logged.
+ * When the buffer is full debug and info messages are dropped, warnings and errors are written on
+ * the calling thread.
+ *
+ * Configure with:
+ * - oskari.logger=fi.nls.oskari.utils.AsyncLogger
+ * - oskari.logger.async.delegate=[logger class, defaults to fi.nls.oskari.utils.Slf4JLogger]
+ * - oskari.logger.async.bufferSize=[max queued messages, defaults to 8192]
+ */
+public class AsyncLogger extends Logger {
+
+    private static final String PROPERTY_DELEGATE = "oskari.logger.async.delegate";
+    private static final String PROPERTY_BUFFER_SIZE = "oskari.logger.async.bufferSize";
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private final Logger delegate;
+
+    private static class QueueHolder {
+        static final AsyncLogQueue QUEUE = new AsyncLogQueue(
+                PropertyUtil.getOptional(PROPERTY_BUFFER_SIZE, 8192));
+    }
+
+    public AsyncLogger(final String name) {
+        this(name, createDelegate(name));
+    }
+
+    public AsyncLogger(final String name, final Logger delegate) {
+        this.delegate = delegate;
+    }
+
+    private static Logger createDelegate(final String name) {
+        final String className = PropertyUtil.get(PROPERTY_DELEGATE, Slf4JLogger.class.getName());
+        try {
+            final Class<?> c = Class.forName(className);
+            final Constructor<?> cons = c.getConstructor(String.class);
+            return (Logger) cons.newInstance(name);
+        } catch (Exception e) {
+            System.err.println("Couldn't initialize logger " + className + " for async logging: " + e.getMessage());
+            return new Slf4JLogger(name);
+        }
+    }
+
+    /**
+     * @return number of messages dropped because the buffer was full
+     */
+    public static long getDroppedCount() {
+        return QueueHolder.QUEUE.getDroppedCount();
+    }
+
+    private void log(final int level, final Throwable t, final int count,
+                     final Object a, final Object b, final Object c, final Object[] args) {
+        final AsyncLogQueue queue = QueueHolder.QUEUE;
+        if (queue.offer(delegate, level, t, count, a, b, c, args)) {
+            return;
+        }
+        if (level < AsyncLogQueue.WARN) {
+            queue.dropped();
+            return;
+        }
+        // don't lose warnings and errors
+        final Object[] values;
+        switch (count) {
+            case 1:
+                values = new Object[] {a};
+                break;
+            case 2:
+                values = new Object[] {a, b};
+                break;
+            case 3:
+                values = new Object[] {a, b, c};
+                break;
+            default:
+                values = args;
+        }
+        AsyncLogQueue.write(delegate, level, t, values);
+    }
+
+    public boolean isDebugEnabled() {
+        return delegate.isDebugEnabled();
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return delegate.isInfoEnabled();
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return delegate.isWarnEnabled();
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return delegate.isErrorEnabled();
+    }
+
+    // debug
+
+    @Override
+    public void debug(Throwable t, Object... args) {
+        if (delegate.isDebugEnabled()) {
+            log(AsyncLogQueue.DEBUG, t, -1, null, null, null, args);
+        }
+    }
+
+    @Override
+    public void debug(Object... args) {
+        if (delegate.isDebugEnabled()) {
+            log(AsyncLogQueue.DEBUG, null, -1, null, null, null, args);
+        }
+    }
+
+    @Override
+    public void debug(Throwable t) {
+        if (delegate.isDebugEnabled()) {
+            log(AsyncLogQueue.DEBUG, t, -1, null, null, null, NO_ARGS);
+        }
+    }
+
+    @Override
+    public void debug(Object a) {
+        if (delegate.isDebugEnabled()) {
+            log(AsyncLogQueue.DEBUG, null, 1, a, null, null, null);
+        }
+    }
+
+    @Override
+    public void debug(Object a, Object b) {
+        if (delegate.isDebugEnabled()) {
+            log(AsyncLogQueue.DEBUG, null, 2, a, b, null, null);
+        }
+    }
+
+    @Override
+    public void debug(Object a, Object b, Object c) {
+        if (delegate.isDebugEnabled()) {
+            log(AsyncLogQueue.DEBUG, null, 3, a, b, c, null);
+        }
+    }
+
+    @Override
+    public void debug(Throwable t, Object a) {
+        if (delegate.isDebugEnabled()) {
+            log(AsyncLogQueue.DEBUG, t, 1, a, null, null, null);
+        }
+    }
+
+    @Override
+    public void debug(Throwable t, Object a, Object b) {
+        if (delegate.isDebugEnabled()) {
+            log(AsyncLogQueue.DEBUG, t, 2, a, b, null, null);
+        }
+    }
+
+    // info
+
+    @Override
+    public void info(Throwable t, Object... args) {
+        if (delegate.isInfoEnabled()) {
+            log(AsyncLogQueue.INFO, t, -1, null, null, null, args);
+        }
+    }
+
+    @Override
+    public void info(Object... args) {
+        if (delegate.isInfoEnabled()) {
+            log(AsyncLogQueue.INFO, null, -1, null, null, null, args);
+        }
+    }
+
+    @Override
+    public void info(Throwable t) {
+        if (delegate.isInfoEnabled()) {
+            log(AsyncLogQueue.INFO, t, -1, null, null, null, NO_ARGS);
+        }
+    }
+
+    @Override
+    public void info(Object a) {
+        if (delegate.isInfoEnabled()) {
+            log(AsyncLogQueue.INFO, null, 1, a, null, null, null);
+        }
+    }
+
+    @Override
+    public void info(Object a, Object b) {
+        if (delegate.isInfoEnabled()) {
+            log(AsyncLogQueue.INFO, null, 2, a, b, null, null);
+        }
+    }
+
+    @Override
+    public void info(Object a, Object b, Object c) {
+        if (delegate.isInfoEnabled()) {
+            log(AsyncLogQueue.INFO, null, 3, a, b, c, null);
+        }
+    }
+
+    @Override
+    public void info(Throwable t, Object a) {
+        if (delegate.isInfoEnabled()) {
+            log(AsyncLogQueue.INFO, t, 1, a, null, null, null);
+        }
+    }
+
+    @Override
+    public void info(Throwable t, Object a, Object b) {
+        if (delegate.isInfoEnabled()) {
+            log(AsyncLogQueue.INFO, t, 2, a, b, null, null);
+        }
+    }
+
+    // warn
+
+    @Override
+    public void warn(Throwable t, Object... args) {
+        if (delegate.isWarnEnabled()) {
+            log(AsyncLogQueue.WARN, t, -1, null, null, null, args);
+        }
+    }
+
+    @Override
+    public void warn(Object... args) {
+        if (delegate.isWarnEnabled()) {
+            log(AsyncLogQueue.WARN, null, -1, null, null, null, args);
+        }
+    }
+
+    @Override
+    public void warn(Throwable t) {
+        if (delegate.isWarnEnabled()) {
+            log(AsyncLogQueue.WARN, t, -1, null, null, null, NO_ARGS);
+        }
+    }
+
+    @Override
+    public void warn(Object a) {
+        if (delegate.isWarnEnabled()) {
+            log(AsyncLogQueue.WARN, null, 1, a, null, null, null);
+        }
+    }
+
+    @Override
+    public void warn(Object a, Object b) {
+        if (delegate.isWarnEnabled()) {
+            log(AsyncLogQueue.WARN, null, 2, a, b, null, null);
+        }
+    }
+
+    @Override
+    public void warn(Object a, Object b, Object c) {
+        if (delegate.isWarnEnabled()) {
+            log(AsyncLogQueue.WARN, null, 3, a, b, c, null);
+        }
+    }
+
+    @Override
+    public void warn(Throwable t, Object a) {
+        if (delegate.isWarnEnabled()) {
+            log(AsyncLogQueue.WARN, t, 1, a, null, null, null);
+        }
+    }
+
+    @Override
+    public void warn(Throwable t, Object a, Object b) {
+        if (delegate.isWarnEnabled()) {
+            log(AsyncLogQueue.WARN, t, 2, a, b, null, null);
+        }
+    }
+
+    // error
+
+    @Override
+    public void error(Throwable t, Object... args) {
+        if (delegate.isErrorEnabled()) {
+            log(AsyncLogQueue.ERROR, t, -1, null, null, null, args);
+        }
+    }
+
+    @Override
+    public void error(Object... args) {
+        if (delegate.isErrorEnabled()) {
+            log(AsyncLogQueue.ERROR, null, -1, null, null, null, args);
+        }
+    }
+
+    @Override
+    public void error(Throwable t) {
+        if (delegate.isErrorEnabled()) {
+            log(AsyncLogQueue.ERROR, t, -1, null, null, null, NO_ARGS);
+        }
+    }
+
+    @Override
+    public void error(Object a) {
+        if (delegate.isErrorEnabled()) {
+            log(AsyncLogQueue.ERROR, null, 1, a, null, null, null);
+        }
+    }
+
+    @Override
+    public void error(Object a, Object b) {
+        if (delegate.isErrorEnabled()) {
+            log(AsyncLogQueue.ERROR, null, 2, a, b, null, null);
+        }
+    }
+
+    @Override
+    public void error(Object a, Object b, Object c) {
+        if (delegate.isErrorEnabled()) {
+            log(AsyncLogQueue.ERROR, null, 3, a, b, c, null);
+        }
+    }
+
+    @Override
+    public void error(Throwable t, Object a) {
+        if (delegate.isErrorEnabled()) {
+            log(AsyncLogQueue.ERROR, t, 1, a, null, null, null);
+        }
+    }
+
+    @Override
+    public void error(Throwable t, Object a, Object b) {
+        if (delegate.isErrorEnabled()) {
+            log(AsyncLogQueue.ERROR, t, 2, a, b, null, null);
+        }
+    }
+}
@@ -70,6 +70,30 @@ public class Log4JLogger extends fi.nls.oskari.log.Logger {
         return log.isDebugEnabled();
     }
 
+    @Override
+    public boolean isInfoEnabled() {
+        if(log == null) {
+            return false;
+        }
+        return log.isInfoEnabled();
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        if(log == null) {
+            return false;
+        }
+        return log.isEnabledFor(Level.WARN);
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        if(log == null) {
+            return false;
+        }
+        return log.isEnabledFor(Level.ERROR);
+    }
+
     @Override
     public void debug(Throwable t, Object... args) {
         if(log == null || !log.isDebugEnabled()) {
@@ -67,6 +67,30 @@ public class Slf4JLogger extends fi.nls.oskari.log.Logger {
         return log.isDebugEnabled();
     }
 
+    @Override
+    public boolean isInfoEnabled() {
+        if(log == null) {
+            return false;
+        }
+        return log.isInfoEnabled();
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        if(log == null) {
+            return false;
+        }
+        return log.isWarnEnabled();
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        if(log == null) {
+            return false;
+        }
+        return log.isErrorEnabled();
+    }
+
     @Override
     public void debug(Throwable t, Object... args) {
         if(log == null || !log.isDebugEnabled()) {
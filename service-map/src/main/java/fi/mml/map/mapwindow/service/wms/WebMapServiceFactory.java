@@ -1,8 +1,11 @@
 package fi.mml.map.mapwindow.service.wms;
 
+import fi.mml.capabilities.WMSCapabilitiesDocument;
 import fi.mml.map.mapwindow.util.RemoteServiceDownException;
+import fi.mml.wms.v111.WMTMSCapabilitiesDocument;
 import fi.nls.oskari.cache.Cache;
 import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.cache.JedisManager;
 import fi.nls.oskari.domain.map.OskariLayer;
 import fi.nls.oskari.map.layer.OskariLayerService;
 import fi.nls.oskari.map.layer.OskariLayerServiceIbatisImpl;
@@ -10,6 +13,8 @@ import fi.nls.oskari.service.OskariComponentManager;
 import fi.nls.oskari.service.capabilities.CapabilitiesCacheService;
 import fi.nls.oskari.service.capabilities.OskariLayerCapabilities;
 import fi.nls.oskari.wms.WMSCapabilities;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlObject;
 
 /**
  * Factory for creating WMS objects
@@ -20,8 +25,20 @@ public class WebMapServiceFactory {
     private static final CapabilitiesCacheService CAPABILITIES_SERVICE = OskariComponentManager.getComponentOfType(CapabilitiesCacheService.class);
     private static final OskariLayerService LAYER_SERVICE = new OskariLayerServiceIbatisImpl();
     private static Cache<WebMapService> wmsCache = CacheManager.getCache(WebMapServiceFactory.class.getName());
+    // parsed capabilities documents shared by all layers of the same service
+    // so the document is parsed once per service instead of once per layer
+    private static Cache<XmlObject> documentCache = CacheManager.getCache(WebMapServiceFactory.class.getName() + ".documents");
+    // bumped in Redis when capabilities change so other nodes flush their caches
+    private static final String CACHE_VERSION_KEY = "oskari_capabilities_version";
+    private static final long VERSION_CHECK_INTERVAL_MS = 10L*1000L;
+    private static final Object VERSION_LOCK = new Object();
+    private static String cacheVersion;
+    private static volatile long versionChecked;
     static {
         wmsCache.setExpiration(12L*60L*60L*1000L);
+        // documents are large, keep them only while layers of the service are being processed
+        documentCache.setExpiration(10L*60L*1000L);
+        documentCache.setLimit(20);
     }
 	
 	/**
@@ -38,6 +55,7 @@ public class WebMapServiceFactory {
     }
 
     public static WebMapService buildWebMapService(OskariLayer layer) throws WebMapServiceParseException {
+        checkCacheVersion();
         final String cacheKey = "wmsCache_" + layer.getId();
 		WebMapService wms = wmsCache.get(cacheKey);
         // caching since this is called whenever a layer JSON is created!!
@@ -50,12 +68,7 @@ public class WebMapServiceFactory {
                 return emptyCaps;
             }
             try {
-                final String data = cc.getData().trim();
-                if (isVersion1_3_0(data)) {
-                    wms = new WebMapServiceV1_3_0_Impl("from DataBase", data, layer.getName());
-                } else if (isVersion1_1_1(data)) {
-                    wms = new WebMapServiceV1_1_1_Impl("from DataBase", data, layer.getName());
-                }
+                wms = createFromCapabilities(cc, layer.getName());
                 if(wms != null) {
                     // cache the parsed value
                     wmsCache.put(cacheKey, wms);
@@ -69,6 +82,43 @@ public class WebMapServiceFactory {
 		return wms;
 	}
 
+    /**
+     * Parses the capabilities document or uses a previously parsed document for the same service.
+     * Use this instead of createFromXML() when creating WebMapServices for many layers of a service.
+     * @param cc capabilities for the service
+     * @param layerName layer to get info for
+     * @return WebMapService or null if version is not supported
+     * @throws WebMapServiceParseException
+     */
+    public static WebMapService createFromCapabilities(final OskariLayerCapabilities cc, final String layerName)
+            throws WebMapServiceParseException {
+        final String data = cc.getData().trim();
+        final boolean isVersion1_3_0 = isVersion1_3_0(data);
+        if (!isVersion1_3_0 && !isVersion1_1_1(data)) {
+            return null;
+        }
+        // data hash in key so updated capabilities are parsed again
+        final String docKey = cc.getLayertype() + "_" + (isVersion1_3_0 ? "1.3.0" : "1.1.1") +
+                "_" + cc.getUrl() + "_" + data.hashCode();
+        XmlObject doc = documentCache.get(docKey);
+        try {
+            if (isVersion1_3_0) {
+                if (!(doc instanceof WMSCapabilitiesDocument)) {
+                    doc = WMSCapabilitiesDocument.Factory.parse(data);
+                    documentCache.put(docKey, doc);
+                }
+                return new WebMapServiceV1_3_0_Impl("from DataBase", (WMSCapabilitiesDocument) doc, layerName);
+            }
+            if (!(doc instanceof WMTMSCapabilitiesDocument)) {
+                doc = WMTMSCapabilitiesDocument.Factory.parse(data);
+                documentCache.put(docKey, doc);
+            }
+            return new WebMapServiceV1_1_1_Impl("from DataBase", (WMTMSCapabilitiesDocument) doc, layerName);
+        } catch (XmlException ex) {
+            throw new WebMapServiceParseException(ex);
+        }
+    }
+
     public static WebMapService createFromXML(final String layerName, final String xml) {
         try {
             if (isVersion1_3_0(xml)) {
@@ -95,6 +145,38 @@ public class WebMapServiceFactory {
 
     public static void flushCache() {
         wmsCache.flush(true);
+        documentCache.flush(true);
+    }
+
+    /**
+     * Flushes the caches on this node right away and on other nodes when they next check
+     * the cache version (at most VERSION_CHECK_INTERVAL_MS later). Without Redis only the
+     * caches on this node are flushed.
+     */
+    public static void flushCacheOnAllNodes() {
+        flushCache();
+        JedisManager.incr(CACHE_VERSION_KEY);
+    }
+
+    /**
+     * Flushes the caches if capabilities have been updated on any node since the last check.
+     * Redis is checked at most once per VERSION_CHECK_INTERVAL_MS.
+     */
+    private static void checkCacheVersion() {
+        if (System.currentTimeMillis() - versionChecked < VERSION_CHECK_INTERVAL_MS) {
+            return;
+        }
+        synchronized (VERSION_LOCK) {
+            if (System.currentTimeMillis() - versionChecked < VERSION_CHECK_INTERVAL_MS) {
+                return;
+            }
+            final String version = JedisManager.get(CACHE_VERSION_KEY);
+            if (version != null && !version.equals(cacheVersion)) {
+                flushCache();
+                cacheVersion = version;
+            }
+            versionChecked = System.currentTimeMillis();
+        }
     }
 
 	/**
@@ -49,6 +49,20 @@ public class WebMapServiceV1_1_1_Impl extends AbstractWebMapService {
 		parseXML(data, layerName);
 	}
 
+	/**
+	 * Creates a new object from an already parsed capabilities document
+	 * so the document can be shared by all layers of the service
+	 *
+	 * @param url getCapabilitiesUrl
+	 * @param capabilities
+	 * @param layerName
+	 * @throws WebMapServiceParseException
+	 */
+	public WebMapServiceV1_1_1_Impl(String url, WMTMSCapabilitiesDocument capabilities, String layerName) throws WebMapServiceParseException {
+		getCapabilitiesUrl = url;
+		parseDocument(capabilities, layerName);
+	}
+
     public String getVersion() {
         return "1.1.1";
     }
@@ -60,8 +74,22 @@ public class WebMapServiceV1_1_1_Impl extends AbstractWebMapService {
 	 */
 	private void parseXML(String data, String layerName) throws WebMapServiceParseException {
 		try {
-			final WMTMSCapabilitiesDocument wmtms = WMTMSCapabilitiesDocument.Factory.parse(data);
-			
+			parseDocument(WMTMSCapabilitiesDocument.Factory.parse(data), layerName);
+		} catch (WebMapServiceParseException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new WebMapServiceParseException(e);
+		}
+	}
+
+	/**
+	 * Finds layer info from parsed capabilities
+	 *
+	 * @param wmtms
+	 * @param layerName
+	 */
+	private void parseDocument(WMTMSCapabilitiesDocument wmtms, String layerName) throws WebMapServiceParseException {
+		try {
 			/* Gather all root styles in this map, so that there are no duplicates */
 			Map<String, String> rootStyles = new HashMap<String, String>();
 			
@@ -61,6 +61,20 @@ public class WebMapServiceV1_3_0_Impl extends AbstractWebMapService {
 		getCapabilitiesUrl = url;
 		parseXML(data, layerName);
 	}
+
+	/**
+	 * Creates a new object from an already parsed capabilities document
+	 * so the document can be shared by all layers of the service
+	 *
+	 * @param url getCapabilitiesUrl
+	 * @param capabilities
+	 * @param layerName
+	 * @throws WebMapServiceParseException
+	 */
+	public WebMapServiceV1_3_0_Impl(String url, WMSCapabilitiesDocument capabilities, String layerName) throws WebMapServiceParseException {
+		getCapabilitiesUrl = url;
+		parseDocument(capabilities, layerName);
+	}
 	
 	
 	/**
@@ -71,8 +85,22 @@ public class WebMapServiceV1_3_0_Impl extends AbstractWebMapService {
 	 */
 	private void parseXML(String data, String layerName) throws WebMapServiceParseException {
 		try {
-			
-			final WMSCapabilitiesDocument wmtms = WMSCapabilitiesDocument.Factory.parse(data);
+			parseDocument(WMSCapabilitiesDocument.Factory.parse(data), layerName);
+		} catch (WebMapServiceParseException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new WebMapServiceParseException(e);
+		}
+	}
+
+	/**
+	 * Finds layer info from parsed capabilities
+	 *
+	 * @param wmtms
+	 * @param layerName
+	 */
+	private void parseDocument(WMSCapabilitiesDocument wmtms, String layerName) throws WebMapServiceParseException {
+		try {
 			
 			/* Gather all root styles in this map, so that there are no duplicates */
 			Map<String, String> rootStyles = new HashMap<String, String>();
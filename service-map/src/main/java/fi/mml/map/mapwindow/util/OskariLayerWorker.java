@@ -1,5 +1,6 @@
 package fi.mml.map.mapwindow.util;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import fi.mml.portti.domain.permissions.Permissions;
 import fi.mml.portti.service.db.permissions.PermissionsService;
 import fi.mml.portti.service.db.permissions.PermissionsServiceIbatisImpl;
@@ -13,13 +14,12 @@ import fi.nls.oskari.map.layer.OskariLayerService;
 import fi.nls.oskari.map.layer.OskariLayerServiceIbatisImpl;
 import fi.nls.oskari.map.layer.formatters.LayerJSONFormatter;
 import fi.nls.oskari.util.JSONHelper;
+import fi.nls.oskari.util.JSONStreamWriter;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.io.IOException;
+import java.util.*;
 
 /**
  * Worker class for rendering json objects from domain objects
@@ -82,62 +82,113 @@ public class OskariLayerWorker {
     public static JSONObject getListOfMapLayers(final List<OskariLayer> layers, final User user,
                                                 final String lang, final boolean isPublished, final boolean isSecure) {
 
+        final LayerPermissions permissions = getLayerPermissions(user, isPublished);
+        final JSONArray layersList = new JSONArray();
+        long start = System.currentTimeMillis();
+        for (OskariLayer layer : layers) {
+            final JSONObject layerJson = getLayerJSON(layer, user, lang, isSecure, permissions);
+            if (layerJson != null) {
+                layersList.put(layerJson);
+            }
+        }
+        log.debug("Created JSON in", System.currentTimeMillis() - start, "ms");
+        log.debug("Returning", layersList.length(), "/", layers.size(),"layers");
+
+        final JSONObject result = new JSONObject();
+        JSONHelper.putValue(result, KEY_LAYERS, layersList);
+        return result;
+    }
+
+    /**
+     * Streaming version of getListOfAllMapLayers(). Writes the layers the user is permitted to view one by one
+     * so the JSON for the whole layer list is never held in memory.
+     *
+     * @param gen         generator to write to
+     * @param user        User
+     * @param lang        Language
+     * @param isSecure    true to modify urls for easier proxy forwarding/false to keep as is
+     * @param mapSRS      projection to transform layer coverage geometries to
+     * @throws IOException
+     */
+    public static void writeListOfAllMapLayers(final JsonGenerator gen, final User user, final String lang,
+                                               final boolean isSecure, final String mapSRS) throws IOException {
+        final List<OskariLayer> layers = mapLayerService.findAll();
+        final LayerPermissions permissions = getLayerPermissions(user, false);
+        gen.writeStartObject();
+        gen.writeFieldName(KEY_LAYERS);
+        gen.writeStartArray();
+        for (OskariLayer layer : layers) {
+            final JSONObject layerJson = getLayerJSON(layer, user, lang, isSecure, permissions);
+            if (layerJson != null) {
+                transformWKTGeom(layerJson, mapSRS);
+                JSONStreamWriter.write(gen, layerJson);
+            }
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+
+    /**
+     * Returns the JSON for a layer or null if the user doesn't have permission for it
+     */
+    private static JSONObject getLayerJSON(final OskariLayer layer, final User user, final String lang,
+                                           final boolean isSecure, final LayerPermissions permissions) {
+        final String permissionKey = layer.getType()+ "+" + layer.getUrl() + "+" + layer.getName();
+        if (layer.getParentId() == -1 && !permissions.resources.contains(permissionKey)) {
+            // not permitted if resource NOT found in permissions!
+            // sublayers can pass through since their parentId != -1
+            return null;
+        }
+        try {
+            final JSONObject layerJson = FORMATTER.getJSON(layer, lang, isSecure);
+            if (layerJson == null) {
+                return null;
+            }
+            JSONObject layerPermissions = getPermissions(user, permissionKey,
+                    permissions.publish, permissions.download, permissions.edit);
+            JSONHelper.putValue(layerJson, "permissions", layerPermissions);
+            if(layerPermissions.optBoolean("edit")) {
+                // has edit rights, alter JSON/add info for admin bundle
+                modifyCommonFieldsForEditing(layerJson, layer);
+            }
+            else {
+                FORMATTER.removeAdminInfo(layerJson);
+            }
+            return layerJson;
+        }
+        catch(Exception ex) {
+            log.error(ex);
+        }
+        return null;
+    }
+
+    private static LayerPermissions getLayerPermissions(final User user, final boolean isPublished) {
+        final LayerPermissions permissions = new LayerPermissions();
         final String permissionType = getPermissionType(isPublished);
         long start = System.currentTimeMillis();
-        final List<String> resources = permissionsService.getResourcesWithGrantedPermissions(
-                Permissions.RESOURCE_TYPE_MAP_LAYER, user, permissionType);
+        permissions.resources = new HashSet<String>(permissionsService.getResourcesWithGrantedPermissions(
+                Permissions.RESOURCE_TYPE_MAP_LAYER, user, permissionType));
         log.debug("View permissions loaded in", System.currentTimeMillis() - start, "ms");
 
         start = System.currentTimeMillis();
-        final Set<String> permissionsList = permissionsService.getPublishPermissions();
+        permissions.publish = permissionsService.getPublishPermissions();
         log.debug("Publish permissions loaded in", System.currentTimeMillis() - start, "ms");
 
         start = System.currentTimeMillis();
-        final Set<String> downloadPermissionsList = permissionsService.getDownloadPermissions();
+        permissions.download = permissionsService.getDownloadPermissions();
         log.debug("Download permissions loaded in", System.currentTimeMillis() - start, "ms");
 
         start = System.currentTimeMillis();
-        final Set<String> editAccessList = permissionsService.getEditPermissions();
+        permissions.edit = permissionsService.getEditPermissions();
         log.debug("Edit permissions loaded in", System.currentTimeMillis() - start, "ms");
+        return permissions;
+    }
 
-        final JSONArray layersList = new JSONArray();
-        start = System.currentTimeMillis();
-        for (OskariLayer layer : layers) {
-            final String permissionKey = layer.getType()+ "+" + layer.getUrl() + "+" + layer.getName();
-            if (layer.getParentId() == -1 && !resources.contains(permissionKey)) {
-                // not permitted if resource NOT found in permissions!
-                // sublayers can pass through since their parentId != -1
-                continue;
-            }
-            try {
-                final JSONObject layerJson = FORMATTER.getJSON(layer, lang, isSecure);
-                //log.debug("Generated JSON");
-                if (layerJson != null) {
-                    //log.debug("Generating permissions JSON");
-                    JSONObject permissions = getPermissions(user, permissionKey, permissionsList, downloadPermissionsList, editAccessList);
-                    JSONHelper.putValue(layerJson, "permissions", permissions);
-                    if(permissions.optBoolean("edit")) {
-                        // has edit rights, alter JSON/add info for admin bundle
-                        modifyCommonFieldsForEditing(layerJson, layer);
-                    }
-                    else {
-                        FORMATTER.removeAdminInfo(layerJson);
-                    }
-
-                    //log.debug("Adding layer to list");
-                    layersList.put(layerJson);
-                }
-            }
-            catch(Exception ex) {
-                log.error(ex);
-            }
-        }
-        log.debug("Created JSON in", System.currentTimeMillis() - start, "ms");
-        log.debug("Returning", layersList.length(), "/", layers.size(),"layers");
-
-        final JSONObject result = new JSONObject();
-        JSONHelper.putValue(result, KEY_LAYERS, layersList);
-        return result;
+    private static class LayerPermissions {
+        private Set<String> resources;
+        private Set<String> publish;
+        private Set<String> download;
+        private Set<String> edit;
     }
 
     /**
@@ -11,19 +11,17 @@ import org.json.JSONObject;
 import org.jsoup.Jsoup;
 import org.jsoup.safety.Whitelist;
 import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.StringReader;
 import java.io.StringWriter;
-import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.util.HashMap;
 import java.util.Map;
@@ -62,7 +60,7 @@ public class GetGeoPointDataService {
         final String xslt = params.getLayer().getGfiXslt();
         JSONObject respObj = null;
         if (xslt != null && !xslt.isEmpty()) {
-            final String transformedResult = transformResponse(xslt, gfiResponse);
+            final String transformedResult = transformResponse(params.getLayer().getId(), xslt, gfiResponse);
             respObj = JSONHelper.createJSONObject(transformedResult);
             if(respObj != null) {
                 JSONHelper.putValue(response, PRESENTATION_TYPE, PRESENTATION_TYPE_JSON);
@@ -146,28 +144,17 @@ public class GetGeoPointDataService {
     }
 
   
-    private String transformResponse(final String xslt, final String response) {
+    private String transformResponse(final int layerId, final String xslt, final String response) {
 
         if (xslt == null || "".equals(xslt)) {
             // if not found, return as is
             return response;
         }
 
-        ByteArrayInputStream respInStream = null;
-        ByteArrayInputStream xsltInStream = null;
-        Writer outWriter = null;
         try {
-            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setValidating(false);
-            factory.setNamespaceAware(true);
-            final DocumentBuilder builder = factory.newDocumentBuilder();
-
-            respInStream = new ByteArrayInputStream(response.getBytes("UTF-8"));
-            final Document document = builder.parse(respInStream);
-            xsltInStream = new ByteArrayInputStream(xslt.getBytes());
-            final StreamSource stylesource = new StreamSource(xsltInStream);
-            final String transformedResponse = getFormatedJSONString(document, stylesource);
-            
+            final Templates templates = XSLTTemplateCache.getTemplates(layerId, xslt);
+            final String transformedResponse = XSLTTemplateCache.transform(templates, new InputSource(new StringReader(response)));
+
             if (transformedResponse == null
                     || transformedResponse.isEmpty()) {
                 log.info("got empty result from transform with:", xslt, " - Response:", response);
@@ -178,34 +165,17 @@ public class GetGeoPointDataService {
         } catch (Exception e) {
             log.error("Error transforming GFI response: ", response, "- with XSLT:", xslt,
                     "Error:", e.getMessage());
-        } finally {
-            if (respInStream != null) {
-                try {
-                    respInStream.close();
-                } catch (Exception ignored) {
-                }
-            }
-            if (xsltInStream != null) {
-                try {
-                    xsltInStream.close();
-                } catch (Exception ignored) {
-                }
-            }
-            if (outWriter != null) {
-                try {
-                    outWriter.close();
-                } catch (Exception ignored) {
-                }
-            }
         }
         // Sanitize response
         return Jsoup.clean(response, Whitelist.relaxed());
     }
 
-    
+    /**
+     * @deprecated Compiles the XSLT on each call, use XSLTTemplateCache instead
+     */
+    @Deprecated
     public static String getFormatedJSONString(Document document, StreamSource stylesource) throws TransformerException {
-        final Transformer transformer = TransformerFactory.newInstance()
-                .newTransformer(stylesource);
+        final Transformer transformer = XSLTTemplateCache.compile(stylesource).newTransformer();
 
         final DOMSource source = new DOMSource(document);
         final StringWriter outWriter = new StringWriter();
@@ -0,0 +1,175 @@
+package fi.nls.oskari.map.data.service;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.IOHelper;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLFilter;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Compiled XSLTs for transforming GetFeatureInfo responses. Compiling an XSLT costs much more than
+ * running it so layers' gfi_xslt are compiled once and the thread-safe Templates are reused until
+ * the layer is saved (OskariLayerService calls invalidate()). Transforms read the input with SAX
+ * straight to the result without building a DOM.
+ */
+public class XSLTTemplateCache {
+
+    private static final Logger LOG = LogFactory.getLogger(XSLTTemplateCache.class);
+
+    // factories are expensive to look up but aren't thread-safe -> synchronize on use
+    private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance();
+    private static final SAXParserFactory PARSER_FACTORY = SAXParserFactory.newInstance();
+    static {
+        PARSER_FACTORY.setNamespaceAware(true);
+        PARSER_FACTORY.setValidating(false);
+    }
+
+    private static final ConcurrentMap<String, LayerTemplates> LAYER_TEMPLATES = new ConcurrentHashMap<String, LayerTemplates>();
+    private static final ConcurrentMap<String, Templates> RESOURCE_TEMPLATES = new ConcurrentHashMap<String, Templates>();
+
+    private static class LayerTemplates {
+        final int hash;
+        final String xslt;
+        final Templates templates;
+
+        LayerTemplates(final String xslt, final Templates templates) {
+            this.hash = xslt.hashCode();
+            this.xslt = xslt;
+            this.templates = templates;
+        }
+
+        boolean matches(final String other) {
+            return hash == other.hashCode() && xslt.equals(other);
+        }
+    }
+
+    private XSLTTemplateCache() {
+        // use static methods
+    }
+
+    /**
+     * Returns compiled XSLT for the layer. The XSLT is recompiled if it has changed since it was cached.
+     * @param layerId layer the XSLT is configured for
+     * @param xslt XSLT content
+     * @return compiled XSLT
+     * @throws TransformerConfigurationException if the XSLT can't be compiled
+     */
+    public static Templates getTemplates(final int layerId, final String xslt) throws TransformerConfigurationException {
+        final String key = Integer.toString(layerId);
+        final LayerTemplates cached = LAYER_TEMPLATES.get(key);
+        if (cached != null && cached.matches(xslt)) {
+            return cached.templates;
+        }
+        LOG.debug("Compiling GFI XSLT for layer:", layerId);
+        final Templates templates = compile(new StreamSource(new StringReader(xslt)));
+        LAYER_TEMPLATES.put(key, new LayerTemplates(xslt, templates));
+        return templates;
+    }
+
+    /**
+     * Returns compiled XSLT from a classpath resource. Resources don't change so they are cached for good.
+     * @param clazz class to load the resource with
+     * @param resourceName resource relative to the class
+     * @return compiled XSLT
+     * @throws TransformerConfigurationException if the resource is missing or can't be compiled
+     */
+    public static Templates getResourceTemplates(final Class<?> clazz, final String resourceName) throws TransformerConfigurationException {
+        final String key = clazz.getName() + "/" + resourceName;
+        Templates templates = RESOURCE_TEMPLATES.get(key);
+        if (templates != null) {
+            return templates;
+        }
+        final InputStream in = clazz.getResourceAsStream(resourceName);
+        if (in == null) {
+            throw new TransformerConfigurationException("XSLT resource not found: " + key);
+        }
+        try {
+            templates = compile(new StreamSource(in));
+        } finally {
+            IOHelper.close(in);
+        }
+        RESOURCE_TEMPLATES.put(key, templates);
+        return templates;
+    }
+
+    /**
+     * Compiles an XSLT with the shared TransformerFactory.
+     */
+    public static Templates compile(final Source xslt) throws TransformerConfigurationException {
+        synchronized (TRANSFORMER_FACTORY) {
+            return TRANSFORMER_FACTORY.newTemplates(xslt);
+        }
+    }
+
+    /**
+     * Removes the compiled XSLT of a layer. Should be called when the layer is modified or removed.
+     * @param layerId
+     */
+    public static void invalidate(final int layerId) {
+        LAYER_TEMPLATES.remove(Integer.toString(layerId));
+    }
+
+    public static void flush() {
+        LAYER_TEMPLATES.clear();
+    }
+
+    /**
+     * Transforms the input streaming it through a SAX parser.
+     * @param templates compiled XSLT
+     * @param input XML to transform
+     * @return transformed result trimmed
+     */
+    public static String transform(final Templates templates, final InputSource input) throws TransformerException {
+        return transform(templates, null, input);
+    }
+
+    /**
+     * Transforms the input streaming it through a SAX parser. The filter sees the parse events
+     * before the transformer so it can be used to pick up values from the input while transforming.
+     * @param templates compiled XSLT
+     * @param filter filter for parse events or null
+     * @param input XML to transform
+     * @return transformed result trimmed
+     */
+    public static String transform(final Templates templates, final XMLFilter filter, final InputSource input)
+            throws TransformerException {
+        XMLReader reader = createReader();
+        if (filter != null) {
+            filter.setParent(reader);
+            reader = filter;
+        }
+        final StringWriter out = new StringWriter();
+        templates.newTransformer().transform(new SAXSource(reader, input), new StreamResult(out));
+        return out.toString().trim();
+    }
+
+    private static XMLReader createReader() throws TransformerException {
+        try {
+            synchronized (PARSER_FACTORY) {
+                return PARSER_FACTORY.newSAXParser().getXMLReader();
+            }
+        } catch (ParserConfigurationException e) {
+            throw new TransformerException("Couldn't create XML parser", e);
+        } catch (SAXException e) {
+            throw new TransformerException("Couldn't create XML parser", e);
+        }
+    }
+}
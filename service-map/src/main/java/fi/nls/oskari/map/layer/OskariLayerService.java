@@ -16,4 +16,10 @@ public interface OskariLayerService extends BaseService<OskariLayer> {
 
     public List<OskariLayer> find(final List<String> idList);
     public List<OskariLayer> findByUrlAndName(final String url, final String name);
+
+    /**
+     * Saves the pre-parsed capabilities of the layers with a single batch. Other fields are not updated.
+     * @param layers
+     */
+    public void updateCapabilities(final List<OskariLayer> layers);
 }
@@ -1,8 +1,6 @@
 package fi.nls.oskari.map.layer;
 
-import com.ibatis.common.resources.Resources;
 import com.ibatis.sqlmap.client.SqlMapClient;
-import com.ibatis.sqlmap.client.SqlMapClientBuilder;
 import fi.mml.map.mapwindow.service.db.InspireThemeService;
 import fi.mml.map.mapwindow.service.db.InspireThemeServiceIbatisImpl;
 import fi.nls.oskari.domain.map.InspireTheme;
@@ -10,10 +8,12 @@ import fi.nls.oskari.domain.map.LayerGroup;
 import fi.nls.oskari.domain.map.OskariLayer;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.map.data.service.XSLTTemplateCache;
+import fi.nls.oskari.cache.AppSetupCache;
+import fi.nls.oskari.service.db.SqlMapClientRegistry;
 import fi.nls.oskari.util.ConversionHelper;
 import fi.nls.oskari.util.JSONHelper;
 
-import java.io.Reader;
 import java.sql.SQLException;
 import java.util.*;
 
@@ -52,27 +52,10 @@ public class OskariLayerServiceIbatisImpl implements OskariLayerService {
      * @return
      */
     protected SqlMapClient getSqlMapClient() {
-        if (client != null) {
-            return client;
-        }
-
-        Reader reader = null;
-        try {
-            String sqlMapLocation = getSqlMapLocation();
-            reader = Resources.getResourceAsReader(sqlMapLocation);
-            client = SqlMapClientBuilder.buildSqlMapClient(reader);
-            return client;
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to retrieve SQL client", e);
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            }
+        if (client == null) {
+            client = SqlMapClientRegistry.getClient(getSqlMapLocation());
         }
+        return client;
     }
 
     /*
@@ -323,24 +306,47 @@ public class OskariLayerServiceIbatisImpl implements OskariLayerService {
             getSqlMapClient().update(getNameSpace() + ".update", layer);
             // link to inspire theme(s)
             inspireThemeService.updateLayerThemes(layer.getId(), layer.getInspireThemes());
+            AppSetupCache.flush();
+            XSLTTemplateCache.invalidate(layer.getId());
         } catch (Exception e) {
             throw new RuntimeException("Failed to update", e);
         }
     }
 
+    public void updateCapabilities(final List<OskariLayer> layers) {
+        if (layers.isEmpty()) {
+            return;
+        }
+        final SqlMapClient client = getSqlMapClient();
+        try {
+            client.startTransaction();
+            client.startBatch();
+            for (OskariLayer layer : layers) {
+                client.update(getNameSpace() + ".updateCapabilities", layer);
+            }
+            client.executeBatch();
+            client.commitTransaction();
+            AppSetupCache.flush();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to update capabilities", e);
+        } finally {
+            try {
+                client.endTransaction();
+            } catch (SQLException ignored) { }
+        }
+    }
+
     public synchronized int insert(final OskariLayer layer) {
         SqlMapClient client = null;
+        final Integer id;
         try {
             client = getSqlMapClient();
             client.startTransaction();
             client.insert(getNameSpace() + ".insert", layer);
-            Integer id = (Integer) client.queryForObject(getNameSpace()
+            id = (Integer) client.queryForObject(getNameSpace()
                     + ".maxId");
             layer.setId(id);
             client.commitTransaction();
-            // link to inspire theme(s)
-            inspireThemeService.updateLayerThemes(id, layer.getInspireThemes());
-            return id;
         } catch (Exception e) {
             throw new RuntimeException("Failed to insert", e);
         } finally {
@@ -350,11 +356,18 @@ public class OskariLayerServiceIbatisImpl implements OskariLayerService {
                 } catch (SQLException ignored) { }
             }
         }
+        // the client (and its thread-local transaction) is shared with the inspire theme service
+        // so link the themes only after the transaction has ended
+        inspireThemeService.updateLayerThemes(id, layer.getInspireThemes());
+        AppSetupCache.flush();
+        return id;
     }
 
     public void delete(int id) {
         try {
             client.delete(getNameSpace() + ".delete", id);
+            AppSetupCache.flush();
+            XSLTTemplateCache.invalidate(id);
         } catch (Exception e) {
             LOG.error(e, "Couldn't delete with id:", id);
         }
@@ -3,6 +3,7 @@ package fi.nls.oskari.map.myplaces.service;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.map.data.service.GetGeoPointDataService;
+import fi.nls.oskari.map.data.service.XSLTTemplateCache;
 import fi.nls.oskari.map.myplaces.domain.ProxyRequest;
 import fi.nls.oskari.util.IOHelper;
 import fi.nls.oskari.util.PropertyUtil;
@@ -10,17 +11,20 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.XMLFilterImpl;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 import javax.xml.xpath.*;
 import java.io.IOException;
 import java.io.InputStream;
@@ -31,7 +35,7 @@ public class GeoServerProxyService {
 
     private final static Logger log = LogFactory.getLogger(GeoServerProxyService.class);
 
-    private final static String WFS_FEATURECOLLECTION = "wfs:FeatureCollection";
+    private final static String ATTR_NUMBER_OF_FEATURES = "numberOfFeatures";
 
     private static final String MY_PLACE_FEATURE_FILTER_XML = "GetFeatureInfoMyPlaces.xml";
     private static final String MY_PLACE_FEATURE_FILTER_XSL = "GetFeatureInfoMyPlaces.xsl";
@@ -83,7 +87,6 @@ public class GeoServerProxyService {
 
         HttpURLConnection connection = null;
         InputStream respInStream = null;
-        InputStream xsltInStream = null;
         try {
             final String categoryId = id.substring(id.indexOf("_") + 1);
             connection = getConnection();
@@ -95,22 +98,14 @@ public class GeoServerProxyService {
             outs.flush();
             outs.close();
 
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setValidating(false);
-            factory.setNamespaceAware(true);
-
-            DocumentBuilder builder = factory.newDocumentBuilder();
             log.debug("Got response for myplaces GFI:");
             respInStream = IOHelper.debugResponse(connection.getInputStream());
 
-            org.w3c.dom.Document document = builder.parse(respInStream);
-            xsltInStream = this.getClass().getResourceAsStream(MY_PLACE_FEATURE_FILTER_XSL);
-            StreamSource stylesource = new StreamSource(xsltInStream);
-
-            String nof = document.getElementsByTagName(WFS_FEATURECOLLECTION).item(0).getAttributes().getNamedItem("numberOfFeatures").getTextContent();
+            final Templates templates = XSLTTemplateCache.getResourceTemplates(getClass(), MY_PLACE_FEATURE_FILTER_XSL);
+            final FeatureCountFilter counter = new FeatureCountFilter();
+            final String transformedResponse = XSLTTemplateCache.transform(templates, counter, new InputSource(respInStream));
 
-            if (!"0".equals(nof)) {
-                String transformedResponse = GetGeoPointDataService.getFormatedJSONString(document, stylesource);
+            if (!"0".equals(counter.numberOfFeatures)) {
                 JSONObject response = new JSONObject();
                 response.put(GetGeoPointDataService.TYPE, "wmslayer");
                 response.put(GetGeoPointDataService.LAYER_ID, id);
@@ -133,7 +128,6 @@ public class GeoServerProxyService {
             log.error("JSONException when trying do wfs query for my places", e);
         } finally {
             IOHelper.close(respInStream);
-            IOHelper.close(xsltInStream);
             if (connection != null) {
                 connection.disconnect();
             }
@@ -141,6 +135,23 @@ public class GeoServerProxyService {
         return null;
     }
 
+    /**
+     * Picks up the numberOfFeatures attribute of the FeatureCollection root element while the response is transformed
+     */
+    private static class FeatureCountFilter extends XMLFilterImpl {
+        private String numberOfFeatures;
+        private boolean rootHandled = false;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+            if (!rootHandled) {
+                rootHandled = true;
+                numberOfFeatures = atts.getValue(ATTR_NUMBER_OF_FEATURES);
+            }
+            super.startElement(uri, localName, qName, atts);
+        }
+    }
+
     private String buildQueryToStream(String resourceName,
                                       String lon_lat, int zoomLevel, String categoryId, String uuid, OutputStream outs)
             throws ParserConfigurationException, SAXException, IOException,
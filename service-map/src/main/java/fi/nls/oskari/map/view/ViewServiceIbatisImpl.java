@@ -1,7 +1,9 @@
 package fi.nls.oskari.map.view;
 
 
+import com.ibatis.sqlmap.client.SqlMapClient;
 import com.ibatis.sqlmap.client.SqlMapSession;
+import fi.nls.oskari.cache.AppSetupCache;
 import fi.nls.oskari.domain.Role;
 import fi.nls.oskari.domain.User;
 import fi.nls.oskari.domain.map.view.Bundle;
@@ -12,6 +14,7 @@ import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.service.db.BaseIbatisService;
 import fi.nls.oskari.util.ConversionHelper;
 import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.oskari.worker.WriteBehindCounter;
 
 import java.sql.SQLException;
 import java.util.*;
@@ -24,6 +27,10 @@ public class ViewServiceIbatisImpl extends BaseIbatisService<Object> implements
     private String[] viewRoles = new String[0];
     private long defaultViewProperty = -1;
 
+    // usage is written to db in batches every n milliseconds, zero or negative to update on each call
+    private static final long USAGE_FLUSH_INTERVAL = PropertyUtil.getOptional("view.usage.flushInterval", 5000);
+    private static WriteBehindCounter<Long> USAGE_COUNTER;
+
     public ViewServiceIbatisImpl() {
         super();
 
@@ -143,6 +150,7 @@ public class ViewServiceIbatisImpl extends BaseIbatisService<Object> implements
                 addBundleForView(view.getId(), bundle);
             }
             session.commitTransaction();
+            AppSetupCache.flush();
             return id;
         }  catch (Exception e) {
             throw new ViewException("Error adding a view ", e);
@@ -153,6 +161,7 @@ public class ViewServiceIbatisImpl extends BaseIbatisService<Object> implements
 
     public void updateAccessFlag(View view) {
         update("View.update-access", view);
+        AppSetupCache.flush();
     }
 
     public void deleteViewById(final long id) throws DeleteViewException {
@@ -166,6 +175,7 @@ public class ViewServiceIbatisImpl extends BaseIbatisService<Object> implements
             session.delete("View.delete-bundle-by-view", id);
             session.delete("View.delete-view", id);
             session.commitTransaction();
+            AppSetupCache.flush();
         } catch (Exception e) {
             throw new DeleteViewException("Error deleting a view with id:" + id, e);
         } finally {
@@ -181,6 +191,7 @@ public class ViewServiceIbatisImpl extends BaseIbatisService<Object> implements
             delete("View.delete-seq-by-user", userId);
             delete("View.delete-view-by-user", userId);
             session.commitTransaction();
+            AppSetupCache.flush();
         } catch (Exception e) {
             throw new DeleteViewException("Error deleting a view with user id:" + userId, e);
         } finally {
@@ -194,10 +205,53 @@ public class ViewServiceIbatisImpl extends BaseIbatisService<Object> implements
     }
 	public void updateView(View view) {
         update("View.update", view);
+        AppSetupCache.flush();
     }
 
     public void updateViewUsage(View view) {
-        update("View.updateUsage", view);
+        if(USAGE_FLUSH_INTERVAL <= 0) {
+            update("View.updateUsage", view);
+            return;
+        }
+        getUsageCounter().increment(view.getId());
+    }
+
+    private WriteBehindCounter<Long> getUsageCounter() {
+        synchronized (ViewServiceIbatisImpl.class) {
+            if(USAGE_COUNTER != null) {
+                return USAGE_COUNTER;
+            }
+            USAGE_COUNTER = WriteBehindCounter.create("ViewUsage", USAGE_FLUSH_INTERVAL,
+                    new WriteBehindCounter.Flusher<Long>() {
+                        public void flush(Map<Long, WriteBehindCounter.Usage> counters) throws Exception {
+                            updateViewUsage(counters);
+                        }
+                    });
+            return USAGE_COUNTER;
+        }
+    }
+
+    /**
+     * Writes aggregated usage counts for views with a single batch.
+     * @param counters usage per view id
+     */
+    public void updateViewUsage(final Map<Long, WriteBehindCounter.Usage> counters) throws SQLException {
+        final SqlMapClient client = getSqlMapClient();
+        try {
+            client.startTransaction();
+            client.startBatch();
+            for(Map.Entry<Long, WriteBehindCounter.Usage> entry : counters.entrySet()) {
+                final Map<String, Object> params = new HashMap<String, Object>();
+                params.put("id", entry.getKey());
+                params.put("count", entry.getValue().getCount());
+                params.put("used", entry.getValue().getLastUsed());
+                client.update("View.addUsage", params);
+            }
+            client.executeBatch();
+            client.commitTransaction();
+        } finally {
+            client.endTransaction();
+        }
     }
 
     public void updatePublishedView(final View view) throws ViewException {
@@ -213,6 +267,7 @@ public class ViewServiceIbatisImpl extends BaseIbatisService<Object> implements
                 addBundleForView(view.getId(), bundle);
             }
             session.commitTransaction();
+            AppSetupCache.flush();
         } catch (Exception e) {
             throw new ViewException("Error updating a view with id:" + id, e);
         } finally {
@@ -244,6 +299,7 @@ public class ViewServiceIbatisImpl extends BaseIbatisService<Object> implements
                 // not updated, bundle not found
                 throw new ViewException("Failed to update - bundle not found in view?");
             }
+            AppSetupCache.flush();
         } catch (Exception e) {
             throw new ViewException("Failed to update", e);
         }
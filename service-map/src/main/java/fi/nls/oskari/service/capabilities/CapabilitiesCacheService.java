@@ -28,7 +28,7 @@ public abstract class CapabilitiesCacheService extends OskariComponent {
     // timeout capabilities request after 30 seconds (configurable)
     private static final String PROP_TIMEOUT = "capabilities.timeout";
     private static final int TIMEOUT_SECONDS = PropertyUtil.getOptional(PROP_TIMEOUT, 30);
-    private static final int TIMEOUT_MS = TIMEOUT_SECONDS * 1000;
+    static final int TIMEOUT_MS = TIMEOUT_SECONDS * 1000;
 
     public abstract OskariLayerCapabilities find(final String url, final String layertype);
     public abstract OskariLayerCapabilities save(final OskariLayerCapabilities capabilities);
@@ -137,7 +137,7 @@ public abstract class CapabilitiesCacheService extends OskariComponent {
     }
 
     // TODO: maybe use some lib instead?
-    private static String getEncodingFromXml(final String response) {
+    static String getEncodingFromXml(final String response) {
         if(response == null) {
             return null;
         }
@@ -0,0 +1,276 @@
+package fi.nls.oskari.service.capabilities;
+
+import fi.mml.map.mapwindow.service.wms.WebMapService;
+import fi.mml.map.mapwindow.service.wms.WebMapServiceFactory;
+import fi.mml.map.mapwindow.service.wms.WebMapServiceParseException;
+import fi.nls.oskari.annotation.Oskari;
+import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.map.layer.OskariLayerService;
+import fi.nls.oskari.map.layer.OskariLayerServiceIbatisImpl;
+import fi.nls.oskari.map.layer.formatters.LayerJSONFormatterWMS;
+import fi.nls.oskari.service.OskariComponentManager;
+import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.oskari.worker.ScheduledJob;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Scheduled job for refreshing the capabilities documents of all services having layers.
+ * Requests use If-Modified-Since/If-None-Match so unchanged documents are not transferred again
+ * and only changed documents are saved. When a document changes the parsed capabilities
+ * caches are flushed on all nodes and pre-parsed capabilities for WMS layers are updated so requests
+ * never need to wait for a GetCapabilities call.
+ *
+ * Only one node in a cluster runs the refresh at a time. The Redis lock is renewed while the refresh
+ * is running and if Redis is unavailable the refresh is run on this node without a lock.
+ *
+ * Schedule with: oskari.scheduler.job.CapabilitiesRefresh.cronLine=0 0 * * * ?
+ */
+@Oskari("CapabilitiesRefresh")
+public class CapabilitiesRefreshJob extends ScheduledJob {
+
+    private static final Logger log = LogFactory.getLogger(CapabilitiesRefreshJob.class);
+
+    // max concurrent requests in total and per host
+    private static final String PROPERTY_MAX_CONCURRENT = "capabilities.refresh.maxConcurrent";
+    private static final String PROPERTY_MAX_PER_HOST = "capabilities.refresh.maxPerHost";
+    private static final String PROPERTY_LOCK_SECONDS = "capabilities.refresh.lockSeconds";
+    private static final String LOCK_KEY = "oskari_lock:CapabilitiesRefresh";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    private static final Set<String> REFRESHED_TYPES = new HashSet<String>(Arrays.asList(
+            OskariLayer.TYPE_WMS, OskariLayer.TYPE_WMTS, OskariLayer.TYPE_WFS));
+
+    // ETags are only kept in memory, Last-Modified is based on the saved timestamp
+    private static final ConcurrentMap<String, String> ETAGS = new ConcurrentHashMap<String, String>();
+
+    private final OskariLayerService layerService = new OskariLayerServiceIbatisImpl();
+    private CapabilitiesCacheService capabilitiesService;
+
+    @Override
+    public void execute(Map<String, Object> params) {
+        log.info("Starting capabilities refresh");
+        if (capabilitiesService == null) {
+            capabilitiesService = OskariComponentManager.getComponentOfType(CapabilitiesCacheService.class);
+        }
+        final String lockOwner = UUID.randomUUID().toString();
+        final int lockSeconds = Math.max(60, PropertyUtil.getOptional(PROPERTY_LOCK_SECONDS, 3600));
+        final JedisManager.LockResult lock = JedisManager.tryLock(LOCK_KEY, lockOwner, lockSeconds);
+        if (lock == JedisManager.LockResult.HELD) {
+            log.info("Capabilities refresh is already running on another node - quitting!");
+            return;
+        }
+        final boolean locked = lock == JedisManager.LockResult.ACQUIRED;
+        if (!locked) {
+            log.warn("Couldn't lock capabilities refresh since Redis is unavailable - running it on this node");
+        }
+        try {
+            refresh(getLayersByService(), locked ? lockOwner : null, lockSeconds);
+        } finally {
+            if (locked) {
+                JedisManager.releaseLock(LOCK_KEY, lockOwner);
+            }
+        }
+        log.info("Done with capabilities refresh");
+    }
+
+    /**
+     * Groups layers by service url and type
+     */
+    private Map<String, List<OskariLayer>> getLayersByService() {
+        final Map<String, List<OskariLayer>> services = new HashMap<String, List<OskariLayer>>();
+        for (OskariLayer layer : layerService.findAll()) {
+            if (!REFRESHED_TYPES.contains(layer.getType()) || layer.getUrl() == null) {
+                continue;
+            }
+            final String key = getServiceKey(CapabilitiesCacheService.createTemplate(layer));
+            List<OskariLayer> layers = services.get(key);
+            if (layers == null) {
+                layers = new ArrayList<OskariLayer>();
+                services.put(key, layers);
+            }
+            layers.add(layer);
+        }
+        return services;
+    }
+
+    /**
+     * @param lockOwner owner of the Redis lock to renew while running or null if not locked
+     * @param lockSeconds expiry of the lock
+     */
+    private void refresh(final Map<String, List<OskariLayer>> services, final String lockOwner, final int lockSeconds) {
+        final int threads = Math.max(1, PropertyUtil.getOptional(PROPERTY_MAX_CONCURRENT, 4));
+        final int perHost = Math.max(1, PropertyUtil.getOptional(PROPERTY_MAX_PER_HOST, 2));
+        final ConcurrentMap<String, Semaphore> hostLimits = new ConcurrentHashMap<String, Semaphore>();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CompletionService<Void> completion = new ExecutorCompletionService<Void>(executor);
+        for (final List<OskariLayer> layers : services.values()) {
+            completion.submit(new Callable<Void>() {
+                public Void call() {
+                    final Semaphore limit = getHostLimit(hostLimits, layers.get(0), perHost);
+                    limit.acquireUninterruptibly();
+                    try {
+                        refreshService(layers);
+                    } finally {
+                        limit.release();
+                    }
+                    return null;
+                }
+            });
+        }
+        // renew the lock well before it expires so a long refresh isn't started on another node
+        final long renewMillis = lockSeconds * 1000L / 3;
+        long lastRenew = System.currentTimeMillis();
+        try {
+            int done = 0;
+            while (done < services.size()) {
+                final Future<Void> result = completion.poll(renewMillis, TimeUnit.MILLISECONDS);
+                if (lockOwner != null && System.currentTimeMillis() - lastRenew >= renewMillis) {
+                    if (!JedisManager.renewLock(LOCK_KEY, lockOwner, lockSeconds)) {
+                        log.warn("Lost the lock for capabilities refresh - stopping after", done, "/", services.size(), "services");
+                        break;
+                    }
+                    lastRenew = System.currentTimeMillis();
+                }
+                if (result == null) {
+                    continue;
+                }
+                done++;
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    log.error(e.getCause(), "Error refreshing capabilities");
+                }
+            }
+        } catch (InterruptedException e) {
+            log.warn("Capabilities refresh interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Semaphore getHostLimit(final ConcurrentMap<String, Semaphore> hostLimits,
+                                   final OskariLayer layer, final int perHost) {
+        String host;
+        try {
+            host = new URL(layer.getSimplifiedUrl(true)).getHost();
+        } catch (IOException e) {
+            host = layer.getSimplifiedUrl(true);
+        }
+        final Semaphore limit = new Semaphore(perHost);
+        final Semaphore existing = hostLimits.putIfAbsent(host, limit);
+        return existing != null ? existing : limit;
+    }
+
+    /**
+     * Loads capabilities for the service and saves them if changed
+     * @param layers layers of the same service
+     */
+    private void refreshService(final List<OskariLayer> layers) {
+        final OskariLayer layer = layers.get(0);
+        final OskariLayerCapabilities saved = capabilitiesService.find(layer);
+        final OskariLayerCapabilities caps = CapabilitiesCacheService.createTemplate(layer);
+        final String key = getServiceKey(caps);
+        try {
+            final String xml = loadIfModified(layer, key, saved);
+            if (xml == null) {
+                log.debug("Capabilities not modified:", key);
+                return;
+            }
+            if (xml.trim().isEmpty() || (saved != null && xml.equals(saved.getData()))) {
+                log.debug("Capabilities unchanged:", key);
+                return;
+            }
+            caps.setData(xml);
+            capabilitiesService.save(caps);
+            log.info("Capabilities updated:", key);
+            capabilitiesUpdated(caps, layers);
+        } catch (IOException e) {
+            log.warn("Couldn't refresh capabilities for", key, "-", e.getMessage());
+        }
+    }
+
+    /**
+     * @return capabilities document or null if it hasn't been modified
+     */
+    private String loadIfModified(final OskariLayer layer, final String key,
+                                  final OskariLayerCapabilities saved) throws IOException {
+        final String url = CapabilitiesCacheService.contructCapabilitiesUrl(layer);
+        final HttpURLConnection conn = IOHelper.getConnection(url, layer.getUsername(), layer.getPassword());
+        conn.setReadTimeout(CapabilitiesCacheService.TIMEOUT_MS);
+        if (saved != null && saved.getData() != null && !saved.getData().trim().isEmpty()) {
+            final String etag = ETAGS.get(key);
+            if (etag != null) {
+                conn.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+            }
+            final Date lastSaved = saved.getUpdated() != null ? saved.getUpdated() : saved.getCreated();
+            if (lastSaved != null) {
+                conn.setIfModifiedSince(lastSaved.getTime());
+            }
+        }
+        if (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return null;
+        }
+        final byte[] bytes = IOHelper.readBytes(conn);
+        final String etag = conn.getHeaderField(HEADER_ETAG);
+        if (etag != null) {
+            ETAGS.put(key, etag);
+        }
+        // decode with the encoding declared in the document like CapabilitiesCacheService does
+        final String response = new String(bytes, IOHelper.DEFAULT_CHARSET);
+        final String charset = CapabilitiesCacheService.getEncodingFromXml(response);
+        if (charset == null || IOHelper.DEFAULT_CHARSET.equalsIgnoreCase(charset)) {
+            return response;
+        }
+        return new String(bytes, charset);
+    }
+
+    /**
+     * Flushes parsed capabilities on all nodes and updates pre-parsed capabilities for WMS layers of the service.
+     * The document is parsed once for the service and the layers are saved with one batch.
+     */
+    private void capabilitiesUpdated(final OskariLayerCapabilities caps, final List<OskariLayer> layers) {
+        // flush on every node, not just this one, so no node keeps serving the old capabilities
+        WebMapServiceFactory.flushCacheOnAllNodes();
+        final List<OskariLayer> updated = new ArrayList<OskariLayer>(layers.size());
+        for (OskariLayer layer : layers) {
+            if (!OskariLayer.TYPE_WMS.equals(layer.getType())) {
+                continue;
+            }
+            final WebMapService wms;
+            try {
+                wms = WebMapServiceFactory.createFromCapabilities(caps, layer.getName());
+            } catch (WebMapServiceParseException e) {
+                log.warn("Couldn't parse capabilities for", getServiceKey(caps), "-", e.getMessage());
+                return;
+            }
+            if (wms == null) {
+                log.warn("Couldn't parse capabilities for layer", layer.getId());
+                continue;
+            }
+            final JSONObject capabilities = LayerJSONFormatterWMS.createCapabilitiesJSON(wms);
+            if (capabilities != null) {
+                layer.setCapabilities(capabilities);
+                updated.add(layer);
+            }
+        }
+        layerService.updateCapabilities(updated);
+    }
+
+    private static String getServiceKey(final OskariLayerCapabilities caps) {
+        return caps.getLayertype() + "|" + caps.getUrl();
+    }
+}
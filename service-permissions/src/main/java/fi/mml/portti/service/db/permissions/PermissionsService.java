@@ -3,6 +3,7 @@ package fi.mml.portti.service.db.permissions;
 import fi.mml.portti.domain.permissions.Permissions;
 import fi.mml.portti.domain.permissions.UniqueResourceName;
 import fi.nls.oskari.domain.User;
+import fi.nls.oskari.permission.PermissionSnapshot;
 import fi.nls.oskari.permission.domain.Resource;
 import fi.nls.oskari.service.db.BaseService;
 
@@ -110,6 +111,13 @@ public interface PermissionsService extends BaseService<Permissions> {
 
     public Set<String> getEditPermissions();
 
+    /**
+     * Returns an in-memory snapshot of all permissions for checking permissions of many resources at once,
+     * for example which of the listed layers the user can publish.
+     * @return permission snapshot
+     */
+    public PermissionSnapshot getPermissionSnapshot();
+
     public Map<Long, List<Permissions>> getPermissionsForLayers(List<Long> layeridList, String permissionsType);
     public Map<Long, List<Permissions>> getPermissionsForBaseLayers(List<Long> layeridList, String permissionsType);
 
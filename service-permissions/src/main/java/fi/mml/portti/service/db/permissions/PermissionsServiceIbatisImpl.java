@@ -3,13 +3,17 @@ package fi.mml.portti.service.db.permissions;
 import fi.mml.portti.domain.permissions.Permissions;
 import fi.mml.portti.domain.permissions.UniqueResourceName;
 import fi.mml.portti.domain.permissions.WFSLayerPermissionsStore;
+import fi.nls.oskari.cache.AppSetupCache;
+import fi.nls.oskari.cache.JedisManager;
 import fi.nls.oskari.domain.Role;
 import fi.nls.oskari.domain.User;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.permission.PermissionSnapshot;
 import fi.nls.oskari.permission.domain.Permission;
 import fi.nls.oskari.permission.domain.Resource;
 import fi.nls.oskari.service.db.BaseIbatisService;
+import fi.nls.oskari.util.PropertyUtil;
 
 import java.util.*;
 
@@ -17,6 +21,19 @@ public class PermissionsServiceIbatisImpl extends BaseIbatisService<Permissions>
 	
 	/** Our logger */
 	private static Logger log = LogFactory.getLogger(PermissionsServiceIbatisImpl.class);
+
+    private static final long SNAPSHOT_MAX_AGE_MS = PropertyUtil.getOptional("permissions.snapshot.maxAge", 60) * 1000L;
+    // incremented on every permission change so other nodes know to reload their snapshot
+    private static final String SNAPSHOT_VERSION_KEY = "oskari_permissions_version";
+    private static final int SNAPSHOT_LOAD_ATTEMPTS = 3;
+    // shared by all service instances, guards snapshot, snapshotVersion and changeCount
+    private static final Object SNAPSHOT_LOCK = new Object();
+    // one reload at a time, the snapshot is built without holding SNAPSHOT_LOCK
+    private static final Object SNAPSHOT_LOAD_LOCK = new Object();
+    private static PermissionSnapshot snapshot;
+    private static String snapshotVersion;
+    // changes applied to the snapshot, a reload is retried if changes are made while loading
+    private static long changeCount;
 	
 	@Override
 	protected String getNameSpace() {
@@ -51,9 +68,19 @@ public class PermissionsServiceIbatisImpl extends BaseIbatisService<Permissions>
 
         if( permissionId == null) {
             insert(getNameSpace() + ".insertPermission", paramMap);
+            final Long version = JedisManager.incr(SNAPSHOT_VERSION_KEY);
+            synchronized (SNAPSHOT_LOCK) {
+                snapshotChanged(version);
+                if (snapshot != null) {
+                    snapshot.grant(uniqueResourceName.getType(), parameterResource.get("resourceMapping"),
+                            externalIdType, externalId, permissionsType);
+                }
+            }
         }
 
 		WFSLayerPermissionsStore.destroyAll();
+		// permissions affect layers listed in app setups
+		AppSetupCache.flush();
 	}
 	
 	public List<String> getResourcesWithGrantedPermissions(
@@ -61,30 +88,12 @@ public class PermissionsServiceIbatisImpl extends BaseIbatisService<Permissions>
 			User user,
 			String permissionsType) {
 
-        // user id based permissions
-        long userId = user.getId();
         log.debug("Getting resources with granted'", permissionsType, "' permissions to user '",
-                userId,"' for resource '", resourceType, "'");
-		List<String> userPermissions = 
-			getResourcesWithGrantedPermissions(
-				resourceType, String.valueOf(userId), Permissions.EXTERNAL_TYPE_USER, permissionsType);
-		
-		log.debug("Found", userPermissions.size(), "permissions given directly to user.");
-
-        // user role based permissions
-        final Set<String> roleIds = new HashSet<String>(user.getRoles().size());
-        for(Role role : user.getRoles()) {
-            roleIds.add("" + role.getId());
-        }
-        final Set<String> groupPermissions =
-                getResourcesWithGrantedPermissions(
-                        resourceType, roleIds, Permissions.EXTERNAL_TYPE_ROLE, permissionsType);
-		log.debug("Found", groupPermissions.size(), "permissions given to roles that user has.");
-		
-		// finally collect all together and sort
-		List<String> resourceList = new ArrayList<String>(userPermissions.size() + groupPermissions.size());
-        resourceList.addAll(userPermissions);
-        resourceList.addAll(groupPermissions);
+                user.getId(),"' for resource '", resourceType, "'");
+        // permissions given directly to user and to roles that user has
+        final List<String> resourceList = new ArrayList<String>(
+                getPermissionSnapshot().getPermittedResources(user, resourceType, permissionsType));
+        log.debug("Found", resourceList.size(), "permitted resources.");
         // sort permissions
 		Collections.sort(resourceList);
 		
@@ -181,18 +190,7 @@ public class PermissionsServiceIbatisImpl extends BaseIbatisService<Permissions>
 	}
 
     public Set<String> getPublishPermissions(String resourceType) {
-
-		Map<String, String> parameterMap = new HashMap<String, String>();
-		parameterMap.put("resourceType",resourceType);
-		List<Map<String, Object>> publishPermissions = queryForList(getNameSpace() + ".findPublishPermissions", parameterMap);
-
-		Set<String> permissions = new HashSet<String>();
-
-		for (Map<String, Object> resultMap : publishPermissions) {
-            permissions.add(resultMap.get("resourceMapping")+":"+resultMap.get("externalId") );
-		}
-
-		return permissions;
+        return getPermissionSnapshot().getRoleGrants(resourceType, Permissions.PERMISSION_TYPE_PUBLISH);
 	}
 
     public Set<String> getDownloadPermissions() {
@@ -200,33 +198,83 @@ public class PermissionsServiceIbatisImpl extends BaseIbatisService<Permissions>
     }
 
     public Set<String> getDownloadPermissions(String resourceType) {
-
-        Map<String, String> parameterMap = new HashMap<String, String>();
-        parameterMap.put("resourceType",resourceType);
-        List<Map<String, Object>> downloadPermissions = queryForList(getNameSpace() + ".findDownloadPermissions", parameterMap);
-
-        Set<String> permissions = new HashSet<String>();
-
-        for (Map<String, Object> resultMap : downloadPermissions) {
-            permissions.add(resultMap.get("resourceMapping")+":"+resultMap.get("externalId") );
-        }
-
-        return permissions;
+        return getPermissionSnapshot().getRoleGrants(resourceType, Permissions.PERMISSION_TYPE_DOWNLOAD);
     }
 
-
     public Set<String> getEditPermissions() {
+        // edit permissions of all resource types
+        return getPermissionSnapshot().getRoleGrants(null, Permissions.PERMISSION_TYPE_EDIT_LAYER);
+    }
 
-        Map<String, String> parameterMap = new HashMap<String, String>();
-        parameterMap.put("resourceType",Permissions.RESOURCE_TYPE_MAP_LAYER);
-        List<Map<String, Object>> publishPermissions = queryForList(getNameSpace() + ".findEditPermissions", parameterMap);
+    /**
+     * Returns the snapshot of all permissions for batched permission checks. Changes made through this service
+     * are applied to the snapshot right away and bump a version counter in Redis. The snapshot is reloaded when
+     * the counter shows changes made on other nodes. Changes made elsewhere (SQL scripts) or while Redis is
+     * unavailable are seen after permissions.snapshot.maxAge seconds (defaults to 60).
+     */
+    public PermissionSnapshot getPermissionSnapshot() {
+        final String version = JedisManager.get(SNAPSHOT_VERSION_KEY);
+        synchronized (SNAPSHOT_LOCK) {
+            if (isSnapshotCurrent(version)) {
+                return snapshot;
+            }
+        }
+        synchronized (SNAPSHOT_LOAD_LOCK) {
+            for (int attempt = 1; ; attempt++) {
+                final long changesBefore;
+                synchronized (SNAPSHOT_LOCK) {
+                    // another thread might have reloaded while we waited
+                    if (isSnapshotCurrent(version)) {
+                        return snapshot;
+                    }
+                    changesBefore = changeCount;
+                }
+                final PermissionSnapshot loaded = loadPermissionSnapshot();
+                synchronized (SNAPSHOT_LOCK) {
+                    if (changesBefore == changeCount || attempt >= SNAPSHOT_LOAD_ATTEMPTS) {
+                        snapshot = loaded;
+                        // if changes were made while loading the next call reloads
+                        snapshotVersion = changesBefore == changeCount ? version : null;
+                        return snapshot;
+                    }
+                }
+                log.debug("Permissions changed while loading the snapshot, reloading");
+            }
+        }
+    }
 
-        Set<String> permissions = new HashSet<String>();
+    /**
+     * @param version current version in Redis or null if not available
+     * @return true if the snapshot can be used, caller must hold SNAPSHOT_LOCK
+     */
+    private static boolean isSnapshotCurrent(final String version) {
+        if (snapshot == null || snapshot.getCreated() < System.currentTimeMillis() - SNAPSHOT_MAX_AGE_MS) {
+            return false;
+        }
+        return version == null || version.equals(snapshotVersion);
+    }
 
-        for (Map<String, Object> resultMap : publishPermissions) {
-            permissions.add(resultMap.get("resourceMapping")+":"+resultMap.get("externalId") );
+    /**
+     * Called before applying a change made through this service to the snapshot, caller must hold SNAPSHOT_LOCK
+     * @param version version in Redis after the change or null if not available
+     */
+    private static void snapshotChanged(final Long version) {
+        changeCount++;
+        // the snapshot stays current only if no other changes were made since it was loaded
+        if (version != null && snapshotVersion != null && snapshotVersion.equals(String.valueOf(version - 1))) {
+            snapshotVersion = String.valueOf(version);
         }
+    }
 
+    private PermissionSnapshot loadPermissionSnapshot() {
+        final long start = System.currentTimeMillis();
+        final List<Map<String, Object>> rows = queryForList(getNameSpace() + ".findAllPermissions", null);
+        final PermissionSnapshot permissions = new PermissionSnapshot();
+        for (Map<String, Object> row : rows) {
+            permissions.grant((String) row.get("resourceType"), (String) row.get("resourceMapping"),
+                    (String) row.get("externalType"), (String) row.get("externalId"), (String) row.get("permission"));
+        }
+        log.debug("Loaded", rows.size(), "permissions in", System.currentTimeMillis() - start, "ms");
         return permissions;
     }
 	
@@ -250,8 +298,17 @@ public class PermissionsServiceIbatisImpl extends BaseIbatisService<Permissions>
             log.info("Deleting permission with id:", oskariPermissionId);
 
             delete(getNameSpace() + ".deletePermission",oskariPermissionId);
+            final Long version = JedisManager.incr(SNAPSHOT_VERSION_KEY);
+            synchronized (SNAPSHOT_LOCK) {
+                snapshotChanged(version);
+                if (snapshot != null) {
+                    snapshot.revoke(uniqueResourceName.getType(), parameterDelete.get("resourceMapping"),
+                            externalIdType, externalId, permissionsType);
+                }
+            }
             // flush permissions for WFS transport
             WFSLayerPermissionsStore.destroyAll();
+            AppSetupCache.flush();
         }
 
 	}
@@ -498,8 +555,21 @@ public class PermissionsServiceIbatisImpl extends BaseIbatisService<Permissions>
         for(Permission permission : resource.getPermissions()) {
             insertPermission(resource, permission, false);
         }
+        AppSetupCache.flush();
         // return object through db query
-        return findResource(resource);
+        final Resource saved = findResource(resource);
+        final Long version = JedisManager.incr(SNAPSHOT_VERSION_KEY);
+        synchronized (SNAPSHOT_LOCK) {
+            snapshotChanged(version);
+            if (snapshot != null) {
+                if (saved != null) {
+                    snapshot.setResource(saved);
+                } else {
+                    snapshot.removeResource(resource.getType(), resource.getMapping());
+                }
+            }
+        }
+        return saved;
     }
 
     private void removeResourcePermissions(final Resource resource) {
@@ -521,6 +591,14 @@ public class PermissionsServiceIbatisImpl extends BaseIbatisService<Permissions>
         removeResourcePermissions(resource);
         log.debug("Deleting permissions for resource:", resource);
         delete(getNameSpace() + ".deleteResource", resource.getId());
+        AppSetupCache.flush();
+        final Long version = JedisManager.incr(SNAPSHOT_VERSION_KEY);
+        synchronized (SNAPSHOT_LOCK) {
+            snapshotChanged(version);
+            if (snapshot != null) {
+                snapshot.removeResource(resource.getType(), resource.getMapping());
+            }
+        }
     }
 
     private Resource createResourceRow(final String type, final String mapping) {
@@ -0,0 +1,306 @@
+package fi.nls.oskari.permission;
+
+import fi.mml.portti.domain.permissions.Permissions;
+import fi.nls.oskari.domain.Role;
+import fi.nls.oskari.domain.User;
+import fi.nls.oskari.permission.domain.Permission;
+import fi.nls.oskari.permission.domain.Resource;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of resource permissions for checking permissions of many resources at once.
+ *
+ * Each resource (type + mapping) gets a row number. For each permission type there's a bitset of rows
+ * per role/user so checking which of a list of layers a user can for example publish means OR-ing the
+ * bitsets of the user's roles once and testing a bit per layer.
+ *
+ * The snapshot is built and kept up to date by PermissionsServiceIbatisImpl, see
+ * PermissionsService.getPermissionSnapshot(). Thread-safe.
+ */
+public class PermissionSnapshot {
+
+    private final long created = System.currentTimeMillis();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // key is resource type + "|" + mapping
+    private final Map<String, Integer> rows = new HashMap<String, Integer>();
+    private final List<String> rowTypes = new ArrayList<String>();
+    private final List<String> rowMappings = new ArrayList<String>();
+    // permission type -> principal (external type + ":" + external id) -> rows of resources permitted
+    private final Map<String, Map<String, BitSet>> grants = new HashMap<String, Map<String, BitSet>>();
+
+    /**
+     * @return time the snapshot was created in ms
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Grants a permission
+     * @param resourceType
+     * @param mapping
+     * @param externalType ROLE or USER
+     * @param externalId role or user id
+     * @param permissionType such as VIEW_LAYER or PUBLISH
+     */
+    public void grant(String resourceType, String mapping, String externalType, String externalId, String permissionType) {
+        lock.writeLock().lock();
+        try {
+            getBits(permissionType, getPrincipal(externalType, externalId), true).set(getRow(resourceType, mapping));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Revokes a permission
+     * @param resourceType
+     * @param mapping
+     * @param externalType ROLE or USER
+     * @param externalId role or user id
+     * @param permissionType such as VIEW_LAYER or PUBLISH
+     */
+    public void revoke(String resourceType, String mapping, String externalType, String externalId, String permissionType) {
+        lock.writeLock().lock();
+        try {
+            final Integer row = rows.get(getKey(resourceType, mapping));
+            final BitSet bits = getBits(permissionType, getPrincipal(externalType, externalId), false);
+            if (row != null && bits != null) {
+                bits.clear(row);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the permissions of the resource with the resource's current permissions
+     * @param resource
+     */
+    public void setResource(Resource resource) {
+        lock.writeLock().lock();
+        try {
+            final int row = getRow(resource.getType(), resource.getMapping());
+            clearRow(row);
+            for (Permission permission : resource.getPermissions()) {
+                getBits(permission.getType(), getPrincipal(permission.getExternalType(), permission.getExternalId()), true).set(row);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all permissions of the resource
+     * @param resourceType
+     * @param mapping
+     */
+    public void removeResource(String resourceType, String mapping) {
+        lock.writeLock().lock();
+        try {
+            final Integer row = rows.get(getKey(resourceType, mapping));
+            if (row != null) {
+                clearRow(row);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param user
+     * @param resourceType
+     * @param mapping
+     * @param permissionType
+     * @return true if the permission is granted to the user or any of the user's roles
+     */
+    public boolean hasPermission(User user, String resourceType, String mapping, String permissionType) {
+        lock.readLock().lock();
+        try {
+            final Integer row = rows.get(getKey(resourceType, mapping));
+            return row != null && getPermittedRows(permissionType, getPrincipals(user)).get(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Batched check for permissions granted to the user or any of the user's roles
+     * @param user
+     * @param resourceType
+     * @param mappings resources to check
+     * @param permissionType
+     * @return the mappings the permission is granted for
+     */
+    public Set<String> getPermittedResources(User user, String resourceType, Collection<String> mappings, String permissionType) {
+        return getPermittedResources(getPrincipals(user), resourceType, mappings, permissionType);
+    }
+
+    /**
+     * Batched check for permissions granted to any of the roles
+     * @param roleIds
+     * @param resourceType
+     * @param mappings resources to check
+     * @param permissionType
+     * @return the mappings the permission is granted for
+     */
+    public Set<String> getPermittedResourcesForRoles(Collection<Long> roleIds, String resourceType, Collection<String> mappings, String permissionType) {
+        final List<String> principals = new ArrayList<String>(roleIds.size());
+        for (Long roleId : roleIds) {
+            principals.add(getPrincipal(Permissions.EXTERNAL_TYPE_ROLE, String.valueOf(roleId)));
+        }
+        return getPermittedResources(principals, resourceType, mappings, permissionType);
+    }
+
+    /**
+     * @param user
+     * @param resourceType
+     * @param permissionType
+     * @return mappings of all resources of the type the permission is granted for to the user or any of the user's roles
+     */
+    public Set<String> getPermittedResources(User user, String resourceType, String permissionType) {
+        lock.readLock().lock();
+        try {
+            final BitSet permitted = getPermittedRows(permissionType, getPrincipals(user));
+            final Set<String> result = new HashSet<String>();
+            for (int row = permitted.nextSetBit(0); row >= 0; row = permitted.nextSetBit(row + 1)) {
+                if (rowTypes.get(row).equals(resourceType)) {
+                    result.add(rowMappings.get(row));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lists permissions granted to roles as "[mapping]:[roleId]" like PermissionsService.getPublishPermissions()
+     * @param resourceType resource type or null for all types
+     * @param permissionType
+     * @return granted permissions
+     */
+    public Set<String> getRoleGrants(String resourceType, String permissionType) {
+        lock.readLock().lock();
+        try {
+            final Set<String> result = new HashSet<String>();
+            final Map<String, BitSet> principals = grants.get(permissionType);
+            if (principals == null) {
+                return result;
+            }
+            final String prefix = Permissions.EXTERNAL_TYPE_ROLE + ":";
+            for (Map.Entry<String, BitSet> entry : principals.entrySet()) {
+                if (!entry.getKey().startsWith(prefix)) {
+                    continue;
+                }
+                final String roleId = entry.getKey().substring(prefix.length());
+                final BitSet bits = entry.getValue();
+                for (int row = bits.nextSetBit(0); row >= 0; row = bits.nextSetBit(row + 1)) {
+                    if (resourceType == null || rowTypes.get(row).equals(resourceType)) {
+                        result.add(rowMappings.get(row) + ":" + roleId);
+                    }
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Set<String> getPermittedResources(Collection<String> principals, String resourceType,
+                                              Collection<String> mappings, String permissionType) {
+        lock.readLock().lock();
+        try {
+            final BitSet permitted = getPermittedRows(permissionType, principals);
+            final Set<String> result = new HashSet<String>();
+            for (String mapping : mappings) {
+                final Integer row = rows.get(getKey(resourceType, mapping));
+                if (row != null && permitted.get(row)) {
+                    result.add(mapping);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return rows permitted to any of the principals, caller must hold the read lock
+     */
+    private BitSet getPermittedRows(String permissionType, Collection<String> principals) {
+        final BitSet permitted = new BitSet(rowTypes.size());
+        for (String principal : principals) {
+            final BitSet bits = getBits(permissionType, principal, false);
+            if (bits != null) {
+                permitted.or(bits);
+            }
+        }
+        return permitted;
+    }
+
+    private static List<String> getPrincipals(User user) {
+        final List<String> principals = new ArrayList<String>(user.getRoles().size() + 1);
+        principals.add(getPrincipal(Permissions.EXTERNAL_TYPE_USER, String.valueOf(user.getId())));
+        for (Role role : user.getRoles()) {
+            principals.add(getPrincipal(Permissions.EXTERNAL_TYPE_ROLE, String.valueOf(role.getId())));
+        }
+        return principals;
+    }
+
+    private static String getPrincipal(String externalType, String externalId) {
+        return externalType + ":" + externalId;
+    }
+
+    private static String getKey(String resourceType, String mapping) {
+        return resourceType + "|" + mapping;
+    }
+
+    private int getRow(String resourceType, String mapping) {
+        final String key = getKey(resourceType, mapping);
+        Integer row = rows.get(key);
+        if (row == null) {
+            row = rowTypes.size();
+            rows.put(key, row);
+            rowTypes.add(resourceType);
+            rowMappings.add(mapping);
+        }
+        return row;
+    }
+
+    private BitSet getBits(String permissionType, String principal, boolean create) {
+        Map<String, BitSet> principals = grants.get(permissionType);
+        if (principals == null) {
+            if (!create) {
+                return null;
+            }
+            principals = new HashMap<String, BitSet>();
+            grants.put(permissionType, principals);
+        }
+        BitSet bits = principals.get(principal);
+        if (bits == null && create) {
+            bits = new BitSet();
+            principals.put(principal, bits);
+        }
+        return bits;
+    }
+
+    private void clearRow(int row) {
+        for (Map<String, BitSet> principals : grants.values()) {
+            for (BitSet bits : principals.values()) {
+                bits.clear(row);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package fi.nls.oskari.permission;
+
+import fi.mml.portti.domain.permissions.Permissions;
+import fi.nls.oskari.domain.User;
+import fi.nls.oskari.permission.domain.Permission;
+import fi.nls.oskari.permission.domain.Resource;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PermissionSnapshotTest {
+
+    private static final String LAYER = Permissions.RESOURCE_TYPE_MAP_LAYER;
+    private static final String ROLE = Permissions.EXTERNAL_TYPE_ROLE;
+
+    private PermissionSnapshot snapshot;
+    private User user;
+
+    @Before
+    public void setUp() {
+        snapshot = new PermissionSnapshot();
+        for (int i = 0; i < 700; ++i) {
+            snapshot.grant(LAYER, "layer" + i, ROLE, "1", Permissions.PERMISSION_TYPE_VIEW_LAYER);
+            if (i % 2 == 0) {
+                snapshot.grant(LAYER, "layer" + i, ROLE, "2", Permissions.PERMISSION_TYPE_PUBLISH);
+            }
+        }
+        snapshot.grant(LAYER, "layer1", Permissions.EXTERNAL_TYPE_USER, "10", Permissions.PERMISSION_TYPE_PUBLISH);
+        snapshot.grant(Permissions.RESOURCE_TYPE_LAYER_GROUP, "layer3", ROLE, "2", Permissions.PERMISSION_TYPE_PUBLISH);
+
+        user = new User();
+        user.setId(10);
+        user.addRole(2, "user");
+    }
+
+    private static List<String> getMappings() {
+        final List<String> mappings = new ArrayList<String>();
+        for (int i = 0; i < 700; ++i) {
+            mappings.add("layer" + i);
+        }
+        mappings.add("unknown");
+        return mappings;
+    }
+
+    @Test
+    public void testBatchedCheck() {
+        final Set<String> publish = snapshot.getPermittedResources(user, LAYER, getMappings(), Permissions.PERMISSION_TYPE_PUBLISH);
+        assertEquals("Even layers for role and layer1 for user", 351, publish.size());
+        assertTrue(publish.contains("layer1"));
+        assertFalse("Permission of another resource type", publish.contains("layer3"));
+
+        assertTrue(snapshot.getPermittedResources(user, LAYER, getMappings(), Permissions.PERMISSION_TYPE_VIEW_LAYER).isEmpty());
+        assertEquals(700, snapshot.getPermittedResourcesForRoles(Arrays.asList(1L, 2L), LAYER, getMappings(),
+                Permissions.PERMISSION_TYPE_VIEW_LAYER).size());
+        assertTrue(snapshot.hasPermission(user, LAYER, "layer2", Permissions.PERMISSION_TYPE_PUBLISH));
+        assertFalse(snapshot.hasPermission(user, LAYER, "layer3", Permissions.PERMISSION_TYPE_PUBLISH));
+    }
+
+    @Test
+    public void testRoleGrants() {
+        final Set<String> grants = snapshot.getRoleGrants(LAYER, Permissions.PERMISSION_TYPE_PUBLISH);
+        assertEquals("User permissions aren't listed", 350, grants.size());
+        assertTrue(grants.contains("layer0:2"));
+        assertEquals(351, snapshot.getRoleGrants(null, Permissions.PERMISSION_TYPE_PUBLISH).size());
+    }
+
+    @Test
+    public void testUpdates() {
+        final Resource resource = new Resource();
+        resource.setType(LAYER);
+        resource.setMapping("layer1");
+        final Permission permission = new Permission();
+        permission.setType(Permissions.PERMISSION_TYPE_DOWNLOAD);
+        permission.setExternalType(ROLE);
+        permission.setExternalId("2");
+        resource.addPermission(permission);
+        snapshot.setResource(resource);
+
+        assertFalse("Old permissions are replaced", snapshot.hasPermission(user, LAYER, "layer1", Permissions.PERMISSION_TYPE_PUBLISH));
+        assertTrue(snapshot.hasPermission(user, LAYER, "layer1", Permissions.PERMISSION_TYPE_DOWNLOAD));
+        assertEquals(Collections.singleton("layer1"), snapshot.getPermittedResources(user, LAYER, Permissions.PERMISSION_TYPE_DOWNLOAD));
+
+        snapshot.revoke(LAYER, "layer2", ROLE, "2", Permissions.PERMISSION_TYPE_PUBLISH);
+        assertFalse(snapshot.hasPermission(user, LAYER, "layer2", Permissions.PERMISSION_TYPE_PUBLISH));
+
+        snapshot.removeResource(LAYER, "layer4");
+        assertEquals(new HashSet<String>(Arrays.asList("layer0", "layer6")), snapshot.getPermittedResources(user, LAYER,
+                Arrays.asList("layer0", "layer1", "layer2", "layer4", "layer6"), Permissions.PERMISSION_TYPE_PUBLISH));
+    }
+}
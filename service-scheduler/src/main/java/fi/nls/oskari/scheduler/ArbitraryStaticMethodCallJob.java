@@ -2,7 +2,7 @@ package fi.nls.oskari.scheduler;
 
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
-import org.quartz.Job;
+import org.quartz.DisallowConcurrentExecution;
 import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
@@ -15,7 +15,8 @@ import java.lang.reflect.Method;
  *
  * Requires JobData entries for "className" and "methodName", which contain the obvious parameters.
 */
-public class ArbitraryStaticMethodCallJob implements Job {
+@DisallowConcurrentExecution
+public class ArbitraryStaticMethodCallJob extends CoordinatedJob {
 
     private static final Logger log = LogFactory.getLogger(ArbitraryStaticMethodCallJob.class);
 
@@ -24,7 +25,7 @@ public class ArbitraryStaticMethodCallJob implements Job {
     private static final String METHOD_NAME = "methodName";
 
     @Override
-    public void execute(final JobExecutionContext context) throws JobExecutionException {
+    protected void run(final JobExecutionContext context) throws JobExecutionException {
         final JobDataMap data = context.getMergedJobDataMap();
         try {
             final Class<?> clazz = Class.forName(data.getString(CLASS_NAME));
@@ -0,0 +1,118 @@
+package fi.nls.oskari.scheduler;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Base class for the Quartz job wrappers. Gathers run duration metrics for each job and
+ * when clustered mode is enabled ('oskari.scheduler.clustered=true') makes sure that each trigger firing
+ * is run by only one node. Nodes race for a Redis lease named after the job and the scheduled fire time
+ * after waiting for a random jitter. A second lease is held while the job runs so a long-running job isn't
+ * started again on another node before the previous run has completed. If Redis can't be reached the job is
+ * run on this node (logged as a warning) since skipping it would mean no node runs it.
+ *
+ * Lease settings can be overridden per job:
+ *   oskari.scheduler.job.[jobCode].maxRunSeconds=3600
+ *   oskari.scheduler.job.[jobCode].jitterMillis=2000
+ */
+public abstract class CoordinatedJob implements Job {
+
+    private static final Logger log = LogFactory.getLogger(CoordinatedJob.class);
+
+    public static final String METRICS_REGISTRY = "Oskari.Scheduler";
+
+    private static final String PROPERTY_CLUSTERED = "oskari.scheduler.clustered";
+    private static final String PROPERTY_MAX_RUN = "oskari.scheduler.maxRunSeconds";
+    private static final String PROPERTY_JITTER = "oskari.scheduler.jitterMillis";
+    private static final String KEY_PREFIX = "oskari_scheduler:";
+    // identifies this node as lease owner
+    private static final String NODE_ID = UUID.randomUUID().toString();
+    private static final Random RANDOM = new Random();
+
+    protected abstract void run(final JobExecutionContext context) throws JobExecutionException;
+
+    @Override
+    public void execute(final JobExecutionContext context) throws JobExecutionException {
+        final String jobCode = context.getJobDetail().getKey().getName();
+        final MetricRegistry metrics = SharedMetricRegistries.getOrCreate(METRICS_REGISTRY);
+        if (!PropertyUtil.getOptional(PROPERTY_CLUSTERED, false)) {
+            runTimed(context, metrics.timer(jobCode));
+            return;
+        }
+        final int maxRunSeconds = PropertyUtil.getOptional(getJobProperty(jobCode, "maxRunSeconds"),
+                PropertyUtil.getOptional(PROPERTY_MAX_RUN, 3600));
+        final int jitter = PropertyUtil.getOptional(getJobProperty(jobCode, "jitterMillis"),
+                PropertyUtil.getOptional(PROPERTY_JITTER, 2000));
+        sleep(jitter);
+
+        final Date fireTime = context.getScheduledFireTime() != null ? context.getScheduledFireTime() : context.getFireTime();
+        // seconds precision since cron triggers on different nodes fire on the same second
+        final String triggerKey = KEY_PREFIX + jobCode + ":" + (fireTime.getTime() / 1000);
+        final JedisManager.LockResult claim = JedisManager.tryLock(triggerKey, NODE_ID, maxRunSeconds);
+        if (claim == JedisManager.LockResult.HELD) {
+            log.debug("Job", jobCode, "was claimed by another node for", fireTime);
+            metrics.meter(jobCode + ".claimedElsewhere").mark();
+            return;
+        }
+        if (claim == JedisManager.LockResult.UNAVAILABLE) {
+            log.warn("Couldn't coordinate job", jobCode, "since Redis is unavailable - running it on this node for", fireTime);
+            metrics.meter(jobCode + ".uncoordinated").mark();
+            runTimed(context, metrics.timer(jobCode));
+            return;
+        }
+        final String runningKey = KEY_PREFIX + jobCode + ":running";
+        final JedisManager.LockResult running = JedisManager.tryLock(runningKey, NODE_ID, maxRunSeconds);
+        if (running == JedisManager.LockResult.HELD) {
+            log.info("Previous run of job", jobCode, "is still running - skipping run for", fireTime);
+            metrics.meter(jobCode + ".overlapSkipped").mark();
+            return;
+        }
+        if (running == JedisManager.LockResult.UNAVAILABLE) {
+            log.warn("Couldn't check if job", jobCode, "is still running since Redis is unavailable - running it for", fireTime);
+            metrics.meter(jobCode + ".uncoordinated").mark();
+        }
+        try {
+            runTimed(context, metrics.timer(jobCode));
+        } finally {
+            if (running == JedisManager.LockResult.ACQUIRED) {
+                JedisManager.releaseLock(runningKey, NODE_ID);
+            }
+        }
+    }
+
+    private void runTimed(final JobExecutionContext context, final Timer timer) throws JobExecutionException {
+        final Timer.Context time = timer.time();
+        try {
+            run(context);
+        } finally {
+            time.stop();
+        }
+    }
+
+    private String getJobProperty(final String jobCode, final String name) {
+        return String.format("oskari.scheduler.job.%s.%s", jobCode, name);
+    }
+
+    private void sleep(final int maxMillis) {
+        if (maxMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(RANDOM.nextInt(maxMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
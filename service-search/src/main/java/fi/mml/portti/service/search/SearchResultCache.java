@@ -0,0 +1,211 @@
+package fi.mml.portti.service.search;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.SharedMetricRegistries;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+
+/**
+ * Caches search results per channel. Cache key is built from the channel id and the search criteria
+ * with the search string normalized (trimmed, whitespace collapsed, unicode normalized).
+ * Expired results are still returned for a while after expiration and refreshed in background so
+ * users don't wait for a slow channel. Failed searches are not cached. Results are kept in a bounded
+ * map and the least recently used results are dropped first. Results past the stale period are dropped
+ * when accessed.
+ *
+ * Max number of cached results:
+ * - search.cache.size=5000
+ *
+ * Time to live and stale period can be configured globally and per channel:
+ * - search.cache.seconds=60 (0 disables caching)
+ * - search.cache.staleSeconds=300
+ * - search.channel.[channel id].cache.seconds
+ * - search.channel.[channel id].cache.staleSeconds
+ *
+ * Hit/miss/stale counts and hit ratio per channel are available in metrics registry "Oskari.Search".
+ */
+public class SearchResultCache {
+
+    public static final String METRICS_REGISTRY = "Oskari.Search";
+
+    private static final Logger log = LogFactory.getLogger(SearchResultCache.class);
+
+    private static final String PROPERTY_TTL = "search.cache.seconds";
+    private static final String PROPERTY_STALE = "search.cache.staleSeconds";
+    private static final String PROPERTY_SIZE = "search.cache.size";
+
+    private final int maxSize = Math.max(1, PropertyUtil.getOptional(PROPERTY_SIZE, 5000));
+    private final Map<String, CachedResult> cache = Collections.synchronizedMap(
+            new LinkedHashMap<String, CachedResult>(64, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                    return size() > maxSize;
+                }
+            });
+    private final MetricRegistry metrics = SharedMetricRegistries.getOrCreate(METRICS_REGISTRY);
+    private final ConcurrentMap<String, Boolean> refreshing = new ConcurrentHashMap<String, Boolean>();
+    private final ConcurrentMap<String, Boolean> registeredChannels = new ConcurrentHashMap<String, Boolean>();
+    private final ExecutorService refresher = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "SearchResultCache");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Does the actual search for a channel
+     */
+    public interface Loader {
+        ChannelSearchResult load();
+    }
+
+    private static class CachedResult {
+        private final ChannelSearchResult result;
+        private final long expires;
+        private final long staleUntil;
+
+        CachedResult(final ChannelSearchResult result, final long expires, final long staleUntil) {
+            this.result = result;
+            this.expires = expires;
+            this.staleUntil = staleUntil;
+        }
+    }
+
+    /**
+     * Returns cached result for the channel or searches with the loader
+     * @param channelId
+     * @param criteria
+     * @param loader
+     * @return
+     */
+    public ChannelSearchResult get(final String channelId, final SearchCriteria criteria, final Loader loader) {
+        final long ttl = getSeconds(channelId, PROPERTY_TTL, "cache.seconds", 60) * 1000L;
+        if (ttl <= 0) {
+            return loader.load();
+        }
+        registerRatio(channelId);
+        final String key = getKey(channelId, criteria);
+        final CachedResult cached = cache.get(key);
+        final long now = System.currentTimeMillis();
+        if (cached != null && now < cached.expires) {
+            meter(channelId, "hit").mark();
+            return cached.result;
+        }
+        if (cached != null && now < cached.staleUntil) {
+            meter(channelId, "stale").mark();
+            refreshInBackground(channelId, key, loader);
+            return cached.result;
+        }
+        if (cached != null) {
+            cache.remove(key);
+        }
+        meter(channelId, "miss").mark();
+        return load(channelId, key, loader);
+    }
+
+    private ChannelSearchResult load(final String channelId, final String key, final Loader loader) {
+        final ChannelSearchResult result = loader.load();
+        if (result != null && !result.isQueryFailed()) {
+            final long ttl = getSeconds(channelId, PROPERTY_TTL, "cache.seconds", 60) * 1000L;
+            final long stale = getSeconds(channelId, PROPERTY_STALE, "cache.staleSeconds", 300) * 1000L;
+            final long now = System.currentTimeMillis();
+            cache.put(key, new CachedResult(result, now + ttl, now + ttl + stale));
+        }
+        return result;
+    }
+
+    private void refreshInBackground(final String channelId, final String key, final Loader loader) {
+        if (refreshing.putIfAbsent(key, Boolean.TRUE) != null) {
+            // already being refreshed
+            return;
+        }
+        try {
+            refresher.submit(new Runnable() {
+                public void run() {
+                    try {
+                        load(channelId, key, loader);
+                    } catch (Exception e) {
+                        log.warn(e, "Refreshing search results failed for channel", channelId);
+                    } finally {
+                        refreshing.remove(key);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
+        }
+    }
+
+    private Meter meter(final String channelId, final String type) {
+        return metrics.meter(MetricRegistry.name(channelId, type));
+    }
+
+    private void registerRatio(final String channelId) {
+        if (registeredChannels.putIfAbsent(channelId, Boolean.TRUE) != null) {
+            return;
+        }
+        final Meter hits = meter(channelId, "hit");
+        final Meter stale = meter(channelId, "stale");
+        final Meter misses = meter(channelId, "miss");
+        try {
+            metrics.register(MetricRegistry.name(channelId, "hitRatio"), new RatioGauge() {
+                protected Ratio getRatio() {
+                    final long served = hits.getCount() + stale.getCount();
+                    return Ratio.of(served, served + misses.getCount());
+                }
+            });
+        } catch (IllegalArgumentException ignored) {
+            // already registered
+        }
+    }
+
+    private static long getSeconds(final String channelId, final String globalProperty,
+                                   final String channelProperty, final int defaultValue) {
+        final int global = PropertyUtil.getOptional(globalProperty, defaultValue);
+        return PropertyUtil.getOptional("search.channel." + channelId + "." + channelProperty, global);
+    }
+
+    static String getKey(final String channelId, final SearchCriteria criteria) {
+        final StringBuilder key = new StringBuilder(channelId);
+        key.append('|').append(normalize(criteria.getSearchString()));
+        key.append('|').append(criteria.getLocale());
+        key.append('|').append(criteria.getSRS());
+        key.append('|').append(criteria.getMaxResults());
+        key.append('|').append(criteria.getFromDate() == null ? "" : criteria.getFromDate().getTime());
+        key.append('|').append(criteria.getToDate() == null ? "" : criteria.getToDate().getTime());
+        // sorted so the key doesn't depend on insertion order
+        final Map<String, Object> params = new TreeMap<String, Object>(criteria.getParams());
+        for (Map.Entry<String, Object> param : params.entrySet()) {
+            key.append('|').append(param.getKey()).append('=').append(toString(param.getValue()));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Arrays (like multi-valued params) by content instead of the identity based toString()
+     */
+    private static String toString(final Object value) {
+        if (value instanceof Object[]) {
+            return Arrays.deepToString((Object[]) value);
+        }
+        return String.valueOf(value);
+    }
+
+    static String normalize(final String searchString) {
+        if (searchString == null) {
+            return "";
+        }
+        return Normalizer.normalize(searchString, Normalizer.Form.NFC).trim().replaceAll("\\s+", " ");
+    }
+}
@@ -23,6 +23,9 @@ public class SearchServiceImpl implements SearchService {
     /** Available channels */
     private volatile Map<String, SearchableChannel> availableChannels = null;
 
+    /** Short lived results per channel */
+    private final SearchResultCache resultCache = new SearchResultCache();
+
     /**
      * Inits channels
      */
@@ -135,11 +138,15 @@ public class SearchServiceImpl implements SearchService {
         for (String channel : searchCriteria.getChannels()) {
             if (availableChannels.containsKey(channel)) {
                 long timeStart = System.currentTimeMillis();
-                SearchableChannel channelImplementation = availableChannels.get(channel);
+                final SearchableChannel channelImplementation = availableChannels.get(channel);
                 log.debug("Channel", channelImplementation);
 
-                ChannelSearchResult result = handleChannelSearch(
-                        searchCriteria, channelImplementation);
+                ChannelSearchResult result = resultCache.get(channelImplementation.getId(), searchCriteria,
+                        new SearchResultCache.Loader() {
+                            public ChannelSearchResult load() {
+                                return handleChannelSearch(searchCriteria, channelImplementation);
+                            }
+                        });
                 log.debug("Result", result);
                 result.setChannelId(channelImplementation.getId());
 
@@ -0,0 +1,185 @@
+package fi.nls.oskari.search.channel;
+
+import fi.mml.portti.service.search.ChannelSearchResult;
+import fi.mml.portti.service.search.SearchCriteria;
+import fi.mml.portti.service.search.SearchResultItem;
+import fi.nls.oskari.annotation.Oskari;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.ConversionHelper;
+import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Search channel for search-as-you-type on place names/addresses without remote calls.
+ * Names are loaded from a tab separated UTF-8 file into an in-memory PrefixIndex:
+ *
+ *   name [tab] type [tab] lon [tab] lat [tab] rank [tab] village (optional)
+ *
+ * Coordinates should be in the projection configured for the channel (defaults to EPSG:3067).
+ * Lower rank values are shown first. The file is checked for changes periodically and reloaded in the
+ * background. Searches use the previous index until the new one is ready.
+ *
+ * Properties:
+ * - search.channel.LOCAL_PREFIX_CHANNEL.file=[path to the file] (required)
+ * - search.channel.LOCAL_PREFIX_CHANNEL.srs=[projection for coordinates in the file] (optional, defaults to EPSG:3067)
+ * - search.channel.LOCAL_PREFIX_CHANNEL.maxResults=[max results] (optional, defaults to 100)
+ * - search.channel.LOCAL_PREFIX_CHANNEL.fuzzy=[false to only use exact prefix] (optional, defaults to true)
+ * - search.channel.LOCAL_PREFIX_CHANNEL.reloadCheckSeconds=[min time between checks for file changes] (optional, defaults to 60)
+ */
+@Oskari(LocalPrefixSearchChannel.ID)
+public class LocalPrefixSearchChannel extends SearchChannel {
+
+    public static final String ID = "LOCAL_PREFIX_CHANNEL";
+    private static final String PROPERTY_PREFIX = "search.channel." + ID + ".";
+
+    private static final Logger log = LogFactory.getLogger(LocalPrefixSearchChannel.class);
+
+    private static final int COL_NAME = 0;
+    private static final int COL_TYPE = 1;
+    private static final int COL_LON = 2;
+    private static final int COL_LAT = 3;
+    private static final int COL_RANK = 4;
+    private static final int COL_VILLAGE = 5;
+
+    private volatile PrefixIndex<SearchResultItem> index = PrefixIndex.build(new ArrayList<PrefixIndex.Entry<SearchResultItem>>());
+    private volatile long loadedModified = -1;
+    private volatile long lastCheck = 0;
+    private final AtomicBoolean loading = new AtomicBoolean(false);
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, ID + "-loader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private File file;
+    private String srs;
+    private int maxResults;
+    private boolean fuzzy;
+    private long reloadCheckMillis;
+
+    @Override
+    public void init() {
+        super.init();
+        final String path = PropertyUtil.getOptional(PROPERTY_PREFIX + "file");
+        srs = PropertyUtil.get(PROPERTY_PREFIX + "srs", "EPSG:3067");
+        maxResults = PropertyUtil.getOptional(PROPERTY_PREFIX + "maxResults", 100);
+        fuzzy = PropertyUtil.getOptional(PROPERTY_PREFIX + "fuzzy", true);
+        reloadCheckMillis = PropertyUtil.getOptional(PROPERTY_PREFIX + "reloadCheckSeconds", 60) * 1000L;
+        if (path == null) {
+            log.warn("No file configured for search channel. Add property with key", PROPERTY_PREFIX + "file");
+            return;
+        }
+        file = new File(path);
+        // initial load blocks so the channel is usable right away
+        load();
+    }
+
+    public ChannelSearchResult doSearch(SearchCriteria searchCriteria) {
+        final ChannelSearchResult result = new ChannelSearchResult();
+        if (searchCriteria.getSRS() != null && !srs.equalsIgnoreCase(searchCriteria.getSRS())) {
+            log.debug("Requested projection", searchCriteria.getSRS(), "doesn't match the data:", srs);
+            return result;
+        }
+        checkForReload();
+        int max = maxResults;
+        if (searchCriteria.getMaxResults() > 0) {
+            max = Math.min(max, searchCriteria.getMaxResults());
+        }
+        final List<SearchResultItem> matches = index.find(searchCriteria.getSearchString(), max, fuzzy);
+        for (SearchResultItem match : matches) {
+            // items are shared between searches so return copies
+            result.addItem(copy(match));
+        }
+        return result;
+    }
+
+    private SearchResultItem copy(final SearchResultItem match) {
+        final SearchResultItem item = new SearchResultItem();
+        item.setTitle(match.getTitle());
+        item.setType(match.getType());
+        item.setLocationTypeCode(match.getLocationTypeCode());
+        item.setVillage(match.getVillage());
+        item.setLon(match.getLon());
+        item.setLat(match.getLat());
+        item.setRank(match.getRank());
+        calculateCommonFields(item);
+        return item;
+    }
+
+    /**
+     * Reloads the index in background if the file has changed
+     */
+    private void checkForReload() {
+        final long now = System.currentTimeMillis();
+        if (file == null || now - lastCheck < reloadCheckMillis) {
+            return;
+        }
+        lastCheck = now;
+        if (file.lastModified() == loadedModified || !loading.compareAndSet(false, true)) {
+            return;
+        }
+        loader.submit(new Runnable() {
+            public void run() {
+                try {
+                    load();
+                } finally {
+                    loading.set(false);
+                }
+            }
+        });
+    }
+
+    private void load() {
+        final long modified = file.lastModified();
+        final long start = System.currentTimeMillis();
+        final List<PrefixIndex.Entry<SearchResultItem>> entries = new ArrayList<PrefixIndex.Entry<SearchResultItem>>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), IOHelper.DEFAULT_CHARSET));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final PrefixIndex.Entry<SearchResultItem> entry = parseLine(line);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        } catch (IOException e) {
+            log.error(e, "Couldn't load names from file:", file.getAbsolutePath());
+            return;
+        } finally {
+            IOHelper.close(reader);
+        }
+        // swap the index, searches in progress use the previous one
+        index = PrefixIndex.build(entries);
+        loadedModified = modified;
+        log.info("Loaded", index.size(), "names for search channel in", System.currentTimeMillis() - start, "ms");
+    }
+
+    private PrefixIndex.Entry<SearchResultItem> parseLine(final String line) {
+        final String[] cols = line.split("\t");
+        if (cols.length <= COL_RANK || cols[COL_NAME].trim().isEmpty()) {
+            return null;
+        }
+        final SearchResultItem item = new SearchResultItem();
+        item.setTitle(cols[COL_NAME].trim());
+        item.setType(cols[COL_TYPE].trim());
+        item.setLocationTypeCode(cols[COL_TYPE].trim());
+        item.setLon(cols[COL_LON].trim());
+        item.setLat(cols[COL_LAT].trim());
+        final int rank = ConversionHelper.getInt(cols[COL_RANK].trim(), Integer.MAX_VALUE / 2);
+        item.setRank(rank);
+        item.setVillage(cols.length > COL_VILLAGE ? cols[COL_VILLAGE].trim() : "");
+        return new PrefixIndex.Entry<SearchResultItem>(item.getTitle(), rank, item);
+    }
+}
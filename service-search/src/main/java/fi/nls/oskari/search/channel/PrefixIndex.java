@@ -0,0 +1,313 @@
+package fi.nls.oskari.search.channel;
+
+import java.text.Normalizer;
+import java.util.*;
+
+/**
+ * Immutable in-memory index for prefix searches on names. Names are normalized (lower case, no accents)
+ * and kept in a sorted array so a prefix maps to a contiguous range found with binary search.
+ * Ranges of short prefixes can cover most of the index so the best ranked entries for prefixes of up to
+ * TOP_PREFIX_LENGTH characters are precomputed. Longer prefixes are scanned, at most MAX_SCAN entries per query
+ * in total, so results for a very common prefix may miss better ranked entries further in the range.
+ * Fuzzy lookup tries prefixes within one edit (deletion, substitution, insertion or transposition) of the query
+ * using only characters that appear in the index. It's only done for queries of at least MIN_FUZZY_LENGTH
+ * characters since shorter variants would match most of the index. Variants of up to TOP_PREFIX_LENGTH
+ * characters only use the precomputed entries and variants that can't have better ranked entries than
+ * the ones already collected are skipped.
+ * Results are ordered by rank (lower is better) like SearchResultItem.
+ */
+public class PrefixIndex<T> {
+
+    public static final int TOP_PREFIX_LENGTH = 2;
+    public static final int TOP_SIZE = 100;
+    public static final int MAX_SCAN = 10000;
+    public static final int MIN_FUZZY_LENGTH = 3;
+
+    private final String[] keys;
+    private final int[] ranks;
+    private final Object[] values;
+    private final char[] alphabet;
+    // best ranked indexes for prefixes of up to TOP_PREFIX_LENGTH characters
+    private final Map<String, int[]> tops;
+    private final int minRank;
+
+    /**
+     * Entry to add to the index
+     */
+    public static class Entry<T> {
+        private final String name;
+        private final int rank;
+        private final T value;
+
+        public Entry(final String name, final int rank, final T value) {
+            this.name = name;
+            this.rank = rank;
+            this.value = value;
+        }
+    }
+
+    private PrefixIndex(final String[] keys, final int[] ranks, final Object[] values, final char[] alphabet) {
+        this.keys = keys;
+        this.ranks = ranks;
+        this.values = values;
+        this.alphabet = alphabet;
+        this.tops = buildTops(keys, ranks);
+        int min = Integer.MAX_VALUE;
+        for (int rank : ranks) {
+            min = Math.min(min, rank);
+        }
+        this.minRank = min;
+    }
+
+    public static <T> PrefixIndex<T> build(final List<Entry<T>> entries) {
+        final List<Entry<T>> sorted = new ArrayList<Entry<T>>(entries.size());
+        final Map<Entry<T>, String> keyMap = new IdentityHashMap<Entry<T>, String>(entries.size());
+        final Set<Character> chars = new TreeSet<Character>();
+        for (Entry<T> entry : entries) {
+            final String key = normalize(entry.name);
+            if (key.isEmpty()) {
+                continue;
+            }
+            keyMap.put(entry, key);
+            sorted.add(entry);
+            for (int i = 0; i < key.length(); ++i) {
+                chars.add(key.charAt(i));
+            }
+        }
+        Collections.sort(sorted, new Comparator<Entry<T>>() {
+            public int compare(Entry<T> o1, Entry<T> o2) {
+                final int result = keyMap.get(o1).compareTo(keyMap.get(o2));
+                if (result != 0) {
+                    return result;
+                }
+                return o1.rank - o2.rank;
+            }
+        });
+        final int size = sorted.size();
+        final String[] keys = new String[size];
+        final int[] ranks = new int[size];
+        final Object[] values = new Object[size];
+        for (int i = 0; i < size; ++i) {
+            final Entry<T> entry = sorted.get(i);
+            // share String instances for duplicate names
+            final String key = keyMap.get(entry);
+            keys[i] = (i > 0 && key.equals(keys[i - 1])) ? keys[i - 1] : key;
+            ranks[i] = entry.rank;
+            values[i] = entry.value;
+        }
+        final char[] alphabet = new char[chars.size()];
+        int i = 0;
+        for (Character c : chars) {
+            alphabet[i++] = c;
+        }
+        return new PrefixIndex<T>(keys, ranks, values, alphabet);
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Finds values whose name starts with the query.
+     * @param query search string
+     * @param max max results to return
+     * @param fuzzy true to include names starting with a prefix one edit away from the query
+     * @return values ordered by rank
+     */
+    public List<T> find(final String query, final int max, final boolean fuzzy) {
+        final String prefix = normalize(query);
+        if (prefix.isEmpty() || max <= 0) {
+            return Collections.emptyList();
+        }
+        final Collector collector = new Collector(max);
+        collect(prefix, collector, 0);
+        if (fuzzy && prefix.length() >= MIN_FUZZY_LENGTH) {
+            for (String variant : getVariants(prefix)) {
+                if (!collector.accepts(minRank, 1)) {
+                    // full of results no fuzzy match can beat
+                    break;
+                }
+                // fuzzy matches rank after exact prefix matches with the same rank
+                collect(variant, collector, 1);
+            }
+        }
+        return collector.getValues();
+    }
+
+    private void collect(final String prefix, final Collector collector, final int penalty) {
+        final boolean isShort = prefix.length() <= TOP_PREFIX_LENGTH;
+        final int[] top = tops.get(isShort ? prefix : prefix.substring(0, TOP_PREFIX_LENGTH));
+        if (top == null) {
+            // no names with the prefix
+            return;
+        }
+        // the best rank for the shorter prefix is a lower bound for the whole range
+        if (!collector.accepts(ranks[top[0]], penalty)) {
+            return;
+        }
+        if (isShort && (penalty > 0 || top.length < TOP_SIZE || collector.max <= TOP_SIZE)) {
+            for (int index : top) {
+                collector.offer(index, ranks[index], penalty);
+            }
+            return;
+        }
+        int index = lowerBound(prefix);
+        while (index < keys.length && collector.scanBudget > 0 && keys[index].startsWith(prefix)) {
+            collector.scanBudget--;
+            collector.offer(index, ranks[index], penalty);
+            index++;
+        }
+    }
+
+    /**
+     * Finds the best ranked indexes for each prefix of up to TOP_PREFIX_LENGTH characters
+     */
+    private static Map<String, int[]> buildTops(final String[] keys, final int[] ranks) {
+        final Map<String, int[]> tops = new HashMap<String, int[]>();
+        for (int length = 1; length <= TOP_PREFIX_LENGTH; ++length) {
+            int start = 0;
+            while (start < keys.length) {
+                if (keys[start].length() < length) {
+                    start++;
+                    continue;
+                }
+                final String prefix = keys[start].substring(0, length);
+                int end = start + 1;
+                while (end < keys.length && keys[end].startsWith(prefix)) {
+                    end++;
+                }
+                tops.put(prefix, getTop(ranks, start, end));
+                start = end;
+            }
+        }
+        return tops;
+    }
+
+    private static int[] getTop(final int[] ranks, final int start, final int end) {
+        // rank in the high bits, index in the low bits like Collector
+        final long[] sortKeys = new long[end - start];
+        for (int i = start; i < end; ++i) {
+            sortKeys[i - start] = ((long) ranks[i] << 32) + i;
+        }
+        Arrays.sort(sortKeys);
+        final int[] top = new int[Math.min(TOP_SIZE, sortKeys.length)];
+        for (int i = 0; i < top.length; ++i) {
+            top[i] = (int) (sortKeys[i] & 0xFFFFFFFFL);
+        }
+        return top;
+    }
+
+    private int lowerBound(final String prefix) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private Set<String> getVariants(final String prefix) {
+        final Set<String> variants = new LinkedHashSet<String>();
+        final int length = prefix.length();
+        final StringBuilder buf = new StringBuilder(length + 1);
+        for (int i = 0; i < length; ++i) {
+            // deletion
+            buf.setLength(0);
+            buf.append(prefix, 0, i).append(prefix, i + 1, length);
+            variants.add(buf.toString());
+            // transposition
+            if (i < length - 1) {
+                buf.setLength(0);
+                buf.append(prefix, 0, i).append(prefix.charAt(i + 1)).append(prefix.charAt(i)).append(prefix, i + 2, length);
+                variants.add(buf.toString());
+            }
+            for (char c : alphabet) {
+                // substitution
+                buf.setLength(0);
+                buf.append(prefix, 0, i).append(c).append(prefix, i + 1, length);
+                variants.add(buf.toString());
+                // insertion
+                buf.setLength(0);
+                buf.append(prefix, 0, i).append(c).append(prefix, i, length);
+                variants.add(buf.toString());
+            }
+        }
+        variants.remove(prefix);
+        variants.remove("");
+        return variants;
+    }
+
+    /**
+     * Normalizes name for indexing/searching: lower case without diacritics apart from Nordic letters.
+     */
+    public static String normalize(final String name) {
+        if (name == null) {
+            return "";
+        }
+        final String lower = name.trim().toLowerCase(Locale.ROOT);
+        final StringBuilder buf = new StringBuilder(lower.length());
+        for (int i = 0; i < lower.length(); ++i) {
+            final char c = lower.charAt(i);
+            if (c == '\u00e5' || c == '\u00e4' || c == '\u00f6' || c < 128) {
+                buf.append(c);
+            } else {
+                buf.append(Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD).charAt(0));
+            }
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Keeps the best ranked matches, ignoring duplicates from overlapping fuzzy ranges
+     */
+    private class Collector {
+        private final int max;
+        private final TreeMap<Long, Integer> best = new TreeMap<Long, Integer>();
+        private final Set<Integer> seen = new HashSet<Integer>();
+        // entries left to scan for the whole query, shared by all fuzzy variants
+        private int scanBudget = MAX_SCAN;
+
+        Collector(final int max) {
+            this.max = max;
+        }
+
+        void offer(final int index, final int rank, final int penalty) {
+            if (!seen.add(index)) {
+                return;
+            }
+            final long sortKey = getSortKey(rank, penalty, index);
+            if (best.size() < max) {
+                best.put(sortKey, index);
+            } else if (sortKey < best.lastKey()) {
+                best.pollLastEntry();
+                best.put(sortKey, index);
+            }
+        }
+
+        /**
+         * @return false if full of matches ranked better than any match with the rank and penalty
+         */
+        boolean accepts(final int rank, final int penalty) {
+            return best.size() < max || getSortKey(rank, penalty, 0) < best.lastKey();
+        }
+
+        private long getSortKey(final int rank, final int penalty, final int index) {
+            // sort by rank, then penalty, then index for unique keys
+            return ((long) rank << 32) + ((long) penalty << 31) + index;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<T> getValues() {
+            final List<T> list = new ArrayList<T>(best.size());
+            for (Integer index : best.values()) {
+                list.add((T) values[index]);
+            }
+            return list;
+        }
+    }
+}
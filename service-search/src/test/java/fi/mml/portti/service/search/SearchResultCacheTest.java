@@ -0,0 +1,40 @@
+package fi.mml.portti.service.search;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SearchResultCacheTest {
+
+    @Test
+    public void testKeyNormalization() {
+        final SearchCriteria first = new SearchCriteria();
+        first.setSearchString("  Helsinki   keskusta ");
+        first.addParam("b", "2");
+        first.addParam("a", "1");
+        final SearchCriteria second = new SearchCriteria();
+        second.setSearchString("Helsinki keskusta");
+        second.addParam("a", "1");
+        second.addParam("b", "2");
+        assertEquals(SearchResultCache.getKey("CHANNEL", first), SearchResultCache.getKey("CHANNEL", second));
+        assertFalse("Channel should be part of the key",
+                SearchResultCache.getKey("CHANNEL", first).equals(SearchResultCache.getKey("OTHER", second)));
+
+        second.setMaxResults(10);
+        assertFalse("Max results should be part of the key",
+                SearchResultCache.getKey("CHANNEL", first).equals(SearchResultCache.getKey("CHANNEL", second)));
+    }
+
+    @Test
+    public void testArrayParamsByContent() {
+        final SearchCriteria first = new SearchCriteria();
+        first.addParam("types", new String[] {"a", "b"});
+        final SearchCriteria second = new SearchCriteria();
+        second.addParam("types", new String[] {"a", "b"});
+        assertEquals(SearchResultCache.getKey("CHANNEL", first), SearchResultCache.getKey("CHANNEL", second));
+
+        second.addParam("types", new String[] {"a", "c"});
+        assertFalse("Array content should be part of the key",
+                SearchResultCache.getKey("CHANNEL", first).equals(SearchResultCache.getKey("CHANNEL", second)));
+    }
+}
@@ -0,0 +1,96 @@
+package fi.nls.oskari.search.channel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PrefixIndexTest {
+
+    private PrefixIndex<String> index;
+
+    @Before
+    public void setUp() {
+        List<PrefixIndex.Entry<String>> entries = new ArrayList<PrefixIndex.Entry<String>>();
+        entries.add(new PrefixIndex.Entry<String>("Helsinki", 1, "Helsinki"));
+        entries.add(new PrefixIndex.Entry<String>("Helsingby", 5, "Helsingby"));
+        entries.add(new PrefixIndex.Entry<String>("Hämeenlinna", 3, "Hämeenlinna"));
+        entries.add(new PrefixIndex.Entry<String>("Espoo", 2, "Espoo"));
+        entries.add(new PrefixIndex.Entry<String>("", 2, "empty"));
+        index = PrefixIndex.build(entries);
+    }
+
+    @Test
+    public void testSize() {
+        assertEquals("Empty names should be skipped", 4, index.size());
+    }
+
+    @Test
+    public void testPrefixOrderedByRank() {
+        assertEquals(Arrays.asList("Helsinki", "Helsingby"), index.find("hels", 10, false));
+        assertEquals(Arrays.asList("Helsinki"), index.find("HELS", 1, false));
+        assertEquals(Arrays.asList("Hämeenlinna"), index.find("häm", 10, false));
+        assertTrue(index.find("x", 10, false).isEmpty());
+        assertTrue(index.find("", 10, false).isEmpty());
+    }
+
+    @Test
+    public void testFuzzy() {
+        assertTrue("Typo shouldn't match exact prefix", index.find("hwls", 10, false).isEmpty());
+        assertEquals(Arrays.asList("Helsinki", "Helsingby"), index.find("hwls", 10, true));
+        assertEquals(Arrays.asList("Espoo"), index.find("epso", 10, true));
+    }
+
+    @Test
+    public void testShortPrefixRankedOverWholeRange() {
+        List<PrefixIndex.Entry<String>> entries = new ArrayList<PrefixIndex.Entry<String>>();
+        for (int i = 0; i < PrefixIndex.MAX_SCAN * 2; ++i) {
+            entries.add(new PrefixIndex.Entry<String>("a" + i, 10, "a" + i));
+        }
+        // sorts last but has the best rank
+        entries.add(new PrefixIndex.Entry<String>("azz", 1, "best"));
+        PrefixIndex<String> large = PrefixIndex.build(entries);
+        assertEquals("best", large.find("a", 5, false).get(0));
+        assertEquals(5, large.find("a", 5, false).size());
+        assertEquals("best", large.find("az", 1, false).get(0));
+    }
+
+    @Test
+    public void testShortFuzzyVariantRankedOverWholeRange() {
+        List<PrefixIndex.Entry<String>> entries = new ArrayList<PrefixIndex.Entry<String>>();
+        for (int i = 0; i < PrefixIndex.MAX_SCAN * 2; ++i) {
+            entries.add(new PrefixIndex.Entry<String>("ab" + i, 10, "ab" + i));
+        }
+        entries.add(new PrefixIndex.Entry<String>("abzz", 1, "best"));
+        PrefixIndex<String> large = PrefixIndex.build(entries);
+        // "ab" is a deletion variant of the query and is answered from the precomputed top list
+        List<String> results = large.find("xab", PrefixIndex.TOP_SIZE * 2, true);
+        assertEquals("best", results.get(0));
+    }
+
+    @Test
+    public void testFuzzySkippedWhenFullOfBetterMatches() {
+        List<PrefixIndex.Entry<String>> entries = new ArrayList<PrefixIndex.Entry<String>>();
+        entries.add(new PrefixIndex.Entry<String>("Helsinki", 1, "Helsinki"));
+        entries.add(new PrefixIndex.Entry<String>("Helsingby", 1, "Helsingby"));
+        entries.add(new PrefixIndex.Entry<String>("Halsua", 1, "Halsua"));
+        PrefixIndex<String> small = PrefixIndex.build(entries);
+        assertEquals(Arrays.asList("Helsingby", "Helsinki"), small.find("hels", 2, true));
+        assertEquals(Arrays.asList("Helsingby", "Helsinki", "Halsua"), small.find("hels", 3, true));
+    }
+
+    @Test
+    public void testNoFuzzyForShortQueries() {
+        assertTrue("Short query shouldn't use fuzzy matching", index.find("hw", 10, true).isEmpty());
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("aaoe", PrefixIndex.normalize(" ÁàOé "));
+        assertEquals("äö", PrefixIndex.normalize("ÄÖ"));
+    }
+}
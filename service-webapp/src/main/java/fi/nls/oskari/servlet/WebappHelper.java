@@ -9,6 +9,7 @@ import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.scheduler.SchedulerService;
 import fi.nls.oskari.util.ConversionHelper;
 import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.oskari.worker.WriteBehindCounter;
 import org.quartz.SchedulerException;
 
 import javax.naming.Context;
@@ -134,6 +135,8 @@ public class WebappHelper {
                 log.error(e, "Failed to shut down the Oskari scheduler");
             }
         }
+        // write pending usage counters before closing db connections
+        WriteBehindCounter.flushAll();
         DS_HELPER.teardown();
         JedisManager.shutdown();
         log.info("Context destroy");
@@ -3,6 +3,7 @@ package fi.nls.oskari.wfs;
 import fi.nls.oskari.cache.JedisManager;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
 import fi.nls.oskari.wfs.util.HttpHelper;
 import fi.nls.oskari.wfs.util.XMLHelper;
 import org.eclipse.xsd.XSDSchema;
@@ -10,101 +11,136 @@ import org.eclipse.xsd.util.XSDSchemaLocator;
 import org.geotools.xml.Schemas;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * XSD Schema loader with caching for Geotools' XML parser
+ *
+ * Schemas are loaded lazily: memory first, then Redis and last from the schema location. Memory is
+ * bounded by the number of schemas and their total size (size of the serialized schema), the least
+ * recently used schemas are dropped first. Schemas are persisted to Redis gzipped, one key per schema
+ * with an expiry. Schemas in the old "hSchemas" hash are still read and moved to the new format when used.
+ *
+ * Properties:
+ * - transport.schema.cache.size=[max number of schemas kept in memory] (defaults to 200)
+ * - transport.schema.cache.maxBytes=[max total size of serialized schemas kept in memory] (defaults to 20000000)
+ * - transport.schema.cache.ttl=[seconds a schema is kept in Redis] (defaults to 2592000 = 30 days)
  */
 public class CachingSchemaLocator implements XSDSchemaLocator {
 
 	private static final String cacheHashKey = "hSchemas";
-	
+	public static final String KEY = "WFSSchema_";
+
     private static final Logger log = LogFactory.getLogger(CachingSchemaLocator.class);
 
     private static final long ERROR_REPORT_QUIET_PERIOD_MS = 30 * 60 * 1000;
 
-	private static Map<String, XSDSchema> cache = new ConcurrentHashMap<String, XSDSchema>();
+    private static final int CACHE_SIZE = PropertyUtil.getOptional("transport.schema.cache.size", 200);
+    private static final long CACHE_MAX_BYTES = PropertyUtil.getOptional("transport.schema.cache.maxBytes", 20000000);
+    private static final int REDIS_TTL = PropertyUtil.getOptional("transport.schema.cache.ttl", 30 * JedisManager.EXPIRY_TIME_DAY);
+
+    // access ordered, guarded by itself
+	private static final LinkedHashMap<String, CachedSchema> cache = new LinkedHashMap<String, CachedSchema>(64, 0.75f, true);
+    private static long cacheBytes = 0;
     private static Map<String, Long> errorTracker = new ConcurrentHashMap<String, Long>();
 	private String username;
 	private String password;
 
+    private static class CachedSchema {
+        final XSDSchema schema;
+        final int size;
+
+        CachedSchema(XSDSchema schema, int size) {
+            this.schema = schema;
+            this.size = size;
+        }
+    }
+
 	/**
 	 * Constructs loader
-	 * 
+	 *
 	 * @param username
 	 * @param password
 	 */
 	public CachingSchemaLocator(String username, String password) {
 		this.username = username;
 		this.password = password;
-		if(cache.size() == 0) {
-			init();
-		}
-	}
-	
-	/**
-	 * Init cache from jedis
-	 */
-	public static void init() {
-		log.debug("Init schemas");
-		Set<String> schemas = JedisManager.hkeys(cacheHashKey);
-		Iterator<String> it = schemas.iterator();
-		while(it.hasNext()) {
-			String field = (String)it.next();
-			String str = JedisManager.hget(cacheHashKey, field);
-			XSDSchema xsd = XMLHelper.StringToXSDSchema(str);
-			cache.put(field, xsd);
-		}
 	}
 
     /**
      * Flush cache map and redis
      */
     public static void flushAll() {
-        cache.clear();
+        synchronized (cache) {
+            cache.clear();
+            cacheBytes = 0;
+        }
         errorTracker.clear();
         JedisManager.del(cacheHashKey);
+        JedisManager.delAll(KEY);
     }
 
 	public static long getCacheSize() {
-		return cache.size();
+        synchronized (cache) {
+            return cache.size();
+        }
 	}
-	
+
+    /**
+     * @return total size of the serialized schemas kept in memory
+     */
+    public static long getCacheBytes() {
+        synchronized (cache) {
+            return cacheBytes;
+        }
+    }
+
 	/**
 	 * Loads schema from given location and caches it
-	 * 
+	 *
 	 * @param schema
 	 * @param namespaceURI
 	 * @param rawSchemaLocationURI
 	 * @param resolvedSchemaLocationURI
-	 * 
+	 *
 	 * @see org.eclipse.xsd.util.XSDSchemaLocator#locateSchema(org.eclipse.xsd.XSDSchema, java.lang.String, java.lang.String, java.lang.String)
 	 */
 	@Override
     public XSDSchema locateSchema(
-    		XSDSchema schema, 
-    		String namespaceURI, 
-    		String rawSchemaLocationURI, 
+    		XSDSchema schema,
+    		String namespaceURI,
+    		String rawSchemaLocationURI,
     		String resolvedSchemaLocationURI) {
-		
+
 		String url = rawSchemaLocationURI;
 		if (url == null) {
 			return null;
 		}
-		
-		XSDSchema foundSchema = cache.get(url);
+
+		XSDSchema foundSchema = getFromMemory(url);
 		if (foundSchema != null) {
 			return foundSchema;
 		}
-		
+
+        foundSchema = getFromRedis(url);
+        if (foundSchema != null) {
+            return foundSchema;
+        }
+
 		try {
 			if (url.toLowerCase().startsWith("https")) {
 				BufferedInputStream response = HttpHelper.getRequestStream(url, "application/xml", username, password);
 				foundSchema = XMLHelper.InputStreamToXSDSchema(response);
-			} else {			
+			} else {
 				foundSchema = Schemas.parse(url);
 			}
 		} catch (Exception e) {
@@ -119,16 +155,114 @@ public class CachingSchemaLocator implements XSDSchemaLocator {
                 log.debug("Failed to locate Schema '" + url + "' - Error message:", e.getMessage());
             }
 		}
-	    
+
 		if (foundSchema != null) {
 			log.debug("Caching schema", url);
-
-			JedisManager.hset(cacheHashKey, url, XMLHelper.XSDSchemaToString(foundSchema));
-			cache.put(url, foundSchema);
+            final String str = XMLHelper.XSDSchemaToString(foundSchema);
+            persist(url, str);
+            putToMemory(url, foundSchema, str.length());
 		}
 
 		return foundSchema;
 	}
 
+    private static XSDSchema getFromMemory(String url) {
+        synchronized (cache) {
+            final CachedSchema cached = cache.get(url);
+            return cached == null ? null : cached.schema;
+        }
+    }
+
+    /**
+     * Adds the schema and drops the least recently used schemas until the cache is within its limits
+     */
+    private static void putToMemory(String url, XSDSchema schema, int size) {
+        synchronized (cache) {
+            final CachedSchema previous = cache.put(url, new CachedSchema(schema, size));
+            if (previous != null) {
+                cacheBytes -= previous.size;
+            }
+            cacheBytes += size;
+            final Iterator<CachedSchema> it = cache.values().iterator();
+            // always keep the one just added
+            while ((cache.size() > CACHE_SIZE || cacheBytes > CACHE_MAX_BYTES) && cache.size() > 1) {
+                cacheBytes -= it.next().size;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Loads a schema persisted by this or another transport node. Schemas in the old hash are moved
+     * to the new format.
+     */
+    private static XSDSchema getFromRedis(String url) {
+        String str = decompress(JedisManager.get(getKey(url)));
+        if (str == null) {
+            str = JedisManager.hget(cacheHashKey, url);
+            if (str == null) {
+                return null;
+            }
+            persist(url, str);
+        }
+        final XSDSchema foundSchema = XMLHelper.StringToXSDSchema(str);
+        if (foundSchema == null) {
+            return null;
+        }
+        log.debug("Loaded schema from Redis", url);
+        putToMemory(url, foundSchema, str.length());
+        return foundSchema;
+    }
+
+    private static void persist(String url, String str) {
+        final byte[] value = compress(str);
+        if (value != null) {
+            JedisManager.setex(getKey(url), REDIS_TTL, value);
+        }
+    }
+
+    private static byte[] getKey(String url) {
+        try {
+            return (KEY + url).getBytes("UTF-8");
+        } catch (IOException e) {
+            // UTF-8 is always supported
+            return (KEY + url).getBytes();
+        }
+    }
+
+    static byte[] compress(String str) {
+        if (str == null) {
+            return null;
+        }
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(str.length() / 4);
+            final GZIPOutputStream out = new GZIPOutputStream(bytes);
+            out.write(str.getBytes("UTF-8"));
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            log.error(e, "Compressing schema failed");
+            return null;
+        }
+    }
 
-}
\ No newline at end of file
+    static String decompress(byte[] value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            final InputStream in = new GZIPInputStream(new ByteArrayInputStream(value));
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length * 4);
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            in.close();
+            return bytes.toString("UTF-8");
+        } catch (IOException e) {
+            log.warn(e, "Persisted schema couldn't be read");
+            return null;
+        }
+    }
+}
@@ -4,6 +4,8 @@ import com.vividsolutions.jts.geom.*;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.util.JSONHelper;
+import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.oskari.wfs.pojo.WFSLayerStore;
 import org.geotools.feature.NameImpl;
 import org.geotools.feature.SchemaException;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
@@ -22,8 +24,27 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import java.math.BigInteger;
 import java.util.*;
 
+/**
+ * Creates SimpleFeatureTypes from the layer's feature type configuration.
+ *
+ * Parsed types are cached per layer, WFS version and configuration (see getParser()) so they aren't
+ * created again for every WFS response.
+ *
+ * Properties:
+ * - transport.featuretype.cache.size=[max number of layers' feature types cached] (defaults to 500)
+ */
 public class WFSFeatureTypeParser {
     private static final Logger log = LogFactory.getLogger(WFSFeatureTypeParser.class);
+
+    private static final int CACHE_SIZE = PropertyUtil.getOptional("transport.featuretype.cache.size", 500);
+
+    private static final Map<String, WFSFeatureTypeParser> CACHE = Collections.synchronizedMap(
+            new LinkedHashMap<String, WFSFeatureTypeParser>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, WFSFeatureTypeParser> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
     
     @SuppressWarnings("rawtypes")
 	private static Map<String, Class> typeMap = new HashMap<String, Class>();
@@ -73,6 +94,7 @@ public class WFSFeatureTypeParser {
     }
     
 	private Map<String, String> typeSpecs = null;
+	private Map<String, SimpleFeatureType> types = null;
 	private Map<String, List<String>> properties = null;
 
     /**
@@ -88,12 +110,36 @@ public class WFSFeatureTypeParser {
         this.typeSpecs = JSONHelper.getObjectAsMap(typeSpecs);
     }
 
+    /**
+     * Returns a parser for the layer with the feature types already parsed. The parser is shared,
+     * the returned types and properties must not be modified.
+     *
+     * @param layer
+     * @return parser
+     */
+    public static WFSFeatureTypeParser getParser(WFSLayerStore layer) {
+        final JSONObject typeSpecs = layer.getFeatureType();
+        // configuration is part of the key so a changed layer doesn't get old types
+        final String key = layer.getLayerId() + "_" + layer.getWFSVersion() + "_" + typeSpecs;
+        WFSFeatureTypeParser parser = CACHE.get(key);
+        if(parser == null) {
+            parser = new WFSFeatureTypeParser(typeSpecs);
+            parser.parse();
+            CACHE.put(key, parser);
+        }
+        return parser;
+    }
+
+    public static void flushCache() {
+        CACHE.clear();
+    }
+
 	/**
 	 * Gets properties
 	 * 
 	 * @return properties
 	 */
-	public Map<String, List<String>> getProperties() {
+	public synchronized Map<String, List<String>> getProperties() {
 		if(this.properties == null) {
 			this.parse();
 		}
@@ -101,15 +147,18 @@ public class WFSFeatureTypeParser {
 	}
 
     /**
-     * Configurable parsing
+     * Configurable parsing, types are parsed once per parser
      * 
      * @return feature types set
      */
-	public Map<String, SimpleFeatureType> parse() {
+	public synchronized Map<String, SimpleFeatureType> parse() {
 		if(this.typeSpecs == null) {
             log.debug("Parsing failed because type specifications were not defined");
             return null;
 		}
+		if(this.types != null) {
+			return this.types;
+		}
 		
     	Map<String, SimpleFeatureType> types = new HashMap<String, SimpleFeatureType>();
     	this.properties = new HashMap<String, List<String>>();
@@ -125,6 +174,7 @@ public class WFSFeatureTypeParser {
 			}
 		}
 		
+		this.types = types;
 		return types;
 	}
 	
@@ -79,7 +79,7 @@ public class WFSParser {
         }
         
         // get feature types (for binding)
-        WFSFeatureTypeParser featureTypeParser = new WFSFeatureTypeParser(this.layer.getFeatureType());
+        WFSFeatureTypeParser featureTypeParser = WFSFeatureTypeParser.getParser(this.layer);
 		this.featureTypes = featureTypeParser.parse();
 		this.propertyNames = featureTypeParser.getProperties();
 
@@ -311,40 +311,41 @@ public class WFSParser {
      * @param values
      */
     public static void parseValuesForJSON(List<Object> values) {
-		Object value = null;
-		ReferencedEnvelope envelope = null;
-		Point point = null;
-		SimpleFeature feature = null;
-		List<Object> list = null;
 		for(int i = 0; i < values.size(); i++) {
-			value = values.get(i);
-			if(value != null) {
-				//log.debug(value.getClass());
-				if(value instanceof ReferencedEnvelope) {
-					envelope = (ReferencedEnvelope) value;
-					values.set(i, 
-							envelope.getMinX() + ":" +
-							envelope.getMaxX() + ", " +
-							envelope.getMinY() + ":" +
-							envelope.getMaxY()
-					);
-				} else if(value instanceof Point) {
-					point = (Point) value;
-					values.set(i, 
-							point.getX() + ", " +
-							point.getY()
-					);
-				} else if(value instanceof SimpleFeature) {
-					feature = (SimpleFeature) value;
-					values.set(i, parseInnerFeature(feature) );
-				} else if(value instanceof List) {
-					list = (List<Object>) value;
-					parseValuesForJSON(list);
-					values.set(i, list);
-				}
+			Object value = values.get(i);
+			Object parsed = parseValueForJSON(value);
+			if(parsed != value) {
+				values.set(i, parsed);
 			}
 		}
 	}
+
+    /**
+     * Parses a value to simpler format for JSON
+     *
+     * Lists are modified in place.
+     *
+     * @param value
+     * @return value in simpler format or the value as is
+     */
+    public static Object parseValueForJSON(Object value) {
+		if(value instanceof ReferencedEnvelope) {
+			ReferencedEnvelope envelope = (ReferencedEnvelope) value;
+			return envelope.getMinX() + ":" +
+					envelope.getMaxX() + ", " +
+					envelope.getMinY() + ":" +
+					envelope.getMaxY();
+		} else if(value instanceof Point) {
+			Point point = (Point) value;
+			return point.getX() + ", " +
+					point.getY();
+		} else if(value instanceof SimpleFeature) {
+			return parseInnerFeature((SimpleFeature) value);
+		} else if(value instanceof List) {
+			parseValuesForJSON((List<Object>) value);
+		}
+		return value;
+	}
 	
     /**
      * Parses SimpleFeature typed object
@@ -8,13 +8,34 @@ import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
 
 import java.net.HttpURLConnection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Gets tokens for ArcGIS servers. Tokens are cached per server until they expire
+ * (or for arcgis.tokenservice.cacheSeconds if the token service doesn't tell when the token expires).
+ */
 public class ArcGisTokenService {
 	private static final Logger log = LogFactory.getLogger(ArcGisTokenService.class);
 	private static final Pattern _pattern = Pattern.compile("^(.*)/arcgis.*$");
 	private static final String _serviceUrl = PropertyUtil.get("arcgis.tokenservice.url", null);
+	private static final long DEFAULT_TOKEN_TTL_MS = PropertyUtil.getOptional("arcgis.tokenservice.cacheSeconds", 600) * 1000L;
+	// renew tokens a bit before they expire
+	private static final long EXPIRY_MARGIN_MS = 60 * 1000L;
+
+	private final ConcurrentMap<String, CachedToken> tokens = new ConcurrentHashMap<String, CachedToken>();
+
+	private static class CachedToken {
+		private final String token;
+		private final long validUntil;
+
+		CachedToken(String token, long validUntil) {
+			this.token = token;
+			this.validUntil = validUntil;
+		}
+	}
     
     private static class ArcgisTokenServiceHolder {
         static final ArcGisTokenService INSTANCE = new ArcGisTokenService();
@@ -27,10 +48,37 @@ public class ArcGisTokenService {
 	protected ArcGisTokenService() {
 	}
 	
-	@SuppressWarnings("unchecked")
 	public String getTokenForLayer(String url) 
 	{
 		String serverUrl = getServerAddressFromUrl(url);
+		final String key = String.valueOf(serverUrl);
+		final CachedToken cached = tokens.get(key);
+		if (cached != null && cached.validUntil > System.currentTimeMillis()) {
+			return cached.token;
+		}
+		final CachedToken token = requestToken(serverUrl);
+		if (token == null) {
+			tokens.remove(key);
+			return null;
+		}
+		tokens.put(key, token);
+		return token.token;
+	}
+
+	/**
+	 * Returns a key for caching responses that depend on the token used for the request.
+	 * The key changes when the token for the server changes but doesn't contain the token itself.
+	 * @param url layer url
+	 * @param token token used for the request (null if none)
+	 * @return key for the server and token
+	 */
+	public String getCacheKey(String url, String token) {
+		final String tokenKey = (token == null) ? "public" : Integer.toHexString(token.hashCode());
+		return getServerAddressFromUrl(url) + "#" + tokenKey;
+	}
+
+	@SuppressWarnings("unchecked")
+	private CachedToken requestToken(String serverUrl) {
 		String requestUrl = _serviceUrl + "&serverUrl=" + serverUrl;
 		try {
 			HttpURLConnection conn = IOHelper.getConnection(requestUrl);
@@ -39,7 +87,14 @@ public class ArcGisTokenService {
 
 			JSONObject json = (JSONObject) JSONValue.parse(requestBody);
 			if (json.containsKey("token")) {
-				return (String) json.get("token");
+				final long now = System.currentTimeMillis();
+				long validUntil = now + DEFAULT_TOKEN_TTL_MS;
+				// expiry time in milliseconds since epoch
+				final Object expires = json.get("expires");
+				if (expires instanceof Number) {
+					validUntil = Math.min(validUntil, ((Number) expires).longValue() - EXPIRY_MARGIN_MS);
+				}
+				return new CachedToken((String) json.get("token"), validUntil);
 			}
 		}
 		catch (Exception ex) {
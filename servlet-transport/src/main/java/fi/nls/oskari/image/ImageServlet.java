@@ -10,7 +10,6 @@ import org.geotools.referencing.CRS;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
-import javax.imageio.ImageIO;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -51,6 +50,10 @@ public class ImageServlet extends HttpServlet {
 
     public static final String TYPE_HIGHLIGHT = "highlight";
 
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+
     /**
      * Route for getting an image (tile or map)
      * 
@@ -129,18 +132,24 @@ public class ImageServlet extends HttpServlet {
             }
         }
 
-		// get image from cache (persistant)
-		BufferedImage bufferedImage = WFSImage.getCache(layerId, style, srs, bbox, zoom);
-		if(bufferedImage == null) { // check temp cache
-			bufferedImage = WFSImage.getCache(layerId, style, srs, bbox, zoom, false);
+		// get encoded image from cache (persistant) - no need to decode it for sending
+		byte[] image = WFSImage.getCacheBytes(layerId, style, srs, bbox, zoom, true);
+		if(image == null) { // check temp cache
+			image = WFSImage.getCacheBytes(layerId, style, srs, bbox, zoom, false);
 		}
 		
-		if(bufferedImage != null) {
+		if(image != null) {
 			// send image
+			final String etag = WFSImage.getETag(image);
+			// tiles are permission checked so only cache privately and revalidate with ETag
+			response.setHeader(HEADER_CACHE_CONTROL, "private, no-cache");
+			response.setHeader(HEADER_ETAG, etag);
+			if(etag.equals(request.getHeader(HEADER_IF_NONE_MATCH))) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
     		try {
-				OutputStream out = response.getOutputStream();
-				ImageIO.write(bufferedImage, FORMAT, out);
-				out.close();
+				writeImage(response, image);
     		} catch (Exception e) {
 	    		log.error(e, "Sending image failed");
                 response.sendError(HttpServletResponse.SC_NOT_FOUND, "Sending image failed");
@@ -152,11 +161,9 @@ public class ImageServlet extends HttpServlet {
                 return;
             } else {
                 // create & send image
-                bufferedImage = WFSProcess.highlight(session, layerId, featureIds, bbox, srs, zoom, width, height);
+                BufferedImage bufferedImage = WFSProcess.highlight(session, layerId, featureIds, bbox, srs, zoom, width, height);
                 try {
-                    OutputStream out = response.getOutputStream();
-                    ImageIO.write(bufferedImage, FORMAT, out);
-                    out.close();
+                    writeImage(response, WFSImage.imageToBytes(bufferedImage));
                 } catch (Exception e) {
                     log.error(e, "Sending image failed");
                     response.sendError(HttpServletResponse.SC_NOT_FOUND, "Not found");
@@ -165,6 +172,13 @@ public class ImageServlet extends HttpServlet {
             }
 		}
 	}
+
+	private void writeImage(HttpServletResponse response, byte[] image) throws IOException {
+		response.setContentLength(image.length);
+		OutputStream out = response.getOutputStream();
+		out.write(image);
+		out.close();
+	}
 	
 	/**
 	 * Checks if user has permissions for a layer
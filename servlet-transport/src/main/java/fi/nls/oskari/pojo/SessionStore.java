@@ -13,6 +13,7 @@ import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -53,6 +54,7 @@ public class SessionStore {
     private PropertyFilter propertyFilter; // passed parameter - not saved
 	private boolean keepPrevious = false; // passed parameter - not saved
     private boolean geomRequest = false; // passed parameter - geom property returned or not - not saved
+    private Integer featurePageSize; // features per page for paged feature delivery, null sends features one by one
 
 	/**
 	 * Constructor with defined session key
@@ -430,6 +432,19 @@ public class SessionStore {
         this.geomRequest = geomRequest;
     }
 
+    /**
+     * Features per page if the client requested paged feature delivery
+     * @return page size or null if features are sent one by one
+     */
+    @JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
+    public Integer getFeaturePageSize() {
+        return featurePageSize;
+    }
+
+    public void setFeaturePageSize(Integer featurePageSize) {
+        this.featurePageSize = featurePageSize;
+    }
+
     /**
 	 * Saves into redis
 	 * 
@@ -560,6 +575,8 @@ public class SessionStore {
 				store.setBrowser(parser.getText());
 			} else if (TransportService.PARAM_BROWSER_VERSION.equals(fieldName)) {
 				store.setBrowserVersion(parser.getValueAsLong());
+			} else if (TransportService.PARAM_FEATURE_PAGE_SIZE.equals(fieldName)) {
+				store.setFeaturePageSize(parser.getValueAsInt());
 			} else if (TransportService.PARAM_LOCATION.equals(fieldName)) {
                 if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
                     while (parser.nextToken() != JsonToken.END_OBJECT) {
@@ -90,6 +90,7 @@ public class StatusServlet extends HttpServlet {
     public static String getStatusMessage() {
         JSONObject metricsJSON = new JSONObject();
         JSONHelper.putValue(metricsJSON, "schema.cache.size", CachingSchemaLocator.getCacheSize());
+        JSONHelper.putValue(metricsJSON, "schema.cache.bytes", CachingSchemaLocator.getCacheBytes());
         final HystrixJobQueue q = (HystrixJobQueue)TransportService.getQueue();
         JSONHelper.putValue(metricsJSON, "queue.size.current",  q.getQueueSize());
         JSONHelper.putValue(metricsJSON, "queue.size.max",  q.getMaxQueueLength());
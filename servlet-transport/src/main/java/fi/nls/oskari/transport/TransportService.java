@@ -6,10 +6,13 @@ import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.pojo.*;
 import fi.nls.oskari.service.OskariComponentManager;
+import fi.nls.oskari.trace.Span;
+import fi.nls.oskari.trace.Trace;
+import fi.nls.oskari.trace.Tracer;
 import fi.nls.oskari.util.ConversionHelper;
 import fi.nls.oskari.util.PropertyUtil;
 import fi.nls.oskari.utils.GeometryJSONOutputModule;
-import fi.nls.oskari.wfs.CachingSchemaLocator;
+import fi.nls.oskari.wfs.WFSFilterBuilder;
 import fi.nls.oskari.wfs.WFSImage;
 import fi.nls.oskari.wfs.pojo.WFSLayerStore;
 import fi.nls.oskari.wfs.util.HttpHelper;
@@ -24,6 +27,9 @@ import org.cometd.bayeux.server.ServerSession;
 import org.cometd.server.AbstractService;
 import org.cometd.server.JacksonJSONContextServer;
 import org.cometd.server.JettyJSONContextServer;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.opengis.filter.Filter;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -59,6 +65,7 @@ public class TransportService extends AbstractService {
 	public static final String PARAM_LANGUAGE = "language";
 	public static final String PARAM_CLIENT = "client";
 	public static final String PARAM_BROWSER = "browser";
+    public static final String PARAM_TRACE_ID = "traceId"; // trace id from X-Oskari-Trace-Id header of the webapp
 	public static final String PARAM_BROWSER_VERSION = "browserVersion";
 	public static final String PARAM_LOCATION = "location";
 	public static final String PARAM_LOCATION_SRS = "srs";
@@ -80,6 +87,13 @@ public class TransportService extends AbstractService {
 	public static final String PARAM_FEATURE_IDS = "featureIds";
 	public static final String PARAM_KEEP_PREVIOUS = "keepPrevious";
     public static final String PARAM_GEOM_REQUEST = "geomRequest";
+    public static final String PARAM_FEATURE_PAGE_SIZE = "featurePageSize";
+    public static final String PARAM_CURSOR = "cursor";
+    public static final String PARAM_OFFSET = "offset";
+    public static final String PARAM_LIMIT = "limit";
+    public static final String PARAM_SORT = "sort";
+    public static final String PARAM_ORDER = "order";
+    public static final String PARAM_FILTER = "filter";
 
     public static final String CHANNEL_INIT = "/service/wfs/init";
 	public static final String CHANNEL_ADD_MAP_LAYER = "/service/wfs/addMapLayer";
@@ -93,6 +107,7 @@ public class TransportService extends AbstractService {
     public static final String CHANNEL_SET_PROPERTY_FILTER = "/service/wfs/setPropertyFilter";
 	public static final String CHANNEL_SET_MAP_LAYER_VISIBILITY = "/service/wfs/setMapLayerVisibility";
 	public static final String CHANNEL_HIGHLIGHT_FEATURES = "/service/wfs/highlightFeatures";
+    public static final String CHANNEL_GET_FEATURE_PAGE = "/service/wfs/getFeaturePage";
 
 	public static final String CHANNEL_DISCONNECT = "/meta/disconnect";
     private Map<String, MapLayerJobProvider> mapLayerJobProviders;
@@ -146,8 +161,6 @@ public class TransportService extends AbstractService {
                 PropertyUtil.get("redis.hostname"),
                 PropertyUtil.getOptional("redis.port", 6379));
 
-        CachingSchemaLocator.init(); // init schemas
-
         addService(CHANNEL_DISCONNECT, "disconnect");
         addService(CHANNEL_INIT, "processRequest");
         addService(CHANNEL_ADD_MAP_LAYER, "processRequest");
@@ -161,6 +174,7 @@ public class TransportService extends AbstractService {
         addService(CHANNEL_SET_PROPERTY_FILTER, "processRequest");
         addService(CHANNEL_SET_MAP_LAYER_VISIBILITY, "processRequest");
         addService(CHANNEL_HIGHLIGHT_FEATURES, "processRequest");
+        addService(CHANNEL_GET_FEATURE_PAGE, "processRequest");
     }
 
     public static JobQueue getQueue() {
@@ -234,6 +248,7 @@ public class TransportService extends AbstractService {
         }
         JedisManager.del(SessionStore.KEY + client.getId());
         JedisManager.delAll(WFSCustomStyleStore.KEY + client.getId());
+        FeatureResultBuffer.removeAll(client.getId());
 
         // TODO: remove styles from map
 
@@ -264,36 +279,48 @@ public class TransportService extends AbstractService {
             return;
         }
 
-        // get session
-        SessionStore store = getStore(client.getId());
-
-        // channel processing
-        String channel = message.getChannel();
-        log.debug("Processing request on channel:", channel, "- payload:", json);
-        if (channel.equals(CHANNEL_INIT)) {
-            processInit(client, store, json);
-        } else if (channel.equals(CHANNEL_ADD_MAP_LAYER)) {
-            addMapLayer(store, params);
-        } else if (channel.equals(CHANNEL_REMOVE_MAP_LAYER)) {
-            removeMapLayer(store, params);
-        } else if (channel.equals(CHANNEL_HIGHLIGHT_FEATURES)) {
-            highlightMapLayerFeatures(store, params);
-        } else if (channel.equals(CHANNEL_SET_LOCATION)) {
-            setLocation(store, params);
-        } else if (channel.equals(CHANNEL_SET_MAP_SIZE)) {
-            setMapSize(store, params);
-        } else if (channel.equals(CHANNEL_SET_MAP_LAYER_STYLE)) {
-            setMapLayerStyle(store, params);
-        } else if (channel.equals(CHANNEL_SET_MAP_LAYER_CUSTOM_STYLE)) {
-            setMapLayerCustomStyle(store, params);
-        } else if (channel.equals(CHANNEL_SET_MAP_CLICK)) {
-            setMapClick(store, json, params);
-        } else if (channel.equals(CHANNEL_SET_FILTER)) {
-            setFilter(store, json, params);
-        } else if (channel.equals(CHANNEL_SET_PROPERTY_FILTER)) {
-            setPropertyFilter(store, json, params);
-        } else if (channel.equals(CHANNEL_SET_MAP_LAYER_VISIBILITY)) {
-            setMapLayerVisibility(store, params);
+        // a trace started by the webapp is continued here and in the jobs created for the request
+        final Object traceId = params.get(PARAM_TRACE_ID);
+        final Trace trace = Tracer.start("transport" + message.getChannel(),
+                traceId instanceof String ? (String) traceId : null);
+        try {
+            // get session
+            final Span sessionSpan = trace.span("session");
+            SessionStore store = getStore(client.getId());
+            sessionSpan.end();
+
+            // channel processing
+            String channel = message.getChannel();
+            log.debug("Processing request on channel:", channel, "- payload:", json);
+            if (channel.equals(CHANNEL_INIT)) {
+                processInit(client, store, json);
+            } else if (channel.equals(CHANNEL_ADD_MAP_LAYER)) {
+                addMapLayer(store, params);
+            } else if (channel.equals(CHANNEL_REMOVE_MAP_LAYER)) {
+                removeMapLayer(store, params);
+            } else if (channel.equals(CHANNEL_HIGHLIGHT_FEATURES)) {
+                highlightMapLayerFeatures(store, params);
+            } else if (channel.equals(CHANNEL_SET_LOCATION)) {
+                setLocation(store, params);
+            } else if (channel.equals(CHANNEL_SET_MAP_SIZE)) {
+                setMapSize(store, params);
+            } else if (channel.equals(CHANNEL_SET_MAP_LAYER_STYLE)) {
+                setMapLayerStyle(store, params);
+            } else if (channel.equals(CHANNEL_SET_MAP_LAYER_CUSTOM_STYLE)) {
+                setMapLayerCustomStyle(store, params);
+            } else if (channel.equals(CHANNEL_SET_MAP_CLICK)) {
+                setMapClick(store, json, params);
+            } else if (channel.equals(CHANNEL_SET_FILTER)) {
+                setFilter(store, json, params);
+            } else if (channel.equals(CHANNEL_SET_PROPERTY_FILTER)) {
+                setPropertyFilter(store, json, params);
+            } else if (channel.equals(CHANNEL_SET_MAP_LAYER_VISIBILITY)) {
+                setMapLayerVisibility(store, params);
+            } else if (channel.equals(CHANNEL_GET_FEATURE_PAGE)) {
+                getFeaturePage(store, json, params);
+            }
+        } finally {
+            trace.finish();
         }
     }
 
@@ -311,6 +338,14 @@ public class TransportService extends AbstractService {
         return -1;
     }
 
+    private int parseInt(final Map<String, Object> params, final String key, final int defaultValue) {
+        final Object obj = params.get(key);
+        if(obj instanceof Number) {
+            return ((Number) obj).intValue();
+        }
+        return defaultValue;
+    }
+
     /**
      * Parses init's json for session and adds jobs for the selected layers
      *
@@ -409,6 +444,7 @@ public class TransportService extends AbstractService {
                     layerId,
                     false);
             jobs.remove(job);
+            FeatureResultBuffer.remove(store.getClient(), layerId);
 
             store.removeLayer(layerId);
             this.save(store);
@@ -677,6 +713,55 @@ public class TransportService extends AbstractService {
             }
         }
     }
+
+    /**
+     * Sends a page of the features buffered by the layer's last normal job. Features can be sorted by
+     * a property and filtered with the same filter syntax as setPropertyFilter. Replies with
+     * an error if the buffer has been replaced by a newer job or has expired.
+     *
+     * Params: layerId, cursor, offset, limit, sort (property), order (asc|desc), filter ({"filters": [...]})
+     *
+     * @param store
+     * @param json
+     * @param params
+     */
+    private void getFeaturePage(SessionStore store, String json, Map<String, Object> params) {
+        if (!params.containsKey(PARAM_LAYER_ID) || !params.containsKey(PARAM_CURSOR)) {
+            log.warn("Failed to get feature page");
+            return;
+        }
+        final String layerId = params.get(PARAM_LAYER_ID).toString();
+        final ResultProcessor processor = createResultProcessor(parseRequestId(params));
+        final FeatureResultBuffer buffer = FeatureResultBuffer.get(store.getClient(), layerId,
+                params.get(PARAM_CURSOR).toString());
+        if (buffer == null) {
+            Map<String, Object> output = new HashMap<String, Object>();
+            output.put(OWSMapLayerJob.OUTPUT_LAYER_ID, layerId);
+            output.put(OWSMapLayerJob.OUTPUT_ONCE, true);
+            output.put(OWSMapLayerJob.OUTPUT_MESSAGE, ResultProcessor.ERROR_FEATURE_PAGE_EXPIRED);
+            processor.addResults(store.getClient(), ResultProcessor.CHANNEL_ERROR, output);
+            return;
+        }
+        final Integer pageSize = store.getFeaturePageSize();
+        final int offset = parseInt(params, PARAM_OFFSET, 0);
+        final int limit = parseInt(params, PARAM_LIMIT, pageSize != null ? pageSize : FeatureResultBuffer.MAX_PAGE_SIZE);
+        final Object sort = params.get(PARAM_SORT);
+        final boolean descending = FeatureResultBuffer.ORDER_DESC.equals(params.get(PARAM_ORDER));
+
+        Filter filter = null;
+        if (params.containsKey(PARAM_FILTER)) {
+            try {
+                JSONObject data = new JSONObject(json).getJSONObject(PARAM_DATA);
+                filter = WFSFilterBuilder.parseWfsJsonFilter(data.optJSONObject(PARAM_FILTER), null, null);
+            } catch (JSONException e) {
+                log.warn(e, "Invalid filter for feature page");
+            }
+        }
+        final int[] rows = buffer.getRows(sort == null ? null : sort.toString(), descending, filter);
+        processor.addResults(store.getClient(), ResultProcessor.CHANNEL_FEATURE_PAGE,
+                buffer.getPageOutput(layerId, rows, offset, limit));
+    }
+
     /**
      * Sets layer visibility into session and starts/stops job for the layer
      *
@@ -702,7 +787,9 @@ public class TransportService extends AbstractService {
 	    		if(layerVisible) {
                     tmpLayer.setTiles(store.getGrid().getBounds()); // init bounds to tiles (render all)
                     initMapLayerJob(parseRequestId(params), store, layerId, false);
-	    		}
+	    		} else {
+                    FeatureResultBuffer.remove(store.getClient(), layerId);
+                }
     		}
     	}
     }
@@ -792,7 +879,9 @@ public class TransportService extends AbstractService {
     public Job createOWSMapLayerJob(ResultProcessor service, JobType type,
             SessionStore store, String layerId, boolean refresh, boolean reqSendFeatures,
             boolean reqSendImage, boolean reqSendHighlight) {
+        final Span configSpan = Tracer.span("layerConfiguration");
         final WFSLayerStore layer = JobHelper.getLayerConfiguration(layerId, store.getSession(), store.getRoute());
+        configSpan.end();
 
         MapLayerJobProvider provider = null;
         if(layer.getJobType() != null) {
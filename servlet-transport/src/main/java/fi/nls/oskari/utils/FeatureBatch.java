@@ -0,0 +1,432 @@
+package fi.nls.oskari.utils;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.SerializerProvider;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Feature values of a job stored column by column instead of a list of boxed values per feature.
+ * A row is a feature, a column is one of its values (for example [__fid, properties..., __centerX, __centerY]
+ * or [fid, geometry]). Columns are typed by the values written to them:
+ * - integer values (Integer, Long, Short, Byte) are stored in a long[]
+ * - Double values are stored in a double[]
+ * - Strings are dictionary encoded (int[] of codes) so repeating values are stored once
+ * - anything else (lists, maps, geometries, booleans) and columns with mixed types are stored as Objects
+ * A String column with mostly distinct values (like feature ids) is stored as Objects since the dictionary
+ * would only add overhead.
+ *
+ * The batch is a List<List<Object>> of row views so existing code handling feature lists can use it as is.
+ * Row views read and write through to the columns. GeometryJSONOutputModule registers a serializer that
+ * writes the batch to the client payload directly from the columns, the JSON is the same as for a list of
+ * lists.
+ *
+ * Not thread-safe, each job builds its own batches.
+ */
+public class FeatureBatch extends AbstractList<List<Object>> implements RandomAccess {
+
+    private static final int INITIAL_CAPACITY = 64;
+    // dictionary encoding is dropped when the column has more distinct values than this and half of the rows
+    private static final int DICTIONARY_MIN_SIZE = 256;
+
+    private final List<Column> columns = new ArrayList<Column>();
+    private int size = 0;
+    private int capacity;
+
+    public FeatureBatch() {
+        this(0);
+    }
+
+    /**
+     * @param columnCount number of values per feature, more columns are added if values are set to them
+     */
+    public FeatureBatch(int columnCount) {
+        this(columnCount, INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param columnCount number of values per feature
+     * @param rowCapacity expected number of features
+     */
+    public FeatureBatch(int columnCount, int rowCapacity) {
+        this.capacity = Math.max(1, rowCapacity);
+        ensureColumns(columnCount);
+    }
+
+    /**
+     * Adds a feature with all values null
+     * @return row index of the feature
+     */
+    public int addRow() {
+        if (size == capacity) {
+            capacity = capacity + (capacity >> 1) + 1;
+            for (Column column : columns) {
+                column.grow(capacity);
+            }
+        }
+        modCount++;
+        return size++;
+    }
+
+    /**
+     * Sets a value of a feature. The column is converted to a more generic type if the value
+     * doesn't fit the current one.
+     * @param row row index from addRow()
+     * @param column column index, columns are added if needed
+     * @param value value, null is allowed
+     */
+    public void set(int row, int column, Object value) {
+        checkRow(row);
+        if (column < 0) {
+            throw new IndexOutOfBoundsException("Column: " + column);
+        }
+        ensureColumns(column + 1);
+        Column col = columns.get(column);
+        if (!col.accepts(value)) {
+            col = col.convert(value);
+            columns.set(column, col);
+        }
+        col.set(row, value);
+    }
+
+    /**
+     * @param row row index
+     * @param column column index
+     * @return value of the feature, numbers are returned as Long or Double
+     */
+    public Object get(int row, int column) {
+        checkRow(row);
+        if (column < 0 || column >= columns.size()) {
+            throw new IndexOutOfBoundsException("Column: " + column + ", Columns: " + columns.size());
+        }
+        return columns.get(column).get(row);
+    }
+
+    public int getColumnCount() {
+        return columns.size();
+    }
+
+    /**
+     * Adds empty columns so the batch has at least the given number of columns
+     * @param columnCount
+     */
+    public void ensureColumns(int columnCount) {
+        while (columns.size() < columnCount) {
+            columns.add(new NullColumn());
+        }
+    }
+
+    /**
+     * Writes the values of a feature as a JSON array
+     */
+    void writeRow(int row, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+        checkRow(row);
+        jgen.writeStartArray();
+        for (Column column : columns) {
+            column.write(row, jgen, provider);
+        }
+        jgen.writeEndArray();
+    }
+
+    /**
+     * @param index row index
+     * @return view of the feature's values
+     */
+    @Override
+    public List<Object> get(int index) {
+        checkRow(index);
+        return new Row(index);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a feature from a list of values
+     * @param values
+     * @return true
+     */
+    @Override
+    public boolean add(List<Object> values) {
+        final int row = addRow();
+        for (int i = 0; i < values.size(); ++i) {
+            set(row, i, values.get(i));
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        final int columnCount = columns.size();
+        columns.clear();
+        size = 0;
+        capacity = INITIAL_CAPACITY;
+        modCount++;
+        ensureColumns(columnCount);
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Values of a feature, reads and writes through to the batch
+     */
+    final class Row extends AbstractList<Object> implements RandomAccess {
+        private final int row;
+
+        Row(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public Object get(int index) {
+            return FeatureBatch.this.get(row, index);
+        }
+
+        @Override
+        public Object set(int index, Object value) {
+            final Object previous = get(index);
+            FeatureBatch.this.set(row, index, value);
+            return previous;
+        }
+
+        @Override
+        public int size() {
+            return columns.size();
+        }
+
+        void write(JsonGenerator jgen, SerializerProvider provider) throws IOException {
+            writeRow(row, jgen, provider);
+        }
+    }
+
+    private abstract class Column {
+        abstract boolean accepts(Object value);
+
+        abstract void set(int row, Object value);
+
+        abstract Object get(int row);
+
+        abstract void grow(int capacity);
+
+        abstract void write(int row, JsonGenerator jgen, SerializerProvider provider) throws IOException;
+
+        /**
+         * @param value value that isn't accepted by this column
+         * @return column with the current values that accepts the value
+         */
+        Column convert(Object value) {
+            final ObjectColumn column = new ObjectColumn();
+            for (int row = 0; row < size; ++row) {
+                column.set(row, get(row));
+            }
+            return column;
+        }
+    }
+
+    /**
+     * Column without any values set yet
+     */
+    private class NullColumn extends Column {
+        boolean accepts(Object value) {
+            return value == null;
+        }
+
+        void set(int row, Object value) {
+        }
+
+        Object get(int row) {
+            return null;
+        }
+
+        void grow(int capacity) {
+        }
+
+        void write(int row, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+            jgen.writeNull();
+        }
+
+        Column convert(Object value) {
+            if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                return new LongColumn();
+            }
+            if (value instanceof Double) {
+                return new DoubleColumn();
+            }
+            if (value instanceof String) {
+                return new StringColumn();
+            }
+            return new ObjectColumn();
+        }
+    }
+
+    private class LongColumn extends Column {
+        private long[] values = new long[capacity];
+        private final BitSet present = new BitSet();
+
+        boolean accepts(Object value) {
+            return value == null || value instanceof Integer || value instanceof Long
+                    || value instanceof Short || value instanceof Byte;
+        }
+
+        void set(int row, Object value) {
+            if (value == null) {
+                present.clear(row);
+                return;
+            }
+            values[row] = ((Number) value).longValue();
+            present.set(row);
+        }
+
+        Object get(int row) {
+            return present.get(row) ? Long.valueOf(values[row]) : null;
+        }
+
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        void write(int row, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+            if (present.get(row)) {
+                jgen.writeNumber(values[row]);
+            } else {
+                jgen.writeNull();
+            }
+        }
+    }
+
+    private class DoubleColumn extends Column {
+        private double[] values = new double[capacity];
+        private final BitSet present = new BitSet();
+
+        boolean accepts(Object value) {
+            return value == null || value instanceof Double;
+        }
+
+        void set(int row, Object value) {
+            if (value == null) {
+                present.clear(row);
+                return;
+            }
+            values[row] = (Double) value;
+            present.set(row);
+        }
+
+        Object get(int row) {
+            return present.get(row) ? Double.valueOf(values[row]) : null;
+        }
+
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        void write(int row, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+            if (present.get(row)) {
+                jgen.writeNumber(values[row]);
+            } else {
+                jgen.writeNull();
+            }
+        }
+    }
+
+    private class StringColumn extends Column {
+        // -1 for null
+        private int[] codes;
+        private final List<String> dictionary = new ArrayList<String>();
+        private final Map<String, Integer> index = new HashMap<String, Integer>();
+
+        StringColumn() {
+            codes = new int[capacity];
+            Arrays.fill(codes, -1);
+        }
+
+        boolean accepts(Object value) {
+            if (value == null) {
+                return true;
+            }
+            if (!(value instanceof String)) {
+                return false;
+            }
+            // mostly distinct values, not worth encoding
+            return index.containsKey(value)
+                    || dictionary.size() < DICTIONARY_MIN_SIZE
+                    || dictionary.size() < size / 2;
+        }
+
+        void set(int row, Object value) {
+            if (value == null) {
+                codes[row] = -1;
+                return;
+            }
+            Integer code = index.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add((String) value);
+                index.put((String) value, code);
+            }
+            codes[row] = code;
+        }
+
+        Object get(int row) {
+            final int code = codes[row];
+            return code < 0 ? null : dictionary.get(code);
+        }
+
+        void grow(int capacity) {
+            final int previous = codes.length;
+            codes = Arrays.copyOf(codes, capacity);
+            Arrays.fill(codes, previous, capacity, -1);
+        }
+
+        void write(int row, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+            final int code = codes[row];
+            if (code < 0) {
+                jgen.writeNull();
+            } else {
+                jgen.writeString(dictionary.get(code));
+            }
+        }
+    }
+
+    private class ObjectColumn extends Column {
+        private Object[] values = new Object[capacity];
+
+        boolean accepts(Object value) {
+            return true;
+        }
+
+        void set(int row, Object value) {
+            values[row] = value;
+        }
+
+        Object get(int row) {
+            return values[row];
+        }
+
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        void write(int row, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+            final Object value = values[row];
+            if (value == null) {
+                provider.defaultSerializeNull(jgen);
+            } else {
+                provider.defaultSerializeValue(value, jgen);
+            }
+        }
+    }
+}
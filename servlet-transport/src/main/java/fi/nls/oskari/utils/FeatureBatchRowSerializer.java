@@ -0,0 +1,32 @@
+package fi.nls.oskari.utils;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.SerializerProvider;
+
+import java.io.IOException;
+
+/**
+ * Writes a single feature of a FeatureBatch (sent one by one for normal jobs) directly from the columns.
+ *
+ * This uses the Jackson 1.x version since it's used by the current version of CometD.
+ * Don't upgrade if not upgrading CometD.
+ */
+class FeatureBatchRowSerializer extends JsonSerializer<FeatureBatch.Row> {
+
+    @Override
+    public void serialize(FeatureBatch.Row value, JsonGenerator jgen,
+            SerializerProvider provider) throws IOException {
+        if (value == null) {
+            provider.defaultSerializeNull(jgen);
+            return;
+        }
+        value.write(jgen, provider);
+    }
+
+    @Override
+    public Class<FeatureBatch.Row> handledType() {
+        return FeatureBatch.Row.class;
+    }
+
+}
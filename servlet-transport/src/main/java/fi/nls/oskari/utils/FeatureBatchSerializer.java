@@ -0,0 +1,37 @@
+package fi.nls.oskari.utils;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.SerializerProvider;
+
+import java.io.IOException;
+
+/**
+ * Writes FeatureBatch as an array of feature arrays directly from the columns without creating
+ * row views or boxing the values.
+ *
+ * This uses the Jackson 1.x version since it's used by the current version of CometD.
+ * Don't upgrade if not upgrading CometD.
+ */
+class FeatureBatchSerializer extends JsonSerializer<FeatureBatch> {
+
+    @Override
+    public void serialize(FeatureBatch value, JsonGenerator jgen,
+            SerializerProvider provider) throws IOException {
+        if (value == null) {
+            provider.defaultSerializeNull(jgen);
+            return;
+        }
+        jgen.writeStartArray();
+        for (int row = 0; row < value.size(); ++row) {
+            value.writeRow(row, jgen, provider);
+        }
+        jgen.writeEndArray();
+    }
+
+    @Override
+    public Class<FeatureBatch> handledType() {
+        return FeatureBatch.class;
+    }
+
+}
@@ -18,6 +18,8 @@ public class GeometryJSONOutputModule extends SimpleModule {
     @Override
     public void setupModule(Module.SetupContext context) {
         addSerializer(new GeometrySerializer());
+        addSerializer(new FeatureBatchSerializer());
+        addSerializer(new FeatureBatchRowSerializer());
 
         super.setupModule(context);
     }
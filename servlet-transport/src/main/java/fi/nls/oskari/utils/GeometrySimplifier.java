@@ -0,0 +1,235 @@
+package fi.nls.oskari.utils;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.precision.GeometryPrecisionReducer;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.pojo.Location;
+import fi.nls.oskari.pojo.SessionStore;
+import fi.nls.oskari.pojo.Tile;
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prepares feature geometries sent to the client for the current map resolution. The client can't show
+ * details smaller than a pixel so coordinates are snapped to the pixel grid and the snapped geometry is
+ * simplified (preserving topology) with a tolerance relative to the resolution. Snapping is done first with
+ * a precision reducer so the result stays valid: parts that collapse (lines/rings shorter than a pixel) are
+ * dropped. Geometries that collapse completely are sent as is. WKT is written only with the decimals the
+ * resolution needs.
+ *
+ * Geometries can optionally be sent in a compact delta encoded format:
+ *   {"type": "Polygon", "resolution": 0.5, "coordinates": [[x0, y0, dx1, dy1, dx2, dy2, ...]]}
+ * where the coordinates are integers in pixels (multiply with resolution to get map units), the first
+ * coordinate pair of each line/ring is absolute and the rest are differences to the previous pair.
+ * Polygons have a list of rings, multi geometries a list of parts and geometry collections a list of
+ * geometry objects.
+ *
+ * Output is cached by layer, srs, zoom level and feature so the same features aren't simplified
+ * again when the user pans the map.
+ *
+ * Properties:
+ * - transport.geometry.simplify=[true|false] (defaults to false)
+ * - transport.geometry.simplify.pixels=[simplification tolerance in pixels] (defaults to 0.5)
+ * - transport.geometry.format=[wkt|delta] (defaults to wkt)
+ * - transport.geometry.cache.size=[max number of cached geometries] (defaults to 10000)
+ */
+public class GeometrySimplifier {
+
+    public static final String FORMAT_WKT = "wkt";
+    public static final String FORMAT_DELTA = "delta";
+
+    private static final Logger LOG = LogFactory.getLogger(GeometrySimplifier.class);
+
+    private static final boolean ENABLED = PropertyUtil.getOptional("transport.geometry.simplify", false);
+    private static final double TOLERANCE_PIXELS = PropertyUtil.getOptional("transport.geometry.simplify.pixels", 0.5d);
+    private static final String FORMAT = PropertyUtil.get("transport.geometry.format", FORMAT_WKT);
+    private static final int CACHE_SIZE = PropertyUtil.getOptional("transport.geometry.cache.size", 10000);
+
+    private static final Map<String, Object> CACHE = Collections.synchronizedMap(
+            new LinkedHashMap<String, Object>(1024, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    private final String cachePrefix;
+    private final double resolution;
+    private final String format;
+    private final GeometryFactory outputFactory;
+    private final PrecisionModel pixelGrid;
+
+    /**
+     * @param layerId layer of the features
+     * @param srs projection of the geometries
+     * @param zoom map zoom level
+     * @param resolution map units per pixel, simplification is disabled if zero or less
+     * @param format FORMAT_WKT or FORMAT_DELTA
+     */
+    public GeometrySimplifier(String layerId, String srs, long zoom, double resolution, String format) {
+        this.cachePrefix = layerId + "_" + srs + "_" + zoom + "_" + format + "_";
+        this.resolution = resolution;
+        this.format = format;
+        // fixed precision with the decimals needed for the resolution -> WKTWriter formats accordingly
+        final int decimals = resolution > 0 ? Math.max(0, (int) Math.ceil(-Math.log10(resolution))) : 0;
+        this.outputFactory = new GeometryFactory(new PrecisionModel(Math.pow(10, decimals)));
+        this.pixelGrid = resolution > 0 ? new PrecisionModel(1d / resolution) : null;
+    }
+
+    /**
+     * Creates a simplifier for the session's current map view
+     * @param layerId
+     * @param session
+     * @return simplifier
+     */
+    public static GeometrySimplifier forSession(String layerId, SessionStore session) {
+        final Location location = session.getLocation();
+        final Tile mapSize = session.getMapSize();
+        double resolution = 0;
+        if (ENABLED && mapSize != null && mapSize.getWidth() > 0 && location.getRight() > location.getLeft()) {
+            resolution = (location.getRight() - location.getLeft()) / mapSize.getWidth();
+        }
+        return new GeometrySimplifier(layerId, location.getSrs(), location.getZoom(), resolution, FORMAT);
+    }
+
+    /**
+     * Returns the geometry as WKT String or delta encoded Map depending on the format
+     * @param fid feature id used for caching, null to skip the cache
+     * @param geometry
+     * @return geometry for the response
+     */
+    public Object getOutput(final String fid, final Geometry geometry) {
+        if (geometry == null) {
+            return null;
+        }
+        if (resolution <= 0) {
+            return geometry.toText();
+        }
+        // geometry hash is based on the envelope, included so modified features aren't served from cache
+        final String key = fid == null ? null :
+                cachePrefix + fid + "_" + geometry.hashCode() + "_" + geometry.getNumPoints();
+        if (key != null) {
+            final Object cached = CACHE.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final Geometry simplified = simplify(geometry);
+        final Object output = FORMAT_DELTA.equals(format) ? toDeltaEncoded(simplified) : toText(simplified);
+        if (key != null) {
+            CACHE.put(key, output);
+        }
+        return output;
+    }
+
+    /**
+     * Snaps coordinates to the pixel grid and simplifies the geometry
+     * @param geometry
+     * @return simplified copy of the geometry or the geometry itself if it collapses completely
+     */
+    public Geometry simplify(final Geometry geometry) {
+        if (resolution <= 0) {
+            return geometry;
+        }
+        final Geometry snapped;
+        try {
+            // removes repeated points and collapsed parts, fixes polygon topology if snapping breaks it
+            snapped = GeometryPrecisionReducer.reduce(geometry, pixelGrid);
+        } catch (RuntimeException e) {
+            LOG.debug("Couldn't snap geometry to the pixel grid:", e.getMessage());
+            return geometry;
+        }
+        if (snapped.isEmpty()) {
+            // smaller than a pixel, keep it so it can still be seen and clicked
+            return geometry;
+        }
+        if (snapped.getDimension() == 0 || TOLERANCE_PIXELS <= 0) {
+            return snapped;
+        }
+        // vertices of the simplified geometry are a subset of the snapped ones so they stay on the grid
+        return TopologyPreservingSimplifier.simplify(snapped, resolution * TOLERANCE_PIXELS);
+    }
+
+    private long toPixels(final double value) {
+        return Math.round(value / resolution);
+    }
+
+    /**
+     * @param geometry simplified geometry
+     * @return WKT with decimals needed for the resolution
+     */
+    public String toText(final Geometry geometry) {
+        return outputFactory.createGeometry(geometry).toText();
+    }
+
+    /**
+     * @param geometry simplified geometry
+     * @return delta encoded geometry
+     */
+    public Map<String, Object> toDeltaEncoded(final Geometry geometry) {
+        final Map<String, Object> result = new HashMap<String, Object>();
+        result.put("type", geometry.getGeometryType());
+        result.put("resolution", resolution);
+        result.put("coordinates", encode(geometry));
+        return result;
+    }
+
+    private Object encode(final Geometry geometry) {
+        if (geometry instanceof Point || geometry instanceof LineString) {
+            return encode(geometry.getCoordinates());
+        }
+        if (geometry instanceof Polygon) {
+            final Polygon polygon = (Polygon) geometry;
+            final List<Object> rings = new ArrayList<Object>(polygon.getNumInteriorRing() + 1);
+            rings.add(encode(polygon.getExteriorRing().getCoordinates()));
+            for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                rings.add(encode(polygon.getInteriorRingN(i).getCoordinates()));
+            }
+            return rings;
+        }
+        final boolean mixed = geometry.getClass().equals(GeometryCollection.class);
+        final List<Object> parts = new ArrayList<Object>(geometry.getNumGeometries());
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            final Geometry part = geometry.getGeometryN(i);
+            parts.add(mixed ? toDeltaEncoded(part) : encode(part));
+        }
+        return parts;
+    }
+
+    private long[] encode(final Coordinate[] coordinates) {
+        final long[] values = new long[coordinates.length * 2];
+        long prevX = 0;
+        long prevY = 0;
+        for (int i = 0; i < coordinates.length; i++) {
+            final long x = toPixels(coordinates[i].x);
+            final long y = toPixels(coordinates[i].y);
+            values[i * 2] = x - prevX;
+            values[i * 2 + 1] = y - prevY;
+            prevX = x;
+            prevY = y;
+        }
+        return values;
+    }
+
+    /**
+     * Removes all cached geometries
+     */
+    public static void flush() {
+        CACHE.clear();
+    }
+}
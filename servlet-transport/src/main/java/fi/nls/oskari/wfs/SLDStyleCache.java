@@ -0,0 +1,145 @@
+package fi.nls.oskari.wfs;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
+import org.geotools.sld.SLDConfiguration;
+import org.geotools.styling.SLD;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyledLayerDescriptor;
+import org.geotools.xml.Parser;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Parsed SLD styles shared by WFSImages. Parsing an SLD with GeoTools is expensive compared to drawing a
+ * tile and a WFSImage is created for each job. The styles are only read when rendering so the same
+ * instance can be used by all jobs.
+ *
+ * Layer styles are cached by layer id and style name. The SLD is compared on each lookup so a style
+ * modified by an admin (the layer is reloaded to transport with the new SLD) is parsed again and replaces
+ * the old one. Generated styles (defaults with geometry type and custom styles) are cached by the generated
+ * SLD in an LRU map, so custom styles with the same parameters share a parsed style.
+ *
+ * Properties:
+ * - wfs.sld.cache.size=[max number of generated styles to keep] (defaults to 500)
+ */
+public class SLDStyleCache {
+
+    private static final Logger log = LogFactory.getLogger(SLDStyleCache.class);
+
+    private static final int GENERATED_LIMIT = PropertyUtil.getOptional("wfs.sld.cache.size", 500);
+
+    private static final ConcurrentMap<String, ParsedStyle> LAYER_STYLES = new ConcurrentHashMap<String, ParsedStyle>();
+    private static final Map<String, ParsedStyle> GENERATED_STYLES = Collections.synchronizedMap(
+            new LinkedHashMap<String, ParsedStyle>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ParsedStyle> eldest) {
+                    return size() > GENERATED_LIMIT;
+                }
+            });
+
+    /**
+     * Parse result for an SLD. Style is null if the SLD couldn't be parsed so broken SLDs aren't parsed
+     * on every request either.
+     */
+    private static class ParsedStyle {
+        final int hash;
+        final String sld;
+        final Style style;
+
+        ParsedStyle(final String sld, final Style style) {
+            this.hash = sld.hashCode();
+            this.sld = sld;
+            this.style = style;
+        }
+
+        boolean matches(final String other) {
+            return hash == other.hashCode() && sld.equals(other);
+        }
+    }
+
+    private SLDStyleCache() {
+        // use static methods
+    }
+
+    /**
+     * Returns parsed style for layer's SLD.
+     * @param layerId layer the SLD belongs to
+     * @param styleName name of the style in the layer
+     * @param sld SLD XML
+     * @return style or null if sld is null or can't be parsed
+     */
+    public static Style getLayerStyle(final String layerId, final String styleName, final String sld) {
+        if (sld == null) {
+            return null;
+        }
+        final String key = layerId + "_" + styleName;
+        final ParsedStyle cached = LAYER_STYLES.get(key);
+        if (cached != null && cached.matches(sld)) {
+            return cached.style;
+        }
+        final ParsedStyle parsed = new ParsedStyle(sld, parse(sld));
+        LAYER_STYLES.put(key, parsed);
+        return parsed.style;
+    }
+
+    /**
+     * Returns parsed style for generated SLD.
+     * @param sld SLD XML
+     * @return style or null if sld is null or can't be parsed
+     */
+    public static Style getStyle(final String sld) {
+        if (sld == null) {
+            return null;
+        }
+        final ParsedStyle cached = GENERATED_STYLES.get(sld);
+        if (cached != null) {
+            return cached.style;
+        }
+        final ParsedStyle parsed = new ParsedStyle(sld, parse(sld));
+        GENERATED_STYLES.put(sld, parsed);
+        return parsed.style;
+    }
+
+    /**
+     * Removes the layer's styles from cache
+     * @param layerId
+     */
+    public static void invalidate(final String layerId) {
+        final String prefix = layerId + "_";
+        for (String key : LAYER_STYLES.keySet()) {
+            if (key.startsWith(prefix)) {
+                LAYER_STYLES.remove(key);
+            }
+        }
+    }
+
+    public static void flush() {
+        LAYER_STYLES.clear();
+        GENERATED_STYLES.clear();
+    }
+
+    /**
+     * Parses SLD style from a String (XML)
+     *
+     * @param xml
+     * @return first style in the SLD or null if parsing failed
+     */
+    private static Style parse(final String xml) {
+        final Parser parser = new Parser(new SLDConfiguration());
+        try {
+            final StyledLayerDescriptor sld = (StyledLayerDescriptor) parser.parse(new ByteArrayInputStream(xml.getBytes()));
+            return SLD.styles(sld)[0];
+        } catch (Exception e) {
+            log.error(e, "Failed to create SLD Style");
+            log.warn("Couldn't create style from XML:", xml);
+            return null;
+        }
+    }
+}
@@ -10,6 +10,7 @@ import fi.nls.oskari.pojo.WFSCustomStyleStore;
 import fi.nls.oskari.util.IOHelper;
 import fi.nls.oskari.wfs.pojo.WFSLayerStore;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.FeatureLayer;
@@ -18,12 +19,7 @@ import org.geotools.map.MapContent;
 import org.geotools.map.MapViewport;
 import org.geotools.renderer.GTRenderer;
 import org.geotools.renderer.lite.StreamingRenderer;
-import org.geotools.sld.SLDConfiguration;
-import org.geotools.styling.SLD;
 import org.geotools.styling.Style;
-import org.geotools.styling.StyledLayerDescriptor;
-import org.geotools.xml.Configuration;
-import org.geotools.xml.Parser;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -33,8 +29,11 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Image drawing for WFS layers 
@@ -60,6 +59,10 @@ public class WFSImage {
 
     public static final String GEOM_TYPE_PLACEHOLDER = "wfsGeometryType";
 
+    // cache key for layer's selection style
+    private static final String KEY_SELECTION_STYLE = "__selection";
+    private static final Map<String, String> SLD_TEMPLATES = new ConcurrentHashMap<String, String>();
+
     private Style style;
 
     private Location location; // location of the tile (modified if not map)
@@ -159,30 +162,34 @@ public class WFSImage {
                                          Double[] bbox,
                                          long zoom,
                                          boolean persistent) {
-        if(layerId == null ||
-                styleName == null ||
-                srs == null ||
-                bbox.length != 4) {
-            log.error("Cache key couldn't be created");
-            return null;
-        }
+        return bytesToImage(getCacheBytes(layerId, styleName, srs, bbox, zoom, persistent));
+    }
 
+    /**
+     * Gets encoded image from cache. Use this when the image is only passed on to avoid decoding/encoding it.
+     *
+     * @param layerId
+     * @param srs
+     * @param bbox
+     * @param zoom
+     * @param persistent
+     * @return PNG encoded image from cache or null if not cached
+     */
+    public static byte[] getCacheBytes(String layerId,
+                                       String styleName,
+                                       String srs,
+                                       Double[] bbox,
+                                       long zoom,
+                                       boolean persistent) {
         // no persistent cache for custom styles
-        if(styleName.startsWith(PREFIX_CUSTOM_STYLE) && persistent) {
+        if(styleName != null && styleName.startsWith(PREFIX_CUSTOM_STYLE) && persistent) {
             return null;
         }
-
-        String sBbox = bbox[0] + "-" + bbox[1] + "-" + bbox[2]+ "-" + bbox[3];
-        String sKey = KEY + layerId + "_" + styleName + "_"  + srs + "_" + sBbox + "_" + zoom;
-        if(!persistent) {
-            sKey = sKey + "_temp";
+        String sKey = getCacheKey(layerId, styleName, srs, bbox, zoom, persistent);
+        if(sKey == null) {
+            return null;
         }
-
-        byte[] key = sKey.getBytes();
-        byte[] bytes = JedisManager.get(key);
-        if(bytes != null)
-            return bytesToImage(bytes);
-        return null;
+        return JedisManager.get(sKey.getBytes());
     }
 
     /**
@@ -202,29 +209,69 @@ public class WFSImage {
                                 Double[] bbox,
                                 long zoom,
                                 boolean persistent) {
-        if(layerId == null ||
-                styleName == null ||
-                srs == null ||
-                bbox.length != 4) {
-            log.error("Cache key couldn't be created");
+        setCache(imageToBytes(bufferedImage), layerId, styleName, srs, bbox, zoom, persistent);
+    }
+
+    /**
+     * Sets encoded image to cache
+     *
+     * @param byteImage PNG encoded image
+     * @param layerId
+     * @param srs
+     * @param bbox
+     * @param zoom
+     * @param persistent
+     */
+    public static void setCache(byte[] byteImage,
+                                String layerId,
+                                String styleName,
+                                String srs,
+                                Double[] bbox,
+                                long zoom,
+                                boolean persistent) {
+        if(byteImage == null) {
             return;
         }
-
         // no persistent cache for custom styles
-        if(styleName.startsWith(PREFIX_CUSTOM_STYLE)) {
+        if(styleName != null && styleName.startsWith(PREFIX_CUSTOM_STYLE)) {
             persistent = false;
         }
+        String sKey = getCacheKey(layerId, styleName, srs, bbox, zoom, persistent);
+        if(sKey == null) {
+            return;
+        }
+        JedisManager.setex(sKey.getBytes(), 86400, byteImage);
+    }
 
-        byte[] byteImage = imageToBytes(bufferedImage);
+    private static String getCacheKey(String layerId,
+                                      String styleName,
+                                      String srs,
+                                      Double[] bbox,
+                                      long zoom,
+                                      boolean persistent) {
+        if(layerId == null ||
+                styleName == null ||
+                srs == null ||
+                bbox.length != 4) {
+            log.error("Cache key couldn't be created");
+            return null;
+        }
         String sBbox = bbox[0] + "-" + bbox[1] + "-" + bbox[2]+ "-" + bbox[3];
         String sKey = KEY + layerId + "_" + styleName + "_" + srs + "_" + sBbox + "_" + zoom;
         if(!persistent) {
             sKey = sKey + "_temp";
         }
+        return sKey;
+    }
 
-        byte[] key = sKey.getBytes();
-
-        JedisManager.setex(key, 86400, byteImage);
+    /**
+     * Creates an ETag value for encoded image
+     *
+     * @param byteImage
+     * @return quoted hash of the image
+     */
+    public static String getETag(byte[] byteImage) {
+        return "\"" + DigestUtils.md5Hex(byteImage) + "\"";
     }
 
     /**
@@ -444,14 +491,14 @@ public class WFSImage {
     protected Style getSLDStyle(WFSLayerStore layer, String styleName) {
         log.debug("Trying to get style with name:", styleName);
         // try to find with name
-        Style style = createSLDStyle(layer.getSLDStyle(styleName));
+        Style style = createSLDStyle(layer, layer.getSLDStyle(styleName));
         if(style == null) {
             // if not found, use selection style for highlight or try default
             if(STYLE_HIGHLIGHT.equals(styleName)) {
-                style = createSLDStyle(layer.getSelectionSLDStyle());
+                style = SLDStyleCache.getLayerStyle(layer.getLayerId(), KEY_SELECTION_STYLE, layer.getSelectionSLDStyle());
             }
             else {
-                style = createSLDStyle(layer.getDefaultSLDStyle());
+                style = createSLDStyle(layer, layer.getDefaultSLDStyle());
             }
         }
 
@@ -477,14 +524,15 @@ public class WFSImage {
         return style;
     }
 
-    private Style createSLDStyle(WFSSLDStyle style) {
+    private Style createSLDStyle(WFSLayerStore layer, WFSSLDStyle style) {
         if(style == null) {
             return null;
         }
-        return createSLDStyle(style.getSLDStyle());
+        return SLDStyleCache.getLayerStyle(layer.getLayerId(), style.getName(), style.getSLDStyle());
     }
+
 	/**
-	 * Parses SLD style from a String (XML)
+	 * Parses SLD style from a String (XML). Parsed styles are cached so the same SLD is parsed only once.
 	 * 
 	 * @param xml
 	 * @return sld
@@ -494,30 +542,26 @@ public class WFSImage {
             log.info("Trying to create style from <null> String!");
             return null;
         }
-        final Style style = createSLDStyle(new ByteArrayInputStream(xml.getBytes()));
-        if(style == null) {
-            log.warn("Couldn't create style from XML:", xml);
-        }
-		return style;
-	}	
+		return SLDStyleCache.getStyle(xml);
+	}
 
     /**
-     * Parses SLD style from an InputStream (XML)
+     * Reads an SLD template from resources. Templates are read once.
      *
-     * @param xml
-     * @return sld
+     * @param resourceName
+     * @return template content
      */
-    private Style createSLDStyle(InputStream xml) {
-        Configuration config = new SLDConfiguration();
-        Parser parser = new Parser(config);
-        StyledLayerDescriptor sld = null;
-        try {
-            sld = (StyledLayerDescriptor) parser.parse(xml);
-        } catch (Exception e) {
-            log.error(e, "Failed to create SLD Style");
-            return null;
+    private static String getTemplate(String resourceName) throws IOException {
+        String template = SLD_TEMPLATES.get(resourceName);
+        if(template == null) {
+            InputStream resource = WFSImage.class.getResourceAsStream(resourceName);
+            if(resource == null) {
+                throw new IOException("SLD template not found: " + resourceName);
+            }
+            template = IOHelper.readString(resource, "ISO-8859-1");
+            SLD_TEMPLATES.put(resourceName, template);
         }
-        return SLD.styles(sld)[0];
+        return template;
     }
 
     /**
@@ -526,15 +570,11 @@ public class WFSImage {
      * @return sld
      */
     public Style createCustomSLDStyle() {
-        InputStream resource = WFSImage.class.getResourceAsStream(OSKARI_CUSTOM_SLD);
         try {
-            String xml = IOHelper.readString(resource, "ISO-8859-1");
-            customStyle.replaceValues(xml, isHighlight);
-            xml = customStyle.getSld();
-            return createSLDStyle(xml);
+            customStyle.replaceValues(getTemplate(OSKARI_CUSTOM_SLD), isHighlight);
+            return createSLDStyle(customStyle.getSld());
         } catch(Exception e) {
             log.error(e, "Failed to get Own SLD Style");
-            log.error(resource);
         }
         return null;
     }
@@ -545,14 +585,11 @@ public class WFSImage {
      */
     public Style createDefaultHighlightSLDStyle(String geom_type) {
         log.debug("Creating default highlight SLD for:", geom_type);
-        InputStream resource = WFSImage.class.getResourceAsStream(HIGHLIGHT_SLD);
         try {
-            String xml = IOHelper.readString(resource, "ISO-8859-1");
-            xml = xml.replaceAll(GEOM_TYPE_PLACEHOLDER, geom_type);
+            String xml = getTemplate(HIGHLIGHT_SLD).replaceAll(GEOM_TYPE_PLACEHOLDER, geom_type);
             return createSLDStyle(xml);
         } catch(Exception e) {
             log.error(e, "Failed to get Default highlight SLD Style - geom type ", geom_type);
-            log.error(resource);
         }
         return null;
     }
@@ -564,14 +601,11 @@ public class WFSImage {
      */
     public Style createDefaultSLDStyle(String geom_type) {
         log.debug("Creating default highlight SLD for:", geom_type);
-        InputStream resource = WFSImage.class.getResourceAsStream(DEFAULT_SLD);
         try {
-            String xml = IOHelper.readString(resource, "ISO-8859-1");
-            xml = xml.replaceAll(GEOM_TYPE_PLACEHOLDER, geom_type);
+            String xml = getTemplate(DEFAULT_SLD).replaceAll(GEOM_TYPE_PLACEHOLDER, geom_type);
             return createSLDStyle(xml);
         } catch(Exception e) {
             log.error(e, "Failed to get Default SLD Style - geom type ", geom_type);
-            log.error(resource);
         }
         return null;
     }
@@ -0,0 +1,293 @@
+package fi.nls.oskari.work;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.oskari.utils.FeatureBatch;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Features of a normal job kept in transport's memory for paged delivery. With paging the client gets
+ * the first page of the features in view and a cursor instead of every feature one by one. Other pages
+ * are requested with the cursor, optionally sorted by a property and filtered with the property filter
+ * syntax used by setPropertyFilter (WFSFilterBuilder).
+ *
+ * There's one buffer per client and layer: the next normal job for the layer (the user moved the map)
+ * replaces it and the old cursor expires. Buffers are also removed when the layer is removed or the
+ * client disconnects, expire after a while and the least recently used ones are dropped when there
+ * are too many. Buffers are local to the transport node that ran the job.
+ *
+ * Properties:
+ * - transport.features.paging.buffers=[max number of buffers kept] (defaults to 200)
+ * - transport.features.paging.ttl=[seconds a buffer is kept after last use] (defaults to 600)
+ * - transport.features.paging.maxPageSize=[max features per page] (defaults to 1000)
+ */
+public class FeatureResultBuffer {
+
+    private static final Logger log = LogFactory.getLogger(FeatureResultBuffer.class);
+
+    public static final String OUTPUT_CURSOR = "cursor";
+    public static final String OUTPUT_OFFSET = "offset";
+    public static final String OUTPUT_TOTAL = "total";
+
+    public static final String ORDER_DESC = "desc";
+
+    private static final int MAX_BUFFERS = PropertyUtil.getOptional("transport.features.paging.buffers", 200);
+    private static final long TTL_MS = PropertyUtil.getOptional("transport.features.paging.ttl", 600) * 1000L;
+    public static final int MAX_PAGE_SIZE = PropertyUtil.getOptional("transport.features.paging.maxPageSize", 1000);
+
+    private static final Map<String, FeatureResultBuffer> BUFFERS =
+            new LinkedHashMap<String, FeatureResultBuffer>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, FeatureResultBuffer> eldest) {
+                    return size() > MAX_BUFFERS;
+                }
+            };
+
+    private final String cursor = UUID.randomUUID().toString();
+    private final FeatureBatch features;
+    private final List<String> fields;
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    // rows of the last requested view (sort and filter) so paging through it doesn't sort again
+    private String viewKey = "";
+    private int[] viewRows;
+    private SimpleFeatureType filterType;
+
+    /**
+     * @param features features of the job, not modified after this
+     * @param fields field names of the feature values (same as sent on the properties channel)
+     */
+    public FeatureResultBuffer(FeatureBatch features, List<String> fields) {
+        this.features = features;
+        this.fields = new ArrayList<String>(fields);
+    }
+
+    /**
+     * Stores the buffer for the client and layer replacing the previous one
+     * @param client
+     * @param layerId
+     * @param buffer
+     */
+    public static void put(String client, String layerId, FeatureResultBuffer buffer) {
+        synchronized (BUFFERS) {
+            removeExpired();
+            BUFFERS.put(getKey(client, layerId), buffer);
+        }
+    }
+
+    /**
+     * @param client
+     * @param layerId
+     * @param cursor cursor the client got with the first page
+     * @return the buffer or null if it has been replaced, evicted or expired
+     */
+    public static FeatureResultBuffer get(String client, String layerId, String cursor) {
+        final FeatureResultBuffer buffer;
+        synchronized (BUFFERS) {
+            removeExpired();
+            buffer = BUFFERS.get(getKey(client, layerId));
+        }
+        if (buffer == null || !buffer.cursor.equals(cursor)) {
+            return null;
+        }
+        buffer.lastUsed = System.currentTimeMillis();
+        return buffer;
+    }
+
+    /**
+     * Removes the buffer of a layer
+     * @param client
+     * @param layerId
+     */
+    public static void remove(String client, String layerId) {
+        synchronized (BUFFERS) {
+            BUFFERS.remove(getKey(client, layerId));
+        }
+    }
+
+    /**
+     * Removes all buffers of a client
+     * @param client
+     */
+    public static void removeAll(String client) {
+        final String prefix = client + "_";
+        synchronized (BUFFERS) {
+            final Iterator<String> keys = BUFFERS.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().startsWith(prefix)) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    public static void flush() {
+        synchronized (BUFFERS) {
+            BUFFERS.clear();
+        }
+    }
+
+    private static void removeExpired() {
+        final long expired = System.currentTimeMillis() - TTL_MS;
+        final Iterator<FeatureResultBuffer> buffers = BUFFERS.values().iterator();
+        while (buffers.hasNext()) {
+            if (buffers.next().lastUsed < expired) {
+                buffers.remove();
+            }
+        }
+    }
+
+    private static String getKey(String client, String layerId) {
+        return client + "_" + layerId;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public List<String> getFields() {
+        return Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * @return number of features in the buffer
+     */
+    public int size() {
+        return features.size();
+    }
+
+    /**
+     * Returns the features of the view as row indexes
+     * @param sortField field to sort by, null to keep the original order
+     * @param descending
+     * @param filter filter the features must pass, null for all features
+     * @return row indexes
+     */
+    public synchronized int[] getRows(String sortField, boolean descending, Filter filter) {
+        final String key = sortField + "_" + descending + "_" + (filter == null ? "" : filter.toString());
+        if (viewRows != null && viewKey.equals(key)) {
+            return viewRows;
+        }
+        final List<Integer> rows = new ArrayList<Integer>(features.size());
+        final SimpleFeatureBuilder builder = filter == null ? null : new SimpleFeatureBuilder(getFilterType());
+        for (int row = 0; row < features.size(); ++row) {
+            if (builder == null || filter.evaluate(buildFeature(builder, row))) {
+                rows.add(row);
+            }
+        }
+        final int column = sortField == null ? -1 : fields.indexOf(sortField);
+        if (column >= 0) {
+            Collections.sort(rows, new RowComparator(column, descending));
+        } else if (sortField != null) {
+            log.debug("Unknown sort field:", sortField);
+        }
+        final int[] result = new int[rows.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = rows.get(i);
+        }
+        viewKey = key;
+        viewRows = result;
+        return result;
+    }
+
+    /**
+     * @param rows row indexes from getRows()
+     * @param offset index of the first feature
+     * @param limit max number of features
+     * @return features of the page, written to the client straight from the buffer
+     */
+    public List<List<Object>> getPage(int[] rows, int offset, int limit) {
+        final int start = Math.max(0, offset);
+        final int end = Math.min(rows.length, start + Math.max(0, Math.min(limit, MAX_PAGE_SIZE)));
+        final List<List<Object>> page = new ArrayList<List<Object>>(Math.max(0, end - start));
+        for (int i = start; i < end; ++i) {
+            page.add(features.get(rows[i]));
+        }
+        return page;
+    }
+
+    /**
+     * Creates the message for a page:
+     *   {"layerId": "1", "cursor": "...", "offset": 0, "total": 5000, "features": [[fid, values..., x, y], ...]}
+     * @param layerId
+     * @param rows row indexes from getRows()
+     * @param offset index of the first feature
+     * @param limit max number of features
+     * @return page message
+     */
+    public Map<String, Object> getPageOutput(String layerId, int[] rows, int offset, int limit) {
+        final Map<String, Object> output = new HashMap<String, Object>();
+        output.put(OWSMapLayerJob.OUTPUT_LAYER_ID, layerId);
+        output.put(OUTPUT_CURSOR, cursor);
+        output.put(OUTPUT_OFFSET, Math.max(0, offset));
+        output.put(OUTPUT_TOTAL, rows.length);
+        output.put(OWSMapLayerJob.OUTPUT_FEATURES, getPage(rows, offset, limit));
+        return output;
+    }
+
+    /**
+     * Feature type with the buffer's fields for evaluating filters, geometry filters don't match
+     * since geometries aren't buffered
+     */
+    private SimpleFeatureType getFilterType() {
+        if (filterType == null) {
+            final SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+            typeBuilder.setName("page");
+            for (String field : fields) {
+                typeBuilder.add(field, Object.class);
+            }
+            filterType = typeBuilder.buildFeatureType();
+        }
+        return filterType;
+    }
+
+    private Object buildFeature(SimpleFeatureBuilder builder, int row) {
+        final int columns = Math.min(fields.size(), features.getColumnCount());
+        for (int column = 0; column < columns; ++column) {
+            builder.set(column, features.get(row, column));
+        }
+        return builder.buildFeature(null);
+    }
+
+    /**
+     * Sorts rows by a column, nulls last. Numbers are compared as numbers, other values as text.
+     */
+    private class RowComparator implements Comparator<Integer> {
+        private final int column;
+        private final boolean descending;
+
+        RowComparator(int column, boolean descending) {
+            this.column = column;
+            this.descending = descending;
+        }
+
+        public int compare(Integer a, Integer b) {
+            final Object valueA = features.get(a, column);
+            final Object valueB = features.get(b, column);
+            if (valueA == null || valueB == null) {
+                return valueA == valueB ? 0 : (valueA == null ? 1 : -1);
+            }
+            int result;
+            if (valueA instanceof Number && valueB instanceof Number) {
+                result = Double.compare(((Number) valueA).doubleValue(), ((Number) valueB).doubleValue());
+            } else {
+                result = valueA.toString().compareToIgnoreCase(valueB.toString());
+            }
+            return descending ? -result : result;
+        }
+    }
+}
@@ -6,6 +6,7 @@ import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.pojo.Units;
 import fi.nls.oskari.pojo.WFSLayerPermissionsStore;
 import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.oskari.wfs.SLDStyleCache;
 import fi.nls.oskari.wfs.pojo.WFSLayerStore;
 import fi.nls.oskari.wfs.util.HttpHelper;
 
@@ -135,6 +136,8 @@ public class JobHelper {
                 log.error("Couldn't find JSON for WFSLayerStore with id:", layerId, " - API url:", apiUrl);
                 return null;
             }
+            // configuration is removed from cache when the layer is modified -> parse styles again
+            SLDStyleCache.invalidate(layerId);
         }
         try {
             return WFSLayerStore.setJSON(json);
@@ -2,6 +2,8 @@ package fi.nls.oskari.work;
 
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.trace.Span;
+import fi.nls.oskari.trace.Tracer;
 
 /**
  * Common validation routine that should be performed before running OWSMapLayerJobs
@@ -33,7 +35,9 @@ public class JobValidator {
             return false;
         }
 
+        final Span permissionSpan = Tracer.span("permissions");
         boolean layerPermission = JobHelper.hasPermission(getJob().layerId, job.getSessionId(), job.getRoute());
+        permissionSpan.end();
         if(!layerPermission) {
             onInvalidPermissions();
             return false;
@@ -1,9 +1,14 @@
 package fi.nls.oskari.work;
 
+import com.vividsolutions.jts.geom.Geometry;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.pojo.*;
+import fi.nls.oskari.trace.Span;
+import fi.nls.oskari.trace.Tracer;
 import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.oskari.utils.FeatureBatch;
+import fi.nls.oskari.utils.GeometrySimplifier;
 import fi.nls.oskari.wfs.WFSImage;
 import fi.nls.oskari.wfs.pojo.WFSLayerStore;
 import fi.nls.oskari.worker.AbstractJob;
@@ -57,6 +62,8 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
 
     public static final String BROWSER_MSIE = "msie";
 
+    public static final String PROPERTY_INLINE_IMAGES = "transport.image.inline";
+
     public static final String PROCESS_STARTED = "Started";
     public static final String PROCESS_ENDED = "Ended";
 
@@ -81,11 +88,18 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
     protected JobType type;
     protected FeatureCollection<SimpleFeatureType, SimpleFeature> features;
     protected List<String> processedFIDs = new ArrayList<String>();
-    protected List<List<Object>> featureValuesList;
-    protected List<List<Object>> geomValuesList;
+    private GeometrySimplifier geometrySimplifier;
+    protected FeatureBatch featureValuesList;
+    protected FeatureBatch geomValuesList;
+    // features of all requests of the job when the client uses paged feature delivery
+    private FeatureBatch featurePage;
+    private List<String> featureFields;
 
     protected WFSImage image = null;
 
+    // trace of the request that created the job
+    private final String traceId = Tracer.currentId();
+
     public static final int FE_READ_TIMEOUT_MS = PropertyUtil.getOptional("oskari.wfs.read.timeout", 30000);
 
 
@@ -155,6 +169,13 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
         return layerId;
     }
 
+    /**
+     * @return id of the trace that created the job or null if it wasn't sampled
+     */
+    public String getTraceId() {
+        return traceId;
+    }
+
     /**
      * Releases all when removed
      */
@@ -280,22 +301,28 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
             if (isThisTileNeeded) {
                 Double[] bbox = bounds.toArray(new Double[4]);
 
-                // get from cache
-                BufferedImage bufferedImage = getImageCache(bbox);
+                // get from cache - encoded image is passed on as is
+                byte[] image = getImageCacheBytes(bbox);
                 boolean isboundaryTile = this.session.getGrid().isBoundsOnBoundary2(this.session.getLocation(), bbox);
 
-                if(bufferedImage == null) {
+                if(image == null) {
                     if(this.image == null) {
                         this.image = createResponseImage();
                     }
-                    bufferedImage = this.image.draw(this.session.getTileSize(),
+                    final Span drawSpan = Tracer.span("image.draw");
+                    BufferedImage bufferedImage = this.image.draw(this.session.getTileSize(),
                             this.session.getLocation(),
                             bounds,
                             this.features);
+                    drawSpan.end();
                     if(bufferedImage == null) {
                         this.imageParsingFailed();
                         throw new RuntimeException("Image parsing failed!");
                     }
+                    // encode once for both cache and response
+                    final Span encodeSpan = Tracer.span("image.encode");
+                    image = WFSImage.imageToBytes(bufferedImage);
+                    encodeSpan.end();
 
                     // setup cachekey
                     String cacheStyleName = this.session.getLayers().get(this.layerId).getStyleName();
@@ -304,11 +331,11 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
                     }
 
                     // save to cache
-                    setImageCache(bufferedImage, cacheStyleName, bbox, !isboundaryTile);
+                    setImageCache(image, cacheStyleName, bbox, !isboundaryTile);
                 }
 
                 String url = createImageURL(this.session.getLayers().get(this.layerId).getStyleName(), bbox);
-                this.sendWFSImage(url, bufferedImage, bbox, true, isboundaryTile);
+                this.sendWFSImage(url, image, bbox, true, isboundaryTile);
             } else {
                 log.debug("Tile not needed?", bounds);
             }
@@ -320,6 +347,9 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
             }
             index++;
         }
+        if (isFeaturePaging()) {
+            sendFeaturePage();
+        }
         return true;
     }
 
@@ -349,21 +379,26 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
                     this.session.getLayers().get(this.layerId).getStyleName(),
                     JobType.HIGHLIGHT.toString());
         }
+        final Span drawSpan = Tracer.span("image.draw");
         BufferedImage bufferedImage = this.image.draw(this.session.getMapSize(),
                 location,
                 this.features);
+        drawSpan.end();
         if(bufferedImage == null) {
             this.imageParsingFailed();
             throw new RuntimeException("Image parsing failed!");
         }
 
         Double[] bbox = location.getBboxArray();
+        final Span encodeSpan = Tracer.span("image.encode");
+        byte[] image = WFSImage.imageToBytes(bufferedImage);
+        encodeSpan.end();
 
         // cache (non-persistant)
-        setImageCache(bufferedImage, JobType.HIGHLIGHT.toString() + "_" + this.session.getSession(), bbox, false);
+        setImageCache(image, JobType.HIGHLIGHT.toString() + "_" + this.session.getSession(), bbox, false);
 
         String url = createImageURL(JobType.HIGHLIGHT.toString(), bbox);
-        this.sendWFSImage(url, bufferedImage, bbox, false, false);
+        this.sendWFSImage(url, image, bbox, false, false);
         return true;
     }
 
@@ -593,6 +628,7 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
         } else {
             locales = new ArrayList<String>();
         }
+        this.featureFields = fields;
         Map<String, Object> output = new HashMap<String, Object>();
         output.put(OUTPUT_LAYER_ID, this.layerId);
         output.put(OUTPUT_FIELDS, fields);
@@ -601,6 +637,53 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
         this.service.addResults(this.session.getClient(), ResultProcessor.CHANNEL_PROPERTIES, output);
     }
 
+    /**
+     * Checks if the client wants the features of a normal job in pages instead of one by one
+     *
+     * @return <code>true</code> if features should be added to the feature page;
+     *         <code>false</code> otherwise.
+     */
+    protected boolean isFeaturePaging() {
+        final Integer pageSize = this.session.getFeaturePageSize();
+        return this.type == JobType.NORMAL && pageSize != null && pageSize > 0;
+    }
+
+    /**
+     * Adds features to the job's feature page, sent when the job has made all its requests
+     *
+     * @param features
+     */
+    protected void addToFeaturePage(FeatureBatch features) {
+        if(features == null || features == this.featurePage) {
+            return;
+        }
+        if(this.featurePage == null) {
+            this.featurePage = features;
+            return;
+        }
+        for(List<Object> values : features) {
+            this.featurePage.add(values);
+        }
+    }
+
+    /**
+     * Stores the job's features for paging and sends the first page with the cursor for the next ones
+     */
+    protected void sendFeaturePage() {
+        if(!this.sendFeatures) {
+            return;
+        }
+        final FeatureBatch features = this.featurePage != null ? this.featurePage : new FeatureBatch();
+        final List<String> fields = this.featureFields != null ? this.featureFields : new ArrayList<String>();
+        final FeatureResultBuffer buffer = new FeatureResultBuffer(features, fields);
+        FeatureResultBuffer.put(this.session.getClient(), this.layerId, buffer);
+
+        final int[] rows = buffer.getRows(null, false, null);
+        final Map<String, Object> output = buffer.getPageOutput(this.layerId, rows, 0, this.session.getFeaturePageSize());
+        log.debug("Sending first page of", features.size(), "features");
+        deliver(ResultProcessor.CHANNEL_FEATURE_PAGE, output);
+    }
+
     /**
      * Sends one feature
      *
@@ -639,7 +722,19 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
         }
 
         log.debug("Sending", features.size(), "features");
-        this.service.addResults(this.session.getClient(), channel, output);
+        deliver(channel, output);
+    }
+
+    /**
+     * Sends results to the client
+     */
+    private void deliver(String channel, Map<String, Object> output) {
+        final Span span = Tracer.span("deliver");
+        try {
+            this.service.addResults(this.session.getClient(), channel, output);
+        } finally {
+            span.end();
+        }
     }
 
     /**
@@ -655,6 +750,24 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
             log.warn("Failed to send image");
             return;
         }
+        sendWFSImage(url, WFSImage.imageToBytes(bufferedImage), bbox, isTiled, isboundaryTile);
+    }
+
+    /**
+     * Sends encoded image as an URL to IE 8 & 9 and clients when inline images are disabled
+     * with "transport.image.inline=false", base64 data for others.
+     * With URL only the clients get tiles from ImageServlet and can use ETags/browser cache.
+     *
+     * @param url
+     * @param image PNG encoded image
+     * @param bbox
+     * @param isTiled
+     */
+    protected void sendWFSImage(String url, byte[] image, Double[] bbox, boolean isTiled, boolean isboundaryTile) {
+        if(image == null) {
+            log.warn("Failed to send image");
+            return;
+        }
 
         Map<String, Object> output = new HashMap<String, Object>();
         output.put(OUTPUT_LAYER_ID, this.layerId);
@@ -678,18 +791,37 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
         output.put(OUTPUT_IMAGE_HEIGHT, tileSize.getHeight());
         output.put(OUTPUT_IMAGE_URL, url);
 
-        byte[] byteImage = WFSImage.imageToBytes(bufferedImage);
-        String base64Image = WFSImage.bytesToBase64(byteImage);
-        int base64Size = (base64Image.length()*2)/1024;
+        if(!PropertyUtil.getOptional(PROPERTY_INLINE_IMAGES, true)) {
+            // clients fetch the image with the url
+            deliver(ResultProcessor.CHANNEL_IMAGE, output);
+            return;
+        }
+
+        // base64 is 4/3 of the original size
+        int base64Size = (((image.length + 2) / 3) * 4 * 2)/1024;
 
         // IE6 & IE7 doesn't support base64, max size in base64 for IE8 is 32KB
         if(!(this.session.getBrowser().equals(BROWSER_MSIE) && this.session.getBrowserVersion() < 8 ||
                 this.session.getBrowser().equals(BROWSER_MSIE) && this.session.getBrowserVersion() == 8 &&
                         base64Size >= 32)) {
-            output.put(OUTPUT_IMAGE_DATA, base64Image);
+            output.put(OUTPUT_IMAGE_DATA, WFSImage.bytesToBase64(image));
         }
 
-        this.service.addResults(this.session.getClient(), ResultProcessor.CHANNEL_IMAGE, output);
+        deliver(ResultProcessor.CHANNEL_IMAGE, output);
+    }
+
+    /**
+     * Returns the geometry for the geometries channel simplified for the current map resolution
+     *
+     * @param fid
+     * @param geometry
+     * @return WKT or delta encoded geometry (see GeometrySimplifier)
+     */
+    protected Object getGeometryForResponse(String fid, Geometry geometry) {
+        if(this.geometrySimplifier == null) {
+            this.geometrySimplifier = GeometrySimplifier.forSession(this.layerId, this.session);
+        }
+        return this.geometrySimplifier.getOutput(fid, geometry);
     }
 
     /**
@@ -734,6 +866,39 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
         );
     }
 
+    /**
+     * Gets encoded image from cache
+     *
+     * @param bbox
+     */
+    protected byte[] getImageCacheBytes(Double[] bbox) {
+        return WFSImage.getCacheBytes(
+                this.layerId,
+                this.session.getLayers().get(this.layerId).getStyleName(),
+                this.session.getLocation().getSrs(),
+                bbox,
+                this.session.getLocation().getZoom(),
+                true
+        );
+    }
+
+    /**
+     * Sets encoded image to cache
+     *
+     * @param image
+     * @param style
+     * @param bbox
+     * @param persistent
+     */
+    protected void setImageCache(byte[] image,
+                                 final String style, Double[] bbox, boolean persistent) {
+
+        WFSImage.setCache(image, this.layerId, style, this.session
+                .getLocation().getSrs(), bbox, this.session.getLocation()
+                .getZoom(), persistent);
+
+    }
+
     /**
      * Sets image to cache
      *
@@ -14,6 +14,7 @@ public interface ResultProcessor {
     public static final String CHANNEL_FILTER = "/wfs/filter";
     public static final String CHANNEL_RESET = "/wfs/reset";
     public static final String CHANNEL_FEATURE_GEOMETRIES = "/wfs/featureGeometries";
+    public static final String CHANNEL_FEATURE_PAGE = "/wfs/featurePage";
     public static final String CHANNEL_STATUS = "/status";
 
     // Error messages
@@ -22,6 +23,7 @@ public interface ResultProcessor {
     public static String ERROR_WFS_REQUEST_FAILED = "wfs_request_failed";
     public static String ERROR_FEATURE_PARSING = "features_parsing_failed";
     public static String ERROR_WFS_IMAGE_PARSING = "wfs_image_parsing_failed";
+    public static String ERROR_FEATURE_PAGE_EXPIRED = "feature_page_expired";
 
     /**
      * Adds results for given task
@@ -4,7 +4,10 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.Point;
 import fi.nls.oskari.pojo.SessionStore;
+import fi.nls.oskari.trace.Span;
+import fi.nls.oskari.trace.Tracer;
 import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.utils.FeatureBatch;
 import fi.nls.oskari.wfs.WFSCommunicator;
 import fi.nls.oskari.wfs.WFSFilter;
 import fi.nls.oskari.wfs.WFSParser;
@@ -133,7 +136,9 @@ public class WFSMapLayerJob extends OWSMapLayerJob {
     protected boolean requestHandler(List<Double> bounds) {
 
         // make a request
+        final Span requestSpan = Tracer.span("wfs.request");
         RequestResponse response = request(type, layer, session, bounds, transformService);
+        requestSpan.end();
         boolean success = false;
 
         try {
@@ -144,7 +149,12 @@ public class WFSMapLayerJob extends OWSMapLayerJob {
             }
 
             // parse response, throws an exception on failure
-            this.features = response(layer, response);
+            final Span parseSpan = Tracer.span("wfs.parse");
+            try {
+                this.features = response(layer, response);
+            } finally {
+                parseSpan.end();
+            }
             final Map<String, Object> output = createCommonResponse();
             if(features == null || features.isEmpty()) {
                 log.debug("Empty result for", this.layerId, "type:", type);
@@ -242,10 +252,12 @@ public class WFSMapLayerJob extends OWSMapLayerJob {
         // send feature info
         FeatureIterator<SimpleFeature> featuresIter =  this.features.features();
 
-        this.featureValuesList = new ArrayList<List<Object>>();
-        this.geomValuesList = new ArrayList<List<Object>>();
-
         final List<String> selectedProperties = getPropertiesToInclude();
+        // [__fid, properties..., __centerX, __centerY]
+        final int centerColumn = selectedProperties.size() + 1;
+
+        this.featureValuesList = new FeatureBatch(centerColumn + 2, this.features.size());
+        this.geomValuesList = new FeatureBatch(2);
 
         while(goNext(featuresIter.hasNext())) {
             SimpleFeature feature = featuresIter.next();
@@ -258,14 +270,10 @@ public class WFSMapLayerJob extends OWSMapLayerJob {
                 continue;
             }
 
-            List<Object> values = new ArrayList<Object>();
-
             if (this.processedFIDs.contains(fid)) {
                 log.warn("Found duplicate feature ID", fid);
                 continue;
             }
-            // __fid value
-            values.add(fid);
             this.processedFIDs.add(fid);
 
             // get feature geometry (transform if needed) and get geometry center
@@ -275,14 +283,9 @@ public class WFSMapLayerJob extends OWSMapLayerJob {
             if (this.session.isGeomRequest())
             {
                 log.debug("Requested geometry", fid);
-                List<Object> gvalues = new ArrayList<Object>();
-                gvalues.add(fid);
-                if( geometry != null ) {
-                gvalues.add(geometry.toText()); //feature.getAttribute(this.layer.getGMLGeometryProperty()));
-                } else {
-                    gvalues.add(null);
-                }
-                this.geomValuesList.add(gvalues);
+                final int geomRow = this.geomValuesList.addRow();
+                this.geomValuesList.set(geomRow, 0, fid);
+                this.geomValuesList.set(geomRow, 1, getGeometryForResponse(fid, geometry));
             }
 
             // send values
@@ -292,29 +295,29 @@ public class WFSMapLayerJob extends OWSMapLayerJob {
             }
             Point centerPoint = WFSParser.getGeometryCenter(geometry);
 
+            final int row = this.featureValuesList.addRow();
+            // __fid value
+            this.featureValuesList.set(row, 0, fid);
+            int column = 1;
             for (String attr : selectedProperties) {
-                values.add(getFeaturePropertyValueForResponse(feature.getAttribute(attr)));
+                this.featureValuesList.set(row, column++,
+                        WFSParser.parseValueForJSON(getFeaturePropertyValueForResponse(feature.getAttribute(attr))));
             }
 
             // center position (must be in properties also)
             if(centerPoint != null) {
-                values.add(centerPoint.getX());
-                values.add(centerPoint.getY());
-            } else {
-                values.add(null);
-                values.add(null);
+                this.featureValuesList.set(row, centerColumn, centerPoint.getX());
+                this.featureValuesList.set(row, centerColumn + 1, centerPoint.getY());
             }
 
-            log.debug("Got property values:", values);
-            WFSParser.parseValuesForJSON(values);
-            log.debug("Transformed property values:", values);
-
-            if(this.type == JobType.NORMAL) {
-                this.sendWFSFeature(values);
-            } else {
-                this.featureValuesList.add(values);
+            if(this.type == JobType.NORMAL && !isFeaturePaging()) {
+                // row view, written to the client straight from the batch
+                this.sendWFSFeature(this.featureValuesList.get(row));
             }
         }
+        if(isFeaturePaging()) {
+            addToFeaturePage(this.featureValuesList);
+        }
 	}
 
     /**
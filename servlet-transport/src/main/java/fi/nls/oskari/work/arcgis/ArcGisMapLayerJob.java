@@ -1,5 +1,6 @@
 package fi.nls.oskari.work.arcgis;
 
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.Point;
 import fi.nls.oskari.arcgis.ArcGisCommunicator;
@@ -9,11 +10,15 @@ import fi.nls.oskari.arcgis.ArcGisTokenService;
 import fi.nls.oskari.arcgis.pojo.ArcGisFeature;
 import fi.nls.oskari.arcgis.pojo.ArcGisLayerStore;
 import fi.nls.oskari.arcgis.pojo.ArcGisProperty;
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.pojo.Location;
 import fi.nls.oskari.pojo.SessionStore;
 import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.oskari.wfs.WFSImage;
 import fi.nls.oskari.wfs.WFSParser;
 import fi.nls.oskari.wfs.pojo.WFSLayerStore;
 import fi.nls.oskari.wfs.util.HttpHelper;
@@ -25,11 +30,11 @@ import org.opengis.referencing.operation.MathTransform;
 
 import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.*;
 
 /**
  * Job for Arcgis REST Map Layer
@@ -51,6 +56,21 @@ public class ArcGisMapLayerJob extends OWSMapLayerJob {
     public static String ERROR_REST_CONFIGURATION_FAILED = "arcgis_configuring_layer_failed";
     public static String ERROR_REST_REQUEST_FAILED = "arcgis_request_failed";
 
+    // layer metadata shared by all jobs, keyed by service/layer and token
+    private static final Cache<ArcGisLayerStore> LAYER_CONFIG_CACHE = CacheManager.getCache(ArcGisMapLayerJob.class.getName());
+    static {
+        LAYER_CONFIG_CACHE.setExpiration(PropertyUtil.getOptional("arcgis.metadata.cacheSeconds", 600) * 1000L);
+    }
+    // sublayer metadata is fetched concurrently
+    private static final ExecutorService METADATA_LOADER = Executors.newFixedThreadPool(
+            Math.max(1, PropertyUtil.getOptional("arcgis.metadata.threads", 4)), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "ArcGisMetadataLoader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
     // process information
     ResultProcessor service;
     private ArcGisLayerStore arcGisLayer;
@@ -120,32 +140,21 @@ public class ArcGisMapLayerJob extends OWSMapLayerJob {
     }
 
     public static ArcGisLayerStore getArcGisLayerConfiguration(String layerId, WFSLayerStore layer, String token) {
-        log.info("Getting configuration for layer", layerId);
-        ArcGisLayerStore result = null;
-        String json = ArcGisLayerStore.getCache(layerId);
-        boolean fromCache = (json != null);
-        if (!fromCache) {
-            log.info("Getting configuration from server for layer", layerId);
-            result = loadArcGisLayerConfigurationFromServer(layerId, layer, token);
-
-            if (result == null) {
-                return null;
-            } else {
-                result.save();
-                return result;
-            }
-        } else {
-            try {
-                return ArcGisLayerStore.setJSON(layerId, json);
-            } catch (Exception e) {
-                log.error(e, "JSON parsing failed for WFSLayerStore \n" + json);
-            }
+        final String cacheKey = ArcGisTokenService.getInstance().getCacheKey(layer.getURL(), token)
+                + "|" + layer.getURL() + "/" + layer.getLayerName();
+        ArcGisLayerStore result = LAYER_CONFIG_CACHE.get(cacheKey);
+        if (result != null) {
+            return result;
         }
-
-        return null;
+        log.info("Getting configuration from server for layer", layerId);
+        result = loadArcGisLayerConfigurationFromServer(layerId, layer, token);
+        if (result != null) {
+            LAYER_CONFIG_CACHE.put(cacheKey, result);
+        }
+        return result;
     }
 
-    private static ArcGisLayerStore loadArcGisLayerConfigurationFromServer(String layerId, WFSLayerStore layer, String token) {
+    private static ArcGisLayerStore loadArcGisLayerConfigurationFromServer(final String layerId, final WFSLayerStore layer, final String token) {
         ArcGisLayerStore result = null;
         String json = loadLayerConfig(layer.getURL(), layer.getLayerName(), token);
 
@@ -156,16 +165,27 @@ public class ArcGisMapLayerJob extends OWSMapLayerJob {
         }
 
         if (result != null && result.getType().equals("Group Layer")) {
+            // request all sublayers at once, keeping the order
+            List<Future<String>> requests = new ArrayList<Future<String>>();
+            for (final String subLayerId : result.getSubLayerIds()) {
+                requests.add(METADATA_LOADER.submit(new Callable<String>() {
+                    public String call() {
+                        return loadLayerConfig(layer.getURL(), subLayerId, token);
+                    }
+                }));
+            }
             ArrayList<ArcGisLayerStore> subLayers = new ArrayList<ArcGisLayerStore>();
-            for (String subLayerId : result.getSubLayerIds()) {
-                String subLayerJson = loadLayerConfig(layer.getURL(), subLayerId, token);
-                ArcGisLayerStore subLayerStore = null;
+            for (Future<String> request : requests) {
+                String subLayerJson = null;
                 try {
-                    subLayerStore = ArcGisLayerStore.setJSON(layerId, subLayerJson);
-                } catch (IOException e) {
-                    log.error(e, "JSON parsing failed for Sub ArcGisLayerStore \n" + json);
+                    subLayerJson = request.get();
+                    subLayers.add(ArcGisLayerStore.setJSON(layerId, subLayerJson));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                } catch (Exception e) {
+                    log.error(e, "JSON parsing failed for Sub ArcGisLayerStore \n" + subLayerJson);
                 }
-                subLayers.add(subLayerStore);
             }
 
             result.setSubLayers(subLayers);
@@ -220,7 +240,7 @@ public class ArcGisMapLayerJob extends OWSMapLayerJob {
         if (!goNext()) return STATUS_CANCELED;
 
 
-        this.arcGisLayer = getArcGisLayerConfiguration(this.layerId, this.layer, this.token);
+        // configuration was loaded by loadLayerConfig()
         if (this.arcGisLayer == null) {
             log.warn("Layer (" + this.layerId + ") arcgis configurations couldn't be fetched");
             Map<String, Object> output = new HashMap<String, Object>();
@@ -236,11 +256,12 @@ public class ArcGisMapLayerJob extends OWSMapLayerJob {
 
         if (this.type == JobType.NORMAL) { // tiles for grid
 
-            if (!this.layer.isTileRequest()) { // make single request
-                if (!this.normalHandlers(null, true)) {
-                    log.warn("Canceling single request", layer.getLayerId());
-                    return STATUS_CANCELED;
-                }
+            // make single request, for tiled layers one query for the area covered by the grid
+            // instead of a query per tile
+            final List<Double> gridBounds = this.layer.isTileRequest() ? getGridBounds(grid) : null;
+            if (!this.normalHandlers(gridBounds, true)) {
+                log.warn("Canceling single request", layer.getLayerId());
+                return STATUS_CANCELED;
             }
 
             log.info("Normal images handling for layer", layer.getLayerId());
@@ -248,13 +269,6 @@ public class ArcGisMapLayerJob extends OWSMapLayerJob {
             boolean first = true;
             int index = 0;
             for (List<Double> bounds : grid) {
-                if (this.layer.isTileRequest()) { // make a request per tile
-                    if (!this.normalHandlers(bounds, first)) {
-                        log.warn("Canceling tile request", layer.getLayerId());
-                        return STATUS_CANCELED;
-                    }
-                }
-
                 if (!goNext()) return STATUS_CANCELED;
 
                 if (this.sendImage && this.sessionLayer.isTile(bounds)) { // check if needed tile
@@ -264,8 +278,8 @@ public class ArcGisMapLayerJob extends OWSMapLayerJob {
                     }
 
                     // get from cache
-                    BufferedImage bufferedImage = getImageCache(bbox);
-                    boolean fromCache = (bufferedImage != null);
+                    byte[] image = getImageCacheBytes(bbox);
+                    boolean fromCache = (image != null);
                     boolean isboundaryTile = this.session.getGrid().isBoundsOnBoundary(index);
 
                     if (!fromCache) {
@@ -279,26 +293,27 @@ public class ArcGisMapLayerJob extends OWSMapLayerJob {
                                     this.token);
                         }
 
-                        bufferedImage = this.image.draw(this.session.getTileSize(),
+                        BufferedImage bufferedImage = this.image.draw(this.session.getTileSize(),
                                 this.session.getLocation(),
                                 bounds,
-                                this.features);
+                                getFeaturesForTile(bounds));
 
                         if (bufferedImage == null) {
                             this.imageParsingFailed();
                             return "error";
                         }
+                        image = WFSImage.imageToBytes(bufferedImage);
 
                         // set to cache
                         if (!isboundaryTile) {
-                            setImageCache(bufferedImage, cacheStyleName, bbox, true);
+                            setImageCache(image, cacheStyleName, bbox, true);
                         } else { // non-persistent cache - for ie
-                            setImageCache(bufferedImage, cacheStyleName, bbox, false);
+                            setImageCache(image, cacheStyleName, bbox, false);
                         }
                     }
 
                     String url = createImageURL(this.session.getLayers().get(this.layerId).getStyleName(), bbox);
-                    this.sendWFSImage(url, bufferedImage, bbox, true, isboundaryTile);
+                    this.sendWFSImage(url, image, bbox, true, isboundaryTile);
                 }
 
                 if (first) {
@@ -342,12 +357,13 @@ public class ArcGisMapLayerJob extends OWSMapLayerJob {
                 }
 
                 Double[] bbox = location.getBboxArray();
+                byte[] image = WFSImage.imageToBytes(bufferedImage);
 
                 // cache (non-persistant)
-                setImageCache(bufferedImage, JobType.HIGHLIGHT.toString() + "_" + this.session.getSession(), bbox, false);
+                setImageCache(image, JobType.HIGHLIGHT.toString() + "_" + this.session.getSession(), bbox, false);
 
                 String url = createImageURL(JobType.HIGHLIGHT.toString(), bbox);
-                this.sendWFSImage(url, bufferedImage, bbox, false, false);
+                this.sendWFSImage(url, image, bbox, false, false);
             }
         } else if (this.type == JobType.MAP_CLICK) {
             if (!this.requestHandler(null)) {
@@ -378,6 +394,47 @@ public class ArcGisMapLayerJob extends OWSMapLayerJob {
         return "success";
     }
 
+    /**
+     * Returns the envelope covering all tiles of the grid
+     */
+    private static List<Double> getGridBounds(List<List<Double>> grid) {
+        if (grid.isEmpty()) {
+            return null;
+        }
+        Envelope envelope = new Envelope();
+        for (List<Double> bounds : grid) {
+            envelope.expandToInclude(bounds.get(0), bounds.get(1));
+            envelope.expandToInclude(bounds.get(2), bounds.get(3));
+        }
+        List<Double> result = new ArrayList<Double>(4);
+        result.add(envelope.getMinX());
+        result.add(envelope.getMinY());
+        result.add(envelope.getMaxX());
+        result.add(envelope.getMaxY());
+        return result;
+    }
+
+    /**
+     * Splits the features of the grid query for a tile. Features are in service projection so
+     * they are only split when it matches the map. Tile is buffered by half a tile so features
+     * drawn over the tile edge are included.
+     */
+    private ArrayList<ArcGisFeature> getFeaturesForTile(List<Double> bounds) {
+        if (this.features == null || this.transformService != null) {
+            return this.features;
+        }
+        Envelope tile = new Envelope(bounds.get(0), bounds.get(2), bounds.get(1), bounds.get(3));
+        tile.expandBy(tile.getWidth() / 2, tile.getHeight() / 2);
+        ArrayList<ArcGisFeature> result = new ArrayList<ArcGisFeature>();
+        for (ArcGisFeature feature : this.features) {
+            Geometry geometry = feature.getGeometry();
+            if (geometry == null || tile.intersects(geometry.getEnvelopeInternal())) {
+                result.add(feature);
+            }
+        }
+        return result;
+    }
+
     private List<ArcGisLayerStore> getArcGisLayersDependingOnScale() {
         List<ArcGisLayerStore> result = new ArrayList<ArcGisLayerStore>();
         List<ArcGisLayerStore> subLayers = this.arcGisLayer.getSubLayers();
@@ -581,7 +638,7 @@ public class ArcGisMapLayerJob extends OWSMapLayerJob {
                 if (this.session.isGeomRequest()) {
                     List<Object> gvalues = new ArrayList<Object>();
                     gvalues.add(fid);
-                    gvalues.add(geometry);
+                    gvalues.add(getGeometryForResponse(fid, geometry));
                     this.geomValuesList.add(gvalues);
                 }
 
@@ -11,6 +11,7 @@ import fi.nls.oskari.fe.output.OutputProcessor;
 import fi.nls.oskari.fi.rysp.generic.WFS11_path_parse_worker;
 import fi.nls.oskari.pojo.SessionStore;
 import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.utils.FeatureBatch;
 import fi.nls.oskari.wfs.WFSFilter;
 import fi.nls.oskari.wfs.WFSImage;
 import fi.nls.oskari.wfs.pojo.WFSLayerStore;
@@ -118,6 +119,10 @@ public class FEMapLayerJob extends OWSMapLayerJob {
     protected void featuresHandler() {
         log.debug("features handler");
 
+        if (isFeaturePaging()) {
+            addToFeaturePage(featureValuesList);
+            return;
+        }
         for (List<Object> feature : featureValuesList) {
             this.sendWFSFeature(feature);
         }
@@ -137,7 +142,7 @@ public class FEMapLayerJob extends OWSMapLayerJob {
             final SessionStore session, final List<Double> bounds,
             final MathTransform transformService) {
 
-        final ArrayList<List<Object>> resultsList = new ArrayList<List<Object>>();
+        final FeatureBatch resultsList = new FeatureBatch();
         final Map<Resource, SimpleFeatureCollection> responseCollections = new HashMap<Resource, SimpleFeatureCollection>();
 
         final FERequestResponse requestResponse = new FERequestResponse();
@@ -7,6 +7,7 @@ import fi.nls.oskari.fe.schema.XSDDatatype;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.util.JSONHelper;
+import fi.nls.oskari.utils.FeatureBatch;
 import org.apache.commons.lang3.tuple.Pair;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -30,7 +31,7 @@ public class FEOutputProcessor implements OutputProcessor {
 
     final Map<Resource, SimpleFeatureBuilder> responseBuilders = new HashMap<Resource, SimpleFeatureBuilder>();
     final Map<Resource, List<SimpleFeature>> responseFeatures = new HashMap<Resource, List<SimpleFeature>>();
-    final ArrayList<List<Object>> list;
+    final FeatureBatch list;
     final Map<Resource, SimpleFeatureCollection> responseCollections;
 
     final CoordinateReferenceSystem crs;
@@ -43,7 +44,7 @@ public class FEOutputProcessor implements OutputProcessor {
 
     final MathTransform transform;
 
-    public FEOutputProcessor(final ArrayList<List<Object>> list,
+    public FEOutputProcessor(final FeatureBatch list,
             final Map<Resource, SimpleFeatureCollection> responseCollections,
             CoordinateReferenceSystem crs, FERequestResponse requestResponse,
             ArrayList<String> selectedProperties,
@@ -116,7 +117,7 @@ public class FEOutputProcessor implements OutputProcessor {
 
         List<SimpleFeature> list = responseFeatures.get(type);
         if (list == null) {
-            list = new LinkedList<SimpleFeature>();
+            list = new ArrayList<SimpleFeature>();
             responseFeatures.put(type, list);
             log.debug("[fe] creating featureList for : " + type);
         }
@@ -206,12 +207,9 @@ public class FEOutputProcessor implements OutputProcessor {
         }
 
         if (selectedProperties != null && selectedProperties.size() > 0) {
-            ArrayList<Object> props = new ArrayList<Object>(
-                    selectedProperties.size());
-            for (String field : selectedProperties) {
-                props.add(null);
-            }
-            props.set(0, iri.toString());
+            list.ensureColumns(selectedProperties.size());
+            final int row = list.addRow();
+            list.set(row, 0, iri.toString());
             for (Pair<Resource, ?> pair : simpleProperties) {
                 Integer keyIndex = selectedPropertiesIndex.get(pair.getKey());
                 if (keyIndex == null) {
@@ -221,10 +219,8 @@ public class FEOutputProcessor implements OutputProcessor {
                      */
                     continue;
                 }
-                props.set(keyIndex, pair.getValue());
+                list.set(row, keyIndex, pair.getValue());
             }
-
-            list.add(props);
         }
     }
 
@@ -241,9 +237,9 @@ public class FEOutputProcessor implements OutputProcessor {
 
         try {
             //Loop features
-            for (List lis : list) {
+            for (int row = 0; row < list.size(); ++row) {
                 // Href key
-                Object val = lis.get(keyInd);
+                Object val = list.get(row, keyInd);
                 if (val instanceof List) {
                     ArrayList<String> vallist = (ArrayList<String>) val;
                     List<Map<String, Object>> hrefFeas = new ArrayList<Map<String, Object>>();
@@ -259,7 +255,7 @@ public class FEOutputProcessor implements OutputProcessor {
 
                     }
                     // Replace refs with objects
-                    if(hrefFeas.size() > 0) lis.set(keyInd, hrefFeas);
+                    if(hrefFeas.size() > 0) list.set(row, keyInd, hrefFeas);
 
                 }
             }
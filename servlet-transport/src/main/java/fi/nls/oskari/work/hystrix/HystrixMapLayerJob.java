@@ -3,6 +3,8 @@ package fi.nls.oskari.work.hystrix;
 import com.netflix.hystrix.exception.HystrixBadRequestException;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.trace.Trace;
+import fi.nls.oskari.trace.Tracer;
 import fi.nls.oskari.work.OWSMapLayerJob;
 
 /**
@@ -51,16 +53,22 @@ public class HystrixMapLayerJob extends HystrixJob {
     public String run() {
         setStartTime();
         notifyStart();
-        HystrixJobValidator validator = new HystrixJobValidator(job);
-        boolean valid = validator.validateJob();
-        if(validator.isCanceled()) {
-            return null;
+        // continues the trace of the request that created the job
+        final Trace trace = Tracer.start("transport.job." + job.getType(), job.getTraceId());
+        try {
+            HystrixJobValidator validator = new HystrixJobValidator(job);
+            boolean valid = validator.validateJob();
+            if(validator.isCanceled()) {
+                return null;
+            }
+            if(!valid) {
+                throw new HystrixBadRequestException("Validation failed for (" +  job.getKey() + ")");
+            }
+            final String value = job.run();
+            return value;
+        } finally {
+            trace.finish();
         }
-        if(!valid) {
-            throw new HystrixBadRequestException("Validation failed for (" +  job.getKey() + ")");
-        }
-        final String value = job.run();
-        return value;
     }
 
     public void notifyStart() {
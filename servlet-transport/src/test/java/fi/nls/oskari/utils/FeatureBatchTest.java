@@ -0,0 +1,105 @@
+package fi.nls.oskari.utils;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FeatureBatchTest {
+
+    private static ObjectMapper createMapper() {
+        final ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new GeometryJSONOutputModule());
+        return mapper;
+    }
+
+    private static FeatureBatch createBatch() {
+        final FeatureBatch batch = new FeatureBatch(5, 2);
+        for (int i = 0; i < 3; ++i) {
+            final int row = batch.addRow();
+            batch.set(row, 0, "fid." + i);
+            batch.set(row, 1, i);
+            batch.set(row, 2, i % 2 == 0 ? "road" : "path");
+            batch.set(row, 3, 100.5 + i);
+        }
+        // center not set for the last feature
+        batch.set(0, 4, 1.5);
+        batch.set(1, 4, 2.5);
+        return batch;
+    }
+
+    @Test
+    public void testRowViews() {
+        final FeatureBatch batch = createBatch();
+        assertEquals(3, batch.size());
+        assertEquals(5, batch.getColumnCount());
+        assertEquals(Arrays.<Object>asList("fid.1", 1L, "path", 101.5, 2.5), batch.get(1));
+        assertNull(batch.get(2).get(4));
+
+        batch.get(2).set(4, 3.5);
+        assertEquals(3.5, batch.get(2, 4));
+    }
+
+    @Test
+    public void testConvertsColumnForMixedValues() {
+        final FeatureBatch batch = createBatch();
+        final List<String> refs = new ArrayList<String>();
+        refs.add("#ref.1");
+        batch.set(1, 1, refs);
+        assertEquals(0L, batch.get(0, 1));
+        assertSame(refs, batch.get(1, 1));
+        assertEquals(2L, batch.get(2, 1));
+
+        batch.set(0, 3, "n/a");
+        assertEquals("n/a", batch.get(0, 3));
+        assertEquals(101.5, batch.get(1, 3));
+    }
+
+    @Test
+    public void testAddListAndColumnGrowth() {
+        final FeatureBatch batch = new FeatureBatch();
+        batch.add(Arrays.<Object>asList("fid.1", null, true));
+        final int row = batch.addRow();
+        batch.set(row, 3, "extra");
+        assertEquals(4, batch.getColumnCount());
+        assertEquals(Arrays.<Object>asList("fid.1", null, true, null), batch.get(0));
+        assertEquals(Arrays.<Object>asList(null, null, null, "extra"), batch.get(1));
+    }
+
+    @Test
+    public void testManyDistinctStrings() {
+        final FeatureBatch batch = new FeatureBatch(1);
+        for (int i = 0; i < 2000; ++i) {
+            batch.set(batch.addRow(), 0, "fid." + i);
+        }
+        for (int i = 0; i < 2000; ++i) {
+            assertEquals("fid." + i, batch.get(i, 0));
+        }
+    }
+
+    @Test
+    public void testSerializesLikeListOfLists() throws Exception {
+        final FeatureBatch batch = createBatch();
+        final Map<String, Object> nested = new HashMap<String, Object>();
+        nested.put("id", "ref.1");
+        batch.set(0, 2, Arrays.asList(nested));
+
+        final List<List<Object>> plain = new ArrayList<List<Object>>();
+        for (List<Object> row : batch) {
+            plain.add(new ArrayList<Object>(row));
+        }
+        final ObjectMapper mapper = createMapper();
+        assertEquals(mapper.writeValueAsString(plain), mapper.writeValueAsString(batch));
+        assertEquals(mapper.writeValueAsString(plain.get(1)), mapper.writeValueAsString(batch.get(1)));
+
+        final Map<String, Object> output = new HashMap<String, Object>();
+        output.put("features", batch);
+        assertEquals("{\"features\":" + mapper.writeValueAsString(plain) + "}", mapper.writeValueAsString(output));
+    }
+}
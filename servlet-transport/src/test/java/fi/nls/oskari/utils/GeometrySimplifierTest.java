@@ -0,0 +1,77 @@
+package fi.nls.oskari.utils;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class GeometrySimplifierTest {
+
+    private static final String DENSE_LINE = "LINESTRING (0 0, 0.1 0.01, 0.2 0.02, 0.3 0.01, 10 0, 10.4 0.3, 20 0)";
+
+    @After
+    public void tearDown() {
+        GeometrySimplifier.flush();
+    }
+
+    @Test
+    public void testSimplifyAndQuantize() throws Exception {
+        final GeometrySimplifier simplifier = new GeometrySimplifier("1", "EPSG:3067", 5, 1, GeometrySimplifier.FORMAT_WKT);
+        final Geometry line = new WKTReader().read(DENSE_LINE);
+        final Geometry simplified = simplifier.simplify(line);
+        assertTrue("Should remove sub-pixel details", simplified.getNumPoints() < line.getNumPoints());
+        assertEquals("Original should not be modified", 7, line.getNumPoints());
+        assertEquals("LINESTRING (0 0, 20 0)", simplifier.toText(simplified));
+    }
+
+    @Test
+    public void testCollapsedParts() throws Exception {
+        final GeometrySimplifier simplifier = new GeometrySimplifier("1", "EPSG:3067", 5, 1, GeometrySimplifier.FORMAT_WKT);
+        final Geometry lines = new WKTReader().read("MULTILINESTRING ((0 0, 10 0), (5 5, 5.2 5.1))");
+        assertEquals("Parts shorter than a pixel should be dropped",
+                "MULTILINESTRING ((0 0, 10 0))", simplifier.toText(simplifier.simplify(lines)));
+        final Geometry tiny = new WKTReader().read("POLYGON ((0 0, 0.2 0, 0.2 0.2, 0 0))");
+        assertSame("Geometry collapsing completely should be kept as is", tiny, simplifier.simplify(tiny));
+    }
+
+    @Test
+    public void testDecimalsFollowResolution() throws Exception {
+        final GeometrySimplifier simplifier = new GeometrySimplifier("1", "EPSG:4326", 5, 0.25, GeometrySimplifier.FORMAT_WKT);
+        final Geometry point = new WKTReader().read("POINT (24.123456 60.987654)");
+        assertEquals("POINT (24 61)", simplifier.getOutput("fid.1", point));
+    }
+
+    @Test
+    public void testDeltaEncoding() throws Exception {
+        final GeometrySimplifier simplifier = new GeometrySimplifier("1", "EPSG:3067", 5, 2, GeometrySimplifier.FORMAT_DELTA);
+        final Geometry polygon = new WKTReader().read("POLYGON ((100 100, 120 100, 120 120, 100 100))");
+        final Map<String, Object> encoded = (Map<String, Object>) simplifier.getOutput("fid.1", polygon);
+        assertEquals("Polygon", encoded.get("type"));
+        assertEquals(2d, encoded.get("resolution"));
+        final List<long[]> rings = (List<long[]>) encoded.get("coordinates");
+        assertEquals(1, rings.size());
+        assertArrayEquals(new long[] {50, 50, 10, 0, 0, 10, -10, -10}, rings.get(0));
+    }
+
+    @Test
+    public void testCached() throws Exception {
+        final GeometrySimplifier simplifier = new GeometrySimplifier("1", "EPSG:3067", 5, 1, GeometrySimplifier.FORMAT_DELTA);
+        final Geometry line = new WKTReader().read(DENSE_LINE);
+        final Object output = simplifier.getOutput("fid.1", line);
+        assertSame("Should return cached output", output, simplifier.getOutput("fid.1", line));
+        assertNotSame("Should not use cache without fid", output, simplifier.getOutput(null, line));
+    }
+
+    @Test
+    public void testNoResolution() throws Exception {
+        final GeometrySimplifier simplifier = new GeometrySimplifier("1", "EPSG:3067", 5, 0, GeometrySimplifier.FORMAT_WKT);
+        final Geometry line = new WKTReader().read(DENSE_LINE);
+        assertEquals(line.toText(), simplifier.getOutput("fid.1", line));
+        assertNull(simplifier.getOutput("fid.1", null));
+    }
+}
@@ -0,0 +1,55 @@
+package fi.nls.oskari.wfs;
+
+import org.geotools.styling.Style;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SLDStyleCacheTest {
+
+    private static final String SLD = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><StyledLayerDescriptor version=\"1.0.0\" xmlns=\"http://www.opengis.net/sld\" xmlns:ogc=\"http://www.opengis.net/ogc\"><NamedLayer><Name>Test</Name><UserStyle><Title>{TITLE}</Title><FeatureTypeStyle><Rule><PointSymbolizer><Graphic><Mark><WellKnownName>circle</WellKnownName></Mark><Size>12</Size></Graphic></PointSymbolizer></Rule></FeatureTypeStyle></UserStyle></NamedLayer></StyledLayerDescriptor>";
+
+    @After
+    public void tearDown() {
+        SLDStyleCache.flush();
+    }
+
+    @Test
+    public void testLayerStyleIsParsedOnce() {
+        final String sld = SLD.replace("{TITLE}", "first");
+        final Style style = SLDStyleCache.getLayerStyle("1", "default", sld);
+        assertNotNull("Should parse SLD", style);
+        assertSame("Should return cached style", style, SLDStyleCache.getLayerStyle("1", "default", sld));
+    }
+
+    @Test
+    public void testModifiedLayerStyleIsParsedAgain() {
+        final Style style = SLDStyleCache.getLayerStyle("1", "default", SLD.replace("{TITLE}", "first"));
+        final Style modified = SLDStyleCache.getLayerStyle("1", "default", SLD.replace("{TITLE}", "second"));
+        assertNotSame("Should parse modified SLD", style, modified);
+        assertEquals("second", modified.getDescription().getTitle().toString());
+    }
+
+    @Test
+    public void testInvalidate() {
+        final String sld = SLD.replace("{TITLE}", "first");
+        final Style style = SLDStyleCache.getLayerStyle("1", "default", sld);
+        SLDStyleCache.invalidate("1");
+        assertNotSame("Should parse SLD after invalidate", style, SLDStyleCache.getLayerStyle("1", "default", sld));
+    }
+
+    @Test
+    public void testGeneratedStyle() {
+        final String sld = SLD.replace("{TITLE}", "generated");
+        final Style style = SLDStyleCache.getStyle(sld);
+        assertNotNull("Should parse SLD", style);
+        assertSame("Should return cached style", style, SLDStyleCache.getStyle(new String(sld)));
+    }
+
+    @Test
+    public void testInvalidSLD() {
+        assertNull("Should not parse invalid SLD", SLDStyleCache.getStyle("<notsld"));
+        assertNull("Should handle null", SLDStyleCache.getLayerStyle("1", "default", null));
+    }
+}
@@ -9,6 +9,8 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -40,4 +42,17 @@ public class WFSFeatureTypeParserTest {
         Map<String, List<String>> propertyNames = featureTypeParser.getProperties();
 		assertTrue("Should get valid default type's property names", propertyNames.get("default") != null);
 	}
+
+	@Test
+	public void testCachedParser() {
+        layer.addFeatureType("default", "fi_nimi:String,*the_geom:Point");
+        WFSFeatureTypeParser parser = WFSFeatureTypeParser.getParser(layer);
+        assertSame("Should reuse parsed types", parser.parse(), WFSFeatureTypeParser.getParser(layer).parse());
+
+        layer.addFeatureType("default", "fi_nimi:String,fi_osoite:String,*the_geom:Point");
+        WFSFeatureTypeParser changed = WFSFeatureTypeParser.getParser(layer);
+        assertNotSame("Should parse changed configuration", parser, changed);
+        assertTrue("Should get new property", changed.getProperties().get("default").contains("fi_osoite"));
+        WFSFeatureTypeParser.flushCache();
+	}
 }
@@ -0,0 +1,103 @@
+package fi.nls.oskari.work;
+
+import fi.nls.oskari.utils.FeatureBatch;
+import fi.nls.oskari.wfs.WFSFilterBuilder;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+import org.opengis.filter.Filter;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FeatureResultBufferTest {
+
+    private static final List<String> FIELDS = Arrays.asList("__fid", "name", "length", "__centerX", "__centerY");
+
+    @After
+    public void tearDown() {
+        FeatureResultBuffer.flush();
+    }
+
+    private static FeatureResultBuffer createBuffer() {
+        final FeatureBatch batch = new FeatureBatch(FIELDS.size());
+        final String[] names = {"road", "path", "street", null, "alley"};
+        for (int i = 0; i < names.length; ++i) {
+            final int row = batch.addRow();
+            batch.set(row, 0, "fid." + i);
+            batch.set(row, 1, names[i]);
+            batch.set(row, 2, (i * 7) % 5);
+            batch.set(row, 3, 100.0 + i);
+            batch.set(row, 4, 200.0 + i);
+        }
+        return new FeatureResultBuffer(batch, FIELDS);
+    }
+
+    private static String fidAt(List<List<Object>> page, int index) {
+        return (String) page.get(index).get(0);
+    }
+
+    @Test
+    public void testPaging() {
+        final FeatureResultBuffer buffer = createBuffer();
+        final int[] rows = buffer.getRows(null, false, null);
+        assertEquals(5, rows.length);
+
+        final Map<String, Object> output = buffer.getPageOutput("1", rows, 2, 2);
+        assertEquals(buffer.getCursor(), output.get(FeatureResultBuffer.OUTPUT_CURSOR));
+        assertEquals(5, output.get(FeatureResultBuffer.OUTPUT_TOTAL));
+        final List<List<Object>> page = (List<List<Object>>) output.get(OWSMapLayerJob.OUTPUT_FEATURES);
+        assertEquals(2, page.size());
+        assertEquals("fid.2", fidAt(page, 0));
+        assertEquals("fid.3", fidAt(page, 1));
+
+        assertEquals(1, buffer.getPage(rows, 4, 10).size());
+        assertTrue(buffer.getPage(rows, 10, 10).isEmpty());
+    }
+
+    @Test
+    public void testSort() {
+        final FeatureResultBuffer buffer = createBuffer();
+        // lengths: 0, 2, 4, 1, 3
+        List<List<Object>> page = buffer.getPage(buffer.getRows("length", false, null), 0, 5);
+        assertEquals("fid.0", fidAt(page, 0));
+        assertEquals("fid.3", fidAt(page, 1));
+        assertEquals("fid.2", fidAt(page, 4));
+
+        page = buffer.getPage(buffer.getRows("name", true, null), 0, 5);
+        assertEquals("fid.2", fidAt(page, 0));
+        assertEquals("Nulls are sorted last", "fid.3", fidAt(page, 4));
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        final FeatureResultBuffer buffer = createBuffer();
+        final JSONObject json = new JSONObject(
+                "{\"filters\": [{\"attribute\": \"length\", \"operator\": \">\", \"value\": 1}]}");
+        final Filter filter = WFSFilterBuilder.parseWfsJsonFilter(json, null, null);
+        final int[] rows = buffer.getRows("length", false, filter);
+        assertEquals(3, rows.length);
+        final List<List<Object>> page = buffer.getPage(rows, 0, 5);
+        assertEquals("fid.1", fidAt(page, 0));
+        assertEquals("fid.4", fidAt(page, 1));
+        assertEquals("fid.2", fidAt(page, 2));
+    }
+
+    @Test
+    public void testNewJobReplacesBuffer() {
+        final FeatureResultBuffer first = createBuffer();
+        FeatureResultBuffer.put("client", "1", first);
+        assertSame(first, FeatureResultBuffer.get("client", "1", first.getCursor()));
+
+        final FeatureResultBuffer second = createBuffer();
+        FeatureResultBuffer.put("client", "1", second);
+        assertNull("Old cursor should expire", FeatureResultBuffer.get("client", "1", first.getCursor()));
+        assertSame(second, FeatureResultBuffer.get("client", "1", second.getCursor()));
+
+        FeatureResultBuffer.removeAll("client");
+        assertNull(FeatureResultBuffer.get("client", "1", second.getCursor()));
+    }
+}
@@ -0,0 +1,127 @@
+package fi.nls.oskari.loadtest;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measurements of a load test run. The report is a flat JSON object (name -> number) so runs on
+ * different branches can be compared key by key:
+ * - tile.*, request.*, mapClick.*, init.*: latency percentiles in ms (see SimulatedClient)
+ * - queue.*: transport job queue depth sampled once a second
+ * - heap.*: used heap in MB sampled once a second
+ * - errors.*, timeouts.*, count.*: counters
+ * - backend.*: requests served by the stub backends
+ */
+public class LoadStats {
+
+    private final SampleRecorder tile = new SampleRecorder("tile");
+    private final SampleRecorder request = new SampleRecorder("request");
+    private final SampleRecorder mapClick = new SampleRecorder("mapClick");
+    private final SampleRecorder init = new SampleRecorder("init");
+    private final SampleRecorder queue = new SampleRecorder("queue");
+    private final SampleRecorder heap = new SampleRecorder("heap");
+
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    public SampleRecorder getTile() {
+        return tile;
+    }
+
+    public SampleRecorder getRequest() {
+        return request;
+    }
+
+    public SampleRecorder getMapClick() {
+        return mapClick;
+    }
+
+    public SampleRecorder getInit() {
+        return init;
+    }
+
+    public SampleRecorder getQueue() {
+        return queue;
+    }
+
+    public SampleRecorder getHeap() {
+        return heap;
+    }
+
+    public void error(final String type) {
+        increment("errors." + type);
+    }
+
+    public void timeout(final String kind) {
+        increment("timeouts." + kind);
+    }
+
+    public void count(final String name) {
+        increment("count." + name);
+    }
+
+    public void received(final long bytes) {
+        bytesReceived.addAndGet(bytes);
+    }
+
+    private void increment(final String key) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            final AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(key, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    /**
+     * @param durationMs how long the clients ran
+     * @param backendCounts requests served by the stub backends per route
+     * @return flat report sorted by key
+     */
+    public Map<String, Number> getReport(final long durationMs, final Map<String, Long> backendCounts) {
+        final Map<String, Number> report = new TreeMap<String, Number>();
+        final List<SampleRecorder> recorders = new ArrayList<SampleRecorder>();
+        recorders.add(tile);
+        recorders.add(request);
+        recorders.add(mapClick);
+        recorders.add(init);
+        recorders.add(queue);
+        recorders.add(heap);
+        for (SampleRecorder recorder : recorders) {
+            for (Map.Entry<String, Number> e : recorder.getSummary().entrySet()) {
+                report.put(recorder.getName() + "." + e.getKey(), e.getValue());
+            }
+        }
+        for (Map.Entry<String, AtomicLong> e : counters.entrySet()) {
+            report.put(e.getKey(), e.getValue().get());
+        }
+        for (Map.Entry<String, Long> e : backendCounts.entrySet()) {
+            report.put("backend." + e.getKey(), e.getValue());
+        }
+        final double seconds = Math.max(1, durationMs) / 1000d;
+        report.put("run.seconds", Math.round(seconds));
+        report.put("run.tilesPerSecond", Math.round(tile.getCount() / seconds * 10) / 10d);
+        report.put("run.requestsPerSecond", Math.round(request.getCount() / seconds * 10) / 10d);
+        report.put("run.receivedKB", bytesReceived.get() / 1024);
+        return report;
+    }
+
+    public static JSONObject toJSON(final Map<String, Number> report) throws JSONException {
+        final JSONObject json = new JSONObject();
+        for (Map.Entry<String, Number> e : report.entrySet()) {
+            json.put(e.getKey(), e.getValue());
+        }
+        return json;
+    }
+}
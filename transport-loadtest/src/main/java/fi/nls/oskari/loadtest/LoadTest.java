@@ -0,0 +1,290 @@
+package fi.nls.oskari.loadtest;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.transport.BayeuxInitializer;
+import fi.nls.oskari.transport.TransportService;
+import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.oskari.worker.JobQueue;
+import org.cometd.server.CometdServlet;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end load test for transport. Runs everything in one JVM without external services:
+ * - RedisStub in place of Redis
+ * - StubBackendServlet in place of oskari-map and the WFS/feature engine/ArcGIS services
+ * - transport (CometdServlet + BayeuxInitializer like webapp-transport's web.xml) on an embedded Jetty
+ * - SimulatedClients doing init/setLocation/setMapClick over Bayeux long-polling
+ *
+ * Writes the measurements to [loadtest.report.dir]/loadtest-[label].json. Usage:
+ *   LoadTest [label]
+ *   LoadTest compare baseline.json other.json
+ *
+ * Settings are read from loadtest.properties and can be overridden with system properties.
+ */
+public class LoadTest {
+
+    static {
+        // same order as TransportService, loadtest.properties overrides the transport settings
+        PropertyUtil.loadProperties("/oskari.properties");
+        PropertyUtil.loadProperties("/transport.properties");
+        PropertyUtil.loadProperties("/oskari-ext.properties");
+        PropertyUtil.loadProperties("/transport-ext.properties");
+        PropertyUtil.loadProperties("/loadtest.properties");
+    }
+    private static final Logger log = LogFactory.getLogger(LoadTest.class);
+
+    private static final long MB = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && "compare".equals(args[0])) {
+            compare(args[1], args[2]);
+            return;
+        }
+        final String label = args.length > 0 ? args[0] : "current";
+        applySystemProperties();
+
+        final int clientCount = PropertyUtil.getOptional("loadtest.clients", 20);
+        final long warmup = PropertyUtil.getOptional("loadtest.warmup", 20) * 1000L;
+        final long duration = PropertyUtil.getOptional("loadtest.duration", 120) * 1000L;
+        final int backendPort = PropertyUtil.getOptional("loadtest.backend.port", 9401);
+        final int transportPort = PropertyUtil.getOptional("loadtest.transport.port", 9402);
+        final String backendUrl = "http://localhost:" + backendPort;
+
+        // layer ids are numbered in the order the layers are listed
+        final Map<String, String> layerTypes = new LinkedHashMap<String, String>();
+        for (String type : PropertyUtil.getCommaSeparatedList("loadtest.layers")) {
+            layerTypes.put(Integer.toString(layerTypes.size() + 1), type);
+        }
+
+        final RedisStub redis = new RedisStub(PropertyUtil.getOptional("loadtest.redis.port", 0));
+        redis.start();
+        PropertyUtil.addProperty("redis.hostname", "localhost", true);
+        PropertyUtil.addProperty("redis.port", Integer.toString(redis.getPort()), true);
+        PropertyUtil.addProperty("oskari.domain", backendUrl, true);
+        PropertyUtil.addProperty("oskari.ajax.url.prefix", "/api?", true);
+
+        final StubBackendServlet backendServlet = new StubBackendServlet(backendUrl, layerTypes,
+                PropertyUtil.getOptional("loadtest.backend.latency", 100),
+                PropertyUtil.getOptional("loadtest.backend.jitter", 100),
+                PropertyUtil.getOptional("loadtest.api.latency", 5));
+        final Server backend = createBackend(backendPort, backendServlet);
+        backend.start();
+        final Server transport = createTransport(transportPort);
+        transport.start();
+        log.info("Transport running on port", transportPort, "- backend on port", backendPort,
+                "- layers:", layerTypes);
+
+        final String cometdUrl = "http://localhost:" + transportPort + "/transport/cometd";
+        final List<String> layerIds = new ArrayList<String>(layerTypes.keySet());
+        final LoadStats warmupStats = new LoadStats();
+        final List<SimulatedClient> clients = new ArrayList<SimulatedClient>(clientCount);
+        final List<Thread> threads = new ArrayList<Thread>(clientCount);
+        for (int i = 0; i < clientCount; ++i) {
+            final SimulatedClient client = new SimulatedClient(i, cometdUrl, layerIds, warmupStats,
+                    PropertyUtil.getOptional("loadtest.thinktime", 2000),
+                    PropertyUtil.getOptional("loadtest.mapclick.ratio", 0.1d),
+                    PropertyUtil.getOptional("loadtest.request.timeout", 30000));
+            final Thread thread = new Thread(client, "loadtest-client-" + i);
+            clients.add(client);
+            threads.add(thread);
+            thread.start();
+        }
+
+        log.info("Warming up", clientCount, "clients for", warmup / 1000, "s");
+        Thread.sleep(warmup);
+
+        final LoadStats stats = new LoadStats();
+        for (SimulatedClient client : clients) {
+            client.setStats(stats);
+        }
+        final ScheduledExecutorService sampler = startSampler(stats);
+        final Map<String, Long> backendBefore = backendServlet.getRequestCounts();
+        final long started = System.currentTimeMillis();
+        log.info("Measuring for", duration / 1000, "s");
+        Thread.sleep(duration);
+        final long measured = System.currentTimeMillis() - started;
+
+        sampler.shutdownNow();
+        for (SimulatedClient client : clients) {
+            client.stop();
+        }
+        for (Thread thread : threads) {
+            thread.join(PropertyUtil.getOptional("loadtest.request.timeout", 30000));
+        }
+
+        final Map<String, Number> report = stats.getReport(measured,
+                subtract(backendServlet.getRequestCounts(), backendBefore));
+        report.put("run.clients", clientCount);
+        report.put("run.workers", PropertyUtil.getOptional("workerCount", 10));
+        report.put("run.backendLatency", PropertyUtil.getOptional("loadtest.backend.latency", 100));
+        final JobQueue queue = TransportService.getQueue();
+        if (queue != null) {
+            report.put("jobs.total", queue.getJobCount());
+            report.put("jobs.crashed", queue.getCrashedJobCount());
+            report.put("jobs.avgRuntime", queue.getAvgRuntime());
+            report.put("jobs.maxQueueLength", queue.getMaxQueueLength());
+        }
+        writeReport(label, report);
+
+        transport.stop();
+        backend.stop();
+        redis.stop();
+        // transport's worker threads aren't daemons
+        System.exit(0);
+    }
+
+    /**
+     * loadtest.* and workerCount can be overridden with system properties
+     */
+    private static void applySystemProperties() throws Exception {
+        final Properties overrides = new Properties();
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("loadtest.") || "workerCount".equals(key)) {
+                overrides.setProperty(key, System.getProperty(key));
+            }
+        }
+        PropertyUtil.addProperties(overrides, true);
+    }
+
+    private static Server createBackend(final int port, final StubBackendServlet servlet) {
+        final Server server = new Server(port);
+        final ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+        context.setContextPath("/");
+        context.addServlet(new ServletHolder(servlet), "/*");
+        server.setHandler(context);
+        return server;
+    }
+
+    /**
+     * Same setup as webapp-transport's web.xml without the websocket transport, the simulated clients
+     * use long-polling
+     */
+    private static Server createTransport(final int port) {
+        final Server server = new Server(port);
+        final ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        context.setContextPath("/transport");
+
+        final ServletHolder cometd = new ServletHolder(CometdServlet.class);
+        cometd.setInitParameter("jsonContext", "org.cometd.server.JacksonJSONContextServer");
+        cometd.setInitParameter("maxSessionsPerBrowser", "-1");
+        cometd.setInitParameter("timeout", "30000");
+        cometd.setInitParameter("interval", "0");
+        cometd.setInitParameter("maxInterval", "10000");
+        cometd.setInitParameter("maxLazyTimeout", "5000");
+        cometd.setInitParameter("long-polling.multiSessionInterval", "2000");
+        cometd.setInitParameter("logLevel", "1");
+        cometd.setAsyncSupported(true);
+        cometd.setInitOrder(1);
+        context.addServlet(cometd, "/cometd/*");
+
+        final ServletHolder initializer = new ServletHolder(BayeuxInitializer.class);
+        initializer.setInitOrder(2);
+        context.addServlet(initializer, "/initializer");
+
+        server.setHandler(context);
+        return server;
+    }
+
+    /**
+     * Samples transport's job queue depth and heap use once a second
+     */
+    private static ScheduledExecutorService startSampler(final LoadStats stats) {
+        final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                final JobQueue queue = TransportService.getQueue();
+                if (queue != null) {
+                    stats.getQueue().record(queue.getQueueSize());
+                }
+                final Runtime runtime = Runtime.getRuntime();
+                stats.getHeap().record((runtime.totalMemory() - runtime.freeMemory()) / MB);
+            }
+        }, 0, 1, TimeUnit.SECONDS);
+        return sampler;
+    }
+
+    private static Map<String, Long> subtract(final Map<String, Long> after, final Map<String, Long> before) {
+        final Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Long> e : after.entrySet()) {
+            final Long previous = before.get(e.getKey());
+            result.put(e.getKey(), e.getValue() - (previous == null ? 0 : previous));
+        }
+        return result;
+    }
+
+    private static void writeReport(final String label, final Map<String, Number> report) throws Exception {
+        final File dir = new File(PropertyUtil.get("loadtest.report.dir", "target"));
+        dir.mkdirs();
+        final File file = new File(dir, "loadtest-" + label + ".json");
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(LoadStats.toJSON(report).toString(2).getBytes("UTF-8"));
+        } finally {
+            IOHelper.close(out);
+        }
+        System.out.println();
+        for (Map.Entry<String, Number> e : report.entrySet()) {
+            System.out.println(String.format("%-40s %12s", e.getKey(), e.getValue()));
+        }
+        System.out.println();
+        System.out.println("Report written to " + file.getAbsolutePath());
+    }
+
+    /**
+     * Prints two reports side by side with the change in percent
+     */
+    private static void compare(final String baselineFile, final String otherFile) throws Exception {
+        final JSONObject baseline = readReport(baselineFile);
+        final JSONObject other = readReport(otherFile);
+        final TreeSet<String> keys = new TreeSet<String>();
+        for (Iterator it = baseline.keys(); it.hasNext(); ) {
+            keys.add((String) it.next());
+        }
+        for (Iterator it = other.keys(); it.hasNext(); ) {
+            keys.add((String) it.next());
+        }
+        System.out.println(String.format("%-40s %12s %12s %9s", "", "baseline", "other", "change"));
+        for (String key : keys) {
+            final double a = baseline.optDouble(key, Double.NaN);
+            final double b = other.optDouble(key, Double.NaN);
+            String change = "";
+            if (!Double.isNaN(a) && !Double.isNaN(b) && a != 0) {
+                change = String.format("%+.1f%%", (b - a) / a * 100);
+            }
+            System.out.println(String.format("%-40s %12s %12s %9s", key,
+                    baseline.opt(key) == null ? "-" : baseline.opt(key),
+                    other.opt(key) == null ? "-" : other.opt(key),
+                    change));
+        }
+    }
+
+    private static JSONObject readReport(final String file) throws Exception {
+        final InputStream in = new FileInputStream(file);
+        try {
+            return new JSONObject(new String(IOHelper.readBytes(in), "UTF-8"));
+        } finally {
+            IOHelper.close(in);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package fi.nls.oskari.loadtest;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal in-memory Redis stand-in speaking the Redis protocol (RESP) so transport's JedisManager
+ * can be used as is without a Redis server. Supports the commands JedisManager uses: PING, GET, SET
+ * (with NX/EX), SETEX, KEYS, DEL, HGET, HSET, HKEYS, PUBLISH (no subscribers), the lock release
+ * script through EVAL and QUIT. Expired keys are removed lazily when accessed.
+ *
+ * Not a Redis replacement: single database, no persistence and no pub/sub delivery.
+ */
+public class RedisStub implements Runnable {
+
+    private static final Logger log = LogFactory.getLogger(RedisStub.class);
+
+    // keys and values are kept as bytes, ISO-8859-1 maps each byte to a char and back
+    private static final Charset BYTES = Charset.forName("ISO-8859-1");
+    private static final byte[] CRLF = "\r\n".getBytes(BYTES);
+
+    private final ConcurrentMap<String, Entry> data = new ConcurrentHashMap<String, Entry>();
+    private final ServerSocket server;
+    private volatile boolean running = true;
+
+    private static class Entry {
+        final Object value;
+        final long expires;
+
+        Entry(final Object value, final long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+
+        boolean isExpired(final long now) {
+            return expires > 0 && expires <= now;
+        }
+    }
+
+    /**
+     * @param port port to listen to, 0 for any free port
+     */
+    public RedisStub(final int port) throws IOException {
+        server = new ServerSocket(port);
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public void start() {
+        final Thread thread = new Thread(this, "redis-stub");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Redis stub listening on port", getPort());
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            server.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    public int size() {
+        return data.size();
+    }
+
+    public void run() {
+        while (running) {
+            try {
+                final Socket socket = server.accept();
+                final Thread handler = new Thread(new Runnable() {
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "redis-stub-" + socket.getPort());
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (running) {
+                    log.error(e, "Redis stub failed to accept connection");
+                }
+            }
+        }
+    }
+
+    private void serve(final Socket socket) {
+        try {
+            final InputStream in = new BufferedInputStream(socket.getInputStream());
+            final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            while (running) {
+                final List<String> command = readCommand(in);
+                if (command == null) {
+                    break;
+                }
+                boolean quit = false;
+                try {
+                    quit = execute(command, out);
+                } catch (RuntimeException e) {
+                    // missing or invalid arguments
+                    writeError(out, "ERR " + e.getClass().getSimpleName() + " for '" + command.get(0) + "'");
+                }
+                out.flush();
+                if (quit) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Redis stub connection closed:", e.getMessage());
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Executes a command and writes the reply
+     * @return true if the connection should be closed
+     */
+    private boolean execute(final List<String> command, final OutputStream out) throws IOException {
+        final String name = command.get(0).toUpperCase();
+        final long now = System.currentTimeMillis();
+        if ("PING".equals(name)) {
+            writeStatus(out, "PONG");
+        } else if ("QUIT".equals(name)) {
+            writeStatus(out, "OK");
+            return true;
+        } else if ("SELECT".equals(name)) {
+            writeStatus(out, "OK");
+        } else if ("GET".equals(name)) {
+            final Object value = getValue(command.get(1), now);
+            writeBulk(out, value instanceof String ? (String) value : null);
+        } else if ("SETEX".equals(name)) {
+            data.put(command.get(1), new Entry(command.get(3), now + Long.parseLong(command.get(2)) * 1000L));
+            writeStatus(out, "OK");
+        } else if ("SET".equals(name)) {
+            set(command, now, out);
+        } else if ("DEL".equals(name)) {
+            long removed = 0;
+            for (int i = 1; i < command.size(); ++i) {
+                if (data.remove(command.get(i)) != null) {
+                    removed++;
+                }
+            }
+            writeInteger(out, removed);
+        } else if ("KEYS".equals(name)) {
+            final Pattern pattern = globToPattern(command.get(1));
+            final List<String> keys = new ArrayList<String>();
+            for (Map.Entry<String, Entry> e : data.entrySet()) {
+                if (!e.getValue().isExpired(now) && pattern.matcher(e.getKey()).matches()) {
+                    keys.add(e.getKey());
+                }
+            }
+            writeArray(out, keys);
+        } else if ("HGET".equals(name)) {
+            final Map<String, String> hash = getHash(command.get(1), now, false);
+            writeBulk(out, hash == null ? null : hash.get(command.get(2)));
+        } else if ("HSET".equals(name)) {
+            final Map<String, String> hash = getHash(command.get(1), now, true);
+            writeInteger(out, hash.put(command.get(2), command.get(3)) == null ? 1 : 0);
+        } else if ("HKEYS".equals(name)) {
+            final Map<String, String> hash = getHash(command.get(1), now, false);
+            writeArray(out, hash == null ? new ArrayList<String>() : new ArrayList<String>(hash.keySet()));
+        } else if ("PUBLISH".equals(name)) {
+            writeInteger(out, 0);
+        } else if ("EVAL".equals(name)) {
+            releaseLock(command, now, out);
+        } else {
+            writeError(out, "ERR unknown command '" + command.get(0) + "'");
+        }
+        return false;
+    }
+
+    private Object getValue(final String key, final long now) {
+        final Entry entry = data.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(now)) {
+            data.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    private Map<String, String> getHash(final String key, final long now, final boolean create) {
+        final Object value = getValue(key, now);
+        if (value instanceof Map) {
+            return (Map<String, String>) value;
+        }
+        if (!create) {
+            return null;
+        }
+        final Map<String, String> hash = new ConcurrentHashMap<String, String>();
+        final Entry existing = data.putIfAbsent(key, new Entry(hash, 0));
+        return existing == null ? hash : (Map<String, String>) existing.value;
+    }
+
+    /**
+     * SET key value [NX] [EX seconds]
+     */
+    private void set(final List<String> command, final long now, final OutputStream out) throws IOException {
+        boolean nx = false;
+        long expires = 0;
+        for (int i = 3; i < command.size(); ++i) {
+            final String option = command.get(i).toUpperCase();
+            if ("NX".equals(option)) {
+                nx = true;
+            } else if ("EX".equals(option)) {
+                expires = now + Long.parseLong(command.get(++i)) * 1000L;
+            } else if ("PX".equals(option)) {
+                expires = now + Long.parseLong(command.get(++i));
+            }
+        }
+        final String key = command.get(1);
+        final Entry entry = new Entry(command.get(2), expires);
+        if (!nx) {
+            data.put(key, entry);
+            writeStatus(out, "OK");
+            return;
+        }
+        // drop an expired value so NX can succeed
+        getValue(key, now);
+        if (data.putIfAbsent(key, entry) == null) {
+            writeStatus(out, "OK");
+        } else {
+            writeBulk(out, null);
+        }
+    }
+
+    /**
+     * Only the compare-and-delete script JedisManager.releaseLock() uses is supported:
+     * EVAL script 1 key owner
+     */
+    private void releaseLock(final List<String> command, final long now, final OutputStream out) throws IOException {
+        if (command.size() != 5 || !"1".equals(command.get(2))) {
+            writeError(out, "ERR only the lock release script is supported");
+            return;
+        }
+        final String key = command.get(3);
+        final Entry entry = data.get(key);
+        if (entry != null && !entry.isExpired(now) && command.get(4).equals(entry.value) && data.remove(key, entry)) {
+            writeInteger(out, 1);
+        } else {
+            writeInteger(out, 0);
+        }
+    }
+
+    static Pattern globToPattern(final String glob) {
+        final StringBuilder regex = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * Reads a command sent as an array of bulk strings. Inline commands (plain text lines) are
+     * supported too so the stub can be poked with telnet.
+     * @return command and its arguments or null if the connection was closed
+     */
+    private static List<String> readCommand(final InputStream in) throws IOException {
+        final String line = readLine(in);
+        if (line == null) {
+            return null;
+        }
+        final List<String> command = new ArrayList<String>();
+        if (!line.startsWith("*")) {
+            for (String part : line.trim().split("\\s+")) {
+                command.add(part);
+            }
+            return command.isEmpty() || command.get(0).isEmpty() ? readCommand(in) : command;
+        }
+        final int count = Integer.parseInt(line.substring(1));
+        for (int i = 0; i < count; ++i) {
+            final String header = readLine(in);
+            if (header == null || !header.startsWith("$")) {
+                throw new IOException("Expected bulk string, got: " + header);
+            }
+            final byte[] value = new byte[Integer.parseInt(header.substring(1))];
+            int read = 0;
+            while (read < value.length) {
+                final int n = in.read(value, read, value.length - read);
+                if (n < 0) {
+                    throw new IOException("Connection closed while reading command");
+                }
+                read += n;
+            }
+            // trailing CRLF
+            in.read();
+            in.read();
+            command.add(new String(value, BYTES));
+        }
+        return command;
+    }
+
+    private static String readLine(final InputStream in) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\r') {
+                continue;
+            }
+            if (c == '\n') {
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private static void writeStatus(final OutputStream out, final String status) throws IOException {
+        out.write(('+' + status).getBytes(BYTES));
+        out.write(CRLF);
+    }
+
+    private static void writeError(final OutputStream out, final String error) throws IOException {
+        out.write(('-' + error).getBytes(BYTES));
+        out.write(CRLF);
+    }
+
+    private static void writeInteger(final OutputStream out, final long value) throws IOException {
+        out.write((":" + value).getBytes(BYTES));
+        out.write(CRLF);
+    }
+
+    private static void writeBulk(final OutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.write("$-1".getBytes(BYTES));
+            out.write(CRLF);
+            return;
+        }
+        final byte[] bytes = value.getBytes(BYTES);
+        out.write(("$" + bytes.length).getBytes(BYTES));
+        out.write(CRLF);
+        out.write(bytes);
+        out.write(CRLF);
+    }
+
+    private static void writeArray(final OutputStream out, final List<String> values) throws IOException {
+        out.write(("*" + values.size()).getBytes(BYTES));
+        out.write(CRLF);
+        for (String value : values) {
+            writeBulk(out, value);
+        }
+    }
+}
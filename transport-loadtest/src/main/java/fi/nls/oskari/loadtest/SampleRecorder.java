@@ -0,0 +1,67 @@
+package fi.nls.oskari.loadtest;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects samples (latencies in ms from all simulated clients, queue depth, heap use) for the report.
+ * Samples are kept as is so the percentiles are exact, a run produces at most a few hundred thousand samples.
+ */
+public class SampleRecorder {
+
+    private final String name;
+    private long[] samples = new long[1024];
+    private int count = 0;
+
+    public SampleRecorder(final String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized void record(final long value) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, samples.length * 2);
+        }
+        samples[count++] = value;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * @return count, mean, max and p50/p90/p95/p99
+     */
+    public synchronized Map<String, Number> getSummary() {
+        final Map<String, Number> summary = new LinkedHashMap<String, Number>();
+        summary.put("count", count);
+        if (count == 0) {
+            return summary;
+        }
+        final long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        long sum = 0;
+        for (long value : sorted) {
+            sum += value;
+        }
+        summary.put("mean", Math.round(sum / (double) count));
+        summary.put("p50", percentile(sorted, 50));
+        summary.put("p90", percentile(sorted, 90));
+        summary.put("p95", percentile(sorted, 95));
+        summary.put("p99", percentile(sorted, 99));
+        summary.put("max", sorted[count - 1]);
+        return summary;
+    }
+
+    /**
+     * Nearest-rank percentile
+     */
+    static long percentile(final long[] sorted, final int percentile) {
+        final int rank = (int) Math.ceil(percentile / 100d * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+}
@@ -0,0 +1,434 @@
+package fi.nls.oskari.loadtest;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.transport.TransportService;
+import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.work.ResultProcessor;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulated map user talking to transport with plain Bayeux long-polling like the cometd JS client does
+ * when websockets are not available. After init the client pans the map around the start location
+ * sending setLocation for each layer, waits for the layers to complete and "thinks" before the next pan.
+ * Every now and then the client clicks the map instead of panning.
+ *
+ * Measures:
+ * - tile: setLocation -> each /wfs/image for the request
+ * - request: setLocation -> /status completed for the layer
+ * - mapClick: setMapClick -> /status completed for the layer
+ * - init: init -> /status completed for the layer
+ */
+public class SimulatedClient implements Runnable {
+
+    private static final Logger log = LogFactory.getLogger(SimulatedClient.class);
+
+    private static final String SRS = "EPSG:3067";
+    private static final int ZOOM = 8;
+    // 256px tiles on zoom level 8 (4m/px)
+    private static final double TILE_SPAN = 1024;
+    private static final double RESOLUTION = 4;
+    private static final int MAP_WIDTH = 1130;
+    private static final int MAP_HEIGHT = 530;
+    private static final double CENTER_X = 511318;
+    private static final double CENTER_Y = 6859114;
+    private static final double[] MAP_SCALES = {5669294.4, 2834647.2, 1417323.6, 566929.44, 283464.72,
+            141732.36, 56692.944, 28346.472, 11338.5888, 5669.2944, 2834.6472, 1417.3236, 708.6618};
+
+    private static final String KIND_INIT = "init";
+    private static final String KIND_LOCATION = "location";
+    private static final String KIND_CLICK = "click";
+
+    private final int index;
+    private final String cometdUrl;
+    private final List<String> layerIds;
+    private volatile LoadStats stats;
+    private final long thinkTime;
+    private final double clickRatio;
+    private final long requestTimeout;
+    private final Random random;
+
+    private volatile boolean running = true;
+    private volatile String clientId;
+    private String browserCookie;
+    private final AtomicLong messageId = new AtomicLong();
+    private long requestId = 0;
+    private final ConcurrentMap<Long, PendingRequest> pending = new ConcurrentHashMap<Long, PendingRequest>();
+
+    private double centerX = CENTER_X;
+    private double centerY = CENTER_Y;
+
+    private static class PendingRequest {
+        final String kind;
+        final long started = System.currentTimeMillis();
+        final AtomicInteger layersLeft;
+
+        PendingRequest(final String kind, final int layers) {
+            this.kind = kind;
+            this.layersLeft = new AtomicInteger(layers);
+        }
+    }
+
+    public SimulatedClient(final int index, final String cometdUrl, final List<String> layerIds, final LoadStats stats,
+                           final long thinkTime, final double clickRatio, final long requestTimeout) {
+        this.index = index;
+        this.cometdUrl = cometdUrl;
+        this.layerIds = layerIds;
+        this.stats = stats;
+        this.thinkTime = thinkTime;
+        this.clickRatio = clickRatio;
+        this.requestTimeout = requestTimeout;
+        this.random = new Random(index);
+    }
+
+    /**
+     * Switches to new stats, used to drop the warmup measurements
+     */
+    public void setStats(final LoadStats stats) {
+        this.stats = stats;
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    public void run() {
+        try {
+            handshake();
+            final Thread poller = new Thread(new Runnable() {
+                public void run() {
+                    poll();
+                }
+            }, "loadtest-poll-" + index);
+            poller.setDaemon(true);
+            poller.start();
+
+            await(publish(KIND_INIT, TransportService.CHANNEL_INIT, createInit(), -1, layerIds.size()));
+            while (running) {
+                // spread the clients' actions instead of running them in lock step
+                sleep((long) (thinkTime * (0.5 + random.nextDouble())));
+                if (!running) {
+                    break;
+                }
+                if (random.nextDouble() < clickRatio) {
+                    await(publish(KIND_CLICK, TransportService.CHANNEL_SET_MAP_CLICK, createMapClick(), ++requestId, layerIds.size()));
+                } else {
+                    // the frontend sends setLocation for all layers at once
+                    pan();
+                    final long firstId = requestId + 1;
+                    for (String layerId : layerIds) {
+                        publish(KIND_LOCATION, TransportService.CHANNEL_SET_LOCATION, createLocation(layerId), ++requestId, 1);
+                    }
+                    for (long id = firstId; id <= requestId; ++id) {
+                        await(id);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            stats.error("client");
+            log.error(e, "Client", index, "failed");
+        } finally {
+            running = false;
+            disconnect();
+        }
+    }
+
+    /**
+     * Waits until all layers have completed the request
+     */
+    private void await(final long reqId) {
+        final PendingRequest request = pending.get(reqId);
+        if (request == null) {
+            return;
+        }
+        final long deadline = request.started + requestTimeout;
+        while (running && request.layersLeft.get() > 0 && System.currentTimeMillis() < deadline) {
+            sleep(10);
+        }
+        if (pending.remove(reqId) != null && request.layersLeft.get() > 0) {
+            stats.timeout(request.kind);
+        }
+    }
+
+    /**
+     * Moves the map from the start location randomly by up to two tiles in both directions
+     */
+    private void pan() {
+        centerX = CENTER_X + (random.nextInt(5) - 2) * TILE_SPAN + random.nextInt((int) TILE_SPAN);
+        centerY = CENTER_Y + (random.nextInt(5) - 2) * TILE_SPAN + random.nextInt((int) TILE_SPAN);
+    }
+
+    private JSONArray getBbox() throws JSONException {
+        final double halfWidth = MAP_WIDTH * RESOLUTION / 2;
+        final double halfHeight = MAP_HEIGHT * RESOLUTION / 2;
+        return new JSONArray().put(centerX - halfWidth).put(centerY - halfHeight)
+                .put(centerX + halfWidth).put(centerY + halfHeight);
+    }
+
+    /**
+     * @return tile grid covering the bbox, top row first like the frontend sends it
+     */
+    private JSONObject getGrid(final JSONArray bbox) throws JSONException {
+        final int minCol = (int) Math.floor(bbox.getDouble(0) / TILE_SPAN);
+        final int minRow = (int) Math.floor(bbox.getDouble(1) / TILE_SPAN);
+        final int maxCol = (int) Math.ceil(bbox.getDouble(2) / TILE_SPAN);
+        final int maxRow = (int) Math.ceil(bbox.getDouble(3) / TILE_SPAN);
+        final JSONArray bounds = new JSONArray();
+        for (int row = maxRow - 1; row >= minRow; --row) {
+            for (int col = minCol; col < maxCol; ++col) {
+                bounds.put(new JSONArray().put(col * TILE_SPAN).put(row * TILE_SPAN)
+                        .put((col + 1) * TILE_SPAN).put((row + 1) * TILE_SPAN));
+            }
+        }
+        final JSONObject grid = new JSONObject();
+        grid.put("rows", maxRow - minRow);
+        grid.put("columns", maxCol - minCol);
+        grid.put("bounds", bounds);
+        return grid;
+    }
+
+    private JSONObject createInit() throws JSONException {
+        final JSONArray bbox = getBbox();
+        final JSONObject init = new JSONObject();
+        init.put("session", "loadtest-" + index);
+        init.put("language", "fi");
+        init.put("browser", "loadtest");
+        init.put("browserVersion", 1);
+
+        final JSONObject location = new JSONObject();
+        location.put("srs", SRS);
+        location.put("bbox", bbox);
+        location.put("zoom", ZOOM);
+        init.put("location", location);
+        init.put("grid", getGrid(bbox));
+        init.put("tileSize", new JSONObject().put("width", 256).put("height", 256));
+        init.put("mapSize", new JSONObject().put("width", MAP_WIDTH).put("height", MAP_HEIGHT));
+        final JSONArray scales = new JSONArray();
+        for (double scale : MAP_SCALES) {
+            scales.put(scale);
+        }
+        init.put("mapScales", scales);
+
+        final JSONObject layers = new JSONObject();
+        for (String id : layerIds) {
+            layers.put(id, new JSONObject().put("id", id).put("styleName", "default").put("visible", true));
+        }
+        init.put("layers", layers);
+        return init;
+    }
+
+    private JSONObject createLocation(final String layerId) throws JSONException {
+        final JSONArray bbox = getBbox();
+        final JSONObject grid = getGrid(bbox);
+        final JSONObject location = new JSONObject();
+        location.put("layerId", layerId);
+        location.put("srs", SRS);
+        location.put("bbox", bbox);
+        location.put("zoom", ZOOM);
+        location.put("grid", grid);
+        location.put("tiles", grid.getJSONArray("bounds"));
+        return location;
+    }
+
+    private JSONObject createMapClick() throws JSONException {
+        final JSONArray bbox = getBbox();
+        final JSONObject click = new JSONObject();
+        click.put("longitude", bbox.getDouble(0) + random.nextDouble() * (bbox.getDouble(2) - bbox.getDouble(0)));
+        click.put("latitude", bbox.getDouble(1) + random.nextDouble() * (bbox.getDouble(3) - bbox.getDouble(1)));
+        click.put("keepPrevious", false);
+        // transport expects the geojson filter to be present even if empty
+        click.put("filter", new JSONObject().put("geojson", new JSONObject().put("features", new JSONArray())));
+        return click;
+    }
+
+    /**
+     * Publishes a request to transport
+     * @param layers number of layers expected to complete the request
+     * @return request id
+     */
+    private long publish(final String kind, final String channel, final JSONObject data, final long reqId,
+                         final int layers) throws IOException, JSONException {
+        if (reqId != -1) {
+            data.put("reqId", reqId);
+        }
+        pending.put(reqId, new PendingRequest(kind, layers));
+        final JSONObject message = createMessage(channel);
+        message.put("data", data);
+        handleMessages(send("", message));
+        return reqId;
+    }
+
+    /**
+     * Handles messages transport delivered to the client
+     */
+    private void onMessage(final JSONObject message) {
+        final String channel = message.optString("channel");
+        final JSONObject data = message.optJSONObject("data");
+        if (data == null) {
+            return;
+        }
+        final PendingRequest request = pending.get(data.optLong("reqId", -2));
+        if (ResultProcessor.CHANNEL_IMAGE.equals(channel)) {
+            stats.count("images");
+            if (request != null && KIND_LOCATION.equals(request.kind)) {
+                stats.getTile().record(System.currentTimeMillis() - request.started);
+            }
+        } else if (ResultProcessor.CHANNEL_STATUS.equals(channel)) {
+            if (!"completed".equals(data.optString("message")) || request == null) {
+                return;
+            }
+            if (!data.optBoolean("success", true)) {
+                stats.error("job");
+            }
+            final long took = System.currentTimeMillis() - request.started;
+            if (KIND_LOCATION.equals(request.kind)) {
+                stats.getRequest().record(took);
+            } else if (KIND_CLICK.equals(request.kind)) {
+                stats.getMapClick().record(took);
+            } else {
+                stats.getInit().record(took);
+            }
+            request.layersLeft.decrementAndGet();
+        } else if (ResultProcessor.CHANNEL_ERROR.equals(channel)) {
+            stats.error("transport");
+            log.debug("Error from transport:", data);
+        } else {
+            stats.count(channel);
+        }
+    }
+
+    private void handshake() throws IOException, JSONException {
+        final JSONObject message = createMessage("/meta/handshake");
+        message.put("version", "1.0");
+        message.put("minimumVersion", "1.0");
+        message.put("supportedConnectionTypes", new JSONArray().put("long-polling"));
+        final JSONArray reply = send("/handshake", message);
+        final JSONObject handshake = reply.getJSONObject(0);
+        if (!handshake.optBoolean("successful")) {
+            throw new IOException("Handshake failed: " + handshake);
+        }
+        clientId = handshake.getString("clientId");
+    }
+
+    /**
+     * Long-polls /meta/connect until stopped
+     */
+    private void poll() {
+        while (running) {
+            try {
+                final JSONObject message = createMessage("/meta/connect");
+                message.put("connectionType", "long-polling");
+                handleMessages(send("/connect", message));
+            } catch (Exception e) {
+                if (running) {
+                    stats.error("connect");
+                    log.warn("Connect failed for client", index, ":", e.getMessage());
+                    sleep(1000);
+                }
+            }
+        }
+    }
+
+    private void disconnect() {
+        if (clientId == null) {
+            return;
+        }
+        try {
+            send("/disconnect", createMessage("/meta/disconnect"));
+        } catch (Exception e) {
+            log.debug("Disconnect failed:", e.getMessage());
+        }
+    }
+
+    private void handleMessages(final JSONArray messages) {
+        for (int i = 0; i < messages.length(); ++i) {
+            final JSONObject message = messages.optJSONObject(i);
+            if (message != null && !message.optString("channel").startsWith("/meta/")) {
+                onMessage(message);
+            }
+        }
+    }
+
+    private JSONObject createMessage(final String channel) throws JSONException {
+        final JSONObject message = new JSONObject();
+        message.put("channel", channel);
+        message.put("id", Long.toString(messageId.incrementAndGet()));
+        if (clientId != null) {
+            message.put("clientId", clientId);
+        }
+        return message;
+    }
+
+    private JSONArray send(final String path, final JSONObject message) throws IOException, JSONException {
+        final HttpURLConnection conn = (HttpURLConnection) new URL(cometdUrl + path).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setConnectTimeout(5000);
+        // long enough for the long-poll timeout
+        conn.setReadTimeout(60000);
+        conn.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
+        final String cookie = browserCookie;
+        if (cookie != null) {
+            conn.setRequestProperty("Cookie", cookie);
+        }
+        final OutputStream out = conn.getOutputStream();
+        try {
+            out.write(new JSONArray().put(message).toString().getBytes("UTF-8"));
+        } finally {
+            IOHelper.close(out);
+        }
+        final int status = conn.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Transport responded with HTTP " + status);
+        }
+        rememberBrowserCookie(conn);
+        final InputStream in = conn.getInputStream();
+        try {
+            final byte[] body = IOHelper.readBytes(in);
+            stats.received(body.length);
+            return new JSONArray(new String(body, "UTF-8"));
+        } finally {
+            IOHelper.close(in);
+        }
+    }
+
+    /**
+     * cometd identifies the browser with a cookie, keep it like a browser would
+     */
+    private void rememberBrowserCookie(final HttpURLConnection conn) {
+        final Map<String, List<String>> headers = conn.getHeaderFields();
+        final List<String> cookies = headers.get("Set-Cookie");
+        if (cookies == null) {
+            return;
+        }
+        for (String cookie : cookies) {
+            if (cookie.startsWith("BAYEUX_BROWSER=")) {
+                final int end = cookie.indexOf(';');
+                browserCookie = end == -1 ? cookie : cookie.substring(0, end);
+            }
+        }
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package fi.nls.oskari.loadtest;
+
+import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.domain.map.wfs.WFSLayerConfiguration;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.IOHelper;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for everything transport talks to over HTTP:
+ * - /api?action_route=... the oskari-map action routes transport uses (GetLayerIds, GetWFSLayerConfiguration
+ *   and GetCurrentUser). The layer configuration is written to Redis like the real action route does.
+ * - /wfs recorded WFS 1.1.0 DescribeFeatureType/GetFeature responses
+ * - /fe/buildings recorded ELF buildings response for the feature engine
+ * - /arcgis/... recorded ArcGIS REST layer info and query responses
+ * - /schemas/... XML schemas from the classpath (GML schemas bundled in the GeoTools jars)
+ *
+ * Responses are the same for every request regardless of the bbox. The OGC backends wait for the
+ * configured latency plus a random jitter before responding to simulate a remote service.
+ */
+public class StubBackendServlet extends HttpServlet {
+
+    private static final Logger log = LogFactory.getLogger(StubBackendServlet.class);
+
+    private static final String RESOURCE_PATH = "/fi/nls/oskari/loadtest/";
+    private static final String ELF_BUILDINGS = "/fi/nls/oskari/eu/elf/buildings/nls_fi-ELF-BU-wfs.xml";
+    private static final String PLACEHOLDER_BACKEND = "{backend}";
+    private static final String PLACEHOLDER_ID = "{id}";
+
+    public static final String USER_UID = "loadtest-user";
+
+    private final String backendUrl;
+    private final Map<String, String> layerTypes;
+    private final long latency;
+    private final long jitter;
+    private final long apiLatency;
+    private final Random random = new Random();
+
+    private final ConcurrentMap<String, byte[]> resources = new ConcurrentHashMap<String, byte[]>();
+    private final ConcurrentMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * @param backendUrl base url the stub is served from, replaces {backend} in the fixtures
+     * @param layerTypes layer id -> layer type (wfs, fe or arcgis)
+     * @param latency ms to wait before responding to an OGC request
+     * @param jitter max random ms added to latency
+     * @param apiLatency ms to wait before responding to an action route request
+     */
+    public StubBackendServlet(final String backendUrl, final Map<String, String> layerTypes,
+                              final long latency, final long jitter, final long apiLatency) {
+        this.backendUrl = backendUrl;
+        this.layerTypes = layerTypes;
+        this.latency = latency;
+        this.jitter = jitter;
+        this.apiLatency = apiLatency;
+    }
+
+    /**
+     * @return number of requests served per route
+     */
+    public Map<String, Long> getRequestCounts() {
+        final Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> e : requestCounts.entrySet()) {
+            counts.put(e.getKey(), e.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * @param id layer id
+     * @param type layer type (wfs, fe or arcgis)
+     * @return layer configuration JSON as GetWFSLayerConfiguration would write it to Redis
+     */
+    public String getLayerJSON(final String id, final String type) throws IOException {
+        return getResourceAsString("layer-" + type + ".json").replace(PLACEHOLDER_ID, id);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        handle(request, response);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        // drain the GetFeature payload like a real service would
+        IOHelper.readBytes(request.getInputStream());
+        handle(request, response);
+    }
+
+    private void handle(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final String path = request.getPathInfo() == null ? "/" : request.getPathInfo();
+        if (path.startsWith("/api")) {
+            handleActionRoute(request, response);
+        } else if (path.startsWith("/wfs")) {
+            final String query = String.valueOf(request.getQueryString()).toLowerCase();
+            if (query.contains("describefeaturetype")) {
+                count("wfs.DescribeFeatureType");
+                write(response, "text/xml", getResourceAsString("places.xsd"));
+            } else {
+                count("wfs.GetFeature");
+                simulateLatency(latency, jitter);
+                write(response, "text/xml", getResourceAsString("places.xml"));
+            }
+        } else if (path.startsWith("/fe/buildings")) {
+            count("fe.GetFeature");
+            simulateLatency(latency, jitter);
+            write(response, "application/gml+xml; version=3.2", getResource(ELF_BUILDINGS));
+        } else if (path.startsWith("/arcgis")) {
+            simulateLatency(latency, jitter);
+            if (path.endsWith("/query")) {
+                count("arcgis.query");
+                write(response, "application/json", getResourceAsString("arcgis-query.json"));
+            } else {
+                count("arcgis.layer");
+                write(response, "application/json", getResourceAsString("arcgis-layer.json"));
+            }
+        } else if (path.startsWith("/schemas/")) {
+            count("schemas");
+            final byte[] schema = getResource(path.substring("/schemas".length()));
+            if (schema == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            write(response, "text/xml", schema);
+        } else {
+            count("unknown");
+            log.warn("Unknown stub request:", path);
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        }
+    }
+
+    private void handleActionRoute(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final String route = request.getParameter("action_route");
+        count("api." + route);
+        simulateLatency(apiLatency, 0);
+        if ("GetLayerIds".equals(route)) {
+            final StringBuilder json = new StringBuilder("{\"layerIds\":[");
+            boolean first = true;
+            for (String id : layerTypes.keySet()) {
+                if (!first) {
+                    json.append(',');
+                }
+                json.append('"').append(id).append('"');
+                first = false;
+            }
+            json.append("]}");
+            write(response, "application/json", json.toString());
+        } else if ("GetWFSLayerConfiguration".equals(route)) {
+            final String id = request.getParameter("id");
+            final String type = layerTypes.get(id);
+            if (type == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            // transport reads the configuration from Redis, the response itself is ignored
+            JedisManager.setex(WFSLayerConfiguration.KEY + id, JedisManager.EXPIRY_TIME_DAY, getLayerJSON(id, type));
+            write(response, "application/json", "{\"OK\":\"1\"}");
+        } else if ("GetCurrentUser".equals(route)) {
+            response.setHeader("currentUserUid", USER_UID);
+            write(response, "application/json", "{}");
+        } else {
+            log.warn("Unknown action route:", route);
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        }
+    }
+
+    private void count(final String route) {
+        AtomicLong counter = requestCounts.get(route);
+        if (counter == null) {
+            final AtomicLong created = new AtomicLong();
+            counter = requestCounts.putIfAbsent(route, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    private void simulateLatency(final long base, final long maxJitter) {
+        long wait = base;
+        if (maxJitter > 0) {
+            synchronized (random) {
+                wait += (long) (random.nextDouble() * maxJitter);
+            }
+        }
+        if (wait <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String getResourceAsString(final String name) throws IOException {
+        final byte[] bytes = getResource(RESOURCE_PATH + name);
+        if (bytes == null) {
+            throw new IOException("Missing fixture: " + name);
+        }
+        return new String(bytes, "UTF-8").replace(PLACEHOLDER_BACKEND, backendUrl);
+    }
+
+    /**
+     * Fixtures are read once and kept in memory so the stub doesn't do disk IO during the test
+     * @return resource content or null if not found
+     */
+    private byte[] getResource(final String name) throws IOException {
+        byte[] bytes = resources.get(name);
+        if (bytes != null) {
+            return bytes;
+        }
+        final InputStream in = StubBackendServlet.class.getResourceAsStream(name);
+        if (in == null) {
+            return null;
+        }
+        try {
+            bytes = IOHelper.readBytes(in);
+        } finally {
+            IOHelper.close(in);
+        }
+        resources.put(name, bytes);
+        return bytes;
+    }
+
+    private static void write(final HttpServletResponse response, final String contentType, final String content)
+            throws IOException {
+        write(response, contentType + "; charset=UTF-8", content.getBytes("UTF-8"));
+    }
+
+    private static void write(final HttpServletResponse response, final String contentType, final byte[] content)
+            throws IOException {
+        response.setContentType(contentType);
+        response.setContentLength(content.length);
+        response.getOutputStream().write(content);
+    }
+}